@@ -24,6 +24,7 @@ import org.fogbowcloud.manager.core.plugins.accounting.FCUAccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.accounting.SimpleStorageAccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.benchmarking.VanillaBenchmarkingPlugin;
 import org.fogbowcloud.manager.core.plugins.capacitycontroller.satisfactiondriven.SatisfactionDrivenCapacityControllerPlugin;
+import org.fogbowcloud.manager.core.plugins.identity.CachedIdentityPlugin;
 import org.fogbowcloud.manager.core.plugins.imagestorage.http.HTTPDownloadImageStoragePlugin;
 import org.fogbowcloud.manager.core.plugins.localcredentails.SingleMapperPlugin;
 import org.fogbowcloud.manager.core.plugins.memberauthorization.DefaultMemberAuthorizationPlugin;
@@ -123,6 +124,7 @@ public class Main {
 		try {
 			federationIdentityPlugin = (IdentityPlugin) MainHelper.getIdentityPluginByPrefix(properties,
 					ConfigurationConstants.FEDERATION_PREFIX);
+			federationIdentityPlugin = new CachedIdentityPlugin(federationIdentityPlugin, properties);
 		} catch (Exception e) {
 			LOGGER.warn("Federation Identity Plugin not especified in the properties.", e);
 			System.exit(MainHelper.EXIT_ERROR_CODE);
@@ -256,6 +258,14 @@ public class Main {
 		facade.setCapacityControllerPlugin(capacityControllerPlugin);
 		facade.setNetworkPlugin(networkPlugin);
 		
+		final ManagerController managerController = facade;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				managerController.shutdown();
+			}
+		});
+		
 		String xmppHost = properties.getProperty(ConfigurationConstants.XMPP_HOST_KEY);
 		String xmppJid = properties.getProperty(ConfigurationConstants.XMPP_JID_KEY);
 		
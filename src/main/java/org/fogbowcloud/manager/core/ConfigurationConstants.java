@@ -38,6 +38,7 @@ public class ConfigurationConstants {
 	// periods
 	public static final String SCHEDULER_PERIOD_KEY = "scheduler_period";
 	public static final String INSTANCE_MONITORING_PERIOD_KEY = "instance_monitoring_period";
+	public static final String INSTANCE_MONITORING_MAX_CONCURRENCY_KEY = "instance_monitoring_max_concurrency";
 	public static final String TOKEN_UPDATE_PERIOD_KEY = "token_update_period";
 	public static final String SERVED_ORDER_MONITORING_PERIOD_KEY = "served_order_monitoring_period";
 	public static final String GARBAGE_COLLECTOR_PERIOD_KEY = "garbage_collector_period";
@@ -47,11 +48,35 @@ public class ConfigurationConstants {
 	public static final String MAXIMUM_ORDER_ATTEMPTS_PROPERTIES = ManagerControllerHelper.MonitoringHelper.MAXIMUM_ORDER_ATTEMPTS_PROPERTIES;
 	public static final String TIMEOUT_HTTP_REQUEST = "timeout_http_request";
 
+	// compute plugins
+	public static final String COMPUTE_RESOURCES_INFO_REFRESH_PERIOD_KEY = "compute_resources_info_refresh_period";
+	public static final String SDK_CLIENT_CACHE_MAX_SIZE_KEY = "sdk_client_cache_max_size";
+	public static final String SDK_CLIENT_CACHE_IDLE_TIMEOUT_KEY = "sdk_client_cache_idle_timeout";
+
+	// shared http clients
+	public static final String HTTP_CLIENT_MAX_TOTAL_CONNECTIONS_KEY = "http_client_max_total_connections";
+	public static final String HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE_KEY = "http_client_max_connections_per_route";
+	public static final String HTTP_CLIENT_CONNECT_TIMEOUT_KEY = "http_client_connect_timeout";
+	public static final String HTTP_CLIENT_IDLE_TIMEOUT_KEY = "http_client_idle_timeout";
+
+	// order scheduler
+	public static final String SCHEDULER_WORKER_POOL_SIZE_KEY = "scheduler_worker_pool_size";
+	public static final String SCHEDULER_EVENT_DRIVEN_KEY = "scheduler_event_driven";
+
+	// benchmark
+	public static final String BENCHMARK_STAGE_WORKERS_KEY = "benchmark_stage_workers";
+
+	// federation identity cache
+	public static final String FEDERATION_IDENTITY_CACHE_SIZE_KEY = "federation_identity_cache_size";
+	public static final String FEDERATION_IDENTITY_CACHE_TTL_KEY = "federation_identity_cache_ttl";
+
 	// token host
 	public static final String TOKEN_HOST_PRIVATE_ADDRESS_KEY = "token_host_private_address";
 	public static final String TOKEN_HOST_PUBLIC_ADDRESS_KEY = "token_host_public_address";
 	public static final String TOKEN_HOST_PORT_KEY = "token_host_port";
 	public static final String TOKEN_HOST_HTTP_PORT_KEY = "token_host_http_port";
+	public static final String SERVICE_ADDRESSES_CACHE_TTL_KEY = "service_addresses_cache_ttl";
+	public static final String SERVICE_ADDRESSES_MAX_CONCURRENT_LOOKUPS_KEY = "service_addresses_max_concurrent_lookups";
 
 	// ssh properties
 	public static final String SSH_PUBLIC_KEY_PATH = "ssh_public_key";
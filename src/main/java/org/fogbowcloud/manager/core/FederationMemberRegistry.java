@@ -0,0 +1,88 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fogbowcloud.manager.core.model.FederationMember;
+
+/**
+ * Federation members known by this manager, indexed by id. Every update
+ * publishes a new immutable snapshot, so readers never lock nor copy the
+ * member list. Results computed from a snapshot, such as the members
+ * allowed for some requirements, are cached in it and are dropped with it
+ * when the membership changes.
+ */
+public class FederationMemberRegistry {
+
+	private volatile Snapshot snapshot = new Snapshot(new ArrayList<FederationMember>());
+
+	public void update(List<FederationMember> members) {
+		snapshot = new Snapshot(members);
+	}
+
+	/**
+	 * Drops the results cached for the current members, e.g. after the rules
+	 * used to compute them changed.
+	 */
+	public void invalidate() {
+		snapshot = new Snapshot(snapshot.getMembers());
+	}
+
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public List<FederationMember> getMembers() {
+		return snapshot.getMembers();
+	}
+
+	public FederationMember get(String memberId) {
+		return snapshot.get(memberId);
+	}
+
+	public int size() {
+		return snapshot.getMembers().size();
+	}
+
+	public static class Snapshot {
+
+		// ConcurrentHashMap does not accept null keys
+		private static final String NO_REQUIREMENTS = "";
+
+		private final List<FederationMember> members;
+		private final Map<String, FederationMember> membersById;
+		private final ConcurrentHashMap<String, List<FederationMember>> allowedMembers =
+				new ConcurrentHashMap<String, List<FederationMember>>();
+
+		private Snapshot(List<FederationMember> members) {
+			this.members = Collections.unmodifiableList(new ArrayList<FederationMember>(members));
+			this.membersById = new HashMap<String, FederationMember>();
+			for (FederationMember member : this.members) {
+				if (!membersById.containsKey(member.getId())) {
+					membersById.put(member.getId(), member);
+				}
+			}
+		}
+
+		public List<FederationMember> getMembers() {
+			return members;
+		}
+
+		public FederationMember get(String memberId) {
+			return memberId == null ? null : membersById.get(memberId);
+		}
+
+		public List<FederationMember> getAllowedMembers(String requirements) {
+			return allowedMembers.get(requirements == null ? NO_REQUIREMENTS : requirements);
+		}
+
+		public void putAllowedMembers(String requirements, List<FederationMember> members) {
+			allowedMembers.put(requirements == null ? NO_REQUIREMENTS : requirements,
+					Collections.unmodifiableList(new ArrayList<FederationMember>(members)));
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.fogbowcloud.manager.core.RequirementsHelper.CompiledRequirements;
+import org.fogbowcloud.manager.core.RequirementsHelper.LowerBound;
+import org.fogbowcloud.manager.core.model.Flavor;
+
+/**
+ * Flavors sorted from the smallest to the biggest, in the order used by
+ * {@link RequirementsHelper#findSmallestFlavor(List, String)}, so that the
+ * smallest flavor matching some requirements is the first one that matches.
+ * Requirements made only of lower bounds on CPU, memory and disk are
+ * checked without evaluating them, starting from the first flavor big
+ * enough for them. An index is immutable; plugins replace it through
+ * {@link #refresh(FlavorIndex, List)} when their flavors change.
+ */
+public class FlavorIndex {
+
+	// slack for rounding when comparing flavor sizes
+	private static final double SIZE_TOLERANCE = 1e-9;
+
+	private final List<Flavor> flavors;
+	private final List<Flavor> sortedFlavors;
+	private final double[] sizes;
+
+	public FlavorIndex(List<Flavor> flavors) {
+		this.flavors = flavors == null ? new ArrayList<Flavor>() : new ArrayList<Flavor>(flavors);
+		if (isIndexable(this.flavors)) {
+			this.sortedFlavors = new ArrayList<Flavor>(this.flavors);
+			Collections.sort(sortedFlavors, new RequirementsHelper.FlavorComparator());
+			this.sizes = new double[sortedFlavors.size()];
+			for (int i = 0; i < sizes.length; i++) {
+				Flavor flavor = sortedFlavors.get(i);
+				sizes[i] = Double.parseDouble(flavor.getCpu()) * Double.parseDouble(flavor.getMem());
+			}
+		} else {
+			this.sortedFlavors = null;
+			this.sizes = null;
+		}
+	}
+
+	/**
+	 * @return the given index if it was built from the given flavors or a new
+	 *         index built from them otherwise
+	 */
+	public static FlavorIndex refresh(FlavorIndex flavorIndex, List<Flavor> flavors) {
+		if (flavorIndex != null && flavorIndex.isBuiltFrom(flavors)) {
+			return flavorIndex;
+		}
+		return new FlavorIndex(flavors);
+	}
+
+	/**
+	 * @return whether the index holds exactly the given flavor instances, in
+	 *         the same order
+	 */
+	public boolean isBuiltFrom(List<Flavor> flavors) {
+		if (flavors == null || flavors.size() != this.flavors.size()) {
+			return false;
+		}
+		int i = 0;
+		for (Flavor flavor : flavors) {
+			if (flavor != this.flavors.get(i++)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Flavor findSmallestFlavor(String requirementsStr) {
+		if (sortedFlavors == null) {
+			return RequirementsHelper.findSmallestFlavor(flavors, requirementsStr);
+		}
+		if (requirementsStr == null || requirementsStr.isEmpty()) {
+			return sortedFlavors.isEmpty() ? null : sortedFlavors.get(0);
+		}
+
+		List<LowerBound> lowerBounds = null;
+		try {
+			CompiledRequirements compiledRequirements = RequirementsHelper.compile(requirementsStr);
+			if (compiledRequirements.getExpr() != null) {
+				lowerBounds = compiledRequirements.getLowerBounds();
+			}
+		} catch (Exception e) {
+			// requirements that can not be parsed are handled as before
+		}
+		if (lowerBounds == null) {
+			for (Flavor flavor : sortedFlavors) {
+				if (RequirementsHelper.matches(flavor, requirementsStr)) {
+					return flavor;
+				}
+			}
+			return null;
+		}
+
+		for (int i = getFirstCandidate(lowerBounds); i < sortedFlavors.size(); i++) {
+			if (satisfies(sortedFlavors.get(i), lowerBounds)) {
+				return sortedFlavors.get(i);
+			}
+		}
+		return null;
+	}
+
+	public int size() {
+		return flavors.size();
+	}
+
+	private int getFirstCandidate(List<LowerBound> lowerBounds) {
+		double minCpu = getMinimumValue(lowerBounds, RequirementsHelper.GLUE_VCPU_TERM);
+		double minMem = getMinimumValue(lowerBounds, RequirementsHelper.GLUE_MEM_RAM_TERM);
+		if (minCpu <= 0 || minMem <= 0) {
+			return 0;
+		}
+		double minSize = minCpu * minMem * (1 - SIZE_TOLERANCE);
+		int low = 0;
+		int high = sizes.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sizes[middle] < minSize) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static double getMinimumValue(List<LowerBound> lowerBounds, String attrName) {
+		double minimumValue = 0;
+		for (LowerBound lowerBound : lowerBounds) {
+			if (lowerBound.getAttrName().equals(attrName)) {
+				minimumValue = Math.max(minimumValue, lowerBound.getValue());
+			}
+		}
+		return minimumValue;
+	}
+
+	private static boolean satisfies(Flavor flavor, List<LowerBound> lowerBounds) {
+		for (LowerBound lowerBound : lowerBounds) {
+			String value = getValue(flavor, lowerBound.getAttrName());
+			// as in RequirementsHelper.matches, ignored values satisfy any bound
+			if (value == null || value.isEmpty() || value.equals(RequirementsHelper.VALUE_IGNORED)) {
+				continue;
+			}
+			if (!lowerBound.isSatisfiedBy(Double.parseDouble(value))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String getValue(Flavor flavor, String attrName) {
+		if (attrName.equals(RequirementsHelper.GLUE_VCPU_TERM)) {
+			return flavor.getCpu();
+		}
+		if (attrName.equals(RequirementsHelper.GLUE_MEM_RAM_TERM)) {
+			return flavor.getMem();
+		}
+		return flavor.getDisk();
+	}
+
+	/*
+	 * Flavors can only be sorted once if the comparator can compare all of
+	 * them, which needs positive CPU and memory and a numeric disk.
+	 */
+	private static boolean isIndexable(List<Flavor> flavors) {
+		for (Flavor flavor : flavors) {
+			try {
+				if (Double.parseDouble(flavor.getCpu()) <= 0 || Double.parseDouble(flavor.getMem()) <= 0) {
+					return false;
+				}
+				Double.parseDouble(flavor.getDisk());
+			} catch (Exception e) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
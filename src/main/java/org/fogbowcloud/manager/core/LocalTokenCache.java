@@ -0,0 +1,131 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
+import org.fogbowcloud.manager.occi.model.Token;
+
+/**
+ * Keeps one local token per set of local credentials, so that every order
+ * mapped to the same local account shares a token instead of authenticating
+ * against the local cloud on each call. Tokens are reissued shortly before
+ * they expire, and tokens without expiration date are recreated once they
+ * reach the maximum age.
+ */
+public class LocalTokenCache {
+
+	private static final Logger LOGGER = Logger.getLogger(LocalTokenCache.class);
+
+	protected static final long REFRESH_MARGIN = 5 * 60 * 1000; // 5 minutes
+	protected static final long MAX_AGE = 60 * 60 * 1000; // 1 hour
+
+	private final IdentityPlugin localIdentityPlugin;
+	private final ConcurrentHashMap<Map<String, String>, CachedToken> tokens =
+			new ConcurrentHashMap<Map<String, String>, CachedToken>();
+	private DateUtils dateUtils = new DateUtils();
+
+	public LocalTokenCache(IdentityPlugin localIdentityPlugin) {
+		this.localIdentityPlugin = localIdentityPlugin;
+	}
+
+	public Token getToken(Map<String, String> localCredentials) {
+		if (localCredentials == null) {
+			return localIdentityPlugin.createToken(localCredentials);
+		}
+		Map<String, String> key = new HashMap<String, String>(localCredentials);
+		CachedToken cachedToken = tokens.get(key);
+		if (cachedToken == null) {
+			cachedToken = new CachedToken(key);
+			CachedToken existingToken = tokens.putIfAbsent(key, cachedToken);
+			if (existingToken != null) {
+				cachedToken = existingToken;
+			}
+		}
+		return cachedToken.get();
+	}
+
+	/**
+	 * Drops the given token, e.g. after the local cloud refused it, so that
+	 * the next request for its credentials creates a new one.
+	 */
+	public void invalidate(Token token) {
+		if (token == null) {
+			return;
+		}
+		Iterator<CachedToken> iterator = tokens.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().invalidate(token)) {
+				LOGGER.debug("Local token of user " + token.getUser() + " invalidated.");
+			}
+		}
+	}
+
+	protected int size() {
+		return tokens.size();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	private class CachedToken {
+
+		private final Map<String, String> localCredentials;
+		private Token token;
+		private long creationTime;
+
+		public CachedToken(Map<String, String> localCredentials) {
+			this.localCredentials = localCredentials;
+		}
+
+		public synchronized Token get() {
+			long now = dateUtils.currentTimeMillis();
+			if (token == null) {
+				create(now);
+			} else if (token.getExpirationDate() != null) {
+				if (token.getExpirationDate().getTime() - now <= REFRESH_MARGIN) {
+					reIssue(now);
+				}
+			} else if (now - creationTime >= MAX_AGE) {
+				create(now);
+			}
+			return token;
+		}
+
+		public synchronized boolean invalidate(Token token) {
+			if (this.token == null || this.token.getAccessId() == null
+					|| !this.token.getAccessId().equals(token.getAccessId())) {
+				return false;
+			}
+			this.token = null;
+			return true;
+		}
+
+		private void create(long now) {
+			token = localIdentityPlugin.createToken(localCredentials);
+			creationTime = now;
+		}
+
+		private void reIssue(long now) {
+			Token reIssuedToken = null;
+			try {
+				reIssuedToken = localIdentityPlugin.reIssueToken(token);
+			} catch (Exception e) {
+				LOGGER.debug("Could not reissue local token, creating a new one.", e);
+			}
+			Date expirationDate = reIssuedToken == null ? null : reIssuedToken.getExpirationDate();
+			if (expirationDate != null && expirationDate.getTime() - now > REFRESH_MARGIN) {
+				token = reIssuedToken;
+				creationTime = now;
+			} else {
+				create(now);
+			}
+		}
+	}
+}
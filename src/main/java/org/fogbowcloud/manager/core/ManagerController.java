@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -9,16 +10,22 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TimerTask;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.mail.MessagingException;
@@ -28,13 +35,10 @@ import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.connection.channel.direct.Session.Command;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.FederationMember;
@@ -49,6 +53,7 @@ import org.fogbowcloud.manager.core.plugins.FederationMemberAuthorizationPlugin;
 import org.fogbowcloud.manager.core.plugins.FederationMemberPickerPlugin;
 import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
 import org.fogbowcloud.manager.core.plugins.ImageStoragePlugin;
+import org.fogbowcloud.manager.core.plugins.InstanceStateListing;
 import org.fogbowcloud.manager.core.plugins.MapperPlugin;
 import org.fogbowcloud.manager.core.plugins.NetworkPlugin;
 import org.fogbowcloud.manager.core.plugins.PrioritizationPlugin;
@@ -79,6 +84,7 @@ import org.fogbowcloud.manager.occi.storage.StorageAttribute;
 import org.fogbowcloud.manager.occi.storage.StorageLink;
 import org.fogbowcloud.manager.xmpp.AsyncPacketSender;
 import org.fogbowcloud.manager.xmpp.ManagerPacketHelper;
+import org.fogbowcloud.manager.xmpp.RemoteOperationFuture;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.restlet.Response;
@@ -93,6 +99,7 @@ public class ManagerController {
 	private static final int DEFAULT_MAX_WHOISALIVE_MANAGER_COUNT = 100;
 	private static final long DEFAULT_SCHEDULER_PERIOD = 30000; // 30 seconds
 	protected static final int DEFAULT_ASYNC_ORDER_WAITING_INTERVAL = 300000; // 5 minutes
+	protected static final long DEFAULT_REMOTE_OPERATION_TIMEOUT = 15000;
 	private static final long DEFAULT_INSTANCE_IP_MONITORING_PERIOD = 10000; // 10 seconds
 	private static final int DEFAULT_MAX_IP_MONITORING_TRIES = 90; // 30 tries
 	private static final long DEFAULT_ACCOUNTING_UPDATE_PERIOD = 300000; // 5 minutes
@@ -100,6 +107,11 @@ public class ManagerController {
 	private static final int DEFAULT_CHECK_STILL_ALIVE_TIMES = 5; // 5 times
 	private static final long DEFAULT_CAPACITY_CONTROLLER_UPDATE_PERIOD = 600000; // 10 minutes
 	public static final int DEFAULT_MAX_POOL = 200;
+	protected static final int DEFAULT_SCHEDULER_WORKER_POOL_SIZE = 1;
+	protected static final int DEFAULT_INSTANCE_MONITORING_MAX_CONCURRENCY = 10;
+	protected static final int DEFAULT_BENCHMARK_STAGE_WORKERS = 10;
+	protected static final long BATCHED_QUERIES_MIN_RETRY_INTERVAL = 60000; // 1 minute
+	protected static final long BATCHED_QUERIES_MAX_RETRY_INTERVAL = 3600000; // 1 hour
 	
 	private final ManagerTimer orderSchedulerTimer;
 	private final ManagerTimer instanceMonitoringTimer;
@@ -109,7 +121,7 @@ public class ManagerController {
 
 	private boolean forTest = false;
 	private Map<String, Token> instanceIdToToken = new HashMap<String, Token>();
-	private final List<FederationMember> members = Collections.synchronizedList(new LinkedList<FederationMember>());
+	private final FederationMemberRegistry memberRegistry = new FederationMemberRegistry();
 	private ManagerDataStoreController managerDataStoreController;
 	private FederationMemberPickerPlugin memberPickerPlugin;
 	private List<Flavor> flavorsProvided;
@@ -122,6 +134,8 @@ public class ManagerController {
 	private StoragePlugin storagePlugin;
 	private NetworkPlugin networkPlugin;
 	private IdentityPlugin localIdentityPlugin;
+	private LocalTokenCache localTokenCache;
+	private ServiceAddressCache serviceAddressCache;
 	private IdentityPlugin federationIdentityPlugin;
 	private PrioritizationPlugin prioritizationPlugin;
 	private MapperPlugin mapperPlugin;
@@ -129,9 +143,33 @@ public class ManagerController {
 	private Properties properties;
 	private AsyncPacketSender packetSender;
 	private FederationMemberAuthorizationPlugin validator;
-	private ExecutorService benchmarkExecutor = Executors.newCachedThreadPool();
+	private ExecutorService benchmarkExecutor;
+	private volatile PipelineStage<BenchmarkTask> sshAddressStage;
+	private volatile PipelineStage<BenchmarkTask> sshConnectivityStage;
+	private volatile PipelineStage<BenchmarkTask> benchmarkStage;
+	private volatile PipelineStage<BenchmarkTask> publicKeysStage;
+	private ScheduledExecutorService benchmarkRetryScheduler;
+	private volatile long benchmarkSamplesLogged = 0;
 	private SshClientPool sshClientPool = new SshClientPool();
 	private FailedBatch failedBatch = new FailedBatch();
+	private ExecutorService orderSchedulerExecutor;
+	private ExecutorService instanceMonitoringExecutor;
+	private final Map<String, BatchedQueriesBackoff> membersWithoutBatchedQueries = 
+			new ConcurrentHashMap<String, BatchedQueriesBackoff>();
+	private final Set<String> ordersBeingScheduled = Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+	private final Object preemptionLock = new Object();
+	private final Object schedulingRoundLock = new Object();
+	private final Object memberPickerLock = new Object();
+	private OrderEventDispatcher orderEventDispatcher = new OrderEventDispatcher(
+			new OrderEventDispatcher.OrderEventHandler() {
+				@Override
+				public void handle(List<String> orderIds) {
+					submitDispatchedOrders(orderIds);
+				}
+			});
+	private OrderLatencyRecorder timeToSpawnRecorder = new OrderLatencyRecorder();
+	private volatile long timeToSpawnSamplesLogged = 0;
 	private ManagerControllerHelper.MonitoringHelper monitoringHelper;
 	
 	private DateUtils dateUtils = new DateUtils();
@@ -149,6 +187,7 @@ public class ManagerController {
 			throw new IllegalArgumentException();
 		}
 		this.properties = properties;		
+		this.serviceAddressCache = new ServiceAddressCache(properties, reverseTunnelHttpClient);
 		this.monitoringHelper = new ManagerControllerHelper().new MonitoringHelper(this.properties);
 		setFlavorsProvided(ResourceRepository.getStaticFlavors(properties));
 		if (executor == null) {
@@ -177,8 +216,73 @@ public class ManagerController {
 		return localIdentityPlugin;
 	}
 	
-	public void setBenchmarkExecutor(ExecutorService benchmarkExecutor) {
+	/**
+	 * Makes every benchmark stage run on the given executor instead of on its
+	 * own pool of workers. Stages already running are shut down, dropping the
+	 * benchmarks they had not finished.
+	 */
+	public synchronized void setBenchmarkExecutor(ExecutorService benchmarkExecutor) {
 		this.benchmarkExecutor = benchmarkExecutor;
+		shutdownBenchmarkStages();
+	}
+	
+	public void setOrderSchedulerExecutor(ExecutorService orderSchedulerExecutor) {
+		this.orderSchedulerExecutor = orderSchedulerExecutor;
+	}
+	
+	public void setInstanceMonitoringExecutor(ExecutorService instanceMonitoringExecutor) {
+		this.instanceMonitoringExecutor = instanceMonitoringExecutor;
+	}
+	
+	/**
+	 * Stops the timers and the worker pools of the manager, so that none of
+	 * their threads keeps the JVM from exiting.
+	 */
+	public void shutdown() {
+		orderSchedulerTimer.cancel();
+		instanceMonitoringTimer.cancel();
+		servedOrderMonitoringTimer.cancel();
+		accountingUpdaterTimer.cancel();
+		capacityControllerUpdaterTimer.cancel();
+		orderEventDispatcher.stop();
+		closePlugin(computePlugin);
+		closePlugin(storagePlugin);
+		closePlugin(networkPlugin);
+		serviceAddressCache.shutdown();
+		synchronized (this) {
+			if (orderSchedulerExecutor != null) {
+				orderSchedulerExecutor.shutdown();
+				orderSchedulerExecutor = null;
+			}
+			if (instanceMonitoringExecutor != null) {
+				instanceMonitoringExecutor.shutdown();
+				instanceMonitoringExecutor = null;
+			}
+			shutdownBenchmarkStages();
+		}
+	}
+	
+	/*
+	 * Plugins that keep caches refreshed in the background implement
+	 * Closeable to stop them.
+	 */
+	private void closePlugin(Object plugin) {
+		if (!(plugin instanceof Closeable)) {
+			return;
+		}
+		try {
+			((Closeable) plugin).close();
+		} catch (Exception e) {
+			LOGGER.warn("Could not close plugin " + plugin.getClass().getName() + ".", e);
+		}
+	}
+	
+	public void setOrderEventDispatcher(OrderEventDispatcher orderEventDispatcher) {
+		this.orderEventDispatcher = orderEventDispatcher;
+	}
+	
+	protected OrderLatencyRecorder getTimeToSpawnRecorder() {
+		return timeToSpawnRecorder;
 	}
 
 	public void setPrioritizationPlugin(PrioritizationPlugin prioritizationPlugin) {
@@ -255,6 +359,7 @@ public class ManagerController {
 
 	private void initializeOrders() throws SQLException, JSONException {
 		LOGGER.debug("Recovering previous orders.");
+		this.managerDataStoreController.loadOrders();
 		for (Order order : this.managerDataStoreController.getAllOrders()) {
 			try {
 				Instance instance = null;
@@ -360,7 +465,7 @@ public class ManagerController {
 	
 	private void updateVirtualQuotas() {
 		LOGGER.debug("Updating virtual quotas (capacity controller plugin).");
-		for(FederationMember member : new ArrayList<FederationMember>(this.members)) {
+		for(FederationMember member : this.memberRegistry.getMembers()) {
 			if(!(member.getId().equals(properties.getProperty(ConfigurationConstants.XMPP_JID_KEY)))){				
 				int maxCapacity = getMaxCapacityDefaultUser();				
 				this.capacityControllerPlugin.updateCapacity(member, maxCapacity);
@@ -377,8 +482,7 @@ public class ManagerController {
 			Map<String, String> defaultUserLocalCredentials = singleMapperPlugin
 					.getLocalCredentials(emptyOrder);
 			// Get default user's token
-			Token token = this.localIdentityPlugin.createToken(
-					defaultUserLocalCredentials);
+			Token token = getLocalToken(defaultUserLocalCredentials);
 			
 			ResourcesInfo resourcesInfo = this.computePlugin.getResourcesInfo(token);
 			int maxCapacity = Integer.valueOf(resourcesInfo.getInstancesInUse()) 
@@ -405,6 +509,7 @@ public class ManagerController {
 
 	public void setLocalIdentityPlugin(IdentityPlugin identityPlugin) {
 		this.localIdentityPlugin = identityPlugin;
+		this.localTokenCache = new LocalTokenCache(identityPlugin);
 	}
 
 	public void setFederationIdentityPlugin(IdentityPlugin federationIdentityPlugin) {
@@ -431,7 +536,7 @@ public class ManagerController {
 			Map<String, String> credentials = allLocalCredentials.get(localName);
 			List<Instance> instances = null;
 			try {
-				Token token = this.localIdentityPlugin.createToken(credentials);
+				Token token = getLocalToken(credentials);
 				instances = this.computePlugin.getInstances(token);
 				for (Instance instance : instances) {
 					if (this.instanceIdToToken.get(instance.getId()) == null) {
@@ -491,19 +596,12 @@ public class ManagerController {
 		if (members == null) {
 			throw new IllegalArgumentException();
 		}
-		synchronized (this.members) {
-			this.members.clear();
-			for (FederationMember member : members) {
-				this.members.add(member);
-			}
-		}
+		this.memberRegistry.update(members);
 	}
 
 	public List<FederationMember> getRendezvousMembers() {
-		List<FederationMember> membersCopy = null;
-		synchronized (this.members) {
-			membersCopy = new LinkedList<FederationMember>(members);
-		}
+		List<FederationMember> membersCopy = new LinkedList<FederationMember>(
+				this.memberRegistry.getMembers());
 		boolean containsThis = false;
 		for (FederationMember member : membersCopy) {
 			if (member.getId().equals(
@@ -549,7 +647,7 @@ public class ManagerController {
 		totalResourcesInfo.setId(properties.getProperty(ConfigurationConstants.XMPP_JID_KEY));
 
 		if (localCredentials != null) {
-			Token localToken = localIdentityPlugin.createToken(localCredentials);
+			Token localToken = getLocalToken(localCredentials);
 			totalResourcesInfo.addResource(computePlugin.getResourcesInfo(localToken));
 			
 			try {
@@ -571,7 +669,7 @@ public class ManagerController {
 				ResourcesInfo resourcesInfo = null;
 				Token localToken = null;
 				try {
-					localToken = localIdentityPlugin.createToken(credentials);
+					localToken = getLocalToken(credentials);
 					resourcesInfo = computePlugin.getResourcesInfo(localToken);
 				} catch (Exception e) {
 					LOGGER.warn("Does not possible get resources info with credentials of " + localName);
@@ -666,6 +764,7 @@ public class ManagerController {
 			removeAsynchronousRemoteOrders(order, true);
 		}
 		managerDataStoreController.removeOrder(orderId);
+		timeToSpawnRecorder.orderRemoved(orderId);
 		if (!instanceMonitoringTimer.isScheduled()) {
 			triggerInstancesMonitor();
 		}
@@ -676,7 +775,7 @@ public class ManagerController {
 		Order order = managerDataStoreController.getOrder(orderId, false);
 		if (order != null && order.getInstanceId() != null) {
 			try {
-				Token token = localIdentityPlugin.createToken(mapperPlugin.getLocalCredentials(accessId));
+				Token token = getLocalToken(mapperPlugin.getLocalCredentials(accessId));
 				String instanceId = order.getInstanceId();
 				if (order.getResourceKing().equals(OrderConstants.COMPUTE_TERM)) {
 					computePlugin.removeInstance(token, instanceId);					
@@ -772,9 +871,14 @@ public class ManagerController {
 		Instance instance = null;
 		if (isFulfilledByLocalMember(order)) {
 			LOGGER.debug(order.getInstanceId() + " is local, getting its information in the local cloud.");
+			Token localToken = getFederationUserToken(order);
+			try {
+				instance = getLocalInstance(localToken, order.getInstanceId(), resourceKind);
+			} catch (OCCIException e) {
+				checkLocalTokenRejected(localToken, e);
+				throw e;
+			}
 			if (resourceKind.equals(OrderConstants.COMPUTE_TERM)) {
-				instance = this.computePlugin.getInstance(getFederationUserToken(order), order.getInstanceId());
-				
 				instance.addAttribute(Instance.SSH_USERNAME_ATT, getSSHCommonUser());
 				Map<String, String> serviceAddresses = getExternalServiceAddresses(order.getId());
 				if (serviceAddresses != null) {
@@ -787,10 +891,6 @@ public class ManagerController {
 				if (osCategory != null) {
 					instance.addResource(ResourceRepository.createImageResource(osCategory.getTerm()));
 				}				
-			} else if (resourceKind.equals(OrderConstants.STORAGE_TERM)) {
-				instance = this.storagePlugin.getInstance(getFederationUserToken(order), order.getInstanceId());				
-			} else if (resourceKind.equals(OrderConstants.NETWORK_TERM)) {
-				instance = this.networkPlugin.getInstance(getFederationUserToken(order), order.getInstanceId());			
 			}
 
 		} else {
@@ -801,6 +901,17 @@ public class ManagerController {
 		return instance;
 	}
 
+	private Instance getLocalInstance(Token localToken, String instanceId, String resourceKind) {
+		if (resourceKind.equals(OrderConstants.COMPUTE_TERM)) {
+			return this.computePlugin.getInstance(localToken, instanceId);
+		} else if (resourceKind.equals(OrderConstants.STORAGE_TERM)) {
+			return this.storagePlugin.getInstance(localToken, instanceId);
+		} else if (resourceKind.equals(OrderConstants.NETWORK_TERM)) {
+			return this.networkPlugin.getInstance(localToken, instanceId);
+		}
+		return null;
+	}
+
 	private static Category getImageCategory(List<Category> categories) {
 		if (categories == null) {
 			return null;
@@ -825,50 +936,8 @@ public class ManagerController {
 
 	private HttpClient reverseTunnelHttpClient = createReverseTunnelHttpClient();
 
-	@SuppressWarnings("unchecked")
 	private Map<String, String> getExternalServiceAddresses(String tokenId) {
-
-		if (tokenId == null || tokenId.isEmpty()) {
-			return null;
-		}
-
-		String hostAddr = properties.getProperty(ConfigurationConstants.TOKEN_HOST_PRIVATE_ADDRESS_KEY);
-		if (hostAddr == null) {
-			return null;
-		}
-
-		HttpResponse response = null;
-		try {
-			String httpHostPort = properties.getProperty(ConfigurationConstants.TOKEN_HOST_HTTP_PORT_KEY);
-			HttpGet httpGet = new HttpGet("http://" + hostAddr + ":" + httpHostPort + "/token/" + tokenId + "/all");
-			response = reverseTunnelHttpClient.execute(httpGet);
-			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				JSONObject jsonPorts = new JSONObject(EntityUtils.toString(response.getEntity()));
-				if (jsonPorts.isNull(SSH_SERVICE_NAME)) {
-					return null;
-				}
-				Iterator<String> serviceIterator = jsonPorts.keys();
-				Map<String, String> servicePerAddress = new HashMap<String, String>();
-				String sshPublicHostIP = properties.getProperty(ConfigurationConstants.TOKEN_HOST_PUBLIC_ADDRESS_KEY);
-				while (serviceIterator.hasNext()) {
-					String service = (String) serviceIterator.next();
-					String port = jsonPorts.optString(service);
-					servicePerAddress.put(service, sshPublicHostIP + ":" + port);
-				}
-				return servicePerAddress;
-			}
-		} catch (Throwable e) {
-			LOGGER.warn("", e);
-		} finally {
-			if (response != null) {
-				try {
-					response.getEntity().getContent().close();
-				} catch (IOException e) {
-					// Best effort, may fail if the content was already closed.
-				}
-			}
-		}
-		return null;
+		return serviceAddressCache.get(tokenId);
 	}
 
 	private Instance getRemoteInstance(Order order) {
@@ -879,6 +948,25 @@ public class ManagerController {
 		return ManagerPacketHelper.getRemoteInstance(memberId, instanceId, packetSender);
 	}
 
+	private RemoteOperationFuture<Instance> getRemoteInstanceAsync(Order order) {
+		return ManagerPacketHelper.getRemoteInstanceAsync(order.getProvidingMemberId(),
+				order.getInstanceId(), packetSender, getRemoteOperationTimeout());
+	}
+
+	private long getRemoteOperationTimeout() {
+		String timeoutStr = properties.getProperty(ConfigurationConstants.XMPP_TIMEOUT);
+		if (timeoutStr == null || timeoutStr.isEmpty()) {
+			return DEFAULT_REMOTE_OPERATION_TIMEOUT;
+		}
+		try {
+			return Long.parseLong(timeoutStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.XMPP_TIMEOUT + ": " + timeoutStr
+					+ ", using " + DEFAULT_REMOTE_OPERATION_TIMEOUT + ".");
+			return DEFAULT_REMOTE_OPERATION_TIMEOUT;
+		}
+	}
+
 	public void removeInstances(String accessId) {
 		removeInstances(accessId, null);
 	}
@@ -888,12 +976,48 @@ public class ManagerController {
 		
 		String userId = getUserId(accessId);
 		LOGGER.debug("Removing instances(" + resourceKind + ") of user id: " + userId);
+		// remote instances are all removed at once, without waiting for each member in turn
+		List<Order> remoteOrders = new ArrayList<Order>();
+		List<RemoteOperationFuture<Void>> remoteRemovals = new ArrayList<RemoteOperationFuture<Void>>();
+		// a failed removal does not stop the others, the first error is thrown at the end
+		RuntimeException removalError = null;
 		for (Order order : managerDataStoreController.getOrdersByUserId(userId)) {
 			String instanceId = order.getInstanceId();
 			if (instanceId == null) {
 				continue;
 			}
-			removeInstance(normalizeFogbowResourceId(instanceId), order, resourceKind);
+			instanceId = normalizeFogbowResourceId(instanceId);
+			try {
+				if (isFulfilledByLocalMember(order)) {
+					removeInstance(instanceId, order, resourceKind);
+					continue;
+				}
+				checkStorageLinks(instanceId, resourceKind);
+				RemoteOperationFuture<Void> remoteRemoval = ManagerPacketHelper.deleteRemoteInstanceAsync(
+						order, packetSender, getRemoteOperationTimeout());
+				remoteOrders.add(order);
+				remoteRemovals.add(remoteRemoval);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Error while removing instance of order " + order.getId(), e);
+				if (removalError == null) {
+					removalError = e;
+				}
+			}
+		}
+
+		for (int i = 0; i < remoteOrders.size(); i++) {
+			try {
+				remoteRemovals.get(i).getResult();
+				instanceRemoved(remoteOrders.get(i));
+			} catch (RuntimeException e) {
+				LOGGER.warn("Error while removing remote instance of order " + remoteOrders.get(i).getId(), e);
+				if (removalError == null) {
+					removalError = e;
+				}
+			}
+		}
+		if (removalError != null) {
+			throw removalError;
 		}
 	}
 
@@ -916,21 +1040,21 @@ public class ManagerController {
 	}
 	
 	private void removeInstance(String instanceId, Order order, String resourceKind) {				
-		List<StorageLink> storageLinks = this.managerDataStoreController.getAllStorageLinkByInstance(instanceId, resourceKind);
-		if (!storageLinks.isEmpty()) {
-			throw new OCCIException(ErrorType.BAD_REQUEST,
-					ResponseConstants.EXISTING_ATTACHMENT + " Attachment IDs : " 
-					+ StorageLink.Util.storageLinksToString(storageLinks));			
-		}
+		checkStorageLinks(instanceId, resourceKind);
 				
 		Token localToken = getFederationUserToken(order);
 		if (isFulfilledByLocalMember(order)) {
-			if (resourceKind.equals(OrderConstants.COMPUTE_TERM)) {
-				this.computePlugin.removeInstance(localToken, instanceId);				
-			} else if (resourceKind.equals(OrderConstants.STORAGE_TERM)) {
-				this.storagePlugin.removeInstance(localToken, instanceId);
-			} else if (resourceKind.equals(OrderConstants.NETWORK_TERM)) {
-				this.networkPlugin.removeInstance(localToken, instanceId);
+			try {
+				if (resourceKind.equals(OrderConstants.COMPUTE_TERM)) {
+					this.computePlugin.removeInstance(localToken, instanceId);				
+				} else if (resourceKind.equals(OrderConstants.STORAGE_TERM)) {
+					this.storagePlugin.removeInstance(localToken, instanceId);
+				} else if (resourceKind.equals(OrderConstants.NETWORK_TERM)) {
+					this.networkPlugin.removeInstance(localToken, instanceId);
+				}
+			} catch (OCCIException e) {
+				checkLocalTokenRejected(localToken, e);
+				throw e;
 			}
 		} else {					
 			removeRemoteInstance(order);
@@ -940,6 +1064,15 @@ public class ManagerController {
 		instanceRemoved(order);
 	}
 
+	private void checkStorageLinks(String instanceId, String resourceKind) {
+		List<StorageLink> storageLinks = this.managerDataStoreController.getAllStorageLinkByInstance(instanceId, resourceKind);
+		if (!storageLinks.isEmpty()) {
+			throw new OCCIException(ErrorType.BAD_REQUEST,
+					ResponseConstants.EXISTING_ATTACHMENT + " Attachment IDs : " 
+					+ StorageLink.Util.storageLinksToString(storageLinks));			
+		}
+	}
+
 	private boolean isFulfilledByLocalMember(Order order) {
 		if (order.getProvidingMemberId() != null
 				&& order.getProvidingMemberId().equals(properties.get(ConfigurationConstants.XMPP_JID_KEY))) {
@@ -949,6 +1082,7 @@ public class ManagerController {
 	}
 
 	protected void instanceRemoved(Order order) {			
+		serviceAddressCache.invalidate(order.getId());
 		if (order.getResourceKing().equals(OrderConstants.COMPUTE_TERM)) {
 			updateAccounting();
 			benchmarkingPlugin.remove(order.getInstanceId());			
@@ -958,11 +1092,13 @@ public class ManagerController {
 		order.setInstanceId(null);
 		order.setProvidingMemberId(null);
 
+		boolean reopened = false;
 		if (order.getState().equals(OrderState.DELETED) || !order.isLocal()) {
 			managerDataStoreController.excludeOrder(order.getId());
 		} else if (isPersistent(order)) {
 			LOGGER.debug("Order: " + order + ", setting state to " + OrderState.OPEN);
 			order.setState(OrderState.OPEN);
+			reopened = true;
 			if (!orderSchedulerTimer.isScheduled()) {
 				triggerOrderScheduler();
 			}
@@ -972,6 +1108,9 @@ public class ManagerController {
 		}
 		
 		this.managerDataStoreController.updateOrder(order);
+		if (reopened) {
+			orderQueued(order);
+		}
 		if (instanceId != null) {
 			this.managerDataStoreController.removeAllStorageLinksByInstance(
 					normalizeFogbowResourceId(instanceId), order.getResourceKing());			
@@ -1033,10 +1172,9 @@ public class ManagerController {
 	}
 
 	public FederationMember getFederationMember(String memberId) {
-		for (FederationMember member : members) {
-			if (member.getId().equals(memberId)) {
-				return member;
-			}
+		FederationMember member = this.memberRegistry.get(memberId);
+		if (member != null) {
+			return member;
 		}
 		if (memberId.equals(properties.get(ConfigurationConstants.XMPP_JID_KEY))) {
 			//TODO review this
@@ -1064,50 +1202,43 @@ public class ManagerController {
 		if (!orderSchedulerTimer.isScheduled()) {
 			triggerOrderScheduler();
 		}
+		orderQueued(order);
 	}
 	
 	public boolean isThereEnoughQuota(String requestingMemberId){
-		int instancesFulfilled = 0;
-		List<Order> allServedOrders = this.managerDataStoreController.getAllServedOrders();
-		for (Order order : allServedOrders) {
-			if (order.getRequestingMemberId().equals(requestingMemberId) && 
-					order.getState().equals(OrderState.FULFILLED) && 
-					order.getResourceKing().equals(OrderConstants.COMPUTE_TERM)) 
-				instancesFulfilled++;
-		}
-		FederationMember requestingMember = null;
-		for(FederationMember member : new ArrayList<FederationMember>(this.members)) {
-			if(member.getId().equals(requestingMemberId)){
-				requestingMember = member;
-				break;
-			}
-		}
+		int instancesFulfilled = getServedInstancesCount(requestingMemberId, OrderState.FULFILLED);
+		FederationMember requestingMember = this.memberRegistry.get(requestingMemberId);
 		
 		//TODO different instances sizes should be considered?
 		//TODO remove this magic number
 		return (instancesFulfilled + 1) <= capacityControllerPlugin.getMaxCapacityToSupply(requestingMember);
 	}
 
+	/**
+	 * @return the number of compute instances in the given state served to
+	 *         the requesting member
+	 */
+	public int getServedInstancesCount(String requestingMemberId, OrderState state) {
+		return this.managerDataStoreController.countServedComputeOrders(requestingMemberId, state);
+	}
+
 	protected String createUserDataUtilsCommand(Order order) throws IOException, MessagingException {
 		return UserdataUtils.createBase64Command(order, properties);
 	}
 
-	protected Instance waitForSSHPublicAddress(Order order) {
-		int remainingTries = DEFAULT_MAX_IP_MONITORING_TRIES;
-		while (remainingTries-- > 0) {
-			try {
-				Instance instance = getInstanceSSHAddress(order);
-				Map<String, String> attributes = instance.getAttributes();
-				if (attributes != null) {
-					String sshPublicAddress = attributes.get(Instance.SSH_PUBLIC_ADDRESS_ATT);
-					if (sshPublicAddress != null) {
-						return instance;
-					}
-				}
-				Thread.sleep(DEFAULT_INSTANCE_IP_MONITORING_PERIOD);
-			} catch (Exception e) {
-				LOGGER.warn("Exception while retrieving SSH public address", e);
+	/**
+	 * @return the instance of the order if its SSH public address is already
+	 *         known, null otherwise
+	 */
+	protected Instance findSSHPublicAddress(Order order) {
+		try {
+			Instance instance = getInstanceSSHAddress(order);
+			Map<String, String> attributes = instance.getAttributes();
+			if (attributes != null && attributes.get(Instance.SSH_PUBLIC_ADDRESS_ATT) != null) {
+				return instance;
 			}
+		} catch (Exception e) {
+			LOGGER.warn("Exception while retrieving SSH public address", e);
 		}
 		return null;
 	}
@@ -1208,14 +1339,30 @@ public class ManagerController {
 
 	protected Token getFederationUserToken(Order order) {
 		LOGGER.debug("Getting federation user token.");
-		return localIdentityPlugin.createToken(mapperPlugin.getLocalCredentials(order));
+		return getLocalToken(mapperPlugin.getLocalCredentials(order));
+	}
+
+	/*
+	 * Orders mapped to the same local credentials share the cached token
+	 * instead of authenticating against the local cloud each time.
+	 */
+	private Token getLocalToken(Map<String, String> localCredentials) {
+		return localTokenCache.getToken(localCredentials);
+	}
+
+	private void checkLocalTokenRejected(Token localToken, Throwable e) {
+		if (e instanceof OCCIException && ((OCCIException) e).getType() == ErrorType.UNAUTHORIZED) {
+			LOGGER.info("Local token was not authorized, dropping it from the cache.");
+			localTokenCache.invalidate(localToken);
+		}
 	}
 
 	public Instance getInstanceForRemoteMember(String instanceId) {
 		LOGGER.info("Getting instance " + instanceId + " for remote member.");
+		Token federationUserToken = null;
 		try {
 			Order servedOrder = managerDataStoreController.getOrderByInstance(instanceId);
-			Token federationUserToken = getFederationUserToken(servedOrder);
+			federationUserToken = getFederationUserToken(servedOrder);
 			String orderResourceKind = servedOrder != null ? servedOrder.getResourceKing(): null;
 			Instance instance = null;
 			if (orderResourceKind == null || orderResourceKind.equals(OrderConstants.COMPUTE_TERM)) {
@@ -1243,6 +1390,7 @@ public class ManagerController {
 			return instance;
 		} catch (OCCIException e) {
 			LOGGER.warn("Exception while getting instance " + instanceId + " for remote member.", e);
+			checkLocalTokenRejected(federationUserToken, e);
 			if (e.getStatus().getCode() == HttpStatus.SC_NOT_FOUND) {
 				return null;
 			}
@@ -1258,6 +1406,9 @@ public class ManagerController {
 
 		Token federationUserToken = getFederationUserToken(order);
 		if (OrderConstants.COMPUTE_TERM.equals(resourceKind)) {
+			if (order != null) {
+				serviceAddressCache.invalidate(order.getId());
+			}
 			updateAccounting();
 			benchmarkingPlugin.remove(instanceId);
 			computePlugin.removeInstance(federationUserToken, instanceId);			
@@ -1299,6 +1450,9 @@ public class ManagerController {
 		if (!orderSchedulerTimer.isScheduled()) {
 			triggerOrderScheduler();
 		}
+		for (Order order : currentOrders) {
+			orderQueued(order);
+		}
 
 		return currentOrders;
 	}
@@ -1325,35 +1479,44 @@ public class ManagerController {
 		long monitorPeriod = ManagerControllerHelper.getInstanceMonitoringPeriod(this.properties);
 		this.monitoringHelper.checkFailedMonitoring(monitorPeriod);
 		
+		List<Order> ordersToMonitor = new ArrayList<Order>();
 		for (Order order : this.managerDataStoreController.getAllLocalOrders()) {
 			if (order.getState().in(OrderState.FULFILLED, OrderState.DELETED, OrderState.SPAWNING)) {
 				turnOffTimer = false;
 			}
-			
 			if (order.getState().in(OrderState.FULFILLED, OrderState.DELETED)) {
-				boolean isNotFoundException = false;
-				try {
-					LOGGER.debug("Monitoring instance of order: " + order);
-					removeFailedInstance(order, getInstance(order, order.getResourceKing()));
-					this.monitoringHelper.eraseFailedMonitoringAttempts(order);
-				} catch (OCCIException e) {
-					LOGGER.debug("Error while getInstance of " + order.getInstanceId(), e);
-					
-					if (e.getType().equals(ErrorType.NOT_FOUND)) {
-						isNotFoundException = true;
-					} else {
-						this.monitoringHelper.addFailedMonitoringAttempt(order);
-					}
-				} catch (Throwable e) {
-					LOGGER.debug("Error while getInstance of " + order.getInstanceId(), e);
-					this.monitoringHelper.addFailedMonitoringAttempt(order);
+				ordersToMonitor.add(order);
+			}
+		}
+		Map<String, InstanceLookup> instanceLookups = lookUpInstances(ordersToMonitor);
+		
+		for (Order order : ordersToMonitor) {
+			boolean isNotFoundException = false;
+			try {
+				LOGGER.debug("Monitoring instance of order: " + order);
+				InstanceLookup instanceLookup = instanceLookups.get(order.getId());
+				if (instanceLookup == null) {
+					instanceLookup = lookUpInstance(order);
 				}
+				removeFailedInstance(order, instanceLookup.getInstance());
+				this.monitoringHelper.eraseFailedMonitoringAttempts(order);
+			} catch (OCCIException e) {
+				LOGGER.debug("Error while getInstance of " + order.getInstanceId(), e);
 				
-				if (isNotFoundException || this.monitoringHelper.isMaximumFailedMonitoringAttempts(order) 
-						|| (order.getState().equals(OrderState.DELETED) && order.getInstanceId() == null)) {
-					instanceRemoved(this.managerDataStoreController.getOrder(order.getId()));
-					this.monitoringHelper.eraseFailedMonitoringAttempts(order);
+				if (e.getType().equals(ErrorType.NOT_FOUND)) {
+					isNotFoundException = true;
+				} else {
+					this.monitoringHelper.addFailedMonitoringAttempt(order);
 				}
+			} catch (Throwable e) {
+				LOGGER.debug("Error while getInstance of " + order.getInstanceId(), e);
+				this.monitoringHelper.addFailedMonitoringAttempt(order);
+			}
+			
+			if (isNotFoundException || this.monitoringHelper.isMaximumFailedMonitoringAttempts(order) 
+					|| (order.getState().equals(OrderState.DELETED) && order.getInstanceId() == null)) {
+				instanceRemoved(this.managerDataStoreController.getOrder(order.getId()));
+				this.monitoringHelper.eraseFailedMonitoringAttempts(order);
 			}
 		}
 
@@ -1363,6 +1526,271 @@ public class ManagerController {
 		}
 	}
 
+	/*
+	 * Looks up the instances of the given orders. Remote instances are asked
+	 * to their providing members, in batches where supported, and every
+	 * lookup runs concurrently, with at most
+	 * instance_monitoring_max_concurrency lookups running at a time. Local
+	 * compute instances are listed once per set of local credentials when
+	 * the compute plugin lists them with their state, and are got one by one
+	 * otherwise, as the plain listings do not carry the state the monitoring
+	 * relies on.
+	 */
+	private Map<String, InstanceLookup> lookUpInstances(List<Order> orders) {
+		final Map<String, InstanceLookup> instanceLookups = new ConcurrentHashMap<String, InstanceLookup>();
+		Map<Map<String, String>, List<Order>> localComputeOrdersPerCredentials = 
+				new LinkedHashMap<Map<String, String>, List<Order>>();
+		Map<String, List<Order>> remoteOrdersPerMember = new LinkedHashMap<String, List<Order>>();
+		List<Order> otherOrders = new ArrayList<Order>();
+		boolean listsInstanceStates = computePlugin instanceof InstanceStateListing;
+		for (Order order : orders) {
+			if (!isFulfilledByLocalMember(order)) {
+				List<Order> memberOrders = remoteOrdersPerMember.get(order.getProvidingMemberId());
+				if (memberOrders == null) {
+					memberOrders = new ArrayList<Order>();
+					remoteOrdersPerMember.put(order.getProvidingMemberId(), memberOrders);
+				}
+				memberOrders.add(order);
+			} else if (listsInstanceStates && OrderConstants.COMPUTE_TERM.equals(order.getResourceKing()) 
+					&& order.getInstanceId() != null) {
+				Map<String, String> localCredentials = null;
+				try {
+					localCredentials = mapperPlugin.getLocalCredentials(order);
+				} catch (Throwable e) {
+					LOGGER.debug("Could not get local credentials of order " + order.getId(), e);
+				}
+				if (localCredentials == null) {
+					otherOrders.add(order);
+					continue;
+				}
+				List<Order> credentialsOrders = localComputeOrdersPerCredentials.get(localCredentials);
+				if (credentialsOrders == null) {
+					credentialsOrders = new ArrayList<Order>();
+					localComputeOrdersPerCredentials.put(localCredentials, credentialsOrders);
+				}
+				credentialsOrders.add(order);
+			} else {
+				otherOrders.add(order);
+			}
+		}
+		LOGGER.debug("Looking up " + orders.size() + " instances: the ones of " 
+				+ localComputeOrdersPerCredentials.size() + " local credentials, " + otherOrders.size()
+				+ " other local ones and the ones of " + remoteOrdersPerMember.size() + " remote members.");
+		
+		ExecutorService executor = getInstanceMonitoringExecutor();
+		List<Future<?>> lookups = new ArrayList<Future<?>>();
+		for (final List<Order> localComputeOrders : localComputeOrdersPerCredentials.values()) {
+			lookups.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					lookUpLocalComputeInstances(localComputeOrders, instanceLookups);
+				}
+			}));
+		}
+		List<Order> singleLookupOrders = new ArrayList<Order>(otherOrders);
+		for (Entry<String, List<Order>> memberOrders : remoteOrdersPerMember.entrySet()) {
+			final String memberId = memberOrders.getKey();
+			final List<Order> remoteOrders = memberOrders.getValue();
+			if (remoteOrders.size() > 1 && supportsBatchedQueries(memberId)) {
+				lookups.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						lookUpRemoteInstances(memberId, remoteOrders, instanceLookups);
+					}
+				}));
+			} else {
+				singleLookupOrders.addAll(remoteOrders);
+			}
+		}
+		lookUpInstancesOneByOne(singleLookupOrders, instanceLookups, lookups);
+		waitForLookups(lookups);
+		
+		// instances left out of batched queries are looked up one by one
+		List<Order> remainingOrders = new ArrayList<Order>();
+		for (Order order : orders) {
+			if (!instanceLookups.containsKey(order.getId())) {
+				remainingOrders.add(order);
+			}
+		}
+		lookups.clear();
+		lookUpInstancesOneByOne(remainingOrders, instanceLookups, lookups);
+		waitForLookups(lookups);
+		return instanceLookups;
+	}
+	
+	private void lookUpInstancesOneByOne(List<Order> orders, final Map<String, InstanceLookup> instanceLookups, 
+			List<Future<?>> lookups) {
+		ExecutorService executor = getInstanceMonitoringExecutor();
+		for (final Order order : orders) {
+			lookups.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					instanceLookups.put(order.getId(), lookUpInstance(order));
+				}
+			}));
+		}
+	}
+	
+	private void waitForLookups(List<Future<?>> lookups) {
+		for (Future<?> lookup : lookups) {
+			try {
+				lookup.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while looking up instances.", e);
+				break;
+			} catch (ExecutionException e) {
+				LOGGER.error("Error while looking up instances.", e.getCause());
+			}
+		}
+	}
+	
+	private void lookUpRemoteInstances(String memberId, List<Order> orders, 
+			Map<String, InstanceLookup> instanceLookups) {
+		List<String> instanceIds = new ArrayList<String>();
+		for (Order order : orders) {
+			if (order.getInstanceId() != null) {
+				instanceIds.add(order.getInstanceId());
+			}
+		}
+		try {
+			Map<String, Instance> instances = ManagerPacketHelper.getRemoteInstances(
+					memberId, instanceIds, packetSender);
+			if (instances == null) {
+				backOffFromBatchedQueries(memberId);
+				return;
+			}
+			batchedQueriesSupported(memberId);
+			for (Order order : orders) {
+				Instance instance = instances.get(order.getInstanceId());
+				if (instance != null) {
+					instanceLookups.put(order.getId(), new InstanceLookup(instance));
+				}
+			}
+		} catch (Throwable e) {
+			LOGGER.debug("Could not get the instances of member " + memberId + " in a batched query.", e);
+			backOffFromBatchedQueries(memberId);
+		}
+	}
+	
+	private boolean supportsBatchedQueries(String memberId) {
+		if (memberId == null) {
+			return false;
+		}
+		BatchedQueriesBackoff backoff = membersWithoutBatchedQueries.get(memberId);
+		return backoff == null || dateUtils.currentTimeMillis() >= backoff.retryAt;
+	}
+	
+	/*
+	 * A member answering a batched query with an error, or not answering it
+	 * in time, is queried one by one for a while. The interval doubles on
+	 * every failed retry, up to BATCHED_QUERIES_MAX_RETRY_INTERVAL, so that a
+	 * transient error does not keep batched queries off for long while
+	 * members that do not support them, or are too slow to answer them, are
+	 * not asked on every pass.
+	 */
+	private void backOffFromBatchedQueries(String memberId) {
+		BatchedQueriesBackoff previous = membersWithoutBatchedQueries.get(memberId);
+		long retryInterval = previous == null ? BATCHED_QUERIES_MIN_RETRY_INTERVAL 
+				: Math.min(previous.retryInterval * 2, BATCHED_QUERIES_MAX_RETRY_INTERVAL);
+		LOGGER.info("Batched query to member " + memberId + " failed, querying it one by one for the next "
+				+ retryInterval + " ms.");
+		membersWithoutBatchedQueries.put(memberId, new BatchedQueriesBackoff(
+				retryInterval, dateUtils.currentTimeMillis() + retryInterval));
+	}
+	
+	private void batchedQueriesSupported(String memberId) {
+		membersWithoutBatchedQueries.remove(memberId);
+	}
+	
+	private static class BatchedQueriesBackoff {
+		
+		private final long retryInterval;
+		private final long retryAt;
+		
+		public BatchedQueriesBackoff(long retryInterval, long retryAt) {
+			this.retryInterval = retryInterval;
+			this.retryAt = retryAt;
+		}
+	}
+	
+	/*
+	 * Lists the instances of orders sharing the same local credentials, with
+	 * their state, in a single call to the compute plugin. Instances missing
+	 * from the listing are confirmed one by one before being reported as not
+	 * found.
+	 */
+	private void lookUpLocalComputeInstances(List<Order> orders, Map<String, InstanceLookup> instanceLookups) {
+		Map<String, Instance> instancesById = new HashMap<String, Instance>();
+		Token localToken = null;
+		try {
+			localToken = getFederationUserToken(orders.get(0));
+			List<Instance> instances = ((InstanceStateListing) computePlugin).getInstanceStates(localToken);
+			if (instances != null) {
+				for (Instance instance : instances) {
+					instancesById.put(instance.getId(), instance);
+				}
+			}
+		} catch (Throwable e) {
+			LOGGER.debug("Could not list the local instances, getting them one by one.", e);
+			checkLocalTokenRejected(localToken, e);
+		}
+		for (Order order : orders) {
+			Instance instance = instancesById.get(order.getInstanceId());
+			instanceLookups.put(order.getId(), 
+					instance != null ? new InstanceLookup(instance) : lookUpInstance(order));
+		}
+	}
+	
+	private InstanceLookup lookUpInstance(Order order) {
+		try {
+			return new InstanceLookup(getInstance(order, order.getResourceKing()));
+		} catch (Throwable e) {
+			return new InstanceLookup(e);
+		}
+	}
+	
+	private int getInstanceMonitoringMaxConcurrency() {
+		String maxConcurrencyStr = properties.getProperty(
+				ConfigurationConstants.INSTANCE_MONITORING_MAX_CONCURRENCY_KEY);
+		try {
+			return maxConcurrencyStr == null ? DEFAULT_INSTANCE_MONITORING_MAX_CONCURRENCY 
+					: Integer.parseInt(maxConcurrencyStr.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.INSTANCE_MONITORING_MAX_CONCURRENCY_KEY + ": "
+					+ maxConcurrencyStr + ". Using " + DEFAULT_INSTANCE_MONITORING_MAX_CONCURRENCY + ".");
+			return DEFAULT_INSTANCE_MONITORING_MAX_CONCURRENCY;
+		}
+	}
+	
+	private synchronized ExecutorService getInstanceMonitoringExecutor() {
+		if (instanceMonitoringExecutor == null) {
+			instanceMonitoringExecutor = Executors.newFixedThreadPool(getInstanceMonitoringMaxConcurrency());
+		}
+		return instanceMonitoringExecutor;
+	}
+	
+	private static class InstanceLookup {
+		
+		private Instance instance;
+		private Throwable error;
+		
+		public InstanceLookup(Instance instance) {
+			this.instance = instance;
+		}
+		
+		public InstanceLookup(Throwable error) {
+			this.error = error;
+		}
+		
+		public Instance getInstance() throws Throwable {
+			if (error != null) {
+				throw error;
+			}
+			return instance;
+		}
+	}
+
 	private void removeFailedInstance(Order order, Instance instance) {
 		if (instance == null) {
 			return;
@@ -1382,7 +1810,10 @@ public class ManagerController {
 			return;
 		}
 
-		FederationMember member = memberPickerPlugin.pick(allowedMembers);
+		FederationMember member = null;
+		synchronized (memberPickerLock) {
+			member = memberPickerPlugin.pick(allowedMembers);
+		}
 		if (member == null) {
 			return;
 		}
@@ -1398,6 +1829,8 @@ public class ManagerController {
 
 		LOGGER.info("Submiting order " + order + " to member " + memberAddress);		
 		this.managerDataStoreController.addOrderSyncronous(order.getId(), dateUtils.currentTimeMillis(), order.getProvidingMemberId());
+		// reopens the order as soon as its pending timeout is reached
+		orderEventDispatcher.dispatchLater(order.getId(), getAsyncOrderWaitingInterval() + 1);
 		ManagerPacketHelper.asynchronousRemoteOrder(order.getId(), categoriesCopy, xOCCIAttCopy, memberAddress, 
 				federationIdentityPlugin.getForwardableToken(order.getFederationToken()), 
 				packetSender, new AsynchronousOrderCallback() {
@@ -1422,6 +1855,7 @@ public class ManagerController {
 
 						// reseting time stamp
 						managerDataStoreController.updateOrderSyncronous(order.getId(), dateUtils.currentTimeMillis());
+						timeToSpawnRecorder.orderSpawned(order.getId(), dateUtils.currentTimeMillis());
 
 						order.setInstanceId(instanceId);
 						order.setProvidingMemberId(memberAddress);
@@ -1477,56 +1911,178 @@ public class ManagerController {
 		}
 	}
 
-	private void execBenchmark(final Order order) {
+	private void execBenchmark(Order order) {
+		initBenchmarkStages();
+		BenchmarkTask task = new BenchmarkTask(order, dateUtils.currentTimeMillis());
+		if (getManagerSSHPublicKey() != null) {
+			sshAddressStage.submit(task, task.getStartTime());
+		} else {
+			benchmarkStage.submit(task, task.getStartTime());
+		}
+
+		if (order.isLocal() && !instanceMonitoringTimer.isScheduled()) {
+			triggerInstancesMonitor();
+		}
 
-		benchmarkExecutor.execute(new Runnable() {
+		if (!order.isLocal() && !servedOrderMonitoringTimer.isScheduled()) {
+			triggerServedOrderMonitoring();
+		}
+	}
+	
+	/*
+	 * New instances go through finding their SSH address, waiting for SSH,
+	 * running the benchmark and replacing the manager public key by the one
+	 * of the order. Each step runs on a bounded pool of workers and steps
+	 * that must wait are retried later instead of sleeping on a thread.
+	 */
+	private synchronized void initBenchmarkStages() {
+		if (publicKeysStage != null) {
+			return;
+		}
+		ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+		benchmarkRetryScheduler = retryScheduler;
+		int workers = getBenchmarkStageWorkers();
+		final PipelineStage<BenchmarkTask> publicKeys = createBenchmarkStage("public keys replacement", new PipelineStage.Step<BenchmarkTask>() {
 			@Override
-			public void run() {
-				Instance instance = null;
-				if (getManagerSSHPublicKey() != null) {
-					instance = waitForSSHPublicAddress(order);
-					waitForSSHConnectivity(instance);
+			public boolean attempt(BenchmarkTask task) {
+				Instance instance = task.getInstance();
+				if (instance != null) {
+					LOGGER.debug("Replacing public keys on " + task.getOrder().getId());
+					replacePublicKeys(instance.getAttributes().get(Instance.SSH_PUBLIC_ADDRESS_ATT),
+							task.getOrder());
+					LOGGER.debug("Public keys replaced on " + task.getOrder().getId());
 				}
+				return true;
+			}
 
+			@Override
+			public void leave(BenchmarkTask task, boolean done) {
+				benchmarkFinished(task.getOrder());
+			}
+		}, workers, retryScheduler, 1);
+		final PipelineStage<BenchmarkTask> benchmark = createBenchmarkStage("benchmark", new PipelineStage.Step<BenchmarkTask>() {
+			@Override
+			public boolean attempt(BenchmarkTask task) {
 				try {
-					benchmarkingPlugin.run(order.getGlobalInstanceId(), instance);
+					benchmarkingPlugin.run(task.getOrder().getGlobalInstanceId(), task.getInstance());
 				} catch (Exception e) {
 					LOGGER.warn("Couldn't run benchmark.", e);
 				}
+				return true;
+			}
 
-				if (instance != null) {
-					LOGGER.debug("Replacing public keys on " + order.getId());
-					replacePublicKeys(instance.getAttributes().get(Instance.SSH_PUBLIC_ADDRESS_ATT), order);
-					LOGGER.debug("Public keys replaced on " + order.getId());
-				}
+			@Override
+			public void leave(BenchmarkTask task, boolean done) {
+				publicKeys.submit(task, task.getStartTime());
+			}
+		}, workers, retryScheduler, 1);
+		final PipelineStage<BenchmarkTask> sshConnectivity = createBenchmarkStage("SSH connectivity", new PipelineStage.Step<BenchmarkTask>() {
+			@Override
+			public boolean attempt(BenchmarkTask task) {
+				return task.getInstance() == null || checkSSHConnectivity(task.getInstance());
+			}
 
-				if (order.isLocal() && !isFulfilledByLocalMember(order)) {
-					removeAsynchronousRemoteOrders(order, false);
-					managerDataStoreController.removeOrderSyncronous(order.getId());
-				}
+			@Override
+			public void leave(BenchmarkTask task, boolean done) {
+				benchmark.submit(task, task.getStartTime());
+			}
+		}, workers, retryScheduler, DEFAULT_MAX_IP_MONITORING_TRIES);
+		sshAddressStage = createBenchmarkStage("SSH address", new PipelineStage.Step<BenchmarkTask>() {
+			@Override
+			public boolean attempt(BenchmarkTask task) {
+				task.setInstance(findSSHPublicAddress(task.getOrder()));
+				return task.getInstance() != null;
+			}
 
-				if (!order.isLocal()) {
-					ManagerPacketHelper.replyToServedOrder(order, packetSender);
-				}
+			@Override
+			public void leave(BenchmarkTask task, boolean done) {
+				sshConnectivity.submit(task, task.getStartTime());
+			}
+		}, workers, retryScheduler, DEFAULT_MAX_IP_MONITORING_TRIES);
+		sshConnectivityStage = sshConnectivity;
+		benchmarkStage = benchmark;
+		publicKeysStage = publicKeys;
+	}
 
-				if (!order.getState().in(OrderState.DELETED)) {
-					order.setState(OrderState.FULFILLED);
-					managerDataStoreController.updateOrder(order);
-				}
+	private synchronized void shutdownBenchmarkStages() {
+		if (publicKeysStage == null) {
+			return;
+		}
+		sshAddressStage.shutdown();
+		sshConnectivityStage.shutdown();
+		benchmarkStage.shutdown();
+		publicKeysStage.shutdown();
+		benchmarkRetryScheduler.shutdownNow();
+		sshAddressStage = null;
+		sshConnectivityStage = null;
+		benchmarkStage = null;
+		publicKeysStage = null;
+		benchmarkRetryScheduler = null;
+	}
 
-				LOGGER.debug("Fulfilled order: " + order);
-			}
-		});
+	private PipelineStage<BenchmarkTask> createBenchmarkStage(String name, PipelineStage.Step<BenchmarkTask> step,
+			int workers, ScheduledExecutorService retryScheduler, int maxAttempts) {
+		if (benchmarkExecutor != null) {
+			return new PipelineStage<BenchmarkTask>(name, step, benchmarkExecutor, retryScheduler,
+					DEFAULT_INSTANCE_IP_MONITORING_PERIOD, maxAttempts);
+		}
+		return new PipelineStage<BenchmarkTask>(name, step, workers, retryScheduler,
+				DEFAULT_INSTANCE_IP_MONITORING_PERIOD, maxAttempts);
+	}
 
-		if (order.isLocal() && !instanceMonitoringTimer.isScheduled()) {
-			triggerInstancesMonitor();
+	private void benchmarkFinished(Order order) {
+		if (order.isLocal() && !isFulfilledByLocalMember(order)) {
+			removeAsynchronousRemoteOrders(order, false);
+			managerDataStoreController.removeOrderSyncronous(order.getId());
 		}
 
-		if (!order.isLocal() && !servedOrderMonitoringTimer.isScheduled()) {
-			triggerServedOrderMonitoring();
+		if (!order.isLocal()) {
+			ManagerPacketHelper.replyToServedOrder(order, packetSender);
+		}
+
+		if (!order.getState().in(OrderState.DELETED)) {
+			order.setState(OrderState.FULFILLED);
+			managerDataStoreController.updateOrder(order);
 		}
+
+		LOGGER.debug("Fulfilled order: " + order);
 	}
-	
+
+	private int getBenchmarkStageWorkers() {
+		String workersStr = properties.getProperty(ConfigurationConstants.BENCHMARK_STAGE_WORKERS_KEY);
+		try {
+			return workersStr == null ? DEFAULT_BENCHMARK_STAGE_WORKERS : Integer.parseInt(workersStr.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.BENCHMARK_STAGE_WORKERS_KEY + ": "
+					+ workersStr + ". Using " + DEFAULT_BENCHMARK_STAGE_WORKERS + ".");
+			return DEFAULT_BENCHMARK_STAGE_WORKERS;
+		}
+	}
+
+	protected synchronized List<PipelineStage<BenchmarkTask>> getBenchmarkStages() {
+		initBenchmarkStages();
+		List<PipelineStage<BenchmarkTask>> stages = new ArrayList<PipelineStage<BenchmarkTask>>();
+		stages.add(sshAddressStage);
+		stages.add(sshConnectivityStage);
+		stages.add(benchmarkStage);
+		stages.add(publicKeysStage);
+		return stages;
+	}
+
+	private void logBenchmarkStages() {
+		PipelineStage<BenchmarkTask> lastStage = publicKeysStage;
+		if (lastStage == null) {
+			return;
+		}
+		long samplesRecorded = lastStage.getLatencyRecorder().getSamplesRecorded();
+		if (samplesRecorded > benchmarkSamplesLogged) {
+			benchmarkSamplesLogged = samplesRecorded;
+			for (PipelineStage<BenchmarkTask> stage : getBenchmarkStages()) {
+				LOGGER.info("Benchmark stage " + stage);
+			}
+		}
+	}
+
 	private void removeAsynchronousRemoteOrders(Order order, boolean removeAll) {
 		List<String> federationMembersServered = this.managerDataStoreController.getFederationMembersServeredBy(order.getId());
 		if (federationMembersServered == null) {
@@ -1558,40 +2114,39 @@ public class ManagerController {
 		}
 	}
 
-	protected void waitForSSHConnectivity(Instance instance) {
-		if (instance == null || instance.getAttributes() == null
+	protected boolean checkSSHConnectivity(Instance instance) {
+		if (instance.getAttributes() == null
 				|| instance.getAttributes().get(Instance.SSH_PUBLIC_ADDRESS_ATT) == null) {
-			return;
+			return true;
 		}
-		int retries = DEFAULT_MAX_IP_MONITORING_TRIES;
-		while (retries-- > 0) {
-			try {
-				Command sshOutput = execOnInstance(instance.getAttributes().get(Instance.SSH_PUBLIC_ADDRESS_ATT),
-						"echo HelloWorld");
-				if (sshOutput.getExitStatus() == 0) {
-					break;
-				}
-			} catch (Exception e) {
-				LOGGER.debug("Check for SSH connectivity failed. " + retries + " retries left.", e);
-			}
-			try {
-				Thread.sleep(DEFAULT_INSTANCE_IP_MONITORING_PERIOD);
-			} catch (InterruptedException e) {
-			}
+		try {
+			Command sshOutput = execOnInstance(instance.getAttributes().get(Instance.SSH_PUBLIC_ADDRESS_ATT),
+					"echo HelloWorld");
+			return sshOutput.getExitStatus() == 0;
+		} catch (Exception e) {
+			LOGGER.debug("Check for SSH connectivity failed.", e);
+			return false;
 		}
 	}
 
 	private Command execOnInstance(String sshPublicAddress, String cmd) throws Exception {
 		SSHClient sshClient = sshClientPool.getClient(sshPublicAddress, getSSHCommonUser(),
 				getManagerSSHPrivateKeyFilePath());
-		Session session = sshClient.startSession();
-		Command command = session.exec(cmd);
-		command.join();
-		return command;
+		try {
+			Session session = sshClient.startSession();
+			Command command = session.exec(cmd);
+			command.join();
+			return command;
+		} finally {
+			sshClientPool.releaseClient(sshPublicAddress, getSSHCommonUser());
+		}
 	}
 
 	protected void triggerOrderScheduler() {
 		if (this.forTest) { return; }		
+		if (isEventDrivenScheduling()) {
+			orderEventDispatcher.start();
+		}
 		String schedulerPeriodStr = properties.getProperty(ConfigurationConstants.SCHEDULER_PERIOD_KEY);
 		long schedulerPeriod = schedulerPeriodStr == null ? DEFAULT_SCHEDULER_PERIOD : Long.valueOf(schedulerPeriodStr);
 		orderSchedulerTimer.scheduleAtFixedRate(new TimerTask() {
@@ -1607,64 +2162,264 @@ public class ManagerController {
 	}
 
 	protected void checkAndSubmitOpenOrders() {
+		synchronized (schedulingRoundLock) {
+			failedBatch.clear();
+			LOGGER.debug("Checking and submiting orders.");
+	
+			// removing orders that reach timeout
+			checkPedingOrders();
+			List<Order> openOrders = new ArrayList<Order>(managerDataStoreController.getOrdersIn(OrderState.OPEN));
+			
+			if (submitOrders(openOrders)) {
+				LOGGER.info("All orders fulfilled.");
+			}
+		}
+		logTimeToSpawn();
+		logBenchmarkStages();
+	}
+	
+	/**
+	 * Submits the orders dispatched by the {@link OrderEventDispatcher},
+	 * reopening the pending ones that reached timeout. Rounds are serialized
+	 * with the periodic scan, which still runs as a safety net.
+	 */
+	protected void submitDispatchedOrders(List<String> orderIds) {
+		synchronized (schedulingRoundLock) {
+			failedBatch.clear();
+			LOGGER.debug("Submitting " + orderIds.size() + " dispatched orders.");
+			
+			List<Order> openOrders = new ArrayList<Order>();
+			for (String orderId : orderIds) {
+				Order order = managerDataStoreController.getOrder(orderId, true);
+				if (order == null) {
+					order = managerDataStoreController.getOrder(orderId, false);
+				}
+				if (order == null) {
+					continue;
+				}
+				if (order.getState().equals(OrderState.PENDING) && timoutReached(order.getSyncronousTime())) {
+					LOGGER.debug("The forwarded order " + order.getId() + " reached timeout and is being reopened.");
+					order.setState(OrderState.OPEN);
+					managerDataStoreController.updateOrder(order);
+				}
+				if (order.getState().equals(OrderState.OPEN)) {
+					openOrders.add(order);
+				}
+			}
+			submitOrders(openOrders);
+		}
+		logTimeToSpawn();
+	}
+	
+	private boolean submitOrders(List<Order> orders) {
+		if (getSchedulerWorkerPoolSize() > 1 && orders.size() > 1) {
+			return submitOpenOrdersConcurrently(orders);
+		}
+		return submitOpenOrders(orders);
+	}
+	
+	private void orderQueued(Order order) {
+		timeToSpawnRecorder.orderQueued(order.getId(), dateUtils.currentTimeMillis());
+		if (isEventDrivenScheduling()) {
+			orderEventDispatcher.dispatch(order.getId());
+		}
+	}
+	
+	private void logTimeToSpawn() {
+		long samplesRecorded = timeToSpawnRecorder.getSamplesRecorded();
+		if (samplesRecorded > timeToSpawnSamplesLogged) {
+			timeToSpawnSamplesLogged = samplesRecorded;
+			LOGGER.info("Time to " + OrderState.SPAWNING + " of the last " 
+					+ Math.min(samplesRecorded, OrderLatencyRecorder.DEFAULT_MAX_SAMPLES) + " orders ("
+					+ (isEventDrivenScheduling() ? "event-driven" : "polling") + " scheduling): "
+					+ timeToSpawnRecorder);
+		}
+	}
+	
+	private boolean isEventDrivenScheduling() {
+		String eventDrivenStr = properties.getProperty(ConfigurationConstants.SCHEDULER_EVENT_DRIVEN_KEY);
+		return eventDrivenStr == null || Boolean.parseBoolean(eventDrivenStr.trim());
+	}
+	
+	private boolean submitOpenOrders(List<Order> orders) {
 		boolean allFulfilled = true;
-		failedBatch.clear();
-		LOGGER.debug("Checking and submiting orders.");
-
-		// removing orders that reach timeout
-		checkPedingOrders();
-		for (Order order : new ArrayList<Order>(managerDataStoreController.getOrdersIn(OrderState.OPEN))) {
-			if (!order.getState().equals(OrderState.OPEN)) {
-				LOGGER.debug("The order " + order.getId() + " is no longer open.");
-				continue;
+		for (Order order : orders) {
+			allFulfilled &= submitOpenOrder(order);
+		}
+		return allFulfilled;
+	}
+	
+	/*
+	 * Splits the open orders in partitions of at most MAX_ORDERS_PER_THREAD
+	 * orders, keeping orders of the same batch together whenever possible
+	 * so the failed batch short-circuit still applies, and submits each
+	 * partition in the scheduler worker pool.
+	 */
+	private boolean submitOpenOrdersConcurrently(List<Order> orders) {
+		Map<String, List<Order>> ordersPerBatch = new LinkedHashMap<String, List<Order>>();
+		for (Order order : orders) {
+			String batchId = order.getAttValue(OrderAttribute.BATCH_ID.getValue());
+			List<Order> batchOrders = ordersPerBatch.get(batchId);
+			if (batchOrders == null) {
+				batchOrders = new ArrayList<Order>();
+				ordersPerBatch.put(batchId, batchOrders);
 			}
+			batchOrders.add(order);
+		}
+		
+		List<List<Order>> partitions = new ArrayList<List<Order>>();
+		List<Order> partition = new ArrayList<Order>();
+		for (List<Order> batchOrders : ordersPerBatch.values()) {
+			if (!partition.isEmpty() && partition.size() + batchOrders.size() > MAX_ORDERS_PER_THREAD) {
+				partitions.add(partition);
+				partition = new ArrayList<Order>();
+			}
+			for (Order order : batchOrders) {
+				if (partition.size() == MAX_ORDERS_PER_THREAD) {
+					partitions.add(partition);
+					partition = new ArrayList<Order>();
+				}
+				partition.add(order);
+			}
+		}
+		if (!partition.isEmpty()) {
+			partitions.add(partition);
+		}
+		LOGGER.debug("Submitting " + orders.size() + " open orders in " + partitions.size() + " partitions.");
+		
+		ExecutorService executor = getOrderSchedulerExecutor();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (final List<Order> ordersPartition : partitions) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return submitOpenOrders(ordersPartition);
+				}
+			}));
+		}
+		
+		boolean allFulfilled = true;
+		for (Future<Boolean> result : results) {
+			try {
+				allFulfilled &= result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while waiting for open orders to be submitted.", e);
+				return false;
+			} catch (ExecutionException e) {
+				LOGGER.error("Error while submitting open orders.", e.getCause());
+				allFulfilled = false;
+			}
+		}
+		return allFulfilled;
+	}
+	
+	/**
+	 * Submits an open order, claiming it first so that it is never submitted
+	 * by two scheduler workers at the same time.
+	 * 
+	 * @return false if the order could not be fulfilled yet
+	 */
+	protected boolean submitOpenOrder(Order order) {
+		if (!ordersBeingScheduled.add(order.getId())) {
+			LOGGER.debug("The order " + order.getId() + " is already being scheduled.");
+			return false;
+		}
+		try {
+			// the order may have been scheduled since the open orders were listed
+			Order currentOrder = managerDataStoreController.getOrder(order.getId(), order.isLocal());
+			if (currentOrder != null) {
+				order = currentOrder;
+			}
+			return scheduleOrder(order);
+		} finally {
+			ordersBeingScheduled.remove(order.getId());
+		}
+	}
+	
+	private boolean scheduleOrder(Order order) {
+		if (!order.getState().equals(OrderState.OPEN)) {
+			LOGGER.debug("The order " + order.getId() + " is no longer open.");
+			return true;
+		}
+		
+		LOGGER.debug(order.getId() + " being considered for scheduling.");
+		if (order.isIntoValidPeriod()) {
+			boolean isFulfilled = false;
 			
-			LOGGER.debug(order.getId() + " being considered for scheduling.");
-			if (order.isIntoValidPeriod()) {
-				boolean isFulfilled = false;
-				
-				if (order.isLocal()) {
-					String requirements = order.getRequirements();
-					List<FederationMember> allowedFederationMembers = getAllowedFederationMembers(requirements);
-
-					if (RequirementsHelper.matchLocation(requirements,
-							properties.getProperty(ConfigurationConstants.XMPP_JID_KEY))) {
-
-						if (!isFulfilled
-								&& !failedBatch.batchExists(order.getBatchId(), FailedBatchType.FEDERATION_USER)) {
-							isFulfilled = createLocalInstanceWithFederationUser(order);
-							if (!isFulfilled) {
-								failedBatch.failBatch(order.getBatchId(), FailedBatchType.FEDERATION_USER);
-							}
-						}
-					}
-					if (!isFulfilled) {
-						createAsynchronousRemoteInstance(order, allowedFederationMembers);
-					}
-					allFulfilled &= isFulfilled;
-				} else { // it is served Order
-					if (!failedBatch.batchExists(order.getBatchId(), FailedBatchType.FEDERATION_USER)) {
+			if (order.isLocal()) {
+				String requirements = order.getRequirements();
+				List<FederationMember> allowedFederationMembers = getAllowedFederationMembers(requirements);
+
+				if (RequirementsHelper.matchLocation(requirements,
+						properties.getProperty(ConfigurationConstants.XMPP_JID_KEY))) {
+
+					if (!isFulfilled
+							&& !failedBatch.batchExists(order.getBatchId(), FailedBatchType.FEDERATION_USER)) {
 						isFulfilled = createLocalInstanceWithFederationUser(order);
 						if (!isFulfilled) {
 							failedBatch.failBatch(order.getBatchId(), FailedBatchType.FEDERATION_USER);
 						}
 					}
-					allFulfilled &= isFulfilled;
 				}
-			} else if (order.isExpired()) {
-				order.setState(OrderState.CLOSED);
-				this.managerDataStoreController.updateOrder(order);
-			} else {
-				allFulfilled = false;
+				if (!isFulfilled) {
+					createAsynchronousRemoteInstance(order, allowedFederationMembers);
+				}
+				return isFulfilled;
+			} else { // it is served Order
+				if (!failedBatch.batchExists(order.getBatchId(), FailedBatchType.FEDERATION_USER)) {
+					isFulfilled = createLocalInstanceWithFederationUser(order);
+					if (!isFulfilled) {
+						failedBatch.failBatch(order.getBatchId(), FailedBatchType.FEDERATION_USER);
+					}
+				}
+				return isFulfilled;
 			}
+		} else if (order.isExpired()) {
+			order.setState(OrderState.CLOSED);
+			this.managerDataStoreController.updateOrder(order);
+			timeToSpawnRecorder.orderRemoved(order.getId());
+			return true;
+		}
+		return false;
+	}
+	
+	private int getSchedulerWorkerPoolSize() {
+		String workerPoolSizeStr = properties.getProperty(ConfigurationConstants.SCHEDULER_WORKER_POOL_SIZE_KEY);
+		try {
+			return workerPoolSizeStr == null ? DEFAULT_SCHEDULER_WORKER_POOL_SIZE 
+					: Integer.parseInt(workerPoolSizeStr.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.SCHEDULER_WORKER_POOL_SIZE_KEY + ": "
+					+ workerPoolSizeStr + ". Using " + DEFAULT_SCHEDULER_WORKER_POOL_SIZE + ".");
+			return DEFAULT_SCHEDULER_WORKER_POOL_SIZE;
 		}
-		if (allFulfilled) {
-			LOGGER.info("All orders fulfilled.");
+	}
+	
+	private synchronized ExecutorService getOrderSchedulerExecutor() {
+		if (orderSchedulerExecutor == null) {
+			orderSchedulerExecutor = Executors.newFixedThreadPool(getSchedulerWorkerPoolSize());
 		}
+		return orderSchedulerExecutor;
 	}
 
+	/**
+	 * The allowed members for each requirements are cached until the members
+	 * or the validator change.
+	 */
 	protected List<FederationMember> getAllowedFederationMembers(String requirements) {
-		List<FederationMember> federationMembers = new ArrayList<FederationMember>(members);
+		FederationMemberRegistry.Snapshot membersSnapshot = this.memberRegistry.getSnapshot();
+		List<FederationMember> allowedFederationMembers = membersSnapshot.getAllowedMembers(requirements);
+		if (allowedFederationMembers == null) {
+			allowedFederationMembers = filterAllowedFederationMembers(membersSnapshot.getMembers(),
+					requirements);
+			membersSnapshot.putAllowedMembers(requirements, allowedFederationMembers);
+		}
+		return new ArrayList<FederationMember>(allowedFederationMembers);
+	}
+
+	private List<FederationMember> filterAllowedFederationMembers(
+			List<FederationMember> federationMembers, String requirements) {
 		List<FederationMember> allowedFederationMembers = new ArrayList<FederationMember>();
 		for (FederationMember federationMember : federationMembers) {
 			if (federationMember.getId()
@@ -1688,9 +2443,15 @@ public class ManagerController {
 		this.monitoringHelper.checkFailedMonitoring(monitorPeriod);
 
 		List<Order> servedOrders = this.managerDataStoreController.getAllServedOrders();
+		Map<String, Boolean> instancesBeingUsed = checkInstancesBeingUsedByRemoteMembers(servedOrders);
 		for (Order order : servedOrders) {
 			try {
-				isInstanceBeingUsedByRemoteMember(order);
+				Boolean instanceBeingUsed = instancesBeingUsed.get(order.getId());
+				if (instanceBeingUsed == null) {
+					isInstanceBeingUsedByRemoteMember(order);
+				} else if (!instanceBeingUsed) {
+					throw new OCCIException(ErrorType.NOT_FOUND, ResponseConstants.NOT_FOUND);
+				}
 				this.monitoringHelper.eraseFailedMonitoringAttempts(order);
 				continue;
 			} catch (OCCIException e) {				
@@ -1716,6 +2477,53 @@ public class ManagerController {
 		}
 	}
 
+	/*
+	 * Asks each requesting member with several served orders whether their
+	 * instances are still being used in batched queries. Orders left out of
+	 * the result must be checked one by one.
+	 */
+	private Map<String, Boolean> checkInstancesBeingUsedByRemoteMembers(List<Order> servedOrders) {
+		Map<String, Map<String, String>> instanceIdsPerMember = new LinkedHashMap<String, Map<String, String>>();
+		for (Order servedOrder : servedOrders) {
+			String memberId = servedOrder.getRequestingMemberId();
+			if (memberId == null) {
+				continue;
+			}
+			Map<String, String> instanceIdPerOrderId = instanceIdsPerMember.get(memberId);
+			if (instanceIdPerOrderId == null) {
+				instanceIdPerOrderId = new LinkedHashMap<String, String>();
+				instanceIdsPerMember.put(memberId, instanceIdPerOrderId);
+			}
+			instanceIdPerOrderId.put(servedOrder.getId(), servedOrder.getGlobalInstanceId());
+		}
+		
+		Map<String, Boolean> instancesBeingUsed = new HashMap<String, Boolean>();
+		for (Entry<String, Map<String, String>> memberInstanceIds : instanceIdsPerMember.entrySet()) {
+			String memberId = memberInstanceIds.getKey();
+			Map<String, String> instanceIdPerOrderId = memberInstanceIds.getValue();
+			if (instanceIdPerOrderId.size() <= 1 || !supportsBatchedQueries(memberId)) {
+				continue;
+			}
+			try {
+				Set<String> ordersBeingUsed = ManagerPacketHelper.getOrdersWithInstancesBeingUsed(
+						memberId, instanceIdPerOrderId, packetSender);
+				if (ordersBeingUsed == null) {
+					backOffFromBatchedQueries(memberId);
+					continue;
+				}
+				batchedQueriesSupported(memberId);
+				for (String orderId : instanceIdPerOrderId.keySet()) {
+					instancesBeingUsed.put(orderId, ordersBeingUsed.contains(orderId));
+				}
+			} catch (Throwable e) {
+				LOGGER.debug("Could not check the instances being used by " + memberId 
+						+ " in a batched query.", e);
+				backOffFromBatchedQueries(memberId);
+			}
+		}
+		return instancesBeingUsed;
+	}
+
 	private boolean isInstanceBeingUsedByRemoteMember(Order servedOrder) {
 		String globalInstanceId = null;
 		try {
@@ -1745,16 +2553,18 @@ public class ManagerController {
 		long nowMilli = dateUtils.currentTimeMillis();
 		Date now = new Date(nowMilli);
 
-		String asyncOrderWaitingIntervalStr = properties
-				.getProperty(ConfigurationConstants.ASYNC_ORDER_WAITING_INTERVAL_KEY);
-		final int asyncRequestWaitingInterval = asyncOrderWaitingIntervalStr == null
-				? DEFAULT_ASYNC_ORDER_WAITING_INTERVAL : Integer.valueOf(asyncOrderWaitingIntervalStr);
-
 		Calendar c = Calendar.getInstance();
 		c.setTime(new Date(timeStamp));		
-		c.add(Calendar.MILLISECOND, asyncRequestWaitingInterval);
+		c.add(Calendar.MILLISECOND, getAsyncOrderWaitingInterval());
 		return now.after(c.getTime());
 	}
+	
+	private int getAsyncOrderWaitingInterval() {
+		String asyncOrderWaitingIntervalStr = properties
+				.getProperty(ConfigurationConstants.ASYNC_ORDER_WAITING_INTERVAL_KEY);
+		return asyncOrderWaitingIntervalStr == null
+				? DEFAULT_ASYNC_ORDER_WAITING_INTERVAL : Integer.valueOf(asyncOrderWaitingIntervalStr);
+	}
 
 	protected boolean createLocalInstanceWithFederationUser(Order order) {
 		LOGGER.info("Submitting order " + order + " with federation user locally.");
@@ -1824,23 +2634,28 @@ public class ManagerController {
 				order.setInstanceId(instanceId);
 				order.setProvidingMemberId(properties.getProperty(ConfigurationConstants.XMPP_JID_KEY));
 				this.managerDataStoreController.updateOrder(order);
+				timeToSpawnRecorder.orderSpawned(order.getId(), dateUtils.currentTimeMillis());
 				execBenchmark(order);
 				return instanceId != null;
 			} catch (OCCIException e) {
 				ErrorType errorType = e.getType();
 				if (errorType == ErrorType.QUOTA_EXCEEDED) {
 					LOGGER.warn("Order failed locally for quota exceeded.", e);
-					ArrayList<Order> ordersWithInstances = new ArrayList<Order>(
-							managerDataStoreController.getOrdersIn(OrderState.FULFILLED, OrderState.DELETED));
-					Order orderToPreempt = prioritizationPlugin.takeFrom(order, ordersWithInstances);
-					if (orderToPreempt == null) {
-						throw e;
+					// scheduler workers must not preempt the same order
+					synchronized (preemptionLock) {
+						ArrayList<Order> ordersWithInstances = new ArrayList<Order>(
+								managerDataStoreController.getOrdersIn(OrderState.FULFILLED, OrderState.DELETED));
+						Order orderToPreempt = prioritizationPlugin.takeFrom(order, ordersWithInstances);
+						if (orderToPreempt == null) {
+							throw e;
+						}
+						preemption(orderToPreempt);
+						checkInstancePreempted(federationUserToken, orderToPreempt);
 					}
-					preemption(orderToPreempt);
-					checkInstancePreempted(federationUserToken, orderToPreempt);
 					return createInstance(order);
 				} else if (errorType == ErrorType.UNAUTHORIZED) {
 					LOGGER.warn("Order failed locally for user unauthorized.", e);
+					checkLocalTokenRejected(federationUserToken, e);
 					return false;
 				} else if (errorType == ErrorType.BAD_REQUEST) {
 					LOGGER.warn("Order failed locally for image not found.", e);
@@ -1871,6 +2686,7 @@ public class ManagerController {
 				return instanceId != null;
 			} catch (OCCIException e) {
 				LOGGER.warn("Order failed locally.", e);
+				checkLocalTokenRejected(federationUserToken, e);
 				return false;
 			}		
 		} else if (isNetworkOrder) {
@@ -1889,6 +2705,7 @@ public class ManagerController {
 				return instanceId != null;
 			} catch (OCCIException e) {
 				LOGGER.warn("Order failed locally.", e);
+				checkLocalTokenRejected(federationUserToken, e);
 				return false;
 			}
 		} else {
@@ -1946,6 +2763,7 @@ public class ManagerController {
 
 	public void setValidator(FederationMemberAuthorizationPlugin validator) {
 		this.validator = validator;
+		this.memberRegistry.invalidate();
 	}
 
 	protected List<Order> getServedOrders() {
@@ -1994,6 +2812,24 @@ public class ManagerController {
 		List<Order> ordersFromUser = getOrdersFromUser(authToken);
 		List<Instance> allFullInstances = new ArrayList<Instance>();
 		LOGGER.debug("Getting all instances and your information.");
+
+		// every remote member is queried before any response is waited for
+		Map<String, RemoteOperationFuture<Instance>> remoteInstances = new HashMap<String, RemoteOperationFuture<Instance>>();
+		List<String> localOrderIds = new ArrayList<String>();
+		for (Order order : ordersFromUser) {
+			if (!order.getResourceKing().equals(OrderConstants.COMPUTE_TERM)) {
+				continue;
+			}
+			if (isFulfilledByLocalMember(order)) {
+				localOrderIds.add(order.getId());
+			} else {
+				LOGGER.debug(order.getInstanceId() + " is remote, going out to " + order.getProvidingMemberId()
+						+ " to get its information.");
+				remoteInstances.put(order.getId(), getRemoteInstanceAsync(order));
+			}
+		}
+		Map<String, Map<String, String>> localServiceAddresses = serviceAddressCache.getAll(localOrderIds);
+
 		for (Order order : ordersFromUser) {
 			if (!order.getResourceKing().equals(OrderConstants.COMPUTE_TERM)) {
 				continue;
@@ -2004,7 +2840,7 @@ public class ManagerController {
 				LOGGER.debug(order.getInstanceId() + " is local, getting its information in the local cloud.");
 				instance = this.computePlugin.getInstance(getFederationUserToken(order), order.getInstanceId());
 
-				Map<String, String> serviceAddresses = getExternalServiceAddresses(order.getId());
+				Map<String, String> serviceAddresses = localServiceAddresses.get(order.getId());
 				if (serviceAddresses != null) {
 					instance.addAttribute(Instance.SSH_PUBLIC_ADDRESS_ATT, serviceAddresses.get(SSH_SERVICE_NAME));
 					instance.addAttribute(Instance.SSH_USERNAME_ATT, getSSHCommonUser());
@@ -2017,9 +2853,7 @@ public class ManagerController {
 					instance.addResource(ResourceRepository.createImageResource(osCategory.getTerm()));
 				}
 			} else {
-				LOGGER.debug(order.getInstanceId() + " is remote, going out to " + order.getProvidingMemberId()
-						+ " to get its information.");
-				instance = getRemoteInstance(order);
+				instance = remoteInstances.get(order.getId()).getResult();
 			}
 			allFullInstances.add(instance);
 		}
@@ -2184,14 +3018,16 @@ public class ManagerController {
 	}
 	
 	protected class FailedBatch {
-		private Map<String, FailedBatchType> failedBatches = new HashMap<String, FailedBatchType>();
+		// orders without batch id share the same entry
+		private static final String NO_BATCH_ID = "";
+		private Map<String, FailedBatchType> failedBatches = new ConcurrentHashMap<String, FailedBatchType>();
 
 		public void failBatch(String batchId, FailedBatchType failedBatchType) {
-			failedBatches.put(batchId, failedBatchType);
+			failedBatches.put(toKey(batchId), failedBatchType);
 		}
 
 		public boolean batchExists(String batchId, FailedBatchType failedBatchType) {
-			if (failedBatches.get(batchId) != null) {
+			if (failedBatches.get(toKey(batchId)) != null) {
 				return true;
 			}
 			return false;
@@ -2202,7 +3038,7 @@ public class ManagerController {
 			HashMap<String, FailedBatchType> newFailedBatches = new HashMap<String, FailedBatchType>(failedBatches);
 			for (String key : newFailedBatches.keySet()) {
 				if (newFailedBatches.get(key).equals(failedBatchType)) {
-					failedBatchIds.add(key);
+					failedBatchIds.add(key.equals(NO_BATCH_ID) ? null : key);
 				}
 			}
 			return failedBatchIds;
@@ -2211,8 +3047,40 @@ public class ManagerController {
 		public void clear() {
 			failedBatches.clear();
 		}
+		
+		private String toKey(String batchId) {
+			return batchId == null ? NO_BATCH_ID : batchId;
+		}
 	}
 
 	protected enum FailedBatchType { FEDERATION_USER }
 
+
+	protected static class BenchmarkTask {
+
+		private final Order order;
+		private final long startTime;
+		private volatile Instance instance;
+
+		public BenchmarkTask(Order order, long startTime) {
+			this.order = order;
+			this.startTime = startTime;
+		}
+
+		public Order getOrder() {
+			return order;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public Instance getInstance() {
+			return instance;
+		}
+
+		public void setInstance(Instance instance) {
+			this.instance = instance;
+		}
+	}
 }
@@ -0,0 +1,129 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Queues the ids of orders that may be scheduled right away (new orders,
+ * reopened persistent orders and pending orders reaching their timeout) and
+ * hands them to the {@link OrderEventHandler} from a single dispatcher
+ * thread, draining every queued id at once. An order queued several times
+ * before being dispatched is handled only once. Events are ignored until
+ * the dispatcher is started.
+ */
+public class OrderEventDispatcher {
+
+	private static final Logger LOGGER = Logger.getLogger(OrderEventDispatcher.class);
+
+	public interface OrderEventHandler {
+
+		void handle(List<String> orderIds);
+
+	}
+
+	private final OrderEventHandler handler;
+	private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+	private final Set<String> queuedOrderIds = Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+	private ScheduledExecutorService delayedEventsExecutor;
+	private volatile Thread dispatcherThread;
+
+	public OrderEventDispatcher(OrderEventHandler handler) {
+		this.handler = handler;
+	}
+
+	public synchronized void start() {
+		if (dispatcherThread != null) {
+			return;
+		}
+		delayedEventsExecutor = Executors.newSingleThreadScheduledExecutor();
+		dispatcherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchEvents();
+			}
+		}, "order-event-dispatcher");
+		dispatcherThread.setDaemon(true);
+		dispatcherThread.start();
+		LOGGER.debug("Order event dispatcher started.");
+	}
+
+	public synchronized void stop() {
+		if (dispatcherThread == null) {
+			return;
+		}
+		dispatcherThread.interrupt();
+		dispatcherThread = null;
+		delayedEventsExecutor.shutdownNow();
+		delayedEventsExecutor = null;
+		queue.clear();
+		queuedOrderIds.clear();
+	}
+
+	public boolean isStarted() {
+		return dispatcherThread != null;
+	}
+
+	/**
+	 * @return false if the event was ignored, either because the dispatcher
+	 *         is not started or because the order is already queued
+	 */
+	public boolean dispatch(String orderId) {
+		if (!isStarted() || orderId == null) {
+			return false;
+		}
+		if (!queuedOrderIds.add(orderId)) {
+			return false;
+		}
+		return queue.offer(orderId);
+	}
+
+	public synchronized boolean dispatchLater(final String orderId, long delay) {
+		if (!isStarted() || orderId == null) {
+			return false;
+		}
+		delayedEventsExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				dispatch(orderId);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	protected int getQueueSize() {
+		return queue.size();
+	}
+
+	private void dispatchEvents() {
+		while (!Thread.currentThread().isInterrupted()) {
+			List<String> orderIds = new ArrayList<String>();
+			try {
+				orderIds.add(queue.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			queue.drainTo(orderIds);
+			queuedOrderIds.removeAll(orderIds);
+
+			LOGGER.debug("Dispatching events of " + orderIds.size() + " orders.");
+			try {
+				handler.handle(orderIds);
+			} catch (Throwable e) {
+				LOGGER.error("Error while handling events of orders " + orderIds, e);
+			}
+		}
+		LOGGER.debug("Order event dispatcher stopped.");
+	}
+}
@@ -0,0 +1,87 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how long orders take from being queued to reaching SPAWNING and
+ * keeps the latest samples to compute percentiles of that time.
+ */
+public class OrderLatencyRecorder {
+
+	protected static final int DEFAULT_MAX_SAMPLES = 1000;
+	// orders that never spawn are not recorded beyond this
+	protected static final int MAX_QUEUED_ORDERS = 10000;
+
+	private final int maxSamples;
+	private final Map<String, Long> queuedTimes = new ConcurrentHashMap<String, Long>();
+	private final LinkedList<Long> samples = new LinkedList<Long>();
+	private long samplesRecorded = 0;
+
+	public OrderLatencyRecorder() {
+		this(DEFAULT_MAX_SAMPLES);
+	}
+
+	public OrderLatencyRecorder(int maxSamples) {
+		this.maxSamples = maxSamples;
+	}
+
+	public void orderQueued(String orderId, long timeMillis) {
+		if (queuedTimes.size() >= MAX_QUEUED_ORDERS) {
+			return;
+		}
+		queuedTimes.put(orderId, timeMillis);
+	}
+
+	public void orderSpawned(String orderId, long timeMillis) {
+		Long queuedTime = queuedTimes.remove(orderId);
+		if (queuedTime == null) {
+			return;
+		}
+		synchronized (samples) {
+			samples.addLast(Math.max(0, timeMillis - queuedTime));
+			if (samples.size() > maxSamples) {
+				samples.removeFirst();
+			}
+			samplesRecorded++;
+		}
+	}
+
+	public void orderRemoved(String orderId) {
+		queuedTimes.remove(orderId);
+	}
+
+	public long getSamplesRecorded() {
+		synchronized (samples) {
+			return samplesRecorded;
+		}
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the time in milliseconds below which the given percentile of
+	 *         the latest samples are, or -1 if there are no samples
+	 */
+	public long getPercentile(double percentile) {
+		List<Long> sortedSamples;
+		synchronized (samples) {
+			sortedSamples = new ArrayList<Long>(samples);
+		}
+		if (sortedSamples.isEmpty()) {
+			return -1;
+		}
+		Collections.sort(sortedSamples);
+		int rank = (int) Math.ceil(percentile / 100 * sortedSamples.size());
+		return sortedSamples.get(Math.min(Math.max(rank, 1), sortedSamples.size()) - 1);
+	}
+
+	@Override
+	public String toString() {
+		return "p50=" + getPercentile(50) + "ms, p90=" + getPercentile(90) + "ms, p99="
+				+ getPercentile(99) + "ms";
+	}
+}
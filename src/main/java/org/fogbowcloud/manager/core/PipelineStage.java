@@ -0,0 +1,202 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.model.DateUtils;
+
+/**
+ * One stage of a pipeline of work, with its own bounded pool of workers.
+ * Workers make one attempt at an item at a time, oldest item first. An
+ * attempt that could not finish yet, e.g. because an instance is still
+ * booting, is scheduled to be retried later, so that waiting items do not
+ * hold workers. The stage keeps how many items wait for a worker or for a
+ * retry and how long items take to go through it. Once the stage is shut
+ * down, items submitted or retried on it are dropped.
+ */
+public class PipelineStage<T> {
+
+	private static final Logger LOGGER = Logger.getLogger(PipelineStage.class);
+
+	private final String name;
+	private final Step<T> step;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final ScheduledExecutorService retryScheduler;
+	private final long retryPeriod;
+	private final int maxAttempts;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger waitingForRetry = new AtomicInteger();
+	private final AtomicLong sequence = new AtomicLong();
+	private final OrderLatencyRecorder latencyRecorder = new OrderLatencyRecorder();
+	private volatile boolean shutdown = false;
+	private DateUtils dateUtils = new DateUtils();
+
+	public PipelineStage(String name, Step<T> step, int workers,
+			ScheduledExecutorService retryScheduler, long retryPeriod, int maxAttempts) {
+		this(name, step, new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>()), true, retryScheduler, retryPeriod, maxAttempts);
+	}
+
+	/**
+	 * Runs the stage on the given executor, which is left running when the
+	 * stage is shut down.
+	 */
+	public PipelineStage(String name, Step<T> step, ExecutorService executor,
+			ScheduledExecutorService retryScheduler, long retryPeriod, int maxAttempts) {
+		this(name, step, executor, false, retryScheduler, retryPeriod, maxAttempts);
+	}
+
+	private PipelineStage(String name, Step<T> step, ExecutorService executor, boolean ownsExecutor,
+			ScheduledExecutorService retryScheduler, long retryPeriod, int maxAttempts) {
+		this.name = name;
+		this.step = step;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.retryScheduler = retryScheduler;
+		this.retryPeriod = retryPeriod;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @param priority items with lower priority values are attempted first,
+	 *        e.g. the time they entered the pipeline
+	 */
+	public void submit(T item, long priority) {
+		Attempt attempt = new Attempt(item, priority, sequence.incrementAndGet());
+		latencyRecorder.orderQueued(attempt.getId(), dateUtils.currentTimeMillis());
+		execute(attempt);
+	}
+
+	private void execute(Attempt attempt) {
+		if (shutdown) {
+			LOGGER.debug("Stage " + name + " is shut down, dropping attempt " + attempt.getId() + ".");
+			return;
+		}
+		queued.incrementAndGet();
+		executor.execute(attempt);
+	}
+
+	private void retry(final Attempt attempt) {
+		if (shutdown) {
+			return;
+		}
+		waitingForRetry.incrementAndGet();
+		retryScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				waitingForRetry.decrementAndGet();
+				execute(attempt);
+			}
+		}, retryPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the number of items waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	public int getWaitingForRetry() {
+		return waitingForRetry.get();
+	}
+
+	/**
+	 * @return the time items took from being submitted to leaving the stage
+	 */
+	public OrderLatencyRecorder getLatencyRecorder() {
+		return latencyRecorder;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void shutdown() {
+		shutdown = true;
+		if (ownsExecutor) {
+			executor.shutdownNow();
+		}
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": queued=" + getQueueDepth() + ", waiting for retry=" + getWaitingForRetry()
+				+ ", " + latencyRecorder;
+	}
+
+	public interface Step<T> {
+
+		/**
+		 * @return true if the stage is done with the item, false if it must
+		 *         be attempted again later
+		 */
+		boolean attempt(T item) throws Exception;
+
+		/**
+		 * Called when the stage leaves the item, either because it is done
+		 * with it or because all attempts failed.
+		 */
+		void leave(T item, boolean done);
+	}
+
+	private class Attempt implements Runnable, Comparable<Attempt> {
+
+		private final T item;
+		private final long priority;
+		private final long sequence;
+		private int attempts = 0;
+
+		public Attempt(T item, long priority, long sequence) {
+			this.item = item;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		public String getId() {
+			return String.valueOf(sequence);
+		}
+
+		@Override
+		public void run() {
+			queued.decrementAndGet();
+			attempts++;
+			boolean done = false;
+			try {
+				done = step.attempt(item);
+			} catch (Throwable e) {
+				LOGGER.debug("Attempt " + attempts + " of " + maxAttempts + " on stage " + name
+						+ " failed.", e);
+			}
+			if (!done && attempts < maxAttempts) {
+				retry(this);
+				return;
+			}
+			latencyRecorder.orderSpawned(getId(), dateUtils.currentTimeMillis());
+			try {
+				step.leave(item, done);
+			} catch (Throwable e) {
+				LOGGER.error("Error while leaving stage " + name + ".", e);
+			}
+		}
+
+		@Override
+		public int compareTo(Attempt other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
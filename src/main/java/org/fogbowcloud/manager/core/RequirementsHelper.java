@@ -3,7 +3,10 @@ package org.fogbowcloud.manager.core;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.fogbowcloud.manager.core.model.Flavor;
 
@@ -21,6 +24,12 @@ public class RequirementsHelper {
 	public static final String GLUE_VCPU_TERM = "Glue2vCPU";
 	public static final String GLUE_DISK_TERM = "Glue2Disk";
 	public static final String GLUE_MEM_RAM_TERM = "Glue2RAM";
+	protected static final int MAX_CACHED_REQUIREMENTS = 1000;
+
+	private static final LRUCache<String, CompiledRequirements> COMPILED_REQUIREMENTS =
+			new LRUCache<String, CompiledRequirements>(MAX_CACHED_REQUIREMENTS);
+	private static final LRUCache<String, RecordExpr> RECORDS =
+			new LRUCache<String, RecordExpr>(MAX_CACHED_REQUIREMENTS);
 
 	public static boolean checkSyntax(String requirementsString) {
 		if (requirementsString == null || requirementsString.isEmpty()) {
@@ -39,12 +48,13 @@ public class RequirementsHelper {
 		if (requirementsStr == null) {
 			return ZERO;
 		}
-		ClassAdParser classAdParser = new ClassAdParser(requirementsStr);
-		Expr parsedClassAd = classAdParser.parse();
-		if (!(parsedClassAd instanceof Op)) {
+		return compile(requirementsStr).getSmallestValue(attrName);
+	}
+
+	private static String calculateSmallestValue(Op expr, String attrName) {
+		if (expr == null) {
 			return ZERO;
 		}
-		Op expr = (Op) parsedClassAd;		
 		Expr variableExpression = extractVariableExpression(expr, attrName);
 		if (variableExpression == null || !(variableExpression instanceof Op)) {
 			return ZERO;
@@ -74,7 +84,7 @@ public class RequirementsHelper {
 	
 	private static boolean checkValue(Op op, String attrName, String value) {
 		Env env = new Env();
-		env.push((RecordExpr) new ClassAdParser("[" + attrName + " = " + value + "]").parse());
+		env.push(getRecord(attrName, value));
 		return op.eval(env).isTrue();		
 	}
 	
@@ -84,8 +94,11 @@ public class RequirementsHelper {
 				return true;
 			}
 			
-			ClassAdParser classAdParser = new ClassAdParser(requirementsStr);		
-			Op expr = (Op) classAdParser.parse();
+			CompiledRequirements compiledRequirements = compile(requirementsStr);
+			Op expr = compiledRequirements.getExpr();
+			if (expr == null) {
+				return true;
+			}
 			
 			List<String> listAttrSearched = new ArrayList<String>();
 			List<String> listAttrProvided = new ArrayList<String>();
@@ -96,7 +109,7 @@ public class RequirementsHelper {
 			Env env = new Env();
 			String value = null;
 			for (String attr : listAttrProvided) {
-				List<ValueAndOperator> findValuesInRequiremets = findValuesInRequiremets(expr, attr);
+				List<ValueAndOperator> findValuesInRequiremets = compiledRequirements.getValues(attr);
 				if (findValuesInRequiremets.size() > 0) {
 					listAttrSearched.add(attr);
 					if (attr.equals(RequirementsHelper.GLUE_DISK_TERM) 
@@ -121,14 +134,14 @@ public class RequirementsHelper {
 							listAttrSearched.remove(attr);
 						}
 					}
-					env.push((RecordExpr) new ClassAdParser("[" + attr + " = " + value + "]").parse());
+					env.push(getRecord(attr, value));
 				}
 			}					
 			
 			if (listAttrSearched.isEmpty()) {
 				return true;
 			}
-			expr = extractVariablesExpression(expr, listAttrSearched);
+			expr = compiledRequirements.getVariablesExpression(listAttrSearched);
 			
 			return expr.eval(env).isTrue();
 		} catch (Exception e) {
@@ -233,16 +246,12 @@ public class RequirementsHelper {
 			return true;
 		}
 		
-		ClassAdParser classAdParser = new ClassAdParser(requirementsStr);
-		Op expr = (Op) classAdParser.parse();
-
+		Expr opForAtt = compile(requirementsStr).getLocationExpression();
+		
 		valueLocation = quoteLocation(valueLocation);
 		Env env = new Env();
-		env.push((RecordExpr) new ClassAdParser("[" + GLUE_LOCATION_TERM + " = " + valueLocation
-				+ "]").parse());
+		env.push(getRecord(GLUE_LOCATION_TERM, valueLocation));
 
-		Expr opForAtt = extractVariableExpression(expr, GLUE_LOCATION_TERM);
-		
 		if (opForAtt == null) {
 			return false;
 		}
@@ -276,32 +285,204 @@ public class RequirementsHelper {
 	}
 
 	public static List<String> getLocations(String requirementsStr) {
-		List<String> locations = new ArrayList<String>();
 		if (requirementsStr == null || requirementsStr.isEmpty()) {
-			return locations;
+			return new ArrayList<String>();
+		}
+		return new ArrayList<String>(compile(requirementsStr).getLocations());
+	}
+	
+	public static boolean hasLocation(String requirementsStr) {
+		if (requirementsStr == null || requirementsStr.isEmpty()) {
+			return false;
+		}
+		return !compile(requirementsStr).getLocations().isEmpty();
+	}
+
+	/**
+	 * @return the parsed requirements, from the cache when they were parsed
+	 *         recently
+	 */
+	protected static CompiledRequirements compile(String requirementsStr) {
+		CompiledRequirements compiledRequirements = COMPILED_REQUIREMENTS.get(requirementsStr);
+		if (compiledRequirements == null) {
+			compiledRequirements = new CompiledRequirements(requirementsStr);
+			COMPILED_REQUIREMENTS.put(requirementsStr, compiledRequirements);
+		}
+		return compiledRequirements;
+	}
+
+	private static RecordExpr getRecord(String attrName, String value) {
+		String record = "[" + attrName + " = " + value + "]";
+		RecordExpr recordExpr = RECORDS.get(record);
+		if (recordExpr == null) {
+			recordExpr = (RecordExpr) new ClassAdParser(record).parse();
+			RECORDS.put(record, recordExpr);
+		}
+		return recordExpr;
+	}
+
+	protected static void clearCache() {
+		COMPILED_REQUIREMENTS.clear();
+		RECORDS.clear();
+	}
+
+	/**
+	 * Requirements parsed once, with the attribute values, locations and
+	 * sub-expressions that matching needs. Parsed expressions are only read
+	 * when evaluated, so a compiled requirements is shared between threads.
+	 */
+	protected static class CompiledRequirements {
+
+		private final Op expr;
+		private final Map<String, List<ValueAndOperator>> values = new HashMap<String, List<ValueAndOperator>>();
+		private final List<String> locations = new ArrayList<String>();
+		private final Op locationExpression;
+		private final Map<List<String>, Op> variablesExpressions = new HashMap<List<String>, Op>();
+		private final Map<String, String> smallestValues = new HashMap<String, String>();
+		private final List<LowerBound> lowerBounds;
+
+		public CompiledRequirements(String requirementsStr) {
+			Expr parsedClassAd = new ClassAdParser(requirementsStr).parse();
+			this.expr = parsedClassAd instanceof Op ? (Op) parsedClassAd : null;
+			if (expr == null) {
+				this.locationExpression = null;
+				this.lowerBounds = null;
+				return;
+			}
+			for (ValueAndOperator valueAndOperator : getValues(GLUE_LOCATION_TERM)) {
+				if (valueAndOperator.getOperator() == RecordExpr.EQUAL) {
+					locations.add(valueAndOperator.getValue());
+				}
+			}
+			this.locationExpression = locations.isEmpty() ? null : extractVariableExpression(expr,
+					GLUE_LOCATION_TERM);
+			List<LowerBound> bounds = new ArrayList<LowerBound>();
+			this.lowerBounds = findLowerBounds(expr, bounds) ? bounds : null;
+		}
+
+		/**
+		 * @return the bounds on flavor attributes when the requirements only
+		 *         join lower bounds on them with "&&", null otherwise
+		 */
+		public List<LowerBound> getLowerBounds() {
+			return lowerBounds;
+		}
+
+		private static boolean findLowerBounds(Op expr, List<LowerBound> bounds) {
+			if (expr.op == Expr.AND) {
+				return expr.arg1 instanceof Op && findLowerBounds((Op) expr.arg1, bounds)
+						&& expr.arg2 instanceof Op && findLowerBounds((Op) expr.arg2, bounds);
+			}
+			if (!(expr.arg1 instanceof AttrRef)) {
+				return false;
+			}
+			String attrName = ((AttrRef) expr.arg1).name.rawString();
+			if (!attrName.equals(GLUE_VCPU_TERM) && !attrName.equals(GLUE_MEM_RAM_TERM)
+					&& !attrName.equals(GLUE_DISK_TERM)) {
+				// other attributes are not evaluated against flavors
+				return true;
+			}
+			if (expr.op != Expr.GREATER_EQ && expr.op != Expr.GREATER_THAN) {
+				return false;
+			}
+			try {
+				bounds.add(new LowerBound(attrName, Double.parseDouble(expr.arg2.toString()),
+						expr.op == Expr.GREATER_EQ));
+				return true;
+			} catch (Exception e) {
+				return false;
+			}
+		}
+
+		public Op getExpr() {
+			return expr;
 		}
-		ClassAdParser classAdParser = new ClassAdParser(requirementsStr);
-		Expr parsedClassAd = classAdParser.parse();
-		if (!(parsedClassAd instanceof Op)) {
+
+		public List<String> getLocations() {
 			return locations;
 		}
-		Op expr = (Op) parsedClassAd;
-		List<ValueAndOperator> findValuesInRequiremets = findValuesInRequiremets(expr,
-				GLUE_LOCATION_TERM);
-		for (ValueAndOperator valueAndOperator : findValuesInRequiremets) {
-			if (valueAndOperator.getOperator() == RecordExpr.EQUAL) {
-				locations.add(valueAndOperator.getValue());
+
+		public Op getLocationExpression() {
+			return locationExpression;
+		}
+
+		public synchronized List<ValueAndOperator> getValues(String attrName) {
+			List<ValueAndOperator> attrValues = values.get(attrName);
+			if (attrValues == null) {
+				attrValues = findValuesInRequiremets(expr, attrName);
+				values.put(attrName, attrValues);
 			}
+			return attrValues;
+		}
+
+		public synchronized Op getVariablesExpression(List<String> attrNames) {
+			if (!variablesExpressions.containsKey(attrNames)) {
+				List<String> key = new ArrayList<String>(attrNames);
+				variablesExpressions.put(key, extractVariablesExpression(expr, key));
+			}
+			return variablesExpressions.get(attrNames);
+		}
+
+		public synchronized String getSmallestValue(String attrName) {
+			String smallestValue = smallestValues.get(attrName);
+			if (smallestValue == null) {
+				smallestValue = calculateSmallestValue(expr, attrName);
+				smallestValues.put(attrName, smallestValue);
+			}
+			return smallestValue;
 		}
-		return locations;
 	}
-	
-	public static boolean hasLocation(String requirementsStr) {
-		List<String> locationsInRequiremets = getLocations(requirementsStr);
-		if (locationsInRequiremets.isEmpty()) {
-			return false;
+
+	protected static class LowerBound {
+
+		private final String attrName;
+		private final double value;
+		private final boolean inclusive;
+
+		public LowerBound(String attrName, double value, boolean inclusive) {
+			this.attrName = attrName;
+			this.value = value;
+			this.inclusive = inclusive;
+		}
+
+		public String getAttrName() {
+			return attrName;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public boolean isSatisfiedBy(double attrValue) {
+			return inclusive ? attrValue >= value : attrValue > value;
+		}
+	}
+
+	private static class LRUCache<K, V> {
+
+		private final Map<K, V> entries;
+
+		@SuppressWarnings("serial")
+		public LRUCache(final int maxSize) {
+			this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		public synchronized V get(K key) {
+			return entries.get(key);
+		}
+
+		public synchronized void put(K key, V value) {
+			entries.put(key, value);
+		}
+
+		public synchronized void clear() {
+			entries.clear();
 		}
-		return true;
 	}
 
 	protected static class ValueAndOperator {
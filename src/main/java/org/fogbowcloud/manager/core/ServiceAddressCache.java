@@ -0,0 +1,327 @@
+package org.fogbowcloud.manager.core;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.json.JSONObject;
+
+/**
+ * Addresses of the services of instances reached through the reverse
+ * tunnel, i.e. the public address of the token host and the port each
+ * service is forwarded to, by the id of the order of the instance. Ports only
+ * change when an instance establishes its tunnels again, so addresses are
+ * kept, by default, for two monitoring periods, so that they outlive the gap
+ * between two monitoring passes, and are dropped when the instance is
+ * removed. Instances whose SSH service can not be reached yet are not cached,
+ * so that they are found as soon as their tunnels are up. The token host
+ * answers for one order per call, so the addresses missing when listing many
+ * instances are looked up concurrently, by a bounded pool of daemon threads.
+ */
+public class ServiceAddressCache {
+
+	private static final Logger LOGGER = Logger.getLogger(ServiceAddressCache.class);
+
+	protected static final String SSH_SERVICE_NAME = "ssh";
+	protected static final int MONITORING_PERIODS_PER_TTL = 2;
+	protected static final int DEFAULT_MAX_CONCURRENT_LOOKUPS = 10;
+	private static final long IDLE_LOOKUP_THREAD_TIMEOUT = 60; // seconds
+
+	private final Properties properties;
+	private final HttpClient httpClient;
+	private final long ttl;
+	private final ConcurrentMap<String, CachedAddresses> addresses =
+			new ConcurrentHashMap<String, CachedAddresses>();
+	private final ExecutorService lookupExecutor;
+	private DateUtils dateUtils = new DateUtils();
+
+	public ServiceAddressCache(Properties properties, HttpClient httpClient) {
+		this(properties, httpClient, getTtl(properties), getMaxConcurrentLookups(properties));
+	}
+
+	public ServiceAddressCache(Properties properties, HttpClient httpClient, long ttl) {
+		this(properties, httpClient, ttl, DEFAULT_MAX_CONCURRENT_LOOKUPS);
+	}
+
+	public ServiceAddressCache(Properties properties, HttpClient httpClient, long ttl,
+			int maxConcurrentLookups) {
+		this.properties = properties;
+		this.httpClient = httpClient;
+		this.ttl = ttl;
+		int lookupThreads = Math.max(1, maxConcurrentLookups);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(lookupThreads, lookupThreads,
+				IDLE_LOOKUP_THREAD_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "service-address-lookup-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		this.lookupExecutor = executor;
+	}
+
+	/**
+	 * @return the addresses of the services of the instance of the given
+	 *         order by service name, or null if its SSH service can not be
+	 *         reached yet. The returned map belongs to the caller.
+	 */
+	public Map<String, String> get(String orderId) {
+		if (orderId == null || orderId.isEmpty()) {
+			return null;
+		}
+		CachedAddresses cachedAddresses = getCached(orderId);
+		if (cachedAddresses == null) {
+			Map<String, String> serviceAddresses = lookup(orderId);
+			if (serviceAddresses != null) {
+				put(orderId, serviceAddresses);
+			}
+			return serviceAddresses;
+		}
+		return new HashMap<String, String>(cachedAddresses.serviceAddresses);
+	}
+
+	/**
+	 * Like {@link #get(String)} for every given order, looking up the
+	 * addresses that are not cached concurrently.
+	 * 
+	 * @return the addresses of the services of the instances, by order id.
+	 *         Orders whose SSH service can not be reached yet are left out.
+	 */
+	public Map<String, Map<String, String>> getAll(Collection<String> orderIds) {
+		Map<String, Map<String, String>> found = new LinkedHashMap<String, Map<String, String>>();
+		Map<String, Future<Map<String, String>>> lookups = new LinkedHashMap<String, Future<Map<String, String>>>();
+		for (final String orderId : orderIds) {
+			if (orderId == null || orderId.isEmpty() || found.containsKey(orderId)
+					|| lookups.containsKey(orderId)) {
+				continue;
+			}
+			CachedAddresses cachedAddresses = getCached(orderId);
+			if (cachedAddresses != null) {
+				found.put(orderId, new HashMap<String, String>(cachedAddresses.serviceAddresses));
+				continue;
+			}
+			try {
+				lookups.put(orderId, lookupExecutor.submit(new Callable<Map<String, String>>() {
+					@Override
+					public Map<String, String> call() throws Exception {
+						return lookup(orderId);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				LOGGER.warn("Could not look up the service addresses of order " + orderId
+						+ " concurrently.", e);
+				found.put(orderId, lookup(orderId));
+			}
+		}
+
+		try {
+			for (Entry<String, Future<Map<String, String>>> lookup : lookups.entrySet()) {
+				found.put(lookup.getKey(), getLookupResult(lookup.getKey(), lookup.getValue()));
+			}
+		} finally {
+			for (Future<Map<String, String>> lookup : lookups.values()) {
+				lookup.cancel(true);
+			}
+		}
+
+		Iterator<Entry<String, Map<String, String>>> iterator = found.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Map<String, String>> serviceAddresses = iterator.next();
+			if (serviceAddresses.getValue() == null) {
+				iterator.remove();
+			} else if (lookups.containsKey(serviceAddresses.getKey())) {
+				put(serviceAddresses.getKey(), serviceAddresses.getValue());
+			}
+		}
+		return found;
+	}
+
+	public void invalidate(String orderId) {
+		if (orderId != null) {
+			addresses.remove(orderId);
+		}
+	}
+
+	public void shutdown() {
+		lookupExecutor.shutdownNow();
+		addresses.clear();
+	}
+
+	protected int size() {
+		return addresses.size();
+	}
+
+	protected long getTtl() {
+		return ttl;
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	private CachedAddresses getCached(String orderId) {
+		CachedAddresses cachedAddresses = addresses.get(orderId);
+		if (cachedAddresses == null) {
+			return null;
+		}
+		if (cachedAddresses.expirationTime <= dateUtils.currentTimeMillis()) {
+			addresses.remove(orderId, cachedAddresses);
+			return null;
+		}
+		return cachedAddresses;
+	}
+
+	private void put(String orderId, Map<String, String> serviceAddresses) {
+		if (ttl <= 0) {
+			return;
+		}
+		addresses.put(orderId, new CachedAddresses(
+				Collections.unmodifiableMap(new HashMap<String, String>(serviceAddresses)),
+				dateUtils.currentTimeMillis() + ttl));
+	}
+
+	private Map<String, String> getLookupResult(String orderId, Future<Map<String, String>> lookup) {
+		try {
+			return lookup.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while looking up the service addresses of order " + orderId + ".", e);
+		} catch (ExecutionException e) {
+			LOGGER.warn("Could not look up the service addresses of order " + orderId + ".", e.getCause());
+		}
+		return null;
+	}
+
+	private Map<String, String> lookup(String orderId) {
+		String tokenHostUrl = getTokenHostUrl();
+		if (tokenHostUrl == null) {
+			return null;
+		}
+		HttpResponse response = null;
+		try {
+			response = httpClient.execute(new HttpGet(tokenHostUrl + "/token/" + orderId + "/all"));
+			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+				return toServiceAddresses(new JSONObject(EntityUtils.toString(response.getEntity())));
+			}
+		} catch (Throwable e) {
+			LOGGER.warn("", e);
+		} finally {
+			close(response);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, String> toServiceAddresses(JSONObject jsonPorts) {
+		if (jsonPorts.isNull(SSH_SERVICE_NAME)) {
+			return null;
+		}
+		Iterator<String> serviceIterator = jsonPorts.keys();
+		Map<String, String> servicePerAddress = new HashMap<String, String>();
+		String sshPublicHostIP = properties.getProperty(ConfigurationConstants.TOKEN_HOST_PUBLIC_ADDRESS_KEY);
+		while (serviceIterator.hasNext()) {
+			String service = (String) serviceIterator.next();
+			String port = jsonPorts.optString(service);
+			servicePerAddress.put(service, sshPublicHostIP + ":" + port);
+		}
+		return servicePerAddress;
+	}
+
+	private String getTokenHostUrl() {
+		String hostAddr = properties.getProperty(ConfigurationConstants.TOKEN_HOST_PRIVATE_ADDRESS_KEY);
+		if (hostAddr == null) {
+			return null;
+		}
+		String httpHostPort = properties.getProperty(ConfigurationConstants.TOKEN_HOST_HTTP_PORT_KEY);
+		return "http://" + hostAddr + ":" + httpHostPort;
+	}
+
+	private static void close(HttpResponse response) {
+		if (response != null && response.getEntity() != null) {
+			try {
+				response.getEntity().getContent().close();
+			} catch (IOException e) {
+				// Best effort, may fail if the content was already closed.
+			}
+		}
+	}
+
+	/*
+	 * Addresses are looked up when the instances are monitored, by this
+	 * member and by the members served, so by default they are kept for
+	 * longer than the longest of both monitoring periods.
+	 */
+	private static long getTtl(Properties properties) {
+		long defaultTtl = MONITORING_PERIODS_PER_TTL * Math.max(
+				ManagerControllerHelper.getInstanceMonitoringPeriod(properties),
+				ManagerControllerHelper.getServerOrderMonitoringPeriod(properties));
+		String ttlStr = properties.getProperty(ConfigurationConstants.SERVICE_ADDRESSES_CACHE_TTL_KEY);
+		if (ttlStr == null || ttlStr.isEmpty()) {
+			return defaultTtl;
+		}
+		try {
+			return Long.parseLong(ttlStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.SERVICE_ADDRESSES_CACHE_TTL_KEY + ": "
+					+ ttlStr + ", using " + defaultTtl + ".");
+			return defaultTtl;
+		}
+	}
+
+	private static int getMaxConcurrentLookups(Properties properties) {
+		String maxStr = properties.getProperty(
+				ConfigurationConstants.SERVICE_ADDRESSES_MAX_CONCURRENT_LOOKUPS_KEY);
+		if (maxStr == null || maxStr.isEmpty()) {
+			return DEFAULT_MAX_CONCURRENT_LOOKUPS;
+		}
+		try {
+			return Integer.parseInt(maxStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.SERVICE_ADDRESSES_MAX_CONCURRENT_LOOKUPS_KEY
+					+ ": " + maxStr + ", using " + DEFAULT_MAX_CONCURRENT_LOOKUPS + ".");
+			return DEFAULT_MAX_CONCURRENT_LOOKUPS;
+		}
+	}
+
+	private static class CachedAddresses {
+
+		private final Map<String, String> serviceAddresses;
+		private final long expirationTime;
+
+		public CachedAddresses(Map<String, String> serviceAddresses, long expirationTime) {
+			this.serviceAddresses = serviceAddresses;
+			this.expirationTime = expirationTime;
+		}
+	}
+}
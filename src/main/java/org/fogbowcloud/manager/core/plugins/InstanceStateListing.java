@@ -0,0 +1,23 @@
+package org.fogbowcloud.manager.core.plugins;
+
+import java.util.List;
+
+import org.fogbowcloud.manager.occi.instance.Instance;
+import org.fogbowcloud.manager.occi.model.Token;
+
+/**
+ * Implemented by the compute plugins whose cloud lists the instances of a
+ * token along with their state in a single call. The instance monitoring
+ * uses it to check every instance of a token at once, instead of getting
+ * them one by one.
+ */
+public interface InstanceStateListing {
+
+	/**
+	 * @param token
+	 * @return the instances of the token, each with at least its id and
+	 *         state
+	 */
+	public List<Instance> getInstanceStates(Token token);
+
+}
@@ -1,7 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.accounting;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -15,6 +14,7 @@ import java.util.Properties;
 
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.occi.DataStoreHelper;
+import org.fogbowcloud.manager.occi.SQLiteConnectionPool;
 
 public class AccountingDataStore {
 
@@ -31,6 +31,9 @@ public class AccountingDataStore {
 			"Error while initializing the Accouting DataStore.";
 
 	private String dataStoreURL;
+	// usage of every (user, requesting member, providing member), as stored in the database
+	private final Map<AccountingEntryKey, AccountingInfo> usageIndex = new HashMap<AccountingEntryKey, AccountingInfo>();
+	private final MembersUsageIndex membersUsage = new MembersUsageIndex();
 
 	public static final Logger LOGGER = Logger.getLogger(AccountingDataStore.class);
 	
@@ -55,6 +58,13 @@ public class AccountingDataStore {
 							+ "PRIMARY KEY (user, requesting_member, providing_member)"
 							+ ")");
 			statement.close();
+
+			statement = connection.createStatement();
+			statement.execute(SELECT_ALL_USAGE_SQL);
+			for (AccountingInfo accountingInfo : createAccounting(statement.getResultSet())) {
+				usageIndex.put(createKey(accountingInfo), accountingInfo);
+				membersUsage.add(accountingInfo);
+			}
 		} catch (Exception e) {
 			LOGGER.error(ERROR_WHILE_INITIALIZING_THE_DATA_STORE, e);
 			throw new Error(ERROR_WHILE_INITIALIZING_THE_DATA_STORE, e);
@@ -68,8 +78,15 @@ public class AccountingDataStore {
 	
 	private static final String INSERT_MEMBER_USAGE_SQL = "INSERT INTO " + USAGE_TABLE_NAME
 			+ " VALUES(?, ?, ?, ?)";
+	private static final String SELECT_ALL_USAGE_SQL = "SELECT * FROM " + USAGE_TABLE_NAME;
 	
-	public boolean update(List<AccountingInfo> usage) {
+	/**
+	 * Adds the given usage to the accounted one. Usage of entries that do not
+	 * exist yet is inserted and usage of existing ones is added to them, all
+	 * in a single transaction. The accounted usage kept in memory only
+	 * changes if the transaction is committed.
+	 */
+	public synchronized boolean update(List<AccountingInfo> usage) {
 		LOGGER.debug("Updating usage into database.");
 		LOGGER.debug("Usage=" + usage);
 
@@ -90,7 +107,8 @@ public class AccountingDataStore {
 			insertMemberStatement = connection.prepareStatement(INSERT_MEMBER_USAGE_SQL);
 			updateMemberStatement = connection.prepareStatement(UPDATE_MEMBER_USAGE_SQL);
 		
-			addMemberStatements(usage, updateMemberStatement, insertMemberStatement);
+			Map<AccountingEntryKey, AccountingInfo> processedUsage = addMemberStatements(usage,
+					updateMemberStatement, insertMemberStatement);
 
 			if (hasBatchExecutionError(insertMemberStatement.executeBatch())
 					| hasBatchExecutionError(updateMemberStatement.executeBatch())) {
@@ -100,6 +118,7 @@ public class AccountingDataStore {
 			}
 
 			connection.commit();
+			applyToIndex(processedUsage);
 			return true;
 		} catch (SQLException e) {
 			LOGGER.error("Couldn't account usage.", e);
@@ -127,38 +146,29 @@ public class AccountingDataStore {
 		return false;
 	}
 	
-	private void addMemberStatements(List<AccountingInfo> usage,
+	private Map<AccountingEntryKey, AccountingInfo> addMemberStatements(List<AccountingInfo> usage,
 			PreparedStatement updateMemberStatement, PreparedStatement insertMemberStatement)
 			throws SQLException {
 		
-		List<AccountingEntryKey> entryKeys = getEntryKeys();
-
-		LOGGER.debug("Database entry keys=" + entryKeys);
-		
 		// preprocessing data
 		Map<AccountingEntryKey, AccountingInfo> processedUsage = new HashMap<AccountingEntryKey, AccountingInfo>();
 		
 		for (AccountingInfo accountingInfo : usage) {
-			// insert operation
-			AccountingEntryKey currentKey = new AccountingEntryKey(accountingInfo.getUser(), accountingInfo
-					.getRequestingMember(), accountingInfo.getProvidingMember());
-			if (!entryKeys.contains(currentKey)) {
-
-				if (processedUsage.containsKey(currentKey)) {
-					processedUsage.get(currentKey).addConsumption(accountingInfo.getUsage());
-				} else {
-					processedUsage.put(currentKey, accountingInfo);
-				}				
-			} else { // update operation
-				processedUsage.put(currentKey, accountingInfo);
+			AccountingEntryKey currentKey = createKey(accountingInfo);
+			AccountingInfo processedInfo = processedUsage.get(currentKey);
+			if (processedInfo == null) {
+				processedInfo = new AccountingInfo(accountingInfo.getUser(),
+						accountingInfo.getRequestingMember(), accountingInfo.getProvidingMember());
+				processedUsage.put(currentKey, processedInfo);
 			}
+			processedInfo.addConsumption(accountingInfo.getUsage());
 		}
 		
 		// creating statements
 		for (AccountingEntryKey currentKey : processedUsage.keySet()) {
 			AccountingInfo accountingEntry = processedUsage.get(currentKey);
 			// inserting new usage entry
-			if (!entryKeys.contains(currentKey)) {
+			if (!usageIndex.containsKey(currentKey)) {
 
 				LOGGER.debug("New accountingEntry=" + accountingEntry);
 				insertMemberStatement.setString(1, accountingEntry.getUser());
@@ -176,89 +186,52 @@ public class AccountingDataStore {
 				updateMemberStatement.addBatch();
 			}
 		}
+		return processedUsage;
 	}
 
-	private static final String SELECT_ALL_USAGE_SQL = "SELECT * FROM " + USAGE_TABLE_NAME;
-		
-	private List<AccountingEntryKey> getEntryKeys() {
-		LOGGER.debug("Getting database keys.");
-
-		Statement statement = null;
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			statement = conn.createStatement();
-
-			statement.execute(SELECT_ALL_USAGE_SQL);
-			ResultSet rs = statement.getResultSet();
-
-			List<AccountingEntryKey> dbKeys = new ArrayList<AccountingEntryKey>();
-			while (rs.next()) {
-				dbKeys.add(new AccountingEntryKey(rs.getString(USER_COL), rs
-						.getString(REQUESTING_MEMBER_COL), rs.getString(PROVIDING_MEMBER_COL)));
+	private void applyToIndex(Map<AccountingEntryKey, AccountingInfo> processedUsage) {
+		for (AccountingEntryKey currentKey : processedUsage.keySet()) {
+			AccountingInfo accountingEntry = usageIndex.get(currentKey);
+			if (accountingEntry == null) {
+				accountingEntry = new AccountingInfo(currentKey.getUser(),
+						currentKey.getRequestingMember(), currentKey.getProvidingMember());
+				usageIndex.put(currentKey, accountingEntry);
 			}
-			return dbKeys;
-		} catch (SQLException e) {
-			LOGGER.error("Couldn't get keys from DB.", e);
-			return null;
+			AccountingInfo processedEntry = processedUsage.get(currentKey);
+			accountingEntry.addConsumption(processedEntry.getUsage());
+			membersUsage.add(processedEntry);
 		}
 	}
 
-	public List<AccountingInfo> getAccountingInfo() {
-		LOGGER.debug("Getting AccounintgInfo...");
-		Statement statement = null;
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			statement = conn.createStatement();
-
-			statement.execute(SELECT_ALL_USAGE_SQL);
-			return createAccounting(statement.getResultSet());
-		} catch (SQLException e) {
-			LOGGER.error("Couldn't get keys from DB.", e);
-			return null;
-		}	
+	private static AccountingEntryKey createKey(AccountingInfo accountingInfo) {
+		return new AccountingEntryKey(accountingInfo.getUser(), accountingInfo.getRequestingMember(),
+				accountingInfo.getProvidingMember());
 	}
 
-	private static final String SELECT_SPECIFIC_USAGE_SQL = "SELECT * FROM " + USAGE_TABLE_NAME
-			+ " WHERE user = ? AND requesting_member = ? AND providing_member = ?";
-	
-	private AccountingInfo getAccountingInfo(AccountingEntryKey key) {
-		LOGGER.debug("Getting accountingInfo to " + key);
-
-		AccountingEntryKey entryKey = (AccountingEntryKey) key;
-
-		PreparedStatement statement = null;
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			statement = conn.prepareStatement(SELECT_SPECIFIC_USAGE_SQL);
-			statement.setString(1, entryKey.getUser());
-			statement.setString(2, entryKey.getRequestingMember());
-			statement.setString(3, entryKey.getProvidingMember());
-			statement.execute();
-
-			ResultSet rs = statement.getResultSet();
-
-			if (rs.next()) {
-				String user = rs.getString(USER_COL);
-				String requestingMember = rs.getString(REQUESTING_MEMBER_COL);
-				String providingMember = rs.getString(PROVIDING_MEMBER_COL);
-				double usage = rs.getDouble(USAGE_COL);
+	private static AccountingInfo copy(AccountingInfo accountingInfo) {
+		AccountingInfo copy = new AccountingInfo(accountingInfo.getUser(),
+				accountingInfo.getRequestingMember(), accountingInfo.getProvidingMember());
+		copy.addConsumption(accountingInfo.getUsage());
+		return copy;
+	}
 
-				AccountingInfo accountingInfo = new AccountingInfo(user, requestingMember,
-						providingMember);
-				accountingInfo.addConsumption(usage);
-				return accountingInfo;
-			}
-		} catch (SQLException e) {
-			LOGGER.error("Couldn't get keys from DB.", e);
-			return null;
-		} finally {
-			close(statement, conn);
+	public synchronized List<AccountingInfo> getAccountingInfo() {
+		LOGGER.debug("Getting AccounintgInfo...");
+		List<AccountingInfo> accounting = new ArrayList<AccountingInfo>();
+		for (AccountingInfo accountingInfo : usageIndex.values()) {
+			accounting.add(copy(accountingInfo));
 		}
+		return accounting;
+	}
+
+	private synchronized AccountingInfo getAccountingInfo(AccountingEntryKey key) {
+		LOGGER.debug("Getting accountingInfo to " + key);
+		AccountingInfo accountingInfo = usageIndex.get(key);
+		return accountingInfo == null ? null : copy(accountingInfo);
+	}
 
-		return null;
+	public MembersUsageIndex getMembersUsage() {
+		return membersUsage;
 	}
 
 	/**
@@ -267,7 +240,7 @@ public class AccountingDataStore {
 	 */
 	public Connection getConnection() throws SQLException {
 		try {
-			return DriverManager.getConnection(this.dataStoreURL);
+			return SQLiteConnectionPool.getInstance(this.dataStoreURL).getConnection();
 		} catch (SQLException e) {
 			LOGGER.error("Error while getting a new connection from the connection pool.", e);
 			throw e;
@@ -9,11 +9,10 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.model.DateUtils;
-import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.BenchmarkingPlugin;
 import org.fogbowcloud.manager.occi.order.Order;
 
-public class FCUAccountingPlugin implements AccountingPlugin {
+public class FCUAccountingPlugin implements IndexedAccountingPlugin {
 
 	private BenchmarkingPlugin benchmarkingPlugin;
 	private AccountingDataStore db;
@@ -103,6 +102,11 @@ public class FCUAccountingPlugin implements AccountingPlugin {
 			String providingMember) {
 		return db.getAccountingInfo(user, requestingMember, providingMember);
 	}
+
+	@Override
+	public MembersUsageIndex getMembersUsage() {
+		return db.getMembersUsage();
+	}
 	
 	public static void main(String[] args) {
 		System.out.println(AccountingDataStore.class.getSimpleName());
@@ -0,0 +1,13 @@
+package org.fogbowcloud.manager.core.plugins.accounting;
+
+import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
+
+/**
+ * Accounting plugin that keeps the usage between members up to date as
+ * usage is accounted.
+ */
+public interface IndexedAccountingPlugin extends AccountingPlugin {
+
+	public MembersUsageIndex getMembersUsage();
+
+}
@@ -0,0 +1,59 @@
+package org.fogbowcloud.manager.core.plugins.accounting;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the usage accounted between each pair of requesting and providing
+ * members, so that the usage of a member as seen by another one is found
+ * without going through every accounting entry.
+ */
+public class MembersUsageIndex {
+
+	// requesting member -> providing member -> usage
+	private final Map<String, Map<String, Double>> usage = new HashMap<String, Map<String, Double>>();
+
+	public MembersUsageIndex() {
+	}
+
+	public MembersUsageIndex(List<AccountingInfo> accounting) {
+		for (AccountingInfo accountingEntry : accounting) {
+			add(accountingEntry);
+		}
+	}
+
+	public void add(AccountingInfo accountingEntry) {
+		add(accountingEntry.getRequestingMember(), accountingEntry.getProvidingMember(),
+				accountingEntry.getUsage());
+	}
+
+	public synchronized void add(String requestingMember, String providingMember, double usage) {
+		Map<String, Double> providedTo = this.usage.get(requestingMember);
+		if (providedTo == null) {
+			providedTo = new HashMap<String, Double>();
+			this.usage.put(requestingMember, providedTo);
+		}
+		Double currentUsage = providedTo.get(providingMember);
+		providedTo.put(providingMember, currentUsage == null ? usage : currentUsage + usage);
+	}
+
+	/**
+	 * @return what localMemberId consumed from memberId and donated to it
+	 */
+	public synchronized ResourceUsage getResourceUsage(String localMemberId, String memberId) {
+		ResourceUsage resourceUsage = new ResourceUsage(memberId);
+		resourceUsage.addConsumption(getUsage(localMemberId, memberId));
+		resourceUsage.addDonation(getUsage(memberId, localMemberId));
+		return resourceUsage;
+	}
+
+	private double getUsage(String requestingMember, String providingMember) {
+		Map<String, Double> providedTo = usage.get(requestingMember);
+		if (providedTo == null) {
+			return 0;
+		}
+		Double memberUsage = providedTo.get(providingMember);
+		return memberUsage == null ? 0 : memberUsage;
+	}
+}
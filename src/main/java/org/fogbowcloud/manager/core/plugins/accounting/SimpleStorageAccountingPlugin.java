@@ -9,11 +9,10 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.model.DateUtils;
-import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
 import org.fogbowcloud.manager.occi.order.Order;
 import org.fogbowcloud.manager.occi.order.OrderAttribute;
 
-public class SimpleStorageAccountingPlugin implements AccountingPlugin {
+public class SimpleStorageAccountingPlugin implements IndexedAccountingPlugin {
 
 	private AccountingDataStore db;
 	private DateUtils dateUtils;
@@ -104,5 +103,10 @@ public class SimpleStorageAccountingPlugin implements AccountingPlugin {
 	public AccountingInfo getAccountingInfo(String user, String requestingMember,
 			String providingMember) {
 		return db.getAccountingInfo(user, requestingMember, providingMember);
-	}	
+	}
+
+	@Override
+	public MembersUsageIndex getMembersUsage() {
+		return db.getMembersUsage();
+	}
 }
@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.compute.azure;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,13 +19,14 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
-import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.FlavorIndex;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
 import org.fogbowcloud.manager.core.plugins.ComputePlugin;
 import org.fogbowcloud.manager.core.plugins.common.azure.AzureAttributes;
 import org.fogbowcloud.manager.core.plugins.network.azure.AzureNetworkPlugin;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.instance.InstanceState;
 import org.fogbowcloud.manager.occi.model.Category;
@@ -83,7 +85,7 @@ import com.microsoft.windowsazure.management.configuration.ManagementConfigurati
 import com.microsoft.windowsazure.management.models.RoleSizeListResponse;
 import com.microsoft.windowsazure.management.models.RoleSizeListResponse.RoleSize;
 
-public class AzureComputePlugin implements ComputePlugin {
+public class AzureComputePlugin implements ComputePlugin, Closeable {
 
 	/**
 	 * Defines the maximum valid value for Logical Unit Number 
@@ -100,6 +102,7 @@ public class AzureComputePlugin implements ComputePlugin {
 	private static final String PERSISTENT_VM_ROLE = "PersistentVMRole";
 
 	protected List<Flavor> flavors;
+	private volatile FlavorIndex flavorIndex;
 	private int maxVCPU;
 	private int maxRAM;
 	private int maxInstances;	
@@ -107,8 +110,24 @@ public class AzureComputePlugin implements ComputePlugin {
 	private String region;
 	private String storageAccountName;
 	private String storageKey;
+	private final SdkClientCache<ComputeManagementClient> computeManagementClientCache;
+	private final AzureDeploymentInventory deploymentInventory;
 
 	public AzureComputePlugin(Properties properties) {
+		this.deploymentInventory = new AzureDeploymentInventory(properties);
+		this.computeManagementClientCache = new SdkClientCache<ComputeManagementClient>("Azure compute", properties, 
+				new SdkClientCache.ClientFactory<ComputeManagementClient>() {
+			@Override
+			public ComputeManagementClient createClient(Token token) {
+				return ComputeManagementService.create(createConfiguration(token));
+			}
+
+			@Override
+			public void shutdownClient(ComputeManagementClient computeManagementClient) 
+					throws IOException {
+				computeManagementClient.close();
+			}
+		});
 		this.region = properties.getProperty(
 				AzureConfigurationConstants.COMPUTE_AZURE_REGION);
 		if (region == null) {
@@ -171,14 +190,7 @@ public class AzureComputePlugin implements ComputePlugin {
 		}
 
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			return requestInstance(token, xOCCIAtt, imageId, computeManagementClient);
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		return requestInstance(token, xOCCIAtt, imageId, computeManagementClient);
 	}
 	
 	protected String getPassword() {
@@ -200,8 +212,8 @@ public class AzureComputePlugin implements ComputePlugin {
 					ResponseConstants.QUOTA_EXCEEDED_FOR_INSTANCES);
 		}
 		
-		Flavor flavor = RequirementsHelper.findSmallestFlavor(
-				new LinkedList<Flavor>(getFlavors(token)), 
+		flavorIndex = FlavorIndex.refresh(flavorIndex, getFlavors(token));
+		Flavor flavor = flavorIndex.findSmallestFlavor(
 				xOCCIAtt.get(OrderAttribute.REQUIREMENTS.getValue()));
 
 		if (Integer.parseInt(resourcesInfo.getCpuIdle()) < Integer
@@ -240,6 +252,7 @@ public class AzureComputePlugin implements ComputePlugin {
 			computeManagementClient
 					.getVirtualMachinesOperations().createDeployment(
 							deploymentName, deploymentParameters);
+			deploymentInventory.invalidate(getSubscriptionId(token), deploymentName);
 		} catch (Exception e) {
 			try {
 				removeInstance(deploymentName, computeManagementClient);
@@ -261,19 +274,16 @@ public class AzureComputePlugin implements ComputePlugin {
 					"Subscription ID can't be null");
 		}
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			List<Instance> instances = getInstances(token, computeManagementClient);
-			return instances;
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		List<Instance> instances = getInstances(token, computeManagementClient, false);
+		return instances;
 	}
 
+	/**
+	 * @param recent whether deployments looked up a moment ago may be used,
+	 *        for callers that do not read the state of the instances
+	 */
 	private List<Instance> getInstances(Token token,
-			ComputeManagementClient computeManagementClient) {
+			ComputeManagementClient computeManagementClient, boolean recent) {
 		HostedServiceOperations hostedServicesOperations = computeManagementClient.getHostedServicesOperations();
 		HostedServiceListResponse hostedServiceListResponse = null;
 		try {
@@ -284,29 +294,41 @@ public class AzureComputePlugin implements ComputePlugin {
 		}
 		
 		ArrayList<HostedService> hostedServices = hostedServiceListResponse.getHostedServices();
-		List<Instance> instances = new LinkedList<Instance>();
+		List<String> serviceNames = new LinkedList<String>();
 		for (HostedService hostedService : hostedServices) {
 			String serviceLabel = hostedService.getProperties().getLabel();
 			if (serviceLabel == null || !serviceLabel.equals(AZURE_VM_DEFAULT_LABEL)) {
 				continue;
 			}
-			DeploymentOperations deploymentsOperations = computeManagementClient.getDeploymentsOperations();
-			DeploymentGetResponse deploymentGetResponse = null;
-			try {
-				deploymentGetResponse = deploymentsOperations.getByName(
-						hostedService.getServiceName(), hostedService.getServiceName());
-			} catch (ServiceException e) {
-				if (e.getHttpStatusCode() == HttpStatus.SC_NOT_FOUND) {
-					continue;
+			serviceNames.add(hostedService.getServiceName());
+		}
+		
+		final DeploymentOperations deploymentsOperations = computeManagementClient.getDeploymentsOperations();
+		AzureDeploymentInventory.DeploymentLoader loader = new AzureDeploymentInventory.DeploymentLoader() {
+			@Override
+			public DeploymentGetResponse load(String serviceName) {
+				try {
+					return deploymentsOperations.getByName(serviceName, serviceName);
+				} catch (ServiceException e) {
+					if (e.getHttpStatusCode() == HttpStatus.SC_NOT_FOUND) {
+						return null;
+					}
+					LOGGER.error("Couldn't retrieve deployment " + serviceName + ".", e);
+					throw new OCCIException(ErrorType.BAD_REQUEST, 
+							"Couldn't retrieve deployment " + serviceName + ".");
+				} catch (Exception e) {
+					LOGGER.error("Couldn't retrieve deployment " + serviceName + ".", e);
+					throw new OCCIException(ErrorType.BAD_REQUEST, 
+							"Couldn't retrieve deployment " + serviceName + ".");
 				}
-				LOGGER.error("Couldn't retrieve deployment " + hostedService.getServiceName() + ".", e);
-				throw new OCCIException(ErrorType.BAD_REQUEST, 
-						"Couldn't retrieve deployment " + hostedService.getServiceName() + ".");
-			} catch (Exception e) {
-				LOGGER.error("Couldn't retrieve deployment " + hostedService.getServiceName() + ".", e);
-				throw new OCCIException(ErrorType.BAD_REQUEST, 
-						"Couldn't retrieve deployment " + hostedService.getServiceName() + ".");
 			}
+		};
+		Map<String, DeploymentGetResponse> deployments = recent
+				? deploymentInventory.getRecentDeployments(getSubscriptionId(token), serviceNames, loader)
+				: deploymentInventory.getDeployments(getSubscriptionId(token), serviceNames, loader);
+		
+		List<Instance> instances = new LinkedList<Instance>();
+		for (DeploymentGetResponse deploymentGetResponse : deployments.values()) {
 			String deploymentLabel = deploymentGetResponse.getLabel();
 			if (deploymentLabel == null || !deploymentLabel.equals(AZURE_VM_DEFAULT_LABEL)) {
 				continue;
@@ -317,6 +339,10 @@ public class AzureComputePlugin implements ComputePlugin {
 		return instances;
 	}
 
+	private static String getSubscriptionId(Token token) {
+		return token.get(AzureAttributes.SUBSCRIPTION_ID_KEY);
+	}
+
 	private Instance toInstance(DeploymentGetResponse deployment, Token token) {
 		Map<String, String> attributes = new HashMap<String, String>();
 
@@ -359,14 +385,7 @@ public class AzureComputePlugin implements ComputePlugin {
 		
 		getFlavors(token);
 		
-		try {
-			return getInstance(token, instanceId, computeManagementClient);
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		return getInstance(token, instanceId, computeManagementClient);
 	}
 
 	private Instance getInstance(Token token, String instanceId,
@@ -403,11 +422,8 @@ public class AzureComputePlugin implements ComputePlugin {
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
 		try {
 			removeInstance(instanceId, computeManagementClient);
-		} catch (Exception e) {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e1) {
-			}
+		} finally {
+			deploymentInventory.invalidate(getSubscriptionId(token), instanceId);
 		}
 	}
 
@@ -426,15 +442,12 @@ public class AzureComputePlugin implements ComputePlugin {
 	@Override
 	public void removeInstances(Token token) {
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			List<Instance> instances = getInstances(token, computeManagementClient);
-			for (Instance instance : instances) {
-				removeInstance(instance.getId(), computeManagementClient);
-			}
-		} finally {
+		List<Instance> instances = getInstances(token, computeManagementClient, false);
+		for (Instance instance : instances) {
 			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
+				removeInstance(instance.getId(), computeManagementClient);
+			} finally {
+				deploymentInventory.invalidate(getSubscriptionId(token), instance.getId());
 			}
 		}
 	}
@@ -442,19 +455,13 @@ public class AzureComputePlugin implements ComputePlugin {
 	@Override
 	public ResourcesInfo getResourcesInfo(Token token) {
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			return getResourcesInfo(token, computeManagementClient);
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		return getResourcesInfo(token, computeManagementClient);
 	}
 
 	private ResourcesInfo getResourcesInfo(Token token,
 			ComputeManagementClient computeManagementClient) {
-		List<Instance> instances = getInstances(token, computeManagementClient);
+		// only the flavors of the instances are read
+		List<Instance> instances = getInstances(token, computeManagementClient, true);
 		int cpuInUse = 0;
 		int ramInUse = 0;
 		for (Instance instance : instances) {
@@ -490,14 +497,7 @@ public class AzureComputePlugin implements ComputePlugin {
 		}
 		
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			registerImage(imageName, blobURI, computeManagementClient);
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		registerImage(imageName, blobURI, computeManagementClient);
 	}
 
 	private void registerImage(String imageName, URI blobURI,
@@ -536,14 +536,7 @@ public class AzureComputePlugin implements ComputePlugin {
 	@Override
 	public String getImageId(Token token, String imageName) {
 		ComputeManagementClient computeManagementClient = createComputeManagementClient(token);
-		try {
-			return getImageId(imageName, computeManagementClient);
-		} finally {
-			try {
-				computeManagementClient.close();
-			} catch (IOException e) {
-			}
-		}
+		return getImageId(imageName, computeManagementClient);
 	}
 
 	private String getImageId(String imageName,
@@ -594,10 +587,10 @@ public class AzureComputePlugin implements ComputePlugin {
 
 	protected ComputeManagementClient createComputeManagementClient(
 			Token token) {
-		Configuration config = createConfiguration(token);
-		ComputeManagementClient computeManagementClient = ComputeManagementService
-				.create(config);
-		return computeManagementClient;
+		return computeManagementClientCache.get(SdkClientCache.createKey(
+				token.get(AzureAttributes.SUBSCRIPTION_ID_KEY), 
+				token.get(AzureAttributes.KEYSTORE_PATH_KEY), 
+				token.get(AzureAttributes.KEYSTORE_PASSWORD_KEY)), token);
 	}
 	
 	protected CloudStorageAccount createStorageAccount() {
@@ -898,4 +891,12 @@ public class AzureComputePlugin implements ComputePlugin {
 		return null;
 	}
 
+	/**
+	 * Shuts down the cached clients and the deployment lookups.
+	 */
+	@Override
+	public void close() {
+		computeManagementClientCache.shutdown();
+		deploymentInventory.shutdown();
+	}
 }
@@ -9,4 +9,6 @@ public class AzureConfigurationConstants {
 	public static final String COMPUTE_AZURE_MAX_VCPU = "compute_azure_max_vcpu";
 	public static final String COMPUTE_AZURE_MAX_RAM = "compute_azure_max_ram";
 	public static final String COMPUTE_AZURE_MAX_INSTANCES = "compute_azure_max_instances";
+	public static final String COMPUTE_AZURE_DEPLOYMENTS_CACHE_TTL = "compute_azure_deployments_cache_ttl";
+	public static final String COMPUTE_AZURE_MAX_CONCURRENT_DEPLOYMENT_LOOKUPS = "compute_azure_max_concurrent_deployment_lookups";
 }
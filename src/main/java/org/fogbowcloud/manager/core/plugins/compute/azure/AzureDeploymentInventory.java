@@ -0,0 +1,235 @@
+package org.fogbowcloud.manager.core.plugins.compute.azure;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+
+import com.microsoft.windowsazure.management.compute.models.DeploymentGetResponse;
+
+/**
+ * Deployments of the hosted services of each subscription. Azure only
+ * returns the deployment of one hosted service per call, so deployments are
+ * looked up concurrently, by a bounded pool of daemon threads shared by all
+ * lookups. Deployments looked up are kept for a short time, so that listing
+ * the instances of a subscription and then its resources in use does not go
+ * through every service twice. The status of a deployment changes while it
+ * is kept, so only callers that read fields fixed for the life of a
+ * deployment, such as its role sizes, use the kept deployments, through
+ * {@link #getRecentDeployments(String, List, DeploymentLoader)}.
+ */
+public class AzureDeploymentInventory {
+
+	private static final Logger LOGGER = Logger.getLogger(AzureDeploymentInventory.class);
+
+	protected static final long DEFAULT_TTL = 10000; // 10 seconds
+	protected static final int DEFAULT_MAX_CONCURRENT_LOOKUPS = 10;
+	private static final long IDLE_LOOKUP_THREAD_TIMEOUT = 60; // seconds
+
+	private final ConcurrentMap<String, CachedDeployment> deployments = new ConcurrentHashMap<String, CachedDeployment>();
+	private final ExecutorService lookupExecutor;
+	private final long ttl;
+	private DateUtils dateUtils = new DateUtils();
+
+	public AzureDeploymentInventory(Properties properties) {
+		this(getInt(properties, AzureConfigurationConstants.COMPUTE_AZURE_MAX_CONCURRENT_DEPLOYMENT_LOOKUPS,
+				DEFAULT_MAX_CONCURRENT_LOOKUPS),
+				getInt(properties, AzureConfigurationConstants.COMPUTE_AZURE_DEPLOYMENTS_CACHE_TTL,
+						(int) DEFAULT_TTL));
+	}
+
+	public AzureDeploymentInventory(int maxConcurrentLookups, long ttl) {
+		int lookupThreads = Math.max(1, maxConcurrentLookups);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(lookupThreads, lookupThreads,
+				IDLE_LOOKUP_THREAD_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "azure-deployment-lookup-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		this.lookupExecutor = executor;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Looks up the current deployments of the given hosted services and keeps
+	 * them for the following calls to
+	 * {@link #getRecentDeployments(String, List, DeploymentLoader)}.
+	 * 
+	 * @param loader looks up the deployment of one hosted service, returning
+	 *        null if it has none
+	 * @return the deployments of the given hosted services, by service name,
+	 *         in the order of the names. Services without a deployment are
+	 *         left out.
+	 */
+	public Map<String, DeploymentGetResponse> getDeployments(String subscriptionId,
+			List<String> serviceNames, DeploymentLoader loader) {
+		return getDeployments(subscriptionId, serviceNames, loader, false);
+	}
+
+	/**
+	 * Like {@link #getDeployments(String, List, DeploymentLoader)}, but
+	 * deployments looked up less than the TTL ago are not looked up again, so
+	 * their status may be stale.
+	 */
+	public Map<String, DeploymentGetResponse> getRecentDeployments(String subscriptionId,
+			List<String> serviceNames, DeploymentLoader loader) {
+		return getDeployments(subscriptionId, serviceNames, loader, true);
+	}
+
+	private Map<String, DeploymentGetResponse> getDeployments(String subscriptionId,
+			List<String> serviceNames, final DeploymentLoader loader, boolean useKept) {
+		removeExpired();
+		long now = dateUtils.currentTimeMillis();
+		Map<String, Future<DeploymentGetResponse>> lookups = new LinkedHashMap<String, Future<DeploymentGetResponse>>();
+		Map<String, DeploymentGetResponse> found = new LinkedHashMap<String, DeploymentGetResponse>();
+		for (final String serviceName : serviceNames) {
+			CachedDeployment cachedDeployment = useKept ? deployments.get(getKey(subscriptionId, serviceName)) : null;
+			if (cachedDeployment != null && now - cachedDeployment.timestamp <= ttl) {
+				found.put(serviceName, cachedDeployment.deployment);
+				continue;
+			}
+			found.put(serviceName, null);
+			lookups.put(serviceName, lookupExecutor.submit(new Callable<DeploymentGetResponse>() {
+				@Override
+				public DeploymentGetResponse call() throws Exception {
+					return loader.load(serviceName);
+				}
+			}));
+		}
+
+		try {
+			for (Entry<String, Future<DeploymentGetResponse>> lookup : lookups.entrySet()) {
+				DeploymentGetResponse deployment = getLookupResult(lookup.getKey(), lookup.getValue());
+				found.put(lookup.getKey(), deployment);
+				if (ttl > 0) {
+					deployments.put(getKey(subscriptionId, lookup.getKey()),
+							new CachedDeployment(deployment, dateUtils.currentTimeMillis()));
+				}
+			}
+		} finally {
+			for (Future<DeploymentGetResponse> lookup : lookups.values()) {
+				lookup.cancel(true);
+			}
+		}
+
+		Iterator<DeploymentGetResponse> iterator = found.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == null) {
+				iterator.remove();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Drops the deployment of the hosted service, e.g. when it is created or
+	 * removed, so that the next listing looks it up.
+	 */
+	public void invalidate(String subscriptionId, String serviceName) {
+		deployments.remove(getKey(subscriptionId, serviceName));
+	}
+
+	public void shutdown() {
+		lookupExecutor.shutdownNow();
+		deployments.clear();
+	}
+
+	protected int size() {
+		return deployments.size();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	private DeploymentGetResponse getLookupResult(String serviceName,
+			Future<DeploymentGetResponse> lookup) {
+		try {
+			return lookup.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.error("Interrupted while retrieving deployment " + serviceName + ".", e);
+			throw new OCCIException(ErrorType.BAD_REQUEST,
+					"Couldn't retrieve deployment " + serviceName + ".");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OCCIException) {
+				throw (OCCIException) e.getCause();
+			}
+			LOGGER.error("Couldn't retrieve deployment " + serviceName + ".", e.getCause());
+			throw new OCCIException(ErrorType.BAD_REQUEST,
+					"Couldn't retrieve deployment " + serviceName + ".");
+		}
+	}
+
+	private void removeExpired() {
+		long now = dateUtils.currentTimeMillis();
+		Iterator<CachedDeployment> iterator = deployments.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().timestamp > ttl) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static String getKey(String subscriptionId, String serviceName) {
+		return subscriptionId + ":" + serviceName;
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String valueStr = properties.getProperty(key);
+		if (valueStr == null || valueStr.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(valueStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + key + ": " + valueStr + ", using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	public interface DeploymentLoader {
+
+		/**
+		 * @return the deployment of the hosted service, or null if it has none
+		 */
+		DeploymentGetResponse load(String serviceName) throws Exception;
+	}
+
+	private static class CachedDeployment {
+
+		private final DeploymentGetResponse deployment;
+		private final long timestamp;
+
+		public CachedDeployment(DeploymentGetResponse deployment, long timestamp) {
+			this.deployment = deployment;
+			this.timestamp = timestamp;
+		}
+	}
+}
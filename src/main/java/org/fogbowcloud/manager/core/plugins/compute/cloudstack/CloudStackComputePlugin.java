@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.compute.cloudstack;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -21,6 +22,7 @@ import org.fogbowcloud.manager.core.plugins.ComputePlugin;
 import org.fogbowcloud.manager.core.plugins.common.cloudstack.CloudStackHelper;
 import org.fogbowcloud.manager.core.plugins.util.HttpClientWrapper;
 import org.fogbowcloud.manager.core.plugins.util.HttpResponseWrapper;
+import org.fogbowcloud.manager.core.plugins.util.ResourcesInfoCache;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.instance.InstanceState;
 import org.fogbowcloud.manager.occi.model.Category;
@@ -40,7 +42,7 @@ import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.Status;
 
-public class CloudStackComputePlugin implements ComputePlugin {
+public class CloudStackComputePlugin implements ComputePlugin, Closeable {
 	
 	private static final Logger LOGGER = Logger.getLogger(CloudStackComputePlugin.class);
 	
@@ -106,6 +108,7 @@ public class CloudStackComputePlugin implements ComputePlugin {
 	private String osTypeId;
 	private String expungeOnDestroy;
 	private String defaultNetworkId;
+	private final ResourcesInfoCache resourcesInfoCache;
 
 	public CloudStackComputePlugin(Properties properties) {
 		this(properties, new HttpClientWrapper());
@@ -124,6 +127,7 @@ public class CloudStackComputePlugin implements ComputePlugin {
 		this.expungeOnDestroy = this.properties.getProperty(
 				"compute_cloudstack_expunge_on_destroy", DEFAULT_EXPUNGE_ON_DESTROY);
 		this.defaultNetworkId = this.properties.getProperty(COMPUTE_CLOUDSTACK_DEFAULT_NETWORKID);
+		this.resourcesInfoCache = new ResourcesInfoCache(properties);
 	}
 	
 	@Override
@@ -187,7 +191,9 @@ public class CloudStackComputePlugin implements ComputePlugin {
 		try {
 			JSONObject vm = new JSONObject(response.getContent()).optJSONObject(
 					"deployvirtualmachineresponse");
-			return vm.optString("id");
+			String instanceId = vm.optString("id");
+			resourcesInfoCache.instanceCreated(token, instanceId, serviceOffering);
+			return instanceId;
 		} catch (JSONException e) {
 			throw new OCCIException(ErrorType.BAD_REQUEST,
 					ResponseConstants.IRREGULAR_SYNTAX);
@@ -331,6 +337,7 @@ public class CloudStackComputePlugin implements ComputePlugin {
 		CloudStackHelper.sign(uriBuilder, token.getAccessId());
 		
 		httpClient.doPost(uriBuilder.toString());
+		resourcesInfoCache.instanceRemoved(token, instanceId);
 	}
 
 	@Override
@@ -345,8 +352,21 @@ public class CloudStackComputePlugin implements ComputePlugin {
 		}
 	}
 
+	/**
+	 * Going through every instance is too slow for each quota query, so the
+	 * resources come from a snapshot refreshed in background.
+	 */
 	@Override
 	public ResourcesInfo getResourcesInfo(Token token) {
+		return resourcesInfoCache.get(token, new ResourcesInfoCache.Loader() {
+			@Override
+			public ResourcesInfo load(Token token) {
+				return loadResourcesInfo(token);
+			}
+		});
+	}
+
+	protected ResourcesInfo loadResourcesInfo(Token token) {
 		URIBuilder uriBuilder = createURIBuilder(endpoint, LIST_RESOURCE_LIMITS_COMMAND);
 		CloudStackHelper.sign(uriBuilder, token.getAccessId());
 		HttpResponseWrapper response = httpClient.doGet(uriBuilder.toString());
@@ -400,6 +420,14 @@ public class CloudStackComputePlugin implements ComputePlugin {
 		return resInfo;
 	}
 
+	/**
+	 * Stops refreshing the resources info snapshots.
+	 */
+	@Override
+	public void close() {
+		resourcesInfoCache.shutdown();
+	}
+
 	@Override
 	public void bypass(Request request, Response response) {
 		response.setStatus(new Status(HttpStatus.SC_BAD_REQUEST),
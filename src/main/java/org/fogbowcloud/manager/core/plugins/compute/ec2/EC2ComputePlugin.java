@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.compute.ec2;
 
+import java.io.Closeable;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -11,7 +12,7 @@ import java.util.UUID;
 
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
-import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.FlavorIndex;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
@@ -20,6 +21,8 @@ import org.fogbowcloud.manager.core.plugins.identity.ec2.EC2IdentityPlugin;
 import org.fogbowcloud.manager.core.plugins.storage.ec2.EC2StoragePlugin;
 import org.fogbowcloud.manager.core.plugins.util.HttpClientWrapper;
 import org.fogbowcloud.manager.core.plugins.util.HttpResponseWrapper;
+import org.fogbowcloud.manager.core.plugins.util.ResourcesInfoCache;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.instance.InstanceState;
 import org.fogbowcloud.manager.occi.model.Category;
@@ -72,7 +75,7 @@ import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.google.common.collect.ImmutableList;
 
-public class EC2ComputePlugin implements ComputePlugin {
+public class EC2ComputePlugin implements ComputePlugin, Closeable {
 
 	private static final Logger LOGGER = Logger.getLogger(EC2ComputePlugin.class);
 	
@@ -87,6 +90,7 @@ public class EC2ComputePlugin implements ComputePlugin {
 	private static final String DEFAULT_SSH_HOST_PORT = "22";
 	
 	private Map<String, Flavor> flavors;
+	private volatile FlavorIndex flavorIndex;
 	
 	private String region;
 	private String securityGroupId;
@@ -98,6 +102,9 @@ public class EC2ComputePlugin implements ComputePlugin {
 	private int maxInstances;
 
 	private HttpClientWrapper httpClient;
+	private final ResourcesInfoCache resourcesInfoCache;
+	private final SdkClientCache<AmazonEC2Client> ec2ClientCache;
+	private final SdkClientCache<AmazonS3Client> s3ClientCache;
 
 	public EC2ComputePlugin(Properties properties) {
 		this(properties, new HttpClientWrapper());
@@ -105,6 +112,35 @@ public class EC2ComputePlugin implements ComputePlugin {
 	
 	protected EC2ComputePlugin(Properties properties, HttpClientWrapper httpClient) {
 		this.httpClient = httpClient;
+		this.resourcesInfoCache = new ResourcesInfoCache(properties);
+		this.ec2ClientCache = new SdkClientCache<AmazonEC2Client>("EC2 compute", properties, 
+				new SdkClientCache.ClientFactory<AmazonEC2Client>() {
+			@Override
+			public AmazonEC2Client createClient(Token token) {
+				AmazonEC2Client ec2Client = new AmazonEC2Client(loadCredentials(token));
+				ec2Client.setRegion(Region.getRegion(Regions.fromName(region)));
+				return ec2Client;
+			}
+
+			@Override
+			public void shutdownClient(AmazonEC2Client ec2Client) {
+				ec2Client.shutdown();
+			}
+		});
+		this.s3ClientCache = new SdkClientCache<AmazonS3Client>("S3", properties, 
+				new SdkClientCache.ClientFactory<AmazonS3Client>() {
+			@Override
+			public AmazonS3Client createClient(Token token) {
+				AmazonS3Client s3Client = new AmazonS3Client(loadCredentials(token));
+				s3Client.setRegion(Region.getRegion(Regions.fromName(region)));
+				return s3Client;
+			}
+
+			@Override
+			public void shutdownClient(AmazonS3Client s3Client) {
+				s3Client.shutdown();
+			}
+		});
 		this.region = properties.getProperty("compute_ec2_region");
 		this.securityGroupId = properties.getProperty("compute_ec2_security_group_id");
 		this.subnetId = properties.getProperty("compute_ec2_subnet_id");
@@ -146,8 +182,9 @@ public class EC2ComputePlugin implements ComputePlugin {
 					ResponseConstants.QUOTA_EXCEEDED_FOR_INSTANCES);
 		}
 		
-		Flavor flavor = RequirementsHelper.findSmallestFlavor(
-				new LinkedList<Flavor>(getFlavors().values()), 
+		flavorIndex = FlavorIndex.refresh(flavorIndex, 
+				new LinkedList<Flavor>(getFlavors().values()));
+		Flavor flavor = flavorIndex.findSmallestFlavor(
 				xOCCIAtt.get(OrderAttribute.REQUIREMENTS.getValue()));
 		
 		if (Integer.parseInt(resourcesInfo.getCpuIdle()) < Integer.parseInt(flavor.getCpu()) || 
@@ -200,6 +237,7 @@ public class EC2ComputePlugin implements ComputePlugin {
 		createTagsRequest.withResources(instanceId).withTags(
 				new Tag(FOGBOW_INSTANCE_TAG, Boolean.TRUE.toString()));
 		ec2Client.createTags(createTagsRequest);
+		resourcesInfoCache.instanceCreated(token, instanceId, flavor);
 		
 		return instanceId;
 	}
@@ -275,6 +313,7 @@ public class EC2ComputePlugin implements ComputePlugin {
 			LOGGER.error("Couldn't remove EC2 instance.", e);
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.IRREGULAR_SYNTAX);
 		}
+		resourcesInfoCache.instanceRemoved(token, instanceId);
 	}
 
 	@Override
@@ -292,10 +331,24 @@ public class EC2ComputePlugin implements ComputePlugin {
 			LOGGER.error("Couldn't remove EC2 instances.", e);
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.IRREGULAR_SYNTAX);
 		}
+		resourcesInfoCache.invalidate(token);
 	}
 
+	/**
+	 * Going through every instance is too slow for each launch and quota
+	 * query, so the resources come from a snapshot refreshed in background.
+	 */
 	@Override
 	public ResourcesInfo getResourcesInfo(Token token) {
+		return resourcesInfoCache.get(token, new ResourcesInfoCache.Loader() {
+			@Override
+			public ResourcesInfo load(Token token) {
+				return loadResourcesInfo(token);
+			}
+		});
+	}
+
+	protected ResourcesInfo loadResourcesInfo(Token token) {
 		List<Instance> instances = getInstances(token, true);
 		int cpuInUse = 0;
 		int ramInUse = 0;
@@ -316,6 +369,17 @@ public class EC2ComputePlugin implements ComputePlugin {
 				String.valueOf(instances.size()));
 	}
 
+	/**
+	 * Stops refreshing the resources info snapshots and shuts down the cached
+	 * clients.
+	 */
+	@Override
+	public void close() {
+		resourcesInfoCache.shutdown();
+		ec2ClientCache.shutdown();
+		s3ClientCache.shutdown();
+	}
+
 	@Override
 	public void bypass(Request request, Response response) {
 		response.setStatus(new Status(HttpStatus.SC_BAD_REQUEST),
@@ -441,17 +505,17 @@ public class EC2ComputePlugin implements ComputePlugin {
 	}
 	
 	protected AmazonEC2Client createEC2Client(Token token) {
-		BasicAWSCredentials awsCreds = loadCredentials(token);
-		AmazonEC2Client ec2Client = new AmazonEC2Client(awsCreds);
-		ec2Client.setRegion(Region.getRegion(Regions.fromName(region)));
-		return ec2Client;
+		return ec2ClientCache.get(getClientKey(token), token);
 	}
 	
 	protected AmazonS3Client createS3Client(Token token) {
+		return s3ClientCache.get(getClientKey(token), token);
+	}
+
+	private String getClientKey(Token token) {
 		BasicAWSCredentials awsCreds = loadCredentials(token);
-		AmazonS3Client s3Client = new AmazonS3Client(awsCreds);
-		s3Client.setRegion(Region.getRegion(Regions.fromName(region)));
-		return s3Client;
+		return SdkClientCache.createKey(region, awsCreds.getAWSAccessKeyId(), 
+				awsCreds.getAWSSecretKey());
 	}
 
 	private BasicAWSCredentials loadCredentials(Token token) {
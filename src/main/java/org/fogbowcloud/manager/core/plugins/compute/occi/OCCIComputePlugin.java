@@ -22,7 +22,7 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
-import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.FlavorIndex;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
@@ -64,6 +64,7 @@ public class OCCIComputePlugin implements ComputePlugin {
 	protected String computeOCCIEndpoint;
 	private HttpClient client;	
 	private List<Flavor> flavors = new ArrayList<Flavor>();
+	private volatile FlavorIndex flavorIndex;
 
 	protected static final Logger LOGGER = Logger.getLogger(OCCIComputePlugin.class);
 	public static final String PREFIX_OCCI_FLAVORS_PROVIDED = "compute_occi_flavors_";
@@ -291,7 +292,7 @@ public class OCCIComputePlugin implements ComputePlugin {
 	}
 
 	private void initClient() {
-		this.client = HttpRequestUtil.createHttpClient();
+		this.client = HttpRequestUtil.getSharedHttpClient();
 	}
 
 	protected String normalizeInstanceId(String instanceId) {
@@ -390,7 +391,8 @@ public class OCCIComputePlugin implements ComputePlugin {
 	}
 
 	protected Flavor getFlavor(Token token, String requirements) {
-		return RequirementsHelper.findSmallestFlavor(getFlavors(), requirements);
+		flavorIndex = FlavorIndex.refresh(flavorIndex, getFlavors());
+		return flavorIndex.findSmallestFlavor(requirements);
 	}
 	
 	protected void setFlavorsProvided(Properties properties) {		
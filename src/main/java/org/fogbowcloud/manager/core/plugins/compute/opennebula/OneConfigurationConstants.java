@@ -25,6 +25,10 @@ public class OneConfigurationConstants {
 	
 	public static final String COMPUTE_ONE_SSH_TARGET_TEMP_FOLDER = "compute_one_ssh_target_temp_folder";
 
+	// image and quota lookups
+	public static final String COMPUTE_ONE_IMAGES_REFRESH_PERIOD = "compute_one_images_refresh_period";
+	public static final String COMPUTE_ONE_QUOTA_CACHE_TTL = "compute_one_quota_cache_ttl";
+
 	public static final String STORAGE_ONE_DATASTORE_DEFAULT_DEVICE_PREFIX = "storage_one_datastore_default_device_prefix";
 
 	public static final String NETWORK_ONE_BRIDGE = "network_one_bridge";
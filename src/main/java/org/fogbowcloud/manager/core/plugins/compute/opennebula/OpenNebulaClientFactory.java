@@ -8,7 +8,6 @@ import org.opennebula.client.Client;
 import org.opennebula.client.ClientConfigurationException;
 import org.opennebula.client.OneResponse;
 import org.opennebula.client.group.Group;
-import org.opennebula.client.group.GroupPool;
 import org.opennebula.client.image.Image;
 import org.opennebula.client.image.ImagePool;
 import org.opennebula.client.template.TemplatePool;
@@ -139,13 +138,14 @@ public class OpenNebulaClientFactory {
 	}
 	
 	public Group createGroup(Client oneClient, int groupId) {
-		GroupPool groupPool = new GroupPool(oneClient);
-		groupPool.info();
-		Group group = groupPool.getById(groupId);
-		if (group == null){
+		// the group is fetched by id, without listing every group first
+		Group group = new Group(groupId, oneClient);
+		OneResponse response = group.info();
+		if (response.isError()) {
+			LOGGER.error("Error while getting info about group " + groupId + ": "
+					+ response.getErrorMessage());
 			throw new OCCIException(ErrorType.UNAUTHORIZED, ResponseConstants.UNAUTHORIZED);
 		}
-		group.info();		
 		return group;
 	}
 	
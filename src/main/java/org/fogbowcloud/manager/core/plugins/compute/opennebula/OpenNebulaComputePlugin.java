@@ -1,6 +1,7 @@
 package org.fogbowcloud.manager.core.plugins.compute.opennebula;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -10,6 +11,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -24,11 +27,15 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.FlavorIndex;
 import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
 import org.fogbowcloud.manager.core.plugins.ComputePlugin;
+import org.fogbowcloud.manager.core.plugins.compute.opennebula.OpenNebulaImageIndex.IndexedImage;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.OCCIConstants;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.instance.Instance.Link;
@@ -47,7 +54,6 @@ import org.opennebula.client.Client;
 import org.opennebula.client.OneResponse;
 import org.opennebula.client.group.Group;
 import org.opennebula.client.image.Image;
-import org.opennebula.client.image.ImagePool;
 import org.opennebula.client.template.Template;
 import org.opennebula.client.template.TemplatePool;
 import org.opennebula.client.user.User;
@@ -61,7 +67,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-public class OpenNebulaComputePlugin implements ComputePlugin {
+public class OpenNebulaComputePlugin implements ComputePlugin, Closeable {
 
 	public static final String OPENNEBULA_TEMPLATES = "compute_one_templates";
 	public static final String OPENNEBULA_TEMPLATES_TYPE_ALL = "all";	
@@ -69,7 +75,16 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 	public static final int VALUE_UNLIMITED_QUOTA_OPENNEBULA = -2;
 	
 	public static final int DEFAULT_RESOURCE_MAX_VALUE = Integer.MAX_VALUE;
+	protected static final long DEFAULT_QUOTA_CACHE_TTL = 10000; // 10 seconds
+	private static final String[] QUOTA_ATTRIBUTES = new String[] { "CPU", "CPU_USED", "MEMORY",
+			"MEMORY_USED", "VMS", "VMS_USED" };
+
 	private OpenNebulaClientFactory clientFactory;
+	private final SdkClientCache<Client> clientCache;
+	private final OpenNebulaImageIndex imageIndex;
+	private final ConcurrentMap<String, VmQuota> quotas = new ConcurrentHashMap<String, VmQuota>();
+	private final long quotaCacheTtl;
+	private DateUtils dateUtils = new DateUtils();
 	private String openNebulaEndpoint;
 	private Map<String, String> fogbowTermToOpenNebula; 
 	private String networkId;
@@ -81,6 +96,7 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 	private String sshTargetTempFolder;
 	private Integer dataStoreId;
 	private List<Flavor> flavors;
+	private volatile FlavorIndex flavorIndex;
 	private String templateType;
 	private List<String> validTemplates;
 	
@@ -129,6 +145,36 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		
 		//ssh public key
 		fogbowTermToOpenNebula.put(OrderConstants.PUBLIC_KEY_TERM, "ssh-public-key");
+		
+		clientCache = createClientCache(properties);
+		imageIndex = new OpenNebulaImageIndex(properties);
+		quotaCacheTtl = getQuotaCacheTtl(properties);
+	}
+
+	private SdkClientCache<Client> createClientCache(Properties properties) {
+		return new SdkClientCache<Client>("OpenNebula compute", properties, new SdkClientCache.ClientFactory<Client>() {
+			@Override
+			public Client createClient(Token token) {
+				return clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+			}
+
+			@Override
+			public void shutdownClient(Client client) {
+				// XML-RPC clients do not keep connections open between calls
+			}
+		});
+	}
+
+	/**
+	 * @return the XML-RPC client of the token, reused while its credentials
+	 *         are in use
+	 */
+	private Client getClient(Token token) {
+		return clientCache.get(getCacheKey(token), token);
+	}
+
+	private String getCacheKey(Token token) {
+		return SdkClientCache.createKey(openNebulaEndpoint, token.getAccessId());
 	}
 
 	@Override
@@ -183,11 +229,15 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		templateProperties.put("disk-size", String.valueOf(foundFlavor.getDisk()));
 		templateProperties.put("network-id", orderNetworkId);
 
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		String vmTemplate = generateTemplate(templateProperties);	
 		
 		LOGGER.debug("The instance will be allocated according to template: " + vmTemplate);
-		return clientFactory.allocateVirtualMachine(oneClient, vmTemplate);
+		try {
+			return clientFactory.allocateVirtualMachine(oneClient, vmTemplate);
+		} finally {
+			quotas.remove(getCacheKey(token));
+		}
 	}
 
 	protected String generateTemplate(Map<String, String> templateProperties) {
@@ -300,7 +350,7 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		LOGGER.debug("Getting instances of token: " + token);
 
 		List<Instance> instances = new ArrayList<Instance>();
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualMachinePool vmPool = clientFactory.createVirtualMachinePool(oneClient);
 		for (VirtualMachine virtualMachine : vmPool) {
 			instances.add(createVMInstance(virtualMachine));
@@ -316,7 +366,7 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 			updateFlavors(token);
 		}
 		
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualMachine vm = clientFactory.createVirtualMachine(oneClient, instanceId);
 		return createVMInstance(vm);
 	}
@@ -415,9 +465,10 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 	@Override
 	public void removeInstance(Token token, String instanceId) {
 		LOGGER.debug("Removing instanceId " + instanceId + " with token " + token);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualMachine vm = clientFactory.createVirtualMachine(oneClient, instanceId);
 		OneResponse response = vm.delete();
+		quotas.remove(getCacheKey(token));
 		if (response.isError()) {			
 			LOGGER.error("Error while removing vm: " + response.getErrorMessage());
 		}
@@ -425,37 +476,37 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 
 	@Override
 	public void removeInstances(Token token) {
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualMachinePool vmPool = clientFactory.createVirtualMachinePool(oneClient);
-		for (VirtualMachine virtualMachine : vmPool) {
-			OneResponse response = virtualMachine.delete();
-			if (response.isError()) {
-				LOGGER.error("Error while removing vm: " + response.getErrorMessage());
+		try {
+			for (VirtualMachine virtualMachine : vmPool) {
+				OneResponse response = virtualMachine.delete();
+				if (response.isError()) {
+					LOGGER.error("Error while removing vm: " + response.getErrorMessage());
+				}
 			}
+		} finally {
+			quotas.remove(getCacheKey(token));
 		}
 	}
 
 	@Override
 	public ResourcesInfo getResourcesInfo(Token token) {
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);				
-		User user = clientFactory.createUser(oneClient, token.getUser().getName());
-		
-		String maxUserCpuStr = user.xpath("VM_QUOTA/VM/CPU");
-		String cpuUserInUseStr = user.xpath("VM_QUOTA/VM/CPU_USED");
-		String maxUserMemStr = user.xpath("VM_QUOTA/VM/MEMORY");
-		String memUserInUseStr = user.xpath("VM_QUOTA/VM/MEMORY_USED");
-		String maxUserVMsStr = user.xpath("VM_QUOTA/VM/VMS");
-		String vmsUserInUseStr = user.xpath("VM_QUOTA/VM/VMS_USED");
+		VmQuota quota = getVmQuota(token);
 		
-		String groupId = user.xpath("GROUPS/ID");
-		Group group = clientFactory.createGroup(oneClient, Integer.parseInt(groupId));
+		String maxUserCpuStr = quota.getUserValue("CPU");
+		String cpuUserInUseStr = quota.getUserValue("CPU_USED");
+		String maxUserMemStr = quota.getUserValue("MEMORY");
+		String memUserInUseStr = quota.getUserValue("MEMORY_USED");
+		String maxUserVMsStr = quota.getUserValue("VMS");
+		String vmsUserInUseStr = quota.getUserValue("VMS_USED");
 
-		String maxGroupCpuStr = group.xpath("VM_QUOTA/VM/CPU");
-		String cpuGroupInUseStr = group.xpath("VM_QUOTA/VM/CPU_USED");
-		String maxGroupMemStr = group.xpath("VM_QUOTA/VM/MEMORY");
-		String memGroupInUseStr = group.xpath("VM_QUOTA/VM/MEMORY_USED");
-		String maxGroupVMsStr = group.xpath("VM_QUOTA/VM/VMS");
-		String vmsGroupInUseStr = group.xpath("VM_QUOTA/VM/VMS_USED");
+		String maxGroupCpuStr = quota.getGroupValue("CPU");
+		String cpuGroupInUseStr = quota.getGroupValue("CPU_USED");
+		String maxGroupMemStr = quota.getGroupValue("MEMORY");
+		String memGroupInUseStr = quota.getGroupValue("MEMORY_USED");
+		String maxGroupVMsStr = quota.getGroupValue("VMS");
+		String vmsGroupInUseStr = quota.getGroupValue("VMS_USED");
 		
 		LOGGER.debug("Information about quota : MaxUserCpu = " + maxUserCpuStr + ", CPUUserInUse = " + cpuUserInUseStr
 				+ ", MaxUserMem = " + maxUserMemStr + ", MemUserInUse = " + memUserInUseStr + ", MaxUserInUser = " + maxUserVMsStr
@@ -483,6 +534,38 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 				String.valueOf(memIdle), String.valueOf(memInUse), 
 				String.valueOf(instancesIdle), String.valueOf(instancesInUse));
 	}
+
+	/**
+	 * @return the VM quota of the user of the token and of its group, fetched
+	 *         together and kept for a short time, as the resources are looked
+	 *         up much more often than they change. Creating and removing
+	 *         instances drops it.
+	 */
+	private VmQuota getVmQuota(Token token) {
+		String key = getCacheKey(token);
+		VmQuota quota = quotas.get(key);
+		long now = dateUtils.currentTimeMillis();
+		if (quota != null && now - quota.timestamp <= quotaCacheTtl) {
+			return quota;
+		}
+		
+		Client oneClient = getClient(token);
+		User user = clientFactory.createUser(oneClient, token.getUser().getName());
+		String groupId = user.xpath("GROUPS/ID");
+		Group group = clientFactory.createGroup(oneClient, Integer.parseInt(groupId));
+		
+		Map<String, String> userValues = new HashMap<String, String>();
+		Map<String, String> groupValues = new HashMap<String, String>();
+		for (String attribute : QUOTA_ATTRIBUTES) {
+			userValues.put(attribute, user.xpath("VM_QUOTA/VM/" + attribute));
+			groupValues.put(attribute, group.xpath("VM_QUOTA/VM/" + attribute));
+		}
+		quota = new VmQuota(userValues, groupValues, dateUtils.currentTimeMillis());
+		if (quotaCacheTtl > 0) {
+			quotas.put(key, quota);
+		}
+		return quota;
+	}
 	
 	private ResourceQuota getQuota(String maxUserResource, String resourceUserInUse, String maxGroupResource, String resourceGroupInUse) {
 		if (isValidNumber(maxUserResource) && isValidNumber(maxGroupResource)) {
@@ -550,7 +633,7 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		LOGGER.info("Uploading image... ");
 		LOGGER.info("Token=" + token.getAccessId() + "; imagePath=" + imagePath + "; imageName="
 				+ imageName);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);		
+		Client oneClient = getClient(token);
 		
 		String imageSourcePath;
 		if (isRemoteCloudManager()){
@@ -593,6 +676,7 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		}
 		
 		Image.chmod(oneClient, response.getIntMessage(), 744);
+		imageIndex.invalidate(getCacheKey(token));
 	}
 	
 	private boolean isRemoteCloudManager() {
@@ -645,20 +729,17 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 
 	@Override
 	public String getImageId(Token token, String imageName) {
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
-		ImagePool imagePool = clientFactory.createImagePool(oneClient);
-		OneResponse response = imagePool.info();
-		
-		if (response.isError()) {
-			throw new OCCIException(ErrorType.BAD_REQUEST, response.getErrorMessage());
-		}
-		
-		for (Image image : imagePool) {
-			if (image.getName().equals(imageName)) {
-				return image.getId();
+		IndexedImage image = imageIndex.get(getCacheKey(token), imageName, createImageLoader(token));
+		return image == null ? null : image.getId();
+	}
+
+	private OpenNebulaImageIndex.ImageLoader createImageLoader(final Token token) {
+		return new OpenNebulaImageIndex.ImageLoader() {
+			@Override
+			public Iterable<Image> load() {
+				return clientFactory.createImagePool(getClient(token));
 			}
-		}
-		return null;
+		};
 	}
 
 	protected List<Flavor> getFlavors() {
@@ -666,14 +747,13 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 	}
 
 	protected void updateFlavors(Token token) {
-		Client oneClient = this.clientFactory.createClient(token.getAccessId(),
-				openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		List<Flavor> newFlavors = new ArrayList<Flavor>();		
 		
 		Map<String, String> imageSizes = new HashMap<String, String>();
-		ImagePool imagePool = this.clientFactory.createImagePool(oneClient);
-		for (Image image : imagePool) {
-			imageSizes.put(image.getName(), image.xpath("SIZE"));
+		for (IndexedImage image : imageIndex.getAll(getCacheKey(token),
+				createImageLoader(token)).values()) {
+			imageSizes.put(image.getName(), image.getSize());
 		}				
 		
 		List<Flavor> allFlavorsTemplate = new ArrayList<Flavor>();
@@ -765,7 +845,8 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 			return new Flavor("flavor", cpu, mem, disk);
 		} 
 		updateFlavors(token);
-		return RequirementsHelper.findSmallestFlavor(getFlavors(),requirements);			
+		flavorIndex = FlavorIndex.refresh(flavorIndex, getFlavors());
+		return flavorIndex.findSmallestFlavor(requirements);
 	}
 	
 	private String getMinimumValueForRequirement(String requirements, 
@@ -789,36 +870,35 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 	
 	protected void setClientFactory(OpenNebulaClientFactory clientFactory) {
 		this.clientFactory = clientFactory;
+		clientCache.invalidateAll();
+		imageIndex.invalidateAll();
+		quotas.clear();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+		imageIndex.setDateUtils(dateUtils);
 	}
 	
 	@Override
 	public ImageState getImageState(Token token, String imageName) {
 		LOGGER.debug("Getting image status from image " + imageName + " with token " + token);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
-		ImagePool imagePool = clientFactory.createImagePool(oneClient);
-		OneResponse response = imagePool.info();
-		
-		if (response.isError()) {
-			throw new OCCIException(ErrorType.BAD_REQUEST, response.getErrorMessage());
+		IndexedImage image = imageIndex.get(getCacheKey(token), imageName, createImageLoader(token));
+		if (image == null) {
+			return null;
 		}
-		
-		for (Image image : imagePool) {
-			if (image.getName().equals(imageName)) {
-				/*
-				 * Possible one image state described on
-				 * http://archives.opennebula.org/documentation:rel4.4:img_guide
-				 */
-				String imageState = image.stateString();
-				if ("LOCKED".equals(imageState)) {
-					return ImageState.PENDING;
-				} else if ("READY".equals(imageState) || "USED".equals(imageState)
-						|| "USED_PERS".equals(imageState)) {
-					return ImageState.ACTIVE;
-				}
-				return ImageState.FAILED;
-			}
+		/*
+		 * Possible one image state described on
+		 * http://archives.opennebula.org/documentation:rel4.4:img_guide
+		 */
+		String imageState = image.getState();
+		if ("LOCKED".equals(imageState)) {
+			return ImageState.PENDING;
+		} else if ("READY".equals(imageState) || "USED".equals(imageState)
+				|| "USED_PERS".equals(imageState)) {
+			return ImageState.ACTIVE;
 		}
-		return null;
+		return ImageState.FAILED;
 	}
 	
 	private static class ResourceQuota {
@@ -839,13 +919,48 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 			return maxResource;
 		}
 	}
+	
+	private static class VmQuota {
+		
+		private final Map<String, String> userValues;
+		private final Map<String, String> groupValues;
+		private final long timestamp;
+		
+		public VmQuota(Map<String, String> userValues, Map<String, String> groupValues, long timestamp) {
+			this.userValues = userValues;
+			this.groupValues = groupValues;
+			this.timestamp = timestamp;
+		}
+		
+		public String getUserValue(String attribute) {
+			return userValues.get(attribute);
+		}
+		
+		public String getGroupValue(String attribute) {
+			return groupValues.get(attribute);
+		}
+	}
+
+	private static long getQuotaCacheTtl(Properties properties) {
+		String quotaCacheTtlStr = properties.getProperty(OneConfigurationConstants.COMPUTE_ONE_QUOTA_CACHE_TTL);
+		if (quotaCacheTtlStr == null || quotaCacheTtlStr.isEmpty()) {
+			return DEFAULT_QUOTA_CACHE_TTL;
+		}
+		try {
+			return Long.parseLong(quotaCacheTtlStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + OneConfigurationConstants.COMPUTE_ONE_QUOTA_CACHE_TTL + ": "
+					+ quotaCacheTtlStr + ", using " + DEFAULT_QUOTA_CACHE_TTL + ".");
+			return DEFAULT_QUOTA_CACHE_TTL;
+		}
+	}
 
 	@Override
 	public String attach(Token token, List<Category> categories,
 			Map<String, String> xOCCIAtt) {
 		String instanceId = xOCCIAtt.get(StorageAttribute.SOURCE.getValue());
 		String storageId = xOCCIAtt.get(StorageAttribute.TARGET.getValue());
-		Client client = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client client = getClient(token);
 		String diskTemplate = generateDiskTemplate(storageId);
 		OneResponse attachResponse = VirtualMachine.diskAttach(client, Integer.valueOf(instanceId), diskTemplate);
 		if (attachResponse.isError()) {
@@ -905,12 +1020,19 @@ public class OpenNebulaComputePlugin implements ComputePlugin {
 		String[] attachmentIdPieces = attachmentId.split("-disk-");
 		String diskId = attachmentIdPieces[attachmentIdPieces.length-1];
 		
-		Client client = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client client = getClient(token);
 		OneResponse response = VirtualMachine.diskDetach(client, Integer.parseInt(instanceId), Integer.parseInt(diskId));
 		if (response.isError()) {
 			throw new OCCIException(ErrorType.BAD_REQUEST, response.getMessage());
 		}
 	}
 	
+	/**
+	 * Shuts down the cached clients.
+	 */
+	@Override
+	public void close() {
+		clientCache.shutdown();
+	}
 }
 
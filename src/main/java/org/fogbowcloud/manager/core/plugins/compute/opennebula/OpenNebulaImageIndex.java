@@ -0,0 +1,246 @@
+package org.fogbowcloud.manager.core.plugins.compute.opennebula;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.opennebula.client.image.Image;
+
+/**
+ * Images each set of credentials can see, by name. The image pool is listed
+ * once and kept for a refresh period, so that image ids, states and sizes are
+ * resolved by name without going through the whole pool on every lookup.
+ * Looking up an image that is not in the index, or that is still locked,
+ * lists the pool again, but no more than once every few seconds, so that new
+ * images are found soon after they are registered. Concurrent lookups that
+ * need the pool of the same credentials listed wait for a single listing.
+ */
+public class OpenNebulaImageIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(OpenNebulaImageIndex.class);
+
+	protected static final long DEFAULT_REFRESH_PERIOD = 30000; // 30 seconds
+	protected static final long MIN_REBUILD_INTERVAL = 5000; // 5 seconds
+	protected static final String LOCKED_STATE = "LOCKED";
+
+	private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+	private final ConcurrentMap<String, FutureTask<Snapshot>> rebuildsInProgress =
+			new ConcurrentHashMap<String, FutureTask<Snapshot>>();
+	private final long refreshPeriod;
+	private DateUtils dateUtils = new DateUtils();
+
+	public OpenNebulaImageIndex(Properties properties) {
+		this(getRefreshPeriod(properties));
+	}
+
+	public OpenNebulaImageIndex(long refreshPeriod) {
+		this.refreshPeriod = refreshPeriod;
+	}
+
+	/**
+	 * @param key identifies the credentials the images are listed with
+	 * @return the image with the given name, or null if there is none
+	 */
+	public IndexedImage get(String key, String imageName, ImageLoader loader) {
+		Snapshot snapshot = getSnapshot(key, loader);
+		IndexedImage image = snapshot.images.get(imageName);
+		if ((image == null || image.isLocked())
+				&& dateUtils.currentTimeMillis() - snapshot.timestamp > MIN_REBUILD_INTERVAL) {
+			snapshot = rebuild(key, loader, snapshot);
+			image = snapshot.images.get(imageName);
+		}
+		return image;
+	}
+
+	/**
+	 * @param key identifies the credentials the images are listed with
+	 * @return all images, by name
+	 */
+	public Map<String, IndexedImage> getAll(String key, ImageLoader loader) {
+		return Collections.unmodifiableMap(getSnapshot(key, loader).images);
+	}
+
+	/**
+	 * Drops the images of the credentials, e.g. when one is registered, so
+	 * that the next lookup lists the pool again.
+	 */
+	public void invalidate(String key) {
+		snapshots.remove(key);
+	}
+
+	public void invalidateAll() {
+		snapshots.clear();
+	}
+
+	protected int size() {
+		return snapshots.size();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	private Snapshot getSnapshot(String key, ImageLoader loader) {
+		removeExpired();
+		Snapshot snapshot = snapshots.get(key);
+		if (snapshot == null) {
+			snapshot = rebuild(key, loader, null);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Lists the pool again, unless a listing for the key is in progress, in
+	 * which case its result is used, or another one already replaced the
+	 * outdated snapshot.
+	 * 
+	 * @param outdated snapshot the caller found unfit, or null if there was
+	 *        none
+	 */
+	private Snapshot rebuild(final String key, final ImageLoader loader, final Snapshot outdated) {
+		FutureTask<Snapshot> newRebuild = new FutureTask<Snapshot>(new Callable<Snapshot>() {
+			@Override
+			public Snapshot call() throws Exception {
+				Snapshot current = snapshots.get(key);
+				if (current != null && current != outdated) {
+					return current;
+				}
+				return load(key, loader);
+			}
+		});
+		FutureTask<Snapshot> rebuildInProgress = rebuildsInProgress.putIfAbsent(key, newRebuild);
+		if (rebuildInProgress != null) {
+			return getResult(rebuildInProgress);
+		}
+		try {
+			newRebuild.run();
+			return getResult(newRebuild);
+		} finally {
+			rebuildsInProgress.remove(key, newRebuild);
+		}
+	}
+
+	private Snapshot load(String key, ImageLoader loader) {
+		Map<String, IndexedImage> images = new HashMap<String, IndexedImage>();
+		for (Image image : loader.load()) {
+			// the first image with a name is the one that used to be found
+			if (!images.containsKey(image.getName())) {
+				images.put(image.getName(), new IndexedImage(image.getId(),
+						image.getName(), image.stateString(), image.xpath("SIZE")));
+			}
+		}
+		LOGGER.debug("Indexed " + images.size() + " images.");
+		Snapshot snapshot = new Snapshot(images, dateUtils.currentTimeMillis());
+		if (refreshPeriod > 0) {
+			snapshots.put(key, snapshot);
+		}
+		return snapshot;
+	}
+
+	private static Snapshot getResult(FutureTask<Snapshot> rebuild) {
+		try {
+			return rebuild.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while listing the images.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private void removeExpired() {
+		long now = dateUtils.currentTimeMillis();
+		Iterator<Snapshot> iterator = snapshots.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().timestamp > refreshPeriod) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static long getRefreshPeriod(Properties properties) {
+		String refreshPeriodStr = properties.getProperty(
+				OneConfigurationConstants.COMPUTE_ONE_IMAGES_REFRESH_PERIOD);
+		if (refreshPeriodStr == null || refreshPeriodStr.isEmpty()) {
+			return DEFAULT_REFRESH_PERIOD;
+		}
+		try {
+			return Long.parseLong(refreshPeriodStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + OneConfigurationConstants.COMPUTE_ONE_IMAGES_REFRESH_PERIOD + ": "
+					+ refreshPeriodStr + ", using " + DEFAULT_REFRESH_PERIOD + ".");
+			return DEFAULT_REFRESH_PERIOD;
+		}
+	}
+
+	public interface ImageLoader {
+
+		/**
+		 * @return the images of the pool, listed with the credentials of the
+		 *         index key
+		 */
+		Iterable<Image> load();
+	}
+
+	public static class IndexedImage {
+
+		private final String id;
+		private final String name;
+		private final String state;
+		private final String size;
+
+		public IndexedImage(String id, String name, String state, String size) {
+			this.id = id;
+			this.name = name;
+			this.state = state;
+			this.size = size;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getState() {
+			return state;
+		}
+
+		public String getSize() {
+			return size;
+		}
+
+		public boolean isLocked() {
+			return LOCKED_STATE.equals(state);
+		}
+	}
+
+	private static class Snapshot {
+
+		private final Map<String, IndexedImage> images;
+		private final long timestamp;
+
+		public Snapshot(Map<String, IndexedImage> images, long timestamp) {
+			this.images = images;
+			this.timestamp = timestamp;
+		}
+	}
+}
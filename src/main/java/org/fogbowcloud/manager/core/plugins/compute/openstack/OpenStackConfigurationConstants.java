@@ -49,6 +49,7 @@ public class OpenStackConfigurationConstants {
 	public static final String COMPUTE_NOVAV2_FLAVOR_SMALL_KEY = "compute_novav2_flavor_small";
 	public static final String COMPUTE_NOVAV2_FLAVOR_MEDIUM_KEY = "compute_novav2_flavor_medium";
 	public static final String COMPUTE_NOVAV2_FLAVOR_LARGE_KEY = "compute_novav2_flavor_large";
+	public static final String COMPUTE_NOVAV2_FLAVORS_UPDATE_PERIOD_KEY = "compute_novav2_flavors_update_period";
 
 	public static final String COMPUTE_HTTPCLIENT_TIMEOUT = "compute_httpclient_timeout";
 	
@@ -2,11 +2,14 @@ package org.fogbowcloud.manager.core.plugins.compute.openstack;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.Charsets;
 import org.apache.http.HttpResponse;
@@ -21,11 +24,15 @@ import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
-import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.FlavorIndex;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
 import org.fogbowcloud.manager.core.plugins.ComputePlugin;
+import org.fogbowcloud.manager.core.plugins.InstanceStateListing;
+import org.fogbowcloud.manager.core.plugins.util.BackgroundScheduler;
 import org.fogbowcloud.manager.core.plugins.util.HttpPatch;
 import org.fogbowcloud.manager.core.util.HttpRequestUtil;
 import org.fogbowcloud.manager.occi.OCCIConstants;
@@ -50,13 +57,16 @@ import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.Status;
 
-public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
+public class OpenStackNovaV2ComputePlugin implements ComputePlugin, InstanceStateListing {
 
 	protected static final int DEFAULT_HTTPCLIENT_TIMEOUT = 10000; // 10 seconds 
+	protected static final long DEFAULT_FLAVORS_UPDATE_PERIOD = 300000; // 5 minutes
 	
 	private static final String OS_VOLUME_ATTACHMENTS = "/os-volume_attachments";
 	private static final String SERVERS = "/servers";
+	private static final String SERVERS_DETAIL = "/servers/detail";
 	private static final String SUFFIX_ENDPOINT_FLAVORS = "/flavors";
+	private static final String SUFFIX_ENDPOINT_FLAVORS_DETAIL = SUFFIX_ENDPOINT_FLAVORS + "/detail";
 	private static final String SUFFIX_ENDPOINT_NETWORKS = "/networks";
 	private static final String NO_VALID_HOST_WAS_FOUND = "No valid host was found";
 	private static final String STATUS_JSON_FIELD = "status";
@@ -87,7 +97,13 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 	private Map<String, String> fogbowTermToOpenStack = new HashMap<String, String>();
 	private HttpClient client;
 	private Integer httpClientTimeout;
-	private List<Flavor> flavors;
+	private volatile List<Flavor> flavors;
+	private volatile FlavorIndex flavorIndex;
+	private final AtomicReference<Token> flavorsToken = new AtomicReference<Token>();
+	private final Object flavorsLock = new Object();
+	private long flavorsUpdatePeriod;
+	private final ManagerTimer flavorsUpdaterTimer;
+	private DateUtils dateUtils = new DateUtils();
 
 	private static final Logger LOGGER = Logger.getLogger(OpenStackNovaV2ComputePlugin.class);
 	
@@ -123,7 +139,16 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 			httpClientTimeout = Integer.parseInt(timeoutStr);		
 		} catch (Exception e) {}
 		
-		flavors = new ArrayList<Flavor>();	
+		flavorsUpdatePeriod = DEFAULT_FLAVORS_UPDATE_PERIOD;
+		try {
+			String periodStr = properties.getProperty(
+					OpenStackConfigurationConstants.COMPUTE_NOVAV2_FLAVORS_UPDATE_PERIOD_KEY,
+					String.valueOf(DEFAULT_FLAVORS_UPDATE_PERIOD));
+			flavorsUpdatePeriod = Long.parseLong(periodStr);
+		} catch (Exception e) {}
+		
+		flavors = Collections.emptyList();
+		flavorsUpdaterTimer = BackgroundScheduler.newTimer();
 		
 		initClient();
 	}
@@ -198,84 +223,125 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 		}
 	}
 
-	protected synchronized void updateFlavors(Token token) {
+	/**
+	 * Reads the whole flavor catalog with a single request and publishes it
+	 * as a new snapshot. The current snapshot is kept if the catalog can not
+	 * be read.
+	 */
+	protected void updateFlavors(Token token) {
 		try {
 			String tenantId = token.getAttributes().get(TENANT_ID);
 			if (tenantId == null) {
 				return;
 			}
 			
-			String endpoint = computeV2APIEndpoint + tenantId + SUFFIX_ENDPOINT_FLAVORS;
-			String authToken = token.getAccessId();
-			String jsonResponseFlavors = doGetRequest(endpoint, authToken);
-
-			Map<String, String> nameToFlavorId = new HashMap<String, String>();
+			String endpoint = computeV2APIEndpoint + tenantId + SUFFIX_ENDPOINT_FLAVORS_DETAIL;
+			String jsonResponseFlavors = doGetRequest(endpoint, token.getAccessId());
 
+			List<Flavor> newFlavors = new ArrayList<Flavor>();
 			JSONArray jsonArrayFlavors = new JSONObject(jsonResponseFlavors)
 					.getJSONArray("flavors");
 			for (int i = 0; i < jsonArrayFlavors.length(); i++) {
 				JSONObject itemFlavor = jsonArrayFlavors.getJSONObject(i);
-				nameToFlavorId.put(itemFlavor.getString("name"), itemFlavor.getString("id"));
+				newFlavors.add(new Flavor(itemFlavor.getString("name"), itemFlavor.getString("id"),
+						itemFlavor.getString("vcpus"), itemFlavor.getString("ram"),
+						itemFlavor.getString("disk")));
 			}
-
-			List<Flavor> newFlavors = detailFlavors(endpoint, authToken, nameToFlavorId);
-			if (newFlavors != null) {
-				this.flavors.addAll(newFlavors);			
+			setFlavors(newFlavors);
+		} catch (OCCIException e) {
+			LOGGER.warn("Error while updating flavors.", e);
+			if (e.getType() == ErrorType.UNAUTHORIZED) {
+				flavorsToken.compareAndSet(token, null);
 			}
-			removeInvalidFlavors(nameToFlavorId);
-
 		} catch (Exception e) {
 			LOGGER.warn("Error while updating flavors.", e);
 		}
 	}
 
-	private List<Flavor> detailFlavors(String endpoint, String authToken,
-			Map<String, String> nameToIdFlavor) throws JSONException {
-		List<Flavor> newFlavors = new ArrayList<Flavor>();
-		List<Flavor> flavorsCopy = new ArrayList<Flavor>(flavors);
-		for (String flavorName : nameToIdFlavor.keySet()) {
-			boolean containsFlavor = false;
-			for (Flavor flavor : flavorsCopy) {
-				if (flavor.getName().equals(flavorName)) {
-					containsFlavor = true;
-					break;
+	/*
+	 * Request threads only load the flavors themselves while there are none,
+	 * one of them at a time. Otherwise they just offer their token to the
+	 * timer that keeps the snapshot up to date, which a period that is not
+	 * positive disables.
+	 */
+	private List<Flavor> getFlavors(Token token) {
+		offerFlavorsToken(token);
+		if (getFlavors().isEmpty()) {
+			synchronized (flavorsLock) {
+				if (getFlavors().isEmpty()) {
+					updateFlavors(token);
 				}
 			}
-			if (containsFlavor) {
-				continue;
-			}
-			String newEndpoint = endpoint + "/" + nameToIdFlavor.get(flavorName);
-			String jsonResponseSpecificFlavor = doGetRequest(newEndpoint, authToken);
-
-			JSONObject specificFlavor = new JSONObject(jsonResponseSpecificFlavor)
-					.getJSONObject("flavor");
+		}
+		if (flavorsUpdatePeriod > 0 && !flavorsUpdaterTimer.isScheduled()) {
+			triggerFlavorsUpdater();
+		}
+		return getFlavors();
+	}
 
-			String id = specificFlavor.getString("id");
-			String name = specificFlavor.getString("name");
-			String disk = specificFlavor.getString("disk");
-			String ram = specificFlavor.getString("ram");
-			String vcpus = specificFlavor.getString("vcpus");
+	private synchronized void triggerFlavorsUpdater() {
+		if (flavorsUpdaterTimer.isScheduled()) {
+			return;
+		}
+		flavorsUpdaterTimer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				refreshFlavors();
+			}
+		}, flavorsUpdatePeriod, flavorsUpdatePeriod);
+	}
 
-			newFlavors.add(new Flavor(name, id, vcpus, ram, disk));		
+	/*
+	 * The timer keeps the token that expires last among the ones offered, and
+	 * forgets it once it expires or is refused, so that it never refreshes
+	 * the flavors with the credentials of a request that are no longer valid.
+	 */
+	protected void refreshFlavors() {
+		Token token = flavorsToken.get();
+		if (token == null) {
+			return;
+		}
+		if (getExpirationTime(token) <= dateUtils.currentTimeMillis()) {
+			flavorsToken.compareAndSet(token, null);
+			return;
 		}
-		return newFlavors;
+		updateFlavors(token);
 	}
 
-	private void removeInvalidFlavors(Map<String, String> nameToIdFlavor) {
-		ArrayList<Flavor> copyFlavors = new ArrayList<Flavor>(flavors);		
-		for (Flavor flavor : copyFlavors) {
-			boolean containsFlavor = false;
-			for (String flavorName : nameToIdFlavor.keySet()) {
-				if (flavorName.equals(flavor.getName())) {
-					containsFlavor = true;
-				}
+	private void offerFlavorsToken(Token token) {
+		if (getExpirationTime(token) <= dateUtils.currentTimeMillis()) {
+			return;
+		}
+		while (true) {
+			Token currentToken = flavorsToken.get();
+			if (currentToken != null 
+					&& getExpirationTime(currentToken) > dateUtils.currentTimeMillis()
+					&& getExpirationTime(currentToken) > getExpirationTime(token)) {
+				return;
 			}
-			if (!containsFlavor) {
-				this.flavors.remove(flavor);
+			if (flavorsToken.compareAndSet(currentToken, token)) {
+				return;
 			}
 		}
 	}
 
+	private static long getExpirationTime(Token token) {
+		Date expirationDate = token.getExpirationDate();
+		return expirationDate == null ? Long.MAX_VALUE : expirationDate.getTime();
+	}
+
+	protected Token getFlavorsToken() {
+		return flavorsToken.get();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	protected ManagerTimer getFlavorsUpdaterTimer() {
+		return flavorsUpdaterTimer;
+	}
+
 	private void deleteKeyName(Token token, String keyName) {
 		String keynameEndpoint = computeV2APIEndpoint + token.getAttributes().get(TENANT_ID)
 				+ "/os-keypairs/" + keyName;
@@ -310,7 +376,7 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 	}
 
 	private void initClient() {
-		this.client = HttpRequestUtil.createHttpClient(this.httpClientTimeout, null, null);
+		this.client = HttpRequestUtil.getSharedHttpClient(this.httpClientTimeout);
 	}
 	
 	protected void setClient(HttpClient client) {
@@ -394,13 +460,41 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 		return instances;
 	}
 
+	/**
+	 * Lists the instances through /servers/detail, which carries the status
+	 * of each server, so that they can be monitored with a single request.
+	 */
+	@Override
+	public List<Instance> getInstanceStates(Token token) {
+		String requestEndpoint = computeV2APIEndpoint + token.getAttributes().get(TENANT_ID)
+				+ SERVERS_DETAIL;
+		String jsonResponse = doGetRequest(requestEndpoint, token.getAccessId());
+		return getInstanceStatesFromJson(jsonResponse);
+	}
+
+	private List<Instance> getInstanceStatesFromJson(String json) {
+		List<Instance> instances = new ArrayList<Instance>();
+		try {
+			JSONArray servers = new JSONObject(json).getJSONArray("servers");
+			for (int i = 0; i < servers.length(); i++) {
+				JSONObject currentServer = servers.getJSONObject(i);
+				InstanceState state = getInstanceState(currentServer.getString(STATUS_JSON_FIELD));
+				Map<String, String> attributes = new HashMap<String, String>();
+				attributes.put("occi.compute.state", state.getOcciState());
+				instances.add(new Instance(currentServer.getString(ID_JSON_FIELD),
+						new ArrayList<Resource>(), attributes, new ArrayList<Link>(), state));
+			}
+		} catch (JSONException e) {
+			LOGGER.warn("There was an exception while getting instance states from json.", e);
+		}
+		return instances;
+	}
+
 	@Override
 	public Instance getInstance(Token token, String instanceId) {
 		LOGGER.info("Getting instance " + instanceId + " with token " + token);
 		
-		if (getFlavors() == null || getFlavors().isEmpty()) {
-			updateFlavors(token);
-		}
+		getFlavors(token);
 
 		String requestEndpoint = computeV2APIEndpoint + token.getAttributes().get(TENANT_ID)
 				+ "/servers/" + instanceId;
@@ -800,13 +894,13 @@ public class OpenStackNovaV2ComputePlugin implements ComputePlugin {
 	}
 	
 	public void setFlavors(List<Flavor> flavors) {
-		this.flavors = flavors;
+		this.flavors = Collections.unmodifiableList(new ArrayList<Flavor>(flavors));
 	}
 	
 	public Flavor getFlavor(Token token, String requirements) {
-		updateFlavors(token);
 		// Finding flavor
-		return RequirementsHelper.findSmallestFlavor(getFlavors(), requirements);
+		flavorIndex = FlavorIndex.refresh(flavorIndex, getFlavors(token));
+		return flavorIndex.findSmallestFlavor(requirements);
 	}
 	
 	protected int getHttpClientTimeout() {
@@ -0,0 +1,317 @@
+package org.fogbowcloud.manager.core.plugins.identity;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
+import org.fogbowcloud.manager.core.plugins.util.BackgroundScheduler;
+import org.fogbowcloud.manager.core.plugins.util.Credential;
+import org.fogbowcloud.manager.occi.model.Token;
+
+/**
+ * Caches the tokens returned by {@link #getToken(String)} and the access ids
+ * found valid by {@link #isValid(String)}, so that the identity service is
+ * not asked about the same access id on every request. Entries expire at the
+ * expiration date of the token or after the configured TTL, whichever comes
+ * first, and the least recently used ones are evicted when the cache is full.
+ * Concurrent lookups of an access id that is not cached wait for a single
+ * call to the identity service. Callers get copies of the cached tokens, so
+ * that changing one does not change what other requests see. A timer logs
+ * the hits, misses and joined lookups of the cache whenever it was used
+ * since the previous run.
+ */
+public class CachedIdentityPlugin implements IdentityPlugin {
+
+	private static final Logger LOGGER = Logger.getLogger(CachedIdentityPlugin.class);
+
+	protected static final int DEFAULT_MAX_SIZE = 1000;
+	protected static final long DEFAULT_TTL = 60000; // 1 minute
+	private static final long STATS_LOG_PERIOD = 60000; // 1 minute
+
+	private final IdentityPlugin identityPlugin;
+	private final LookupCache<Token> tokens;
+	private final LookupCache<Boolean> validAccessIds;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong joined = new AtomicLong();
+	private final ManagerTimer statsTimer;
+	private long lookupsLogged = 0;
+	private DateUtils dateUtils = new DateUtils();
+
+	public CachedIdentityPlugin(IdentityPlugin identityPlugin, Properties properties) {
+		this(identityPlugin, getMaxSize(properties), getTtl(properties));
+	}
+
+	public CachedIdentityPlugin(IdentityPlugin identityPlugin, int maxSize, long ttl) {
+		this(identityPlugin, maxSize, ttl, BackgroundScheduler.newTimer());
+	}
+
+	protected CachedIdentityPlugin(IdentityPlugin identityPlugin, int maxSize, long ttl,
+			ManagerTimer statsTimer) {
+		this.identityPlugin = identityPlugin;
+		this.tokens = new LookupCache<Token>(maxSize, ttl);
+		this.validAccessIds = new LookupCache<Boolean>(maxSize, ttl);
+		this.statsTimer = statsTimer;
+	}
+
+	@Override
+	public Token createToken(Map<String, String> userCredentials) {
+		return identityPlugin.createToken(userCredentials);
+	}
+
+	@Override
+	public Token reIssueToken(Token token) {
+		return identityPlugin.reIssueToken(token);
+	}
+
+	@Override
+	public Token getToken(final String accessId) {
+		if (accessId == null) {
+			return identityPlugin.getToken(accessId);
+		}
+		return copy(tokens.get(accessId, new Callable<Token>() {
+			@Override
+			public Token call() throws Exception {
+				return identityPlugin.getToken(accessId);
+			}
+		}));
+	}
+
+	@Override
+	public boolean isValid(final String accessId) {
+		if (accessId == null) {
+			return identityPlugin.isValid(accessId);
+		}
+		Boolean valid = validAccessIds.get(accessId, new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return identityPlugin.isValid(accessId);
+			}
+		});
+		return Boolean.TRUE.equals(valid);
+	}
+
+	@Override
+	public Credential[] getCredentials() {
+		return identityPlugin.getCredentials();
+	}
+
+	@Override
+	public String getAuthenticationURI() {
+		return identityPlugin.getAuthenticationURI();
+	}
+
+	@Override
+	public Token getForwardableToken(Token originalToken) {
+		return identityPlugin.getForwardableToken(originalToken);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the lookups that waited for a call to the identity service
+	 *         already in progress for the same access id
+	 */
+	public long getJoined() {
+		return joined.get();
+	}
+
+	/**
+	 * @return the share of lookups served without a call of their own to the
+	 *         identity service
+	 */
+	public double getHitRate() {
+		long lookups = hits.get() + misses.get() + joined.get();
+		return lookups == 0 ? 0 : (double) (hits.get() + joined.get()) / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "Federation identity cache: hits=" + hits.get() + ", misses=" + misses.get()
+				+ ", joined=" + joined.get() + ", hitRate=" + getHitRate();
+	}
+
+	protected synchronized void triggerStatsLogging() {
+		if (statsTimer.isScheduled()) {
+			return;
+		}
+		statsTimer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				logStats();
+			}
+		}, STATS_LOG_PERIOD, STATS_LOG_PERIOD);
+	}
+
+	protected synchronized void logStats() {
+		long lookups = hits.get() + misses.get() + joined.get();
+		if (lookups > lookupsLogged) {
+			lookupsLogged = lookups;
+			LOGGER.info(this);
+		}
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	private static Token copy(Token token) {
+		if (token == null) {
+			return null;
+		}
+		Map<String, String> attributes = token.getAttributes() == null ? null 
+				: new HashMap<String, String>(token.getAttributes());
+		// the expiration date is kept among the attributes
+		return new Token(token.getAccessId(), token.getUser(), null, attributes);
+	}
+
+	private static int getMaxSize(Properties properties) {
+		String maxSizeStr = properties.getProperty(ConfigurationConstants.FEDERATION_IDENTITY_CACHE_SIZE_KEY);
+		if (maxSizeStr == null || maxSizeStr.isEmpty()) {
+			return DEFAULT_MAX_SIZE;
+		}
+		try {
+			return Integer.parseInt(maxSizeStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.FEDERATION_IDENTITY_CACHE_SIZE_KEY + ": "
+					+ maxSizeStr + ", using " + DEFAULT_MAX_SIZE + ".");
+			return DEFAULT_MAX_SIZE;
+		}
+	}
+
+	private static long getTtl(Properties properties) {
+		String ttlStr = properties.getProperty(ConfigurationConstants.FEDERATION_IDENTITY_CACHE_TTL_KEY);
+		if (ttlStr == null || ttlStr.isEmpty()) {
+			return DEFAULT_TTL;
+		}
+		try {
+			return Long.parseLong(ttlStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.FEDERATION_IDENTITY_CACHE_TTL_KEY + ": "
+					+ ttlStr + ", using " + DEFAULT_TTL + ".");
+			return DEFAULT_TTL;
+		}
+	}
+
+	private static class CacheEntry<V> {
+
+		private final V value;
+		private final long expirationTime;
+
+		public CacheEntry(V value, long expirationTime) {
+			this.value = value;
+			this.expirationTime = expirationTime;
+		}
+	}
+
+	private class LookupCache<V> {
+
+		private final int maxSize;
+		private final long ttl;
+		private final Map<String, CacheEntry<V>> entries;
+		private final ConcurrentMap<String, FutureTask<V>> lookupsInProgress =
+				new ConcurrentHashMap<String, FutureTask<V>>();
+
+		@SuppressWarnings("serial")
+		public LookupCache(final int maxSize, long ttl) {
+			this.maxSize = maxSize;
+			this.ttl = ttl;
+			this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		public V get(String accessId, Callable<V> lookup) {
+			if (!statsTimer.isScheduled()) {
+				triggerStatsLogging();
+			}
+			synchronized (entries) {
+				CacheEntry<V> entry = entries.get(accessId);
+				if (entry != null) {
+					if (entry.expirationTime > dateUtils.currentTimeMillis()) {
+						hits.incrementAndGet();
+						return entry.value;
+					}
+					entries.remove(accessId);
+				}
+			}
+
+			FutureTask<V> newLookup = new FutureTask<V>(lookup);
+			FutureTask<V> lookupInProgress = lookupsInProgress.putIfAbsent(accessId, newLookup);
+			if (lookupInProgress != null) {
+				joined.incrementAndGet();
+				return getResult(lookupInProgress);
+			}
+			misses.incrementAndGet();
+			try {
+				newLookup.run();
+				V value = getResult(newLookup);
+				put(accessId, value);
+				return value;
+			} finally {
+				lookupsInProgress.remove(accessId, newLookup);
+			}
+		}
+
+		private void put(String accessId, V value) {
+			// invalid access ids are not kept, they would only push valid ones out
+			if (maxSize <= 0 || ttl <= 0 || value == null || Boolean.FALSE.equals(value)) {
+				return;
+			}
+			long now = dateUtils.currentTimeMillis();
+			long expirationTime = now + ttl;
+			if (value instanceof Token) {
+				Date tokenExpirationDate = ((Token) value).getExpirationDate();
+				if (tokenExpirationDate != null) {
+					expirationTime = Math.min(expirationTime, tokenExpirationDate.getTime());
+				}
+			}
+			if (expirationTime <= now) {
+				return;
+			}
+			synchronized (entries) {
+				entries.put(accessId, new CacheEntry<V>(value, expirationTime));
+			}
+		}
+
+		private V getResult(FutureTask<V> lookup) {
+			try {
+				return lookup.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the identity service.", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+}
@@ -56,7 +56,7 @@ public class NAFIdentityPlugin implements IdentityPlugin {
 	}
 
 	private void initClient() {
-		client = HttpRequestUtil.createHttpClient();
+		client = HttpRequestUtil.getSharedHttpClient();
 	}
 
 	protected HttpClient getClient() {
@@ -163,7 +163,7 @@ public class KeystoneV3IdentityPlugin implements IdentityPlugin {
 	
 	private HttpClient getClient() {
 		if (client == null) {
-			client = HttpRequestUtil.createHttpClient();
+			client = HttpRequestUtil.getSharedHttpClient();
 		}
 		return client;
 	}	
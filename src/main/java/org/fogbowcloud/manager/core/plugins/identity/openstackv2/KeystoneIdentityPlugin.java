@@ -152,7 +152,7 @@ public class KeystoneIdentityPlugin implements IdentityPlugin {
 
 	private HttpClient getClient() {
 		if (client == null) {
-			client = HttpRequestUtil.createHttpClient();
+			client = HttpRequestUtil.getSharedHttpClient();
 		}
 		return client;
 	}
@@ -1,9 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.memberpicker;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -11,8 +8,7 @@ import org.fogbowcloud.manager.core.ConfigurationConstants;
 import org.fogbowcloud.manager.core.model.FederationMember;
 import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.FederationMemberPickerPlugin;
-import org.fogbowcloud.manager.core.plugins.accounting.AccountingInfo;
-import org.fogbowcloud.manager.core.plugins.accounting.ResourceUsage;
+import org.fogbowcloud.manager.core.plugins.accounting.MembersUsageIndex;
 import org.fogbowcloud.manager.core.plugins.prioritization.nof.FederationMemberDebt;
 import org.fogbowcloud.manager.core.plugins.prioritization.nof.FederationMemberDebtComparator;
 import org.fogbowcloud.manager.core.plugins.prioritization.nof.NoFHelper;
@@ -37,10 +33,9 @@ public class NoFMemberPickerPlugin implements FederationMemberPickerPlugin {
 	
 	@Override
 	public FederationMember pick(List<FederationMember> members) {
-		List<AccountingInfo> accounting = accoutingPlugin.getAccountingInfo();
-		Map<String, ResourceUsage> membersUsage = NoFHelper.calculateMembersUsage(localMemberId,
-				accounting);
-		LinkedList<FederationMemberDebt> reputableMembers = new LinkedList<FederationMemberDebt>();
+		MembersUsageIndex membersUsage = NoFHelper.getMembersUsage(accoutingPlugin);
+		FederationMemberDebtComparator debtComparator = new FederationMemberDebtComparator();
+		FederationMemberDebt leastIndebtedMember = null;
 
 		for (FederationMember currentMember : members) {			
 			String memberId = currentMember.getResourcesInfo().getId();			
@@ -48,23 +43,18 @@ public class NoFMemberPickerPlugin implements FederationMemberPickerPlugin {
 				continue;
 			}
 			
-			double debt = 0d;
-			if (membersUsage.containsKey(memberId)) {
-				debt = membersUsage.get(memberId).getConsumed()
-						- membersUsage.get(memberId).getDonated();
-				if (!trustworthy) {
-					debt = Math.max(0,
-							debt + Math.sqrt(membersUsage.get(memberId).getDonated()));
-				}
+			double debt = NoFHelper.calculateDebt(membersUsage, localMemberId, memberId, trustworthy);
+			FederationMemberDebt memberDebt = new FederationMemberDebt(currentMember, debt);
+			if (leastIndebtedMember == null
+					|| debtComparator.compare(memberDebt, leastIndebtedMember) < 0) {
+				leastIndebtedMember = memberDebt;
 			}
-			reputableMembers.add(new FederationMemberDebt(currentMember, debt));
 		}
 		
-		if (reputableMembers.isEmpty()) {
+		if (leastIndebtedMember == null) {
 			return null;
 		}
-		Collections.sort(reputableMembers, new FederationMemberDebtComparator());
-		return reputableMembers.getFirst().getMember();
+		return leastIndebtedMember.getMember();
 	}
 	
 	public boolean getTrustworthy() {
@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.network.opennebula;
 
+import java.io.Closeable;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -22,6 +23,7 @@ import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.plugins.NetworkPlugin;
 import org.fogbowcloud.manager.core.plugins.compute.opennebula.OneConfigurationConstants;
 import org.fogbowcloud.manager.core.plugins.compute.opennebula.OpenNebulaClientFactory;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.OCCIConstants;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.instance.Instance.Link;
@@ -38,7 +40,7 @@ import org.opennebula.client.vnet.VirtualNetwork;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-public class OpenNebulaNetworkPlugin implements NetworkPlugin {
+public class OpenNebulaNetworkPlugin implements NetworkPlugin, Closeable {
 	private static final Logger LOGGER = Logger.getLogger(OpenNebulaNetworkPlugin.class);
 	
 	private static final String NETWORK_NAME = "network_name";
@@ -53,6 +55,7 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 	private static final String DEFAULT_NETWORK_TYPE = "RANGED";
 	
 	private OpenNebulaClientFactory clientFactory;
+	private final SdkClientCache<Client> clientCache;
 	@SuppressWarnings("unused")
 	private Properties properties;
 	private String openNebulaEndpoint;
@@ -67,6 +70,25 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 		this.clientFactory = clientFactory;
 		this.openNebulaEndpoint = properties.getProperty(OneConfigurationConstants.COMPUTE_ONE_URL);
 		this.bridge = properties.getProperty(OneConfigurationConstants.NETWORK_ONE_BRIDGE);
+		this.clientCache = createClientCache(properties);
+	}
+
+	private SdkClientCache<Client> createClientCache(Properties properties) {
+		return new SdkClientCache<Client>("OpenNebula network", properties, new SdkClientCache.ClientFactory<Client>() {
+			@Override
+			public Client createClient(Token token) {
+				return clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+			}
+
+			@Override
+			public void shutdownClient(Client client) {
+				// XML-RPC clients do not keep connections open between calls
+			}
+		});
+	}
+
+	private Client getClient(Token token) {
+		return clientCache.get(SdkClientCache.createKey(openNebulaEndpoint, token.getAccessId()), token);
 	}
 
 	@Override
@@ -92,7 +114,7 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 		templateProperties.put(NETWORK_GATEWAY, gateway);
 		
 		String vnetTemplate = generateNetworkTemplate(templateProperties);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		
 		LOGGER.debug("The network instance will be allocated according to template: " + vnetTemplate);
 		return clientFactory.allocateNetwork(oneClient, vnetTemplate);
@@ -171,7 +193,7 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 	@Override
 	public Instance getInstance(Token token, String instanceId) {
 		LOGGER.info("Getting network instance ID=" + instanceId + " and token=" + token);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualNetwork vnet = clientFactory.createVirtualNetwork(oneClient, instanceId);
 		return createInstance(vnet);
 	}
@@ -201,7 +223,7 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 	@Override
 	public void removeInstance(Token token, String instanceId) {
 		LOGGER.info("Removing network instance ID=" + instanceId + " and token=" + token);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		VirtualNetwork vnet = clientFactory.createVirtualNetwork(oneClient, instanceId);
 		OneResponse response = vnet.delete();
 		if (response.isError()) {
@@ -211,4 +233,11 @@ public class OpenNebulaNetworkPlugin implements NetworkPlugin {
 		}
 	}
 
+	/**
+	 * Shuts down the cached clients.
+	 */
+	@Override
+	public void close() {
+		clientCache.shutdown();
+	}
 }
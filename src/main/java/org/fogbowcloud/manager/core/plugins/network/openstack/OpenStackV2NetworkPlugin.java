@@ -571,7 +571,7 @@ public class OpenStackV2NetworkPlugin implements NetworkPlugin {
 	}		
 	
 	private void initClient() {
-		this.client = HttpRequestUtil.createHttpClient();
+		this.client = HttpRequestUtil.getSharedHttpClient();
 	}		
 	
 	// only for test
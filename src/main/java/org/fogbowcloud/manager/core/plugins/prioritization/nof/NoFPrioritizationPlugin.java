@@ -4,15 +4,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.ConfigurationConstants;
 import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.PrioritizationPlugin;
-import org.fogbowcloud.manager.core.plugins.accounting.AccountingInfo;
-import org.fogbowcloud.manager.core.plugins.accounting.ResourceUsage;
+import org.fogbowcloud.manager.core.plugins.accounting.MembersUsageIndex;
 import org.fogbowcloud.manager.occi.order.Order;
 
 public class NoFPrioritizationPlugin implements PrioritizationPlugin {
@@ -55,21 +53,18 @@ public class NoFPrioritizationPlugin implements PrioritizationPlugin {
 		
 		List<String> servedMemberIds = getServedMemberIds(ordersWithInstance);
 		LOGGER.debug("Current servedMemberIds=" + servedMemberIds);
-		List<AccountingInfo> accounting = accountingPlugin.getAccountingInfo();
-		Map<String, ResourceUsage> membersUsage = NoFHelper.calculateMembersUsage(localMemberId, accounting);
-		LOGGER.debug("Current membersUsage=" + membersUsage);		
+		MembersUsageIndex membersUsage = NoFHelper.getMembersUsage(accountingPlugin);
 		LinkedList<FederationMemberDebt> memberDebts = calctMemberDebts(servedMemberIds, membersUsage);
 		if (memberDebts.isEmpty()) {
 			LOGGER.debug("There are no member debts.");
 			return null;
 		}
-
-		Collections.sort(memberDebts, new FederationMemberDebtComparator());
 		LOGGER.debug("Current memberDebts=" + memberDebts);
 		
 		double requestingMemberDebt = calcDebt(membersUsage, newOrder.getRequestingMemberId());
 		LOGGER.debug("Requesting member debt=" + requestingMemberDebt);
-		FederationMemberDebt firstMember = memberDebts.getFirst();
+		FederationMemberDebt firstMember = Collections.min(memberDebts,
+				new FederationMemberDebtComparator());
 		if (firstMember.getDebt() < requestingMemberDebt) {
 			String memberId = firstMember.getMember().getResourcesInfo().getId();
 			List<Order> memberRequests = filterByRequestingMember(memberId, ordersWithInstance);
@@ -79,7 +74,7 @@ public class NoFPrioritizationPlugin implements PrioritizationPlugin {
 	}
 
 	private LinkedList<FederationMemberDebt> calctMemberDebts(List<String> servedMembers,
-			Map<String, ResourceUsage> membersUsage) {
+			MembersUsageIndex membersUsage) {
 		LinkedList<FederationMemberDebt> memberDebts = new LinkedList<FederationMemberDebt>();
 		for (String currentMemberId : servedMembers) {
 			if (localMemberId.equals(currentMemberId)) {
@@ -101,8 +96,7 @@ public class NoFPrioritizationPlugin implements PrioritizationPlugin {
 		return servedMemberIds;
 	}
 
-	protected double calcDebt(Map<String, ResourceUsage> membersUsage, String memberId) {
-		double debt = 0;
+	protected double calcDebt(MembersUsageIndex membersUsage, String memberId) {
 		if (localMemberId.equals(memberId)) {
 			if (prioritizeLocal) {
 				return Double.MAX_VALUE;
@@ -110,16 +104,7 @@ public class NoFPrioritizationPlugin implements PrioritizationPlugin {
 				return -1;
 			}
 		}
-
-		if (membersUsage.containsKey(memberId)) {
-			debt = membersUsage.get(memberId).getConsumed()
-					- membersUsage.get(memberId).getDonated();
-			if (!trustworthy) {
-				debt = Math.max(0,
-						debt + Math.sqrt(membersUsage.get(memberId).getDonated()));
-			}
-		}
-		return debt;
+		return NoFHelper.calculateDebt(membersUsage, localMemberId, memberId, trustworthy);
 	}
 
 	private Order getMostRecentOrder(List<Order> memberorders) {
@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.storage.ec2;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -10,6 +11,7 @@ import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.plugins.StoragePlugin;
 import org.fogbowcloud.manager.core.plugins.identity.ec2.EC2IdentityPlugin;
 import org.fogbowcloud.manager.core.plugins.util.HttpClientWrapper;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.model.Category;
 import org.fogbowcloud.manager.occi.model.ErrorType;
@@ -31,13 +33,14 @@ import com.amazonaws.services.ec2.model.DeleteVolumeRequest;
 import com.amazonaws.services.ec2.model.DescribeVolumesResult;
 import com.amazonaws.services.ec2.model.Volume;
 
-public class EC2StoragePlugin implements StoragePlugin {
+public class EC2StoragePlugin implements StoragePlugin, Closeable {
 	private static final Logger LOGGER = Logger.getLogger(EC2StoragePlugin.class);
 	public static final String DEFAULT_ATTACHMENT_DEVICE = "/dev/sdh";
 	
 	private HttpClientWrapper httpClient;
 	private String region;
 	private String availabilityZone;
+	private final SdkClientCache<AmazonEC2Client> ec2ClientCache;
 
 	public EC2StoragePlugin(Properties properties) {
 		this(properties, new HttpClientWrapper());
@@ -48,14 +51,27 @@ public class EC2StoragePlugin implements StoragePlugin {
 		this.httpClient = httpClient;
 		this.region = properties.getProperty("compute_ec2_region");
 		this.availabilityZone = properties.getProperty("storage_ec2_availability_zone");
+		this.ec2ClientCache = new SdkClientCache<AmazonEC2Client>("EC2 storage", properties, 
+				new SdkClientCache.ClientFactory<AmazonEC2Client>() {
+			@Override
+			public AmazonEC2Client createClient(Token token) {
+				LOGGER.debug("Creating EC2 client with token: " + token);
+				AmazonEC2Client ec2Client = new AmazonEC2Client(loadCredentials(token));
+				ec2Client.setRegion(Region.getRegion(Regions.fromName(region)));
+				return ec2Client;
+			}
+
+			@Override
+			public void shutdownClient(AmazonEC2Client ec2Client) {
+				ec2Client.shutdown();
+			}
+		});
 	}
 	
 	protected AmazonEC2Client createEC2Client(Token token) {
-		LOGGER.debug("Creating EC2 client with token: " + token);
 		BasicAWSCredentials awsCreds = loadCredentials(token);
-		AmazonEC2Client ec2Client = new AmazonEC2Client(awsCreds);
-		ec2Client.setRegion(Region.getRegion(Regions.fromName(region)));
-		return ec2Client;
+		return ec2ClientCache.get(SdkClientCache.createKey(region, 
+				awsCreds.getAWSAccessKeyId(), awsCreds.getAWSSecretKey()), token);
 	}
 	
 	private BasicAWSCredentials loadCredentials(Token token) {
@@ -175,4 +191,11 @@ public class EC2StoragePlugin implements StoragePlugin {
 		return httpClient;
 	}
 
+	/**
+	 * Shuts down the cached clients.
+	 */
+	@Override
+	public void close() {
+		ec2ClientCache.shutdown();
+	}
 }
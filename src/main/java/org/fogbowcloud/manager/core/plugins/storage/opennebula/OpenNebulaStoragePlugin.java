@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core.plugins.storage.opennebula;
 
+import java.io.Closeable;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,6 +21,7 @@ import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.plugins.StoragePlugin;
 import org.fogbowcloud.manager.core.plugins.compute.opennebula.OneConfigurationConstants;
 import org.fogbowcloud.manager.core.plugins.compute.opennebula.OpenNebulaClientFactory;
+import org.fogbowcloud.manager.core.plugins.util.SdkClientCache;
 import org.fogbowcloud.manager.occi.instance.Instance;
 import org.fogbowcloud.manager.occi.model.Category;
 import org.fogbowcloud.manager.occi.model.ErrorType;
@@ -37,7 +39,7 @@ import org.opennebula.client.image.ImagePool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-public class OpenNebulaStoragePlugin implements StoragePlugin {
+public class OpenNebulaStoragePlugin implements StoragePlugin, Closeable {
 	private static final Logger LOGGER = Logger.getLogger(OpenNebulaStoragePlugin.class);
 	public static final String OPENNEBULA_DATABLOCK_IMAGE_TYPE = "DATABLOCK";
 	public static final String OPENNEBULA_RAW_FSTYPE = "raw";
@@ -46,6 +48,7 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 	
 	
 	private OpenNebulaClientFactory clientFactory;
+	private final SdkClientCache<Client> clientCache;
 	private String openNebulaEndpoint;
 	private Integer dataStoreId;
 	private String devicePrefix;
@@ -63,6 +66,25 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 		dataStoreId = dataStoreIdStr == null ? null: Integer.valueOf(dataStoreIdStr);
 		devicePrefix = properties.getProperty(OneConfigurationConstants.STORAGE_ONE_DATASTORE_DEFAULT_DEVICE_PREFIX, 
 				OPENNEBULA_DATASTORE_DEFAULT_DEVICE_PREFIX);
+		this.clientCache = createClientCache(properties);
+	}
+
+	private SdkClientCache<Client> createClientCache(Properties properties) {
+		return new SdkClientCache<Client>("OpenNebula storage", properties, new SdkClientCache.ClientFactory<Client>() {
+			@Override
+			public Client createClient(Token token) {
+				return clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+			}
+
+			@Override
+			public void shutdownClient(Client client) {
+				// XML-RPC clients do not keep connections open between calls
+			}
+		});
+	}
+
+	private Client getClient(Token token) {
+		return clientCache.get(SdkClientCache.createKey(openNebulaEndpoint, token.getAccessId()), token);
 	}
 
 	@Override
@@ -80,7 +102,7 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 		templateProperties.put("volume_size", String.valueOf(size));
 		
 		String volumeTemplate = generateVolumeTemplate(templateProperties);
-		Client client = this.clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client client = getClient(token);
 		
 		LOGGER.debug("Creating datablock image with template: " + volumeTemplate);
 		return clientFactory.allocateImage(client, volumeTemplate, dataStoreId);
@@ -141,7 +163,7 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 	@Override
 	public List<Instance> getInstances(Token token) {
 		LOGGER.debug("Getting all datablock images.");
-		Client client = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client client = getClient(token);
 		ImagePool imagePool = clientFactory.createImagePool(client);
 		List<Instance> instances = new LinkedList<Instance>();
 		for (Image image : imagePool) {
@@ -187,7 +209,7 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 	@Override
 	public void removeInstance(Token token, String instanceId) {
 		LOGGER.debug("Removing datablock image ID: " + instanceId);
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		ImagePool imagePool = clientFactory.createImagePool(oneClient);
 		for (Image image : imagePool) {
 			if (image.typeStr().equals(
@@ -206,7 +228,7 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 	@Override
 	public void removeInstances(Token token) {
 		LOGGER.debug("Removing all datablock images.");
-		Client oneClient = clientFactory.createClient(token.getAccessId(), openNebulaEndpoint);
+		Client oneClient = getClient(token);
 		ImagePool createImagePool = clientFactory.createImagePool(oneClient);
 		for (Image image : createImagePool) {
 			if (image.typeStr().equals(
@@ -218,4 +240,12 @@ public class OpenNebulaStoragePlugin implements StoragePlugin {
 			}
 		}
 	}
+
+	/**
+	 * Shuts down the cached clients.
+	 */
+	@Override
+	public void close() {
+		clientCache.shutdown();
+	}
 }
\ No newline at end of file
@@ -273,7 +273,7 @@ public class OpenStackV2StoragePlugin implements StoragePlugin {
 	}	
 	
 	private void initClient() {
-		client = HttpRequestUtil.createHttpClient();
+		client = HttpRequestUtil.getSharedHttpClient();
 	}	
 	
 	public void setClient(HttpClient client) {
@@ -0,0 +1,50 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fogbowcloud.manager.core.ManagerTimer;
+
+/**
+ * A small pool of daemon threads shared by the background refreshes and
+ * evictions of the plugins, so that each plugin or cache does not start a
+ * thread of its own that keeps the JVM from exiting. Tasks must be short, or
+ * at least bounded by a timeout, as they share the same few threads.
+ * Cancelling a timer only cancels its task, the pool itself is never shut
+ * down.
+ */
+public class BackgroundScheduler {
+
+	private static final int POOL_SIZE = 2;
+
+	private static ScheduledExecutorService executor;
+
+	private BackgroundScheduler() {
+	}
+
+	/**
+	 * @return a timer that runs its task on the shared pool
+	 */
+	public static ManagerTimer newTimer() {
+		return new ManagerTimer(getExecutor());
+	}
+
+	public static synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newScheduledThreadPool(POOL_SIZE, new ThreadFactory() {
+
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "plugin-background-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
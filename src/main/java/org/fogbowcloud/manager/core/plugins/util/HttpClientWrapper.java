@@ -27,11 +27,10 @@ public class HttpClientWrapper {
 	private static final String DELETE = "delete";
 	private static final Logger LOGGER = Logger
 			.getLogger(HttpClientWrapper.class);
-	private HttpClient client;
 
 	private HttpResponseWrapper doRequest(String url, String method,
-			HttpEntity entity, SSLConnectionSocketFactory sslSocketFactory,
-			Map<String, String> headers) {
+			HttpEntity entity, String sslConfiguration,
+			SSLConnectionSocketFactory sslSocketFactory, Map<String, String> headers) {
 		HttpRequestBase request = null;
 		if (method.equals(POST)) {
 			request = new HttpPost(url);
@@ -51,7 +50,7 @@ public class HttpClientWrapper {
 		HttpResponse response = null;
 		String responseStr = null;
 		try {
-			response = getClient(sslSocketFactory).execute(request);
+			response = getClient(sslConfiguration, sslSocketFactory).execute(request);
 			responseStr = EntityUtils.toString(response.getEntity(),
 					Charsets.UTF_8);
 		} catch (Exception e) {
@@ -73,7 +72,7 @@ public class HttpClientWrapper {
 	}
 
 	public HttpResponseWrapper doGet(String url, Map<String, String> headers) {
-		return doRequest(url, GET, null, null, headers);
+		return doRequest(url, GET, null, null, null, headers);
 	}
 
 	public HttpResponseWrapper doGet(String url) {
@@ -86,44 +85,45 @@ public class HttpClientWrapper {
 
 	public HttpResponseWrapper doPost(String url, StringEntity entity,
 			Map<String, String> headers) {
-		return doRequest(url, POST, entity, null, headers);
+		return doRequest(url, POST, entity, null, null, headers);
 	}
 
+	/**
+	 * @param sslConfiguration identifies the SSL settings of the factory,
+	 *        requests with the same configuration share their connections,
+	 *        see {@link SslHelper#getSSLConfiguration(org.fogbowcloud.manager.occi.model.Token)}
+	 */
 	public HttpResponseWrapper doPostSSL(String url, StringEntity entity,
-			SSLConnectionSocketFactory sslSocketFactory,
+			String sslConfiguration, SSLConnectionSocketFactory sslSocketFactory,
 			Map<String, String> headers) {
-		return doRequest(url, POST, entity, sslSocketFactory, headers);
+		return doRequest(url, POST, entity, sslConfiguration, sslSocketFactory, headers);
 	}
 
-	public HttpResponseWrapper doPostSSL(String url,
+	public HttpResponseWrapper doPostSSL(String url, String sslConfiguration,
 			SSLConnectionSocketFactory sslSocketFactory) {
-		return doPostSSL(url, null, sslSocketFactory, null);
+		return doPostSSL(url, null, sslConfiguration, sslSocketFactory, null);
 	}
 
-	public HttpResponseWrapper doGetSSL(String url,
+	public HttpResponseWrapper doGetSSL(String url, String sslConfiguration,
 			SSLConnectionSocketFactory sslSocketFactory) {
-		return doGetSSL(url, sslSocketFactory, null);
+		return doGetSSL(url, sslConfiguration, sslSocketFactory, null);
 	}
 
-	public HttpResponseWrapper doGetSSL(String url,
+	public HttpResponseWrapper doGetSSL(String url, String sslConfiguration,
 			SSLConnectionSocketFactory sslSocketFactory,
 			Map<String, String> headers) {
-		return doRequest(url, GET, null, sslSocketFactory, headers);
+		return doRequest(url, GET, null, sslConfiguration, sslSocketFactory, headers);
 	}
 	
-	public HttpResponseWrapper doDeleteSSL(String url, SSLConnectionSocketFactory sslSocketFactory, 
-			Map<String, String> headers) {
-		return doRequest(url, DELETE, null, sslSocketFactory, headers);
+	public HttpResponseWrapper doDeleteSSL(String url, String sslConfiguration,
+			SSLConnectionSocketFactory sslSocketFactory, Map<String, String> headers) {
+		return doRequest(url, DELETE, null, sslConfiguration, sslSocketFactory, headers);
 	}
 
-	private HttpClient getClient(SSLConnectionSocketFactory sslSocketFactory) {
-		if (this.client == null) {
-			if (sslSocketFactory == null) {
-				this.client = HttpRequestUtil.createHttpClient();
-			} else {
-				this.client = HttpRequestUtil.createHttpClient(sslSocketFactory);
-			}
+	private HttpClient getClient(String sslConfiguration, SSLConnectionSocketFactory sslSocketFactory) {
+		if (sslSocketFactory == null) {
+			return HttpRequestUtil.getSharedHttpClient();
 		}
-		return client;
+		return HttpRequestUtil.getSharedHttpClient(sslConfiguration, sslSocketFactory);
 	}
 }
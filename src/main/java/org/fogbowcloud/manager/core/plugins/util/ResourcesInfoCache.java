@@ -0,0 +1,307 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.model.Flavor;
+import org.fogbowcloud.manager.core.model.ResourcesInfo;
+import org.fogbowcloud.manager.occi.model.Token;
+
+/**
+ * Snapshots of the resources of each set of credentials, for compute plugins
+ * that have to go through every instance to find out how much is in use.
+ * The first lookup for some credentials loads their snapshot; afterwards a
+ * timer loads it again every refresh period, so that lookups return at once.
+ * Plugins adjust the snapshots as they create and remove instances, so that
+ * they are close to the actual usage between refreshes. Snapshots are
+ * refreshed with the token of their credentials that expires last, and are
+ * dropped once that token expires or when they are not looked up for a
+ * while.
+ */
+public class ResourcesInfoCache {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourcesInfoCache.class);
+
+	protected static final long DEFAULT_REFRESH_PERIOD = 30000; // 30 seconds
+	protected static final int MAX_IDLE_PERIODS = 10;
+
+	private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+	private final ManagerTimer refreshTimer;
+	private final long refreshPeriod;
+	private DateUtils dateUtils = new DateUtils();
+
+	public ResourcesInfoCache(Properties properties) {
+		this(getRefreshPeriod(properties));
+	}
+
+	public ResourcesInfoCache(long refreshPeriod) {
+		this(refreshPeriod, BackgroundScheduler.newTimer());
+	}
+
+	protected ResourcesInfoCache(long refreshPeriod, ManagerTimer refreshTimer) {
+		this.refreshPeriod = refreshPeriod;
+		this.refreshTimer = refreshTimer;
+	}
+
+	/**
+	 * @param loader loads the resources of the token, now and on the
+	 *        following refreshes
+	 * @return a copy of the snapshot of the resources of the token
+	 */
+	public ResourcesInfo get(Token token, Loader loader) {
+		String key = getKey(token);
+		if (key == null || refreshPeriod <= 0) {
+			return loader.load(token);
+		}
+		Snapshot snapshot = snapshots.get(key);
+		if (snapshot == null) {
+			Snapshot newSnapshot = new Snapshot();
+			snapshot = snapshots.putIfAbsent(key, newSnapshot);
+			if (snapshot == null) {
+				snapshot = newSnapshot;
+			}
+		}
+		ResourcesInfo resourcesInfo = snapshot.get(token, loader);
+		if (!refreshTimer.isScheduled()) {
+			triggerRefresh();
+		}
+		return resourcesInfo;
+	}
+
+	/**
+	 * Takes an instance of the given flavor out of the idle resources of the
+	 * token. Flavors without CPU or memory only count as an instance.
+	 */
+	public void instanceCreated(Token token, String instanceId, Flavor flavor) {
+		Snapshot snapshot = getSnapshot(token);
+		if (snapshot != null) {
+			snapshot.instanceCreated(instanceId, flavor);
+		}
+	}
+
+	/**
+	 * Gives the instance back to the idle resources of the token. The
+	 * snapshot is dropped if the instance was not created through the cache,
+	 * as how much it used is not known.
+	 */
+	public void instanceRemoved(Token token, String instanceId) {
+		Snapshot snapshot = getSnapshot(token);
+		if (snapshot != null && !snapshot.instanceRemoved(instanceId)) {
+			snapshots.remove(getKey(token), snapshot);
+		}
+	}
+
+	/**
+	 * Drops the snapshot of the token, so that the next lookup loads it.
+	 */
+	public void invalidate(Token token) {
+		String key = getKey(token);
+		if (key != null) {
+			snapshots.remove(key);
+		}
+	}
+
+	protected synchronized void triggerRefresh() {
+		if (refreshTimer.isScheduled()) {
+			return;
+		}
+		refreshTimer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				refreshSnapshots();
+			}
+		}, refreshPeriod, refreshPeriod);
+	}
+
+	public void shutdown() {
+		refreshTimer.cancel();
+		snapshots.clear();
+	}
+
+	protected void refreshSnapshots() {
+		long now = dateUtils.currentTimeMillis();
+		Iterator<Entry<String, Snapshot>> iterator = snapshots.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Snapshot snapshot = iterator.next().getValue();
+			if (now - snapshot.lastAccess > MAX_IDLE_PERIODS * refreshPeriod
+					|| snapshot.getTokenExpirationTime() <= now) {
+				iterator.remove();
+				continue;
+			}
+			try {
+				snapshot.refresh();
+			} catch (Exception e) {
+				LOGGER.warn("Could not refresh resources info, keeping the previous one.", e);
+			}
+		}
+	}
+
+	protected int size() {
+		return snapshots.size();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	protected ManagerTimer getRefreshTimer() {
+		return refreshTimer;
+	}
+
+	private Snapshot getSnapshot(Token token) {
+		String key = getKey(token);
+		return key == null ? null : snapshots.get(key);
+	}
+
+	private static String getKey(Token token) {
+		return token == null ? null : token.getAccessId();
+	}
+
+	private static long getExpirationTime(Token token) {
+		Date expirationDate = token.getExpirationDate();
+		return expirationDate == null ? Long.MAX_VALUE : expirationDate.getTime();
+	}
+
+	private static ResourcesInfo copy(ResourcesInfo resourcesInfo) {
+		return new ResourcesInfo(resourcesInfo.getId(), resourcesInfo.getCpuIdle(),
+				resourcesInfo.getCpuInUse(), resourcesInfo.getMemIdle(), resourcesInfo.getMemInUse(),
+				resourcesInfo.getInstancesIdle(), resourcesInfo.getInstancesInUse(),
+				resourcesInfo.getCpuInUseByUser(), resourcesInfo.getMemInUseByUser(),
+				resourcesInfo.getInstancesInUseByUser());
+	}
+
+	private static String add(String value, String delta, int times) {
+		try {
+			return String.valueOf(Integer.parseInt(value) + Integer.parseInt(delta) * times);
+		} catch (Exception e) {
+			try {
+				return String.valueOf(Double.parseDouble(value) + Double.parseDouble(delta) * times);
+			} catch (Exception e2) {
+				return value;
+			}
+		}
+	}
+
+	private static long getRefreshPeriod(Properties properties) {
+		String periodStr = properties.getProperty(
+				ConfigurationConstants.COMPUTE_RESOURCES_INFO_REFRESH_PERIOD_KEY);
+		if (periodStr == null || periodStr.isEmpty()) {
+			return DEFAULT_REFRESH_PERIOD;
+		}
+		try {
+			return Long.parseLong(periodStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.COMPUTE_RESOURCES_INFO_REFRESH_PERIOD_KEY
+					+ ": " + periodStr + ", using " + DEFAULT_REFRESH_PERIOD + ".");
+			return DEFAULT_REFRESH_PERIOD;
+		}
+	}
+
+	public interface Loader {
+
+		/**
+		 * @return the resources of the token, going through the cloud
+		 */
+		ResourcesInfo load(Token token);
+	}
+
+	private class Snapshot {
+
+		private Token token;
+		private Loader loader;
+		private ResourcesInfo resourcesInfo;
+		// flavors of the instances created through the cache
+		private final Map<String, Flavor> instanceFlavors = new HashMap<String, Flavor>();
+		// adjustments made since the snapshot was loaded
+		private int adjustments;
+		private boolean refreshSkipped;
+		private volatile long lastAccess;
+
+		public synchronized ResourcesInfo get(Token token, Loader loader) {
+			if (this.token == null || getExpirationTime(token) > getExpirationTime(this.token)) {
+				this.token = token;
+			}
+			this.loader = loader;
+			this.lastAccess = dateUtils.currentTimeMillis();
+			if (resourcesInfo == null) {
+				resourcesInfo = loader.load(token);
+				adjustments = 0;
+			}
+			return copy(resourcesInfo);
+		}
+
+		public void refresh() {
+			Token token;
+			Loader loader;
+			int adjustmentsBefore;
+			synchronized (this) {
+				token = this.token;
+				loader = this.loader;
+				adjustmentsBefore = adjustments;
+			}
+			if (loader == null) {
+				return;
+			}
+			ResourcesInfo newResourcesInfo = loader.load(token);
+			synchronized (this) {
+				// an instance created or removed during the load may be
+				// missing from it, the next refresh will find it
+				if (adjustments != adjustmentsBefore && !refreshSkipped) {
+					refreshSkipped = true;
+					return;
+				}
+				resourcesInfo = newResourcesInfo;
+				adjustments = 0;
+				refreshSkipped = false;
+			}
+		}
+
+		public synchronized long getTokenExpirationTime() {
+			return token == null ? Long.MAX_VALUE : getExpirationTime(token);
+		}
+
+		public synchronized void instanceCreated(String instanceId, Flavor flavor) {
+			if (resourcesInfo == null) {
+				return;
+			}
+			instanceFlavors.put(instanceId, flavor);
+			adjust(flavor, 1);
+		}
+
+		/**
+		 * @return false if the flavor of the instance is not known
+		 */
+		public synchronized boolean instanceRemoved(String instanceId) {
+			if (resourcesInfo == null) {
+				return true;
+			}
+			if (!instanceFlavors.containsKey(instanceId)) {
+				return false;
+			}
+			adjust(instanceFlavors.remove(instanceId), -1);
+			return true;
+		}
+
+		private void adjust(Flavor flavor, int instances) {
+			resourcesInfo.setInstancesIdle(add(resourcesInfo.getInstancesIdle(), "1", -instances));
+			resourcesInfo.setInstancesInUse(add(resourcesInfo.getInstancesInUse(), "1", instances));
+			if (flavor != null) {
+				resourcesInfo.setCpuIdle(add(resourcesInfo.getCpuIdle(), flavor.getCpu(), -instances));
+				resourcesInfo.setCpuInUse(add(resourcesInfo.getCpuInUse(), flavor.getCpu(), instances));
+				resourcesInfo.setMemIdle(add(resourcesInfo.getMemIdle(), flavor.getMem(), -instances));
+				resourcesInfo.setMemInUse(add(resourcesInfo.getMemInUse(), flavor.getMem(), instances));
+			}
+			adjustments++;
+		}
+	}
+}
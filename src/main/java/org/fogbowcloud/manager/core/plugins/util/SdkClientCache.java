@@ -0,0 +1,310 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.occi.model.Token;
+
+/**
+ * SDK clients of a cloud, kept per set of credentials and region or
+ * subscription, so that plugins do not build a client, with its own threads
+ * and connections, on every operation. The cache is bounded, the least
+ * recently used client is dropped when it is full, and a timer drops the
+ * clients not used for a while. Dropped clients are only shut down after the
+ * idle timeout, so that operations still using them can finish. The timer
+ * also logs the hits, creations and evictions of the cache whenever it was
+ * used since the previous run.
+ */
+public class SdkClientCache<T> {
+
+	private static final Logger LOGGER = Logger.getLogger(SdkClientCache.class);
+
+	protected static final int DEFAULT_MAX_SIZE = 50;
+	protected static final long DEFAULT_IDLE_TIMEOUT = 600000; // 10 minutes
+	private static final long MAX_EVICTION_PERIOD = 60000; // 1 minute
+
+	private final String name;
+	private final Map<String, CachedClient> clients = new LinkedHashMap<String, CachedClient>(16, 0.75f, true);
+	private final List<CachedClient> droppedClients = new LinkedList<CachedClient>();
+	private final ClientFactory<T> clientFactory;
+	private final ManagerTimer evictionTimer;
+	private final int maxSize;
+	private final long idleTimeout;
+	private DateUtils dateUtils = new DateUtils();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong creations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private long lookupsLogged = 0;
+
+	/**
+	 * @param name of the clients, e.g. the cloud and service, used in the logs
+	 */
+	public SdkClientCache(String name, Properties properties, ClientFactory<T> clientFactory) {
+		this(name, getMaxSize(properties), getIdleTimeout(properties), clientFactory);
+	}
+
+	public SdkClientCache(String name, int maxSize, long idleTimeout, ClientFactory<T> clientFactory) {
+		this(name, maxSize, idleTimeout, clientFactory, BackgroundScheduler.newTimer());
+	}
+
+	protected SdkClientCache(String name, int maxSize, long idleTimeout, ClientFactory<T> clientFactory,
+			ManagerTimer evictionTimer) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.clientFactory = clientFactory;
+		this.evictionTimer = evictionTimer;
+	}
+
+	/**
+	 * @param key identifies the credentials and the region or subscription of
+	 *        the client, see {@link #createKey(String...)}
+	 * @param token credentials of the client, used if it has to be created
+	 * @return the client of the key, created if there is none
+	 */
+	public T get(String key, Token token) {
+		if (maxSize <= 0) {
+			creations.incrementAndGet();
+			return clientFactory.createClient(token);
+		}
+		synchronized (this) {
+			CachedClient cachedClient = clients.get(key);
+			if (cachedClient != null) {
+				hits.incrementAndGet();
+				cachedClient.lastAccess = dateUtils.currentTimeMillis();
+				return cachedClient.client;
+			}
+		}
+		// clients are created out of the lock, as that may go through the cloud
+		T client = clientFactory.createClient(token);
+		creations.incrementAndGet();
+		synchronized (this) {
+			CachedClient cachedClient = clients.get(key);
+			if (cachedClient != null) {
+				// created concurrently by another thread
+				drop(new CachedClient(client, dateUtils.currentTimeMillis()));
+				cachedClient.lastAccess = dateUtils.currentTimeMillis();
+				return cachedClient.client;
+			}
+			clients.put(key, new CachedClient(client, dateUtils.currentTimeMillis()));
+			if (clients.size() > maxSize) {
+				Iterator<CachedClient> iterator = clients.values().iterator();
+				CachedClient eldest = iterator.next();
+				iterator.remove();
+				evictions.incrementAndGet();
+				drop(eldest);
+			}
+		}
+		if (!evictionTimer.isScheduled()) {
+			triggerEviction();
+		}
+		return client;
+	}
+
+	/**
+	 * Drops the client of the key, e.g. when its credentials are no longer
+	 * accepted.
+	 */
+	public synchronized void invalidate(String key) {
+		CachedClient cachedClient = clients.remove(key);
+		if (cachedClient != null) {
+			drop(cachedClient);
+		}
+	}
+
+	/**
+	 * Drops all clients, e.g. when the way they are created changes.
+	 */
+	public synchronized void invalidateAll() {
+		for (CachedClient cachedClient : clients.values()) {
+			drop(cachedClient);
+		}
+		clients.clear();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getCreations() {
+		return creations.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the share of lookups served by a cached client
+	 */
+	public double getHitRate() {
+		long lookups = hits.get() + creations.get();
+		return lookups == 0 ? 0 : (double) hits.get() / lookups;
+	}
+
+	public synchronized int size() {
+		return clients.size();
+	}
+
+	public void shutdown() {
+		evictionTimer.cancel();
+		List<CachedClient> toShutdown = new LinkedList<CachedClient>();
+		synchronized (this) {
+			toShutdown.addAll(clients.values());
+			toShutdown.addAll(droppedClients);
+			clients.clear();
+			droppedClients.clear();
+		}
+		for (CachedClient cachedClient : toShutdown) {
+			shutdownClient(cachedClient.client);
+		}
+	}
+
+	/**
+	 * @return a key made of the given parts, with the last part, usually a
+	 *         secret, digested so that it is not kept in memory as is
+	 */
+	public static String createKey(String... parts) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				key.append(':');
+			}
+			String part = parts[i] == null ? "" : parts[i];
+			key.append(i == parts.length - 1 ? DigestUtils.sha1Hex(part) : part);
+		}
+		return key.toString();
+	}
+
+	protected synchronized void triggerEviction() {
+		if (evictionTimer.isScheduled()) {
+			return;
+		}
+		long period = Math.min(idleTimeout, MAX_EVICTION_PERIOD);
+		evictionTimer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				evictIdleClients();
+			}
+		}, period, period);
+	}
+
+	protected void evictIdleClients() {
+		long now = dateUtils.currentTimeMillis();
+		List<CachedClient> toShutdown = new LinkedList<CachedClient>();
+		synchronized (this) {
+			Iterator<CachedClient> droppedIterator = droppedClients.iterator();
+			while (droppedIterator.hasNext()) {
+				CachedClient droppedClient = droppedIterator.next();
+				if (now - droppedClient.lastAccess > idleTimeout) {
+					droppedIterator.remove();
+					toShutdown.add(droppedClient);
+				}
+			}
+			Iterator<Entry<String, CachedClient>> iterator = clients.entrySet().iterator();
+			while (iterator.hasNext()) {
+				CachedClient cachedClient = iterator.next().getValue();
+				if (now - cachedClient.lastAccess > idleTimeout) {
+					iterator.remove();
+					evictions.incrementAndGet();
+					drop(cachedClient);
+				}
+			}
+			long lookups = hits.get() + creations.get();
+			if (lookups > lookupsLogged) {
+				lookupsLogged = lookups;
+				LOGGER.info(this);
+			}
+		}
+		for (CachedClient cachedClient : toShutdown) {
+			shutdownClient(cachedClient.client);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " SDK clients: size=" + clients.size() + ", hits=" + hits.get()
+				+ ", creations=" + creations.get() + ", evictions=" + evictions.get()
+				+ ", hitRate=" + getHitRate();
+	}
+
+	protected void setDateUtils(DateUtils dateUtils) {
+		this.dateUtils = dateUtils;
+	}
+
+	protected ManagerTimer getEvictionTimer() {
+		return evictionTimer;
+	}
+
+	private void drop(CachedClient cachedClient) {
+		cachedClient.lastAccess = dateUtils.currentTimeMillis();
+		droppedClients.add(cachedClient);
+	}
+
+	private void shutdownClient(T client) {
+		try {
+			clientFactory.shutdownClient(client);
+		} catch (Exception e) {
+			LOGGER.warn("Could not shut down SDK client.", e);
+		}
+	}
+
+	private static int getMaxSize(Properties properties) {
+		String maxSizeStr = properties.getProperty(ConfigurationConstants.SDK_CLIENT_CACHE_MAX_SIZE_KEY);
+		if (maxSizeStr == null || maxSizeStr.isEmpty()) {
+			return DEFAULT_MAX_SIZE;
+		}
+		try {
+			return Integer.parseInt(maxSizeStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.SDK_CLIENT_CACHE_MAX_SIZE_KEY + ": "
+					+ maxSizeStr + ", using " + DEFAULT_MAX_SIZE + ".");
+			return DEFAULT_MAX_SIZE;
+		}
+	}
+
+	private static long getIdleTimeout(Properties properties) {
+		String idleTimeoutStr = properties.getProperty(
+				ConfigurationConstants.SDK_CLIENT_CACHE_IDLE_TIMEOUT_KEY);
+		if (idleTimeoutStr == null || idleTimeoutStr.isEmpty()) {
+			return DEFAULT_IDLE_TIMEOUT;
+		}
+		try {
+			return Long.parseLong(idleTimeoutStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + ConfigurationConstants.SDK_CLIENT_CACHE_IDLE_TIMEOUT_KEY + ": "
+					+ idleTimeoutStr + ", using " + DEFAULT_IDLE_TIMEOUT + ".");
+			return DEFAULT_IDLE_TIMEOUT;
+		}
+	}
+
+	public interface ClientFactory<T> {
+
+		T createClient(Token token);
+
+		void shutdownClient(T client) throws Exception;
+	}
+
+	private class CachedClient {
+
+		private final T client;
+		private volatile long lastAccess;
+
+		public CachedClient(T client, long lastAccess) {
+			this.client = client;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
@@ -2,27 +2,51 @@ package org.fogbowcloud.manager.core.plugins.util;
 
 import java.security.PublicKey;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
 import java.util.TimerTask;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.transport.verification.HostKeyVerifier;
 
+import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.core.ManagerController;
 import org.fogbowcloud.manager.core.ManagerTimer;
 import org.fogbowcloud.manager.core.model.DateUtils;
 
+/**
+ * SSH connections shared by the threads that run commands on instances, one
+ * per address and user. Each connection is checked out and evicted under its
+ * own lock, so threads only wait for others using the same address and user,
+ * and a connection is never closed between being looked up and being handed
+ * out. Callers give a connection back with
+ * {@link #releaseClient(String, String)} once their command is done.
+ * Connections not checked out and idle for longer than {@link #TIMEOUT}, or
+ * found dead by the keepalive, are disconnected by a timer on the
+ * {@link BackgroundScheduler}. The number of connections is
+ * bounded in total and per host, the host part of the address, which also
+ * bounds the connections going through the same reverse tunnel host.
+ */
 public class SshClientPool {
+
+	private static final Logger LOGGER = Logger.getLogger(SshClientPool.class);
 	
 	protected final long TIMEOUT = 20000; // 20 s
 	private final long DEFAULT_SCHEDULER_PERIOD = 300000; // 5 min
+	protected static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+	protected static final int KEEPALIVE_INTERVAL = 10; // 10 s
 	
-	private Map<String, SSHConnection> pool = new HashMap<String, SSHConnection>();
+	private ConcurrentMap<String, SSHConnection> pool = new ConcurrentHashMap<String, SSHConnection>();
+	private final Map<String, Integer> hostConnections = new HashMap<String, Integer>();
 	private final ManagerTimer sshConnectionSchedulerTimer;
+	private final int maxConnectionsPerHost;
+	private long acquireTimeout = TIMEOUT;
 	private DateUtils dateUtils;
 	private Semaphore semaphore;
 	private SSHClientFactory clientFactory = new SSHClientFactory();
@@ -32,35 +56,116 @@ public class SshClientPool {
 	}
 
 	public SshClientPool(DateUtils dateUtils) {
-		this.sshConnectionSchedulerTimer = new ManagerTimer(Executors.newScheduledThreadPool(1));
-		this.semaphore = new Semaphore(ManagerController.DEFAULT_MAX_POOL);
+		this(dateUtils, ManagerController.DEFAULT_MAX_POOL, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	public SshClientPool(DateUtils dateUtils, int maxConnections, int maxConnectionsPerHost) {
+		this.sshConnectionSchedulerTimer = BackgroundScheduler.newTimer();
+		this.semaphore = new Semaphore(maxConnections);
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
 		this.dateUtils = dateUtils;
 	}
 	
 	public SSHClient getClient(String address, String sshUser, String sshPrivateKeyPath) throws Exception {
-		SSHConnection sshConnection = pool.get(address);
-		if (sshConnection == null) {
-			semaphore.acquire(1);
-			SSHClient client = clientFactory.createSshClient();
-			sshConnection = new SSHConnection(client, dateUtils.currentTimeMillis());
-			pool.put(address, sshConnection);
+		String key = sshUser + "@" + address;
+		while (true) {
+			SSHConnection sshConnection = pool.get(key);
+			if (sshConnection == null) {
+				SSHConnection newSshConnection = createConnection(address.split(":")[0]);
+				sshConnection = pool.putIfAbsent(key, newSshConnection);
+				if (sshConnection == null) {
+					sshConnection = newSshConnection;
+				} else {
+					release(newSshConnection);
+				}
+			}
+
+			SSHClient client = null;
+			try {
+				client = sshConnection.connect(address, sshUser, sshPrivateKeyPath);
+			} catch (Exception e) {
+				if (pool.remove(key, sshConnection)) {
+					close(sshConnection);
+				}
+				throw e;
+			}
+			if (client == null) {
+				// evicted after being looked up, a new one takes its place
+				if (pool.remove(key, sshConnection)) {
+					close(sshConnection);
+				}
+				continue;
+			}
+			if (!sshConnectionSchedulerTimer.isScheduled()) {
+				triggerSshConnectionPoolScheduler();
+			}
+			return client;
 		}
-		
-		SSHClient client = sshConnection.getSshClient();
-		if (!client.isConnected()) {
-			String[] sshAddressAndPort = address.split(":");
-			client.connect(sshAddressAndPort[0], Integer.parseInt(sshAddressAndPort[1]));
+	}
+	
+	/**
+	 * Gives back a client got from {@link #getClient(String, String, String)},
+	 * so that it can be evicted once idle.
+	 */
+	public void releaseClient(String address, String sshUser) {
+		SSHConnection sshConnection = pool.get(sshUser + "@" + address);
+		if (sshConnection != null) {
+			sshConnection.checkIn();
+		}
+	}
+
+	private SSHConnection createConnection(String host) throws Exception {
+		if (!semaphore.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException("Too many SSH connections open.");
 		}
-		if (!client.isAuthenticated()) {
-			client.authPublickey(sshUser, sshPrivateKeyPath);
+		try {
+			acquireHostConnection(host);
+		} catch (Exception e) {
+			semaphore.release();
+			throw e;
 		}
-		if (!sshConnectionSchedulerTimer.isScheduled()) {
-			triggerSshConnectionPoolScheduler();
-		}	
-		return client;
+		return new SSHConnection(host, clientFactory.createSshClient(), dateUtils.currentTimeMillis());
 	}
-	
-	protected void triggerSshConnectionPoolScheduler() {
+
+	/*
+	 * Hosts are only counted while they have connections, so that the count
+	 * of every instance ever reached is not kept.
+	 */
+	private void acquireHostConnection(String host) throws Exception {
+		long deadline = System.currentTimeMillis() + acquireTimeout;
+		synchronized (hostConnections) {
+			while (getHostConnections(host) >= maxConnectionsPerHost) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new TimeoutException("Too many SSH connections open to " + host + ".");
+				}
+				hostConnections.wait(remaining);
+			}
+			hostConnections.put(host, getHostConnections(host) + 1);
+		}
+	}
+
+	private void releaseHostConnection(String host) {
+		synchronized (hostConnections) {
+			int connections = getHostConnections(host) - 1;
+			if (connections > 0) {
+				hostConnections.put(host, connections);
+			} else {
+				hostConnections.remove(host);
+			}
+			hostConnections.notifyAll();
+		}
+	}
+
+	private int getHostConnections(String host) {
+		Integer connections = hostConnections.get(host);
+		return connections == null ? 0 : connections;
+	}
+
+	protected synchronized void triggerSshConnectionPoolScheduler() {
+		if (sshConnectionSchedulerTimer.isScheduled()) {
+			return;
+		}
 		sshConnectionSchedulerTimer.scheduleAtFixedRate(new TimerTask() {
 			@Override
 			public void run() {
@@ -74,16 +179,38 @@ public class SshClientPool {
 			return;
 		}
 		
-		Set<String> keySet = new HashSet<String>(pool.keySet());
-		for (String key : keySet) {
-			if (pool.get(key).getTimestamp() + TIMEOUT < dateUtils.currentTimeMillis()) {
-				pool.remove(key);
-				semaphore.release();
+		Iterator<Entry<String, SSHConnection>> iterator = pool.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<String, SSHConnection> entry = iterator.next();
+			SSHConnection sshConnection = entry.getValue();
+			if (sshConnection.evictIfUnused(dateUtils.currentTimeMillis() - TIMEOUT)
+					&& pool.remove(entry.getKey(), sshConnection)) {
+				LOGGER.debug("Removing idle or dead SSH connection to " + entry.getKey() + ".");
+				close(sshConnection);
 			}
 		}
 		
-		if (pool.isEmpty()) {
-			sshConnectionSchedulerTimer.cancel();
+		synchronized (this) {
+			if (pool.isEmpty()) {
+				sshConnectionSchedulerTimer.cancel();
+			}
+		}
+	}
+
+	private void close(SSHConnection sshConnection) {
+		try {
+			sshConnection.getSshClient().disconnect();
+		} catch (Exception e) {
+			LOGGER.debug("Could not disconnect SSH client.", e);
+		} finally {
+			release(sshConnection);
+		}
+	}
+
+	private void release(SSHConnection sshConnection) {
+		semaphore.release();
+		if (sshConnection.getHost() != null) {
+			releaseHostConnection(sshConnection.getHost());
 		}
 	}
 	
@@ -95,8 +222,12 @@ public class SshClientPool {
 		this.semaphore = semaphore;
 	}
 	
+	protected void setAcquireTimeout(long acquireTimeout) {
+		this.acquireTimeout = acquireTimeout;
+	}
+
 	protected void setPool(Map<String, SSHConnection> pool) {
-		this.pool = pool;
+		this.pool = pool == null ? null : new ConcurrentHashMap<String, SSHConnection>(pool);
 	}
 	
 	protected Map<String, SSHConnection> getPool() {
@@ -116,6 +247,7 @@ public class SshClientPool {
 		public SSHClient createSshClient() {
 			SSHClient client = new SSHClient();
 			client.setConnectTimeout(10);
+			client.getTransport().setHeartbeatInterval(KEEPALIVE_INTERVAL);
 			addBlankHostKeyVerifier(client);
 			return client;
 		}
@@ -132,18 +264,95 @@ public class SshClientPool {
 	
 	protected class SSHConnection {
 		
-		private SSHClient sshClient;
-		private long timestamp;
+		private final String host;
+		private volatile SSHClient sshClient;
+		private volatile long timestamp;
+		private volatile boolean established;
+		private boolean evicted;
+		private int checkedOut;
 		
 		public SSHConnection(SSHClient sshClient, long timestamp) {
+			this(null, sshClient, timestamp);
+		}
+
+		public SSHConnection(String host, SSHClient sshClient, long timestamp) {
+			this.host = host;
 			this.sshClient = sshClient;
 			this.timestamp = timestamp;
 		}
 
+		/*
+		 * A client can not be connected again once its connection is lost, so
+		 * a new one replaces it.
+		 * 
+		 * @return null if the connection was evicted
+		 */
+		public synchronized SSHClient connect(String address, String sshUser,
+				String sshPrivateKeyPath) throws Exception {
+			if (evicted) {
+				return null;
+			}
+			if (established && !sshClient.isConnected()) {
+				try {
+					sshClient.disconnect();
+				} catch (Exception e) {
+					LOGGER.debug("Could not disconnect lost SSH client.", e);
+				}
+				sshClient = clientFactory.createSshClient();
+				established = false;
+			}
+			if (!sshClient.isConnected()) {
+				String[] sshAddressAndPort = address.split(":");
+				sshClient.connect(sshAddressAndPort[0], Integer.parseInt(sshAddressAndPort[1]));
+			}
+			if (!sshClient.isAuthenticated()) {
+				sshClient.authPublickey(sshUser, sshPrivateKeyPath);
+			}
+			established = true;
+			checkedOut++;
+			timestamp = dateUtils.currentTimeMillis();
+			return sshClient;
+		}
+
+		public synchronized void checkIn() {
+			if (checkedOut > 0) {
+				checkedOut--;
+			}
+			timestamp = dateUtils.currentTimeMillis();
+		}
+
+		/**
+		 * @return false if the connection was established and then lost
+		 */
+		public boolean isAlive() {
+			return !established || sshClient.isConnected();
+		}
+
+		/**
+		 * Marks the connection as evicted if it is not checked out and was
+		 * last used before the given time or is no longer alive, so that it is
+		 * not handed out anymore.
+		 * 
+		 * @return true if the connection was evicted
+		 */
+		public synchronized boolean evictIfUnused(long lastUsedBefore) {
+			if (!evicted && checkedOut == 0 && (timestamp < lastUsedBefore || !isAlive())) {
+				evicted = true;
+			}
+			return evicted;
+		}
+
 		public SSHClient getSshClient() {
 			return sshClient;
 		}
 
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * @return when the connection was last used
+		 */
 		public long getTimestamp() {
 			return timestamp;
 		}		
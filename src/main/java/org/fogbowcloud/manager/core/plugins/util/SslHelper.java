@@ -44,6 +44,14 @@ public class SslHelper {
 		}
 	}
 	
+	/**
+	 * @return what identifies the SSL settings of the factory built from the
+	 *         given token, i.e. the path of its keystore
+	 */
+	public static String getSSLConfiguration(Token token) {
+		return "keystore:" + token.get(KEYSTORE_PATH_KEY);
+	}
+	
 	private static KeyStore getKeyStore(String keyStorePath, String keyStorePassword)
 			throws IOException {
 		KeyStore keyStore = null;
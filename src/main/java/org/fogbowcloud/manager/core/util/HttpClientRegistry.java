@@ -0,0 +1,246 @@
+package org.fogbowcloud.manager.core.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.plugins.util.BackgroundScheduler;
+
+/**
+ * HTTP clients shared by the plugins, one per SSL configuration and socket
+ * timeout, each with its own pool of connections. Connections are bounded in
+ * total and per route, i.e. per endpoint the plugins talk to, and are
+ * validated before being reused if they were not used for a while. A timer,
+ * on the {@link BackgroundScheduler}, closes expired and idle connections and
+ * logs how many connections of each pool are leased, available and waited for.
+ */
+public class HttpClientRegistry {
+
+	private static final Logger LOGGER = Logger.getLogger(HttpClientRegistry.class);
+
+	protected static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+	protected static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	protected static final int DEFAULT_CONNECT_TIMEOUT = 10000; // 10 seconds
+	protected static final long DEFAULT_IDLE_TIMEOUT = 60000; // 1 minute
+	protected static final int VALIDATE_AFTER_INACTIVITY = 2000; // 2 seconds
+	private static final long EVICTION_PERIOD = 30000; // 30 seconds
+
+	private final ConcurrentMap<ClientKey, PooledClient> clients = new ConcurrentHashMap<ClientKey, PooledClient>();
+	private final ManagerTimer evictionTimer = BackgroundScheduler.newTimer();
+	private final int maxTotalConnections;
+	private final int maxConnectionsPerRoute;
+	private final int connectTimeout;
+	private final int socketTimeout;
+	private final long idleTimeout;
+
+	public HttpClientRegistry(Properties properties, int socketTimeout) {
+		this(getInt(properties, ConfigurationConstants.HTTP_CLIENT_MAX_TOTAL_CONNECTIONS_KEY,
+				DEFAULT_MAX_TOTAL_CONNECTIONS),
+				getInt(properties, ConfigurationConstants.HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE_KEY,
+						DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+				getInt(properties, ConfigurationConstants.HTTP_CLIENT_CONNECT_TIMEOUT_KEY,
+						DEFAULT_CONNECT_TIMEOUT),
+				socketTimeout,
+				getInt(properties, ConfigurationConstants.HTTP_CLIENT_IDLE_TIMEOUT_KEY,
+						(int) DEFAULT_IDLE_TIMEOUT));
+	}
+
+	public HttpClientRegistry(int maxTotalConnections, int maxConnectionsPerRoute,
+			int connectTimeout, int socketTimeout, long idleTimeout) {
+		this.maxTotalConnections = maxTotalConnections;
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.connectTimeout = connectTimeout;
+		this.socketTimeout = socketTimeout;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @param timeout socket timeout of the client, or null for the default one
+	 */
+	public HttpClient getClient(Integer timeout) {
+		return getClient(timeout, null, null);
+	}
+
+	/**
+	 * @param timeout socket timeout of the client, or null for the default one
+	 * @param sslConfiguration identifies the SSL settings of the factory, e.g.
+	 *        the path of its keystore. Factories with the same configuration
+	 *        share the client created with the first of them.
+	 * @param sslsf factory of the SSL sockets of the client, or null for the
+	 *        default one
+	 */
+	public HttpClient getClient(Integer timeout, String sslConfiguration, SSLConnectionSocketFactory sslsf) {
+		if (sslsf != null && sslConfiguration == null) {
+			throw new IllegalArgumentException("The configuration of the SSL socket factory is required.");
+		}
+		ClientKey key = new ClientKey(timeout == null ? socketTimeout : timeout,
+				sslsf == null ? null : sslConfiguration);
+		PooledClient pooledClient = clients.get(key);
+		if (pooledClient == null) {
+			PooledClient newPooledClient = new PooledClient(key, sslsf);
+			pooledClient = clients.putIfAbsent(key, newPooledClient);
+			if (pooledClient == null) {
+				pooledClient = newPooledClient;
+				LOGGER.debug("Created shared http client " + key + ".");
+			} else {
+				newPooledClient.connectionManager.shutdown();
+			}
+		}
+		if (!evictionTimer.isScheduled()) {
+			triggerEviction();
+		}
+		return pooledClient.client;
+	}
+
+	/**
+	 * @return the stats of the connection pool of each client, by client
+	 */
+	public Map<String, PoolStats> getPoolStats() {
+		Map<String, PoolStats> poolStats = new LinkedHashMap<String, PoolStats>();
+		for (PooledClient pooledClient : clients.values()) {
+			poolStats.put(pooledClient.key.toString(), pooledClient.connectionManager.getTotalStats());
+		}
+		return poolStats;
+	}
+
+	public int size() {
+		return clients.size();
+	}
+
+	public synchronized void shutdown() {
+		evictionTimer.cancel();
+		for (PooledClient pooledClient : clients.values()) {
+			pooledClient.connectionManager.shutdown();
+		}
+		clients.clear();
+	}
+
+	protected synchronized void triggerEviction() {
+		if (evictionTimer.isScheduled()) {
+			return;
+		}
+		evictionTimer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				evictConnections();
+			}
+		}, EVICTION_PERIOD, EVICTION_PERIOD);
+	}
+
+	protected void evictConnections() {
+		for (PooledClient pooledClient : clients.values()) {
+			PoolingHttpClientConnectionManager connectionManager = pooledClient.connectionManager;
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+			LOGGER.debug("Http client " + pooledClient.key + ": "
+					+ toString(connectionManager.getTotalStats()));
+			Collection<HttpRoute> routes = connectionManager.getRoutes();
+			for (HttpRoute route : routes) {
+				LOGGER.debug("Http client " + pooledClient.key + ", route " + route.getTargetHost() + ": "
+						+ toString(connectionManager.getStats(route)));
+			}
+		}
+	}
+
+	protected ManagerTimer getEvictionTimer() {
+		return evictionTimer;
+	}
+
+	private static String toString(PoolStats poolStats) {
+		return "leased=" + poolStats.getLeased() + ", available=" + poolStats.getAvailable()
+				+ ", pending=" + poolStats.getPending() + ", max=" + poolStats.getMax();
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String valueStr = properties == null ? null : properties.getProperty(key);
+		if (valueStr == null || valueStr.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(valueStr);
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid " + key + ": " + valueStr + ", using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	private class PooledClient {
+
+		private final ClientKey key;
+		private final PoolingHttpClientConnectionManager connectionManager;
+		private final HttpClient client;
+
+		public PooledClient(ClientKey key, SSLConnectionSocketFactory sslsf) {
+			this.key = key;
+			// the socket factory of a client is ignored once it has a connection manager
+			Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder
+					.<ConnectionSocketFactory> create()
+					.register("http", PlainConnectionSocketFactory.getSocketFactory())
+					.register("https", sslsf == null ? SSLConnectionSocketFactory.getSocketFactory() : sslsf)
+					.build();
+			this.connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+			this.connectionManager.setMaxTotal(maxTotalConnections);
+			this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+			this.connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+			RequestConfig requestConfig = RequestConfig.custom()
+					.setConnectTimeout(connectTimeout)
+					.setConnectionRequestTimeout(connectTimeout)
+					.setSocketTimeout(key.timeout)
+					.build();
+			this.client = HttpClientBuilder.create()
+					.setConnectionManager(connectionManager)
+					.setDefaultRequestConfig(requestConfig)
+					.build();
+		}
+	}
+
+	private static class ClientKey {
+
+		private final int timeout;
+		private final String sslConfiguration;
+
+		public ClientKey(int timeout, String sslConfiguration) {
+			this.timeout = timeout;
+			this.sslConfiguration = sslConfiguration;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ClientKey)) {
+				return false;
+			}
+			ClientKey other = (ClientKey) obj;
+			return timeout == other.timeout && (sslConfiguration == null ? other.sslConfiguration == null
+					: sslConfiguration.equals(other.sslConfiguration));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * timeout + (sslConfiguration == null ? 0 : sslConfiguration.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return "[timeout=" + timeout + (sslConfiguration == null ? "" : ", ssl=" + sslConfiguration) + "]";
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.fogbowcloud.manager.core.util;
 
 import java.util.Properties;
 
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
@@ -16,6 +17,7 @@ public class HttpRequestUtil {
 	public static int DEFAULT_TIMEOUT_REQUEST = 60000; // 1 minute
 	
 	private static Integer timeoutHttpRequest;
+	private static HttpClientRegistry clientRegistry;
 	
 	public static void init(Properties properties) {
 		try {
@@ -33,6 +35,59 @@ public class HttpRequestUtil {
 			throw e;
 		}
 		LOGGER.info("The default HttpRequestUtil timeout is: " + timeoutHttpRequest + " ms.");
+		initClientRegistry(properties);
+	}
+	
+	/*
+	 * Shared clients may already be held by plugins, so a registry that
+	 * handed out clients is kept and new settings only apply to a registry
+	 * that was not used yet.
+	 */
+	private static synchronized void initClientRegistry(Properties properties) {
+		if (clientRegistry != null && clientRegistry.size() > 0) {
+			LOGGER.warn("Shared http clients are already in use, keeping their settings.");
+			return;
+		}
+		setClientRegistry(new HttpClientRegistry(properties, timeoutHttpRequest));
+	}
+	
+	/**
+	 * @return the client shared by every caller, with pooled connections;
+	 *         it must not be closed
+	 */
+	public static HttpClient getSharedHttpClient() {
+		return getSharedHttpClient((Integer) null);
+	}
+	
+	public static HttpClient getSharedHttpClient(Integer timeout) {
+		return getClientRegistry().getClient(timeout);
+	}
+	
+	/**
+	 * @param sslConfiguration identifies the SSL settings of the factory,
+	 *        see {@link HttpClientRegistry#getClient(Integer, String, SSLConnectionSocketFactory)}
+	 */
+	public static HttpClient getSharedHttpClient(String sslConfiguration, SSLConnectionSocketFactory sslsf) {
+		return getSharedHttpClient(null, sslConfiguration, sslsf);
+	}
+	
+	public static HttpClient getSharedHttpClient(Integer timeout, String sslConfiguration,
+			SSLConnectionSocketFactory sslsf) {
+		return getClientRegistry().getClient(timeout, sslConfiguration, sslsf);
+	}
+	
+	protected static synchronized HttpClientRegistry getClientRegistry() {
+		if (clientRegistry == null) {
+			init(null); // Set to default timeout and pools.
+		}
+		return clientRegistry;
+	}
+	
+	protected static synchronized void setClientRegistry(HttpClientRegistry clientRegistry) {
+		if (HttpRequestUtil.clientRegistry != null) {
+			HttpRequestUtil.clientRegistry.shutdown();
+		}
+		HttpRequestUtil.clientRegistry = clientRegistry;
 	}
 	
 	public static CloseableHttpClient createHttpClient() {
@@ -1,7 +1,6 @@
 package org.fogbowcloud.manager.occi;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -15,11 +14,11 @@ import java.util.Properties;
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.occi.model.Token;
 import org.fogbowcloud.manager.occi.order.Order;
+import org.fogbowcloud.manager.occi.order.OrderAttribute;
 import org.fogbowcloud.manager.occi.order.OrderState;
 import org.fogbowcloud.manager.occi.storage.StorageLink;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.sqlite.SQLiteConfig;
 
 public class ManagerDataStore {
 
@@ -43,6 +42,7 @@ public class ManagerDataStore {
 	protected static final String UPDATED = "updated";
 	protected static final String SYNCRONOUS_STATUS = "asyncronous_status";
 	protected static final String SYNCRONOUS_TIMESTAMP = "asyncronous_timestamp";
+	protected static final String USER_ID = "user_id";
 	
 	protected static final String STORAGELINK_TABLE_NAME = "t_storagelink";
 	protected static final String STORAGELINK_ID = "storage_link_id";
@@ -82,7 +82,9 @@ public class ManagerDataStore {
 							+ UPDATED + " TIMESTAMP, "
 							+ SYNCRONOUS_STATUS + " BOOLEAN, "
 							+ SYNCRONOUS_TIMESTAMP + " TIMESTAMP, "
-							+ XOCCI_ATTRIBUTES + " TEXT)");
+							+ XOCCI_ATTRIBUTES + " TEXT, "
+							+ USER_ID + " VARCHAR(255), "
+							+ RESOURCE_KIND + " VARCHAR(255))");
 			statement.execute("CREATE TABLE IF NOT EXISTS " + STORAGELINK_TABLE_NAME + "(" 
 							+ STORAGELINK_ID + " VARCHAR(255) PRIMARY KEY, "
 							+ SOURCE + " VARCHAR(255), "
@@ -97,6 +99,9 @@ public class ManagerDataStore {
 							+ "FOREIGN KEY (" + ORDER_ID + ") REFERENCES " 
 							+ ORDER_TABLE_NAME + "(" + ORDER_ID + ") ON DELETE CASCADE)");			
 			statement.close();
+			
+			upgradeOrderTable(connection);
+			createOrderIndexes(connection);
 		} catch (Exception e) {
 			LOGGER.error(ERROR_WHILE_INITIALIZING_THE_DATA_STORE, e);
 			throw new Error(ERROR_WHILE_INITIALIZING_THE_DATA_STORE, e);
@@ -108,8 +113,8 @@ public class ManagerDataStore {
 	private static final String INSERT_ORDER_SQL = "INSERT INTO " + ORDER_TABLE_NAME
 			+ " (" + ORDER_ID + "," + INSTANCE_ID + "," + PROVIDING_MEMBER_ID + "," + REQUESTING_MEMBER_ID + "," 
 			+ FEDERATION_TOKEN + "," + FULFILLED_TIME + "," + IS_LOCAL + "," + STATE + "," + CATEGORIES + ","
-			+ UPDATED + "," + XOCCI_ATTRIBUTES + ")"			
-			+ " VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+			+ UPDATED + "," + XOCCI_ATTRIBUTES + "," + USER_ID + "," + RESOURCE_KIND + ")"			
+			+ " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
 	
 	public boolean addOrder(Order order) throws SQLException, JSONException {
 		PreparedStatement orderStmt = null;
@@ -132,6 +137,8 @@ public class ManagerDataStore {
 			orderStmt.setTimestamp(10, new Timestamp(new Date().getTime()));
 			JSONObject xOCCIAtt = JSONHelper.mountXOCCIAttrJSON(order.getxOCCIAtt());
 			orderStmt.setString(11, xOCCIAtt != null ? xOCCIAtt.toString() : null);
+			orderStmt.setString(12, getUserId(order.getFederationToken()));
+			orderStmt.setString(13, order.getResourceKing());
 			orderStmt.executeUpdate();
 			
 			connection.commit();
@@ -157,46 +164,55 @@ public class ManagerDataStore {
 			+ ", " + SYNCRONOUS_STATUS + " FROM " + ORDER_TABLE_NAME;
 	
 	public List<Order> getOrders() throws SQLException, JSONException {
-		return getOrders(null);
+		return getOrders(new OrderQuery());
 	}
 	
 	public List<Order> getOrders(OrderState orderState) throws SQLException, JSONException {
+		OrderQuery orderQuery = new OrderQuery();
+		if (orderState != null) {
+			orderQuery.withStates(orderState);
+		}
+		return getOrders(orderQuery);
+	}
+	
+	/**
+	 * Retrieves only the orders that match the given query. The filtering is
+	 * done by SQLite on indexed columns, so only the selected rows are
+	 * deserialized.
+	 */
+	public List<Order> getOrders(OrderQuery orderQuery) throws SQLException, JSONException {
 		PreparedStatement ordersStmt = null;
 		Connection connection = null;
 		List<Order> orders = new ArrayList<Order>();
+		if (orderQuery.getStates() != null && orderQuery.getStates().isEmpty()) {
+			return orders;
+		}
 		try {
 			connection = getConnection();
 			connection.setAutoCommit(false);
 			
-			String ordersStmtStr = GET_ORDERS_SQL;
-			if (orderState != null) {
-				ordersStmtStr += " WHERE " + STATE + "=?";
-			}
+			List<Object> parameters = new ArrayList<Object>();
+			String ordersStmtStr = GET_ORDERS_SQL + createWhereClause(orderQuery, parameters);
 			
 			ordersStmt = connection.prepareStatement(ordersStmtStr);
-			if (orderState != null) {
-				ordersStmt.setString(1, orderState.toString());		
+			for (int i = 0; i < parameters.size(); i++) {
+				ordersStmt.setObject(i + 1, parameters.get(i));
 			}
 			ResultSet resultSet = ordersStmt.executeQuery();
 			while (resultSet.next()) {
-				resultSet.getString(1);
-				
-				Order order = new Order(resultSet.getString(1), Token.fromJSON(resultSet
-						.getString(5)), resultSet.getString(2), resultSet.getString(3), resultSet
-						.getString(4), resultSet.getLong(6), resultSet.getBoolean(7), OrderState
-						.getState(resultSet.getString(8)), JSONHelper.getCategoriesFromJSON(resultSet
-						.getString(9)), JSONHelper.getXOCCIAttrFromJSON(resultSet.getString(10)));
-				order.setSyncronousTime(resultSet.getLong(11));
-				order.setSyncronousStatus(resultSet.getBoolean(12));
-				
-				orders.add(order);
+				Order order = createOrder(resultSet);
+				// batch id is kept only inside the serialized attributes
+				if (orderQuery.getBatchId() == null || orderQuery.getBatchId().equals(
+						order.getAttValue(OrderAttribute.BATCH_ID.getValue()))) {
+					orders.add(order);
+				}
 			}
 					
 			connection.commit();
 			
 			return orders;
 		} catch (SQLException e) {
-			LOGGER.error("Couldn't retrieve orders.", e);
+			LOGGER.error("Couldn't retrieve orders with " + orderQuery + ".", e);
 			try {
 				if (connection != null) {
 					connection.rollback();
@@ -208,7 +224,61 @@ public class ManagerDataStore {
 			close(ordersStmt, connection);
 		}
 		return orders;
-	}		
+	}
+	
+	private String createWhereClause(OrderQuery orderQuery, List<Object> parameters) {
+		List<String> conditions = new ArrayList<String>();
+		if (orderQuery.getOrderId() != null) {
+			conditions.add(ORDER_ID + "=?");
+			parameters.add(orderQuery.getOrderId());
+		}
+		if (orderQuery.getUserId() != null) {
+			conditions.add(USER_ID + "=?");
+			parameters.add(orderQuery.getUserId());
+		}
+		if (orderQuery.getResourceKind() != null) {
+			conditions.add(RESOURCE_KIND + "=?");
+			parameters.add(orderQuery.getResourceKind());
+		}
+		if (orderQuery.getInstanceId() != null) {
+			conditions.add(INSTANCE_ID + "=?");
+			parameters.add(orderQuery.getInstanceId());
+		}
+		if (orderQuery.getProvidingMemberId() != null) {
+			conditions.add(PROVIDING_MEMBER_ID + "=?");
+			parameters.add(orderQuery.getProvidingMemberId());
+		}
+		if (orderQuery.isLocal() != null) {
+			conditions.add(IS_LOCAL + "=?");
+			parameters.add(orderQuery.isLocal());
+		}
+		if (orderQuery.getStates() != null) {
+			StringBuilder statesCondition = new StringBuilder(STATE + " IN (");
+			for (int i = 0; i < orderQuery.getStates().size(); i++) {
+				statesCondition.append(i == 0 ? "?" : ",?");
+				parameters.add(orderQuery.getStates().get(i).toString());
+			}
+			conditions.add(statesCondition.append(")").toString());
+		}
+		
+		StringBuilder whereClause = new StringBuilder();
+		for (String condition : conditions) {
+			whereClause.append(whereClause.length() == 0 ? " WHERE " : " AND ");
+			whereClause.append(condition);
+		}
+		return whereClause.toString();
+	}
+	
+	private Order createOrder(ResultSet resultSet) throws SQLException, JSONException {
+		Order order = new Order(resultSet.getString(1), Token.fromJSON(resultSet
+				.getString(5)), resultSet.getString(2), resultSet.getString(3), resultSet
+				.getString(4), resultSet.getLong(6), resultSet.getBoolean(7), OrderState
+				.getState(resultSet.getString(8)), JSONHelper.getCategoriesFromJSON(resultSet
+				.getString(9)), JSONHelper.getXOCCIAttrFromJSON(resultSet.getString(10)));
+		order.setSyncronousTime(resultSet.getLong(11));
+		order.setSyncronousStatus(resultSet.getBoolean(12));
+		return order;
+	}
 	
 	private static final String GET_SPECIFIC_ORDER_SQL = GET_ORDERS_SQL + " WHERE " + ORDER_ID + "=?";
 			
@@ -237,15 +307,7 @@ public class ManagerDataStore {
 			}
 			ResultSet resultSet = ordersStmt.executeQuery();
 			if (resultSet.next()) {
-				resultSet.getString(1);
-				
-				order = new Order(resultSet.getString(1), Token.fromJSON(resultSet
-						.getString(5)), resultSet.getString(2), resultSet.getString(3), resultSet
-						.getString(4), resultSet.getLong(6), resultSet.getBoolean(7), OrderState
-						.getState(resultSet.getString(8)), JSONHelper.getCategoriesFromJSON(resultSet
-						.getString(9)), JSONHelper.getXOCCIAttrFromJSON(resultSet.getString(10)));
-				order.setSyncronousTime(resultSet.getLong(11));
-				order.setSyncronousStatus(resultSet.getBoolean(12));
+				order = createOrder(resultSet);
 			}
 					
 			connection.commit();
@@ -271,6 +333,10 @@ public class ManagerDataStore {
 			+ " WHERE " + ORDER_ID + " = ?";
 	
 	public boolean removeOrder(Order order) throws SQLException {
+		return removeOrder(order.getId());
+	}
+	
+	public boolean removeOrder(String orderId) throws SQLException {
 		PreparedStatement removeOrderStmt = null;
 		Connection connection = null;
 		try {
@@ -278,7 +344,7 @@ public class ManagerDataStore {
 			connection.setAutoCommit(false);
 			
 			removeOrderStmt = connection.prepareStatement(REMOVE_ORDER_SQL);
-			removeOrderStmt.setString(1, order.getId());
+			removeOrderStmt.setString(1, orderId);
 			removeOrderStmt.executeUpdate();
 			
 			connection.commit();
@@ -332,7 +398,8 @@ public class ManagerDataStore {
 			+ INSTANCE_ID + "=?," + PROVIDING_MEMBER_ID + "=? ,"
 			+ REQUESTING_MEMBER_ID + "=?," + FEDERATION_TOKEN + "=? ," + FULFILLED_TIME
 			+ "=? ," + IS_LOCAL + "=? ," + STATE + "=? ," + CATEGORIES + "=?," + UPDATED
-			+ "=?," + XOCCI_ATTRIBUTES + "=?" + " WHERE " + ORDER_ID + "=?";
+			+ "=?," + XOCCI_ATTRIBUTES + "=?," + USER_ID + "=?," + RESOURCE_KIND + "=?" 
+			+ " WHERE " + ORDER_ID + "=?";
 	
 	public boolean updateOrder(Order order) throws SQLException, JSONException {
 		PreparedStatement updateOrderStmt = null;
@@ -353,7 +420,9 @@ public class ManagerDataStore {
 			updateOrderStmt.setString(8, JSONHelper.mountCategoriesJSON(order.getCategories()).toString());
 			updateOrderStmt.setTimestamp(9, new Timestamp(new Date().getTime()));			
 			updateOrderStmt.setString(10, JSONHelper.mountXOCCIAttrJSON(order.getxOCCIAtt()).toString());
-			updateOrderStmt.setString(11, order.getId());
+			updateOrderStmt.setString(11, getUserId(order.getFederationToken()));
+			updateOrderStmt.setString(12, order.getResourceKing());
+			updateOrderStmt.setString(13, order.getId());
 			updateOrderStmt.executeUpdate();
 			
 			connection.commit();
@@ -764,12 +833,87 @@ public class ManagerDataStore {
 		return false;		
 	}
 	
+	static String getUserId(Token federationToken) {
+		if (federationToken == null || federationToken.getUser() == null) {
+			return null;
+		}
+		return federationToken.getUser().getId();
+	}
+	
+	/**
+	 * Adds the columns used to filter orders to data stores created by
+	 * previous versions and fills them from the serialized token and
+	 * attributes, so the queries can rely on them.
+	 */
+	private void upgradeOrderTable(Connection connection) throws SQLException, JSONException {
+		List<String> columns = new ArrayList<String>();
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + ORDER_TABLE_NAME + ")");
+			while (resultSet.next()) {
+				columns.add(resultSet.getString("name"));
+			}
+			if (!columns.contains(USER_ID)) {
+				statement.execute("ALTER TABLE " + ORDER_TABLE_NAME + " ADD COLUMN " + USER_ID + " VARCHAR(255)");
+			}
+			if (!columns.contains(RESOURCE_KIND)) {
+				statement.execute("ALTER TABLE " + ORDER_TABLE_NAME + " ADD COLUMN " + RESOURCE_KIND + " VARCHAR(255)");
+			}
+		} finally {
+			statement.close();
+		}
+		
+		PreparedStatement selectStmt = null;
+		PreparedStatement updateStmt = null;
+		try {
+			connection.setAutoCommit(false);
+			selectStmt = connection.prepareStatement(GET_ORDERS_SQL + " WHERE " + USER_ID 
+					+ " IS NULL OR " + RESOURCE_KIND + " IS NULL");
+			updateStmt = connection.prepareStatement("UPDATE " + ORDER_TABLE_NAME + " SET " 
+					+ USER_ID + "=?," + RESOURCE_KIND + "=? WHERE " + ORDER_ID + "=?");
+			ResultSet resultSet = selectStmt.executeQuery();
+			int ordersUpgraded = 0;
+			while (resultSet.next()) {
+				Order order = createOrder(resultSet);
+				updateStmt.setString(1, getUserId(order.getFederationToken()));
+				updateStmt.setString(2, order.getResourceKing());
+				updateStmt.setString(3, order.getId());
+				updateStmt.addBatch();
+				ordersUpgraded++;
+			}
+			if (ordersUpgraded > 0) {
+				updateStmt.executeBatch();
+				LOGGER.info(ordersUpgraded + " orders were upgraded with indexed columns.");
+			}
+			connection.commit();
+		} finally {
+			if (selectStmt != null) {
+				selectStmt.close();
+			}
+			if (updateStmt != null) {
+				updateStmt.close();
+			}
+			connection.setAutoCommit(true);
+		}
+	}
+	
+	private void createOrderIndexes(Connection connection) throws SQLException {
+		String[] indexedColumns = new String[] { USER_ID, STATE, RESOURCE_KIND, IS_LOCAL, 
+				INSTANCE_ID, PROVIDING_MEMBER_ID };
+		Statement statement = connection.createStatement();
+		try {
+			for (String indexedColumn : indexedColumns) {
+				statement.execute("CREATE INDEX IF NOT EXISTS idx_" + ORDER_TABLE_NAME + "_" + indexedColumn 
+						+ " ON " + ORDER_TABLE_NAME + "(" + indexedColumn + ")");
+			}
+		} finally {
+			statement.close();
+		}
+	}
+	
 	public Connection getConnection() throws SQLException {
 		try {
-			SQLiteConfig config = new SQLiteConfig();
-			config.enforceForeignKeys(true);  
-			config.setBusyTimeout("30000");
-			return DriverManager.getConnection(this.dataStoreURL, config.toProperties());				
+			return SQLiteConnectionPool.getInstance(this.dataStoreURL).getConnection();
 		} catch (SQLException e) {
 			LOGGER.error("Error while getting a new connection from the connection pool.", e);
 			throw e;
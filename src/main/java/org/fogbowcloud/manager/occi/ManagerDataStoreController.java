@@ -13,12 +13,22 @@ import org.fogbowcloud.manager.occi.order.Order;
 import org.fogbowcloud.manager.occi.order.OrderConstants;
 import org.fogbowcloud.manager.occi.order.OrderState;
 import org.fogbowcloud.manager.occi.storage.StorageLink;
+import org.json.JSONException;
 
 public class ManagerDataStoreController {
 
 	private static final Logger LOGGER = Logger.getLogger(ManagerDataStoreController.class);
 	
 	private ManagerDataStore managerDatabase;
+	
+	/*
+	 * Orders are read only from the repository, which is loaded once from the
+	 * data store. Every change is written to the data store and, if it
+	 * succeeds, to the repository while holding the orderWriteLock.
+	 */
+	private OrderRepository orderRepository = new OrderRepository();
+	private final Object orderWriteLock = new Object();
+	private volatile boolean ordersLoaded = false;
 
 	public ManagerDataStoreController(Properties properties) {
 		this.managerDatabase = new ManagerDataStore(properties);
@@ -28,6 +38,35 @@ public class ManagerDataStoreController {
 		return managerDatabase;
 	}
 	
+	/**
+	 * Replaces the orders kept in memory by the ones in the data store.
+	 */
+	public void loadOrders() throws SQLException, JSONException {
+		synchronized (orderWriteLock) {
+			List<Order> orders = this.managerDatabase.getOrders();
+			this.orderRepository.load(orders);
+			this.ordersLoaded = true;
+			LOGGER.debug(orders.size() + " orders were loaded from the data store.");
+		}
+	}
+	
+	private OrderRepository getOrderRepository() {
+		if (!ordersLoaded) {
+			try {
+				synchronized (orderWriteLock) {
+					if (!ordersLoaded) {
+						loadOrders();
+					}
+				}
+			} catch (Exception e) {
+				String errorMsg = "Error while try to load orders.";
+				LOGGER.error(errorMsg, e);
+				throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
+			}
+		}
+		return orderRepository;
+	}
+	
 	/*
 	 * The get and remove operation in OrderRepository consider only local
 	 * orders to allow these operations only from manager where the order
@@ -35,8 +74,13 @@ public class ManagerDataStoreController {
 	 */
 	
 	public void updateOrder(Order order) {
+		OrderRepository orderRepository = getOrderRepository();
 		try {
-			this.managerDatabase.updateOrder(order);
+			synchronized (orderWriteLock) {
+				if (this.managerDatabase.updateOrder(order)) {
+					orderRepository.update(order);
+				}
+			}
 		} catch (Exception e) {
 			String errorMsg = "Error while try to update order.";
 			LOGGER.error(errorMsg, e);
@@ -45,29 +89,20 @@ public class ManagerDataStoreController {
 	}
 	
 	public List<Order> getOrdersByUser(String userId) {
-		List<Order> userOrdersFound = new ArrayList<Order>();
-		try {
-			List<Order> ordersDB = this.managerDatabase.getOrders();
-			for (Order order : ordersDB) {
-				boolean hasTheSameUserId = order != null && order.getFederationToken() != null 
-						&& order.getFederationToken().getUser() != null 
-						&& order.getFederationToken().getUser().getId().equals(userId);
-				
-				if (hasTheSameUserId) {
-					userOrdersFound.add(order);
-				}
-			}
-		} catch (Exception e) {
-			String errorMsg = "Error while try to get orders by user.";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
+		if (userId == null) {
+			return new ArrayList<Order>();
 		}
-		return userOrdersFound;
+		return getOrders(new OrderQuery().withUserId(userId));
 	}
 	
 	public void addOrder(Order order) {
+		OrderRepository orderRepository = getOrderRepository();
 		try {
-			this.managerDatabase.addOrder(order);
+			synchronized (orderWriteLock) {
+				if (this.managerDatabase.addOrder(order)) {
+					orderRepository.add(order);
+				}
+			}
 		} catch (Exception e) {
 			String errorMsg = "Error while try to add order.";
 			LOGGER.error(errorMsg, e);
@@ -80,24 +115,7 @@ public class ManagerDataStoreController {
 	}
 	
 	public List<Order> getOrdersIn(String resourceKind, OrderState... states) {
-		List<Order> ordersInStateFound = new LinkedList<Order>();
-		try {
-			List<Order> ordersDB = this.managerDatabase.getOrders();
-			for (Order order : ordersDB) {
-				if (order.getState().in(states)) {
-					if (resourceKind != null && !resourceKind.equals(order.getResourceKing())) {
-						continue;
-					}
-					
-					ordersInStateFound.add(order);
-				}
-			}
-		} catch (Exception e) {
-			String errorMsg = "Error while try to get orders by states and resource king.";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
-		}
-		return ordersInStateFound;
+		return getOrders(new OrderQuery().withResourceKind(resourceKind).withStates(states));
 	}
 
 	public Order getOrder(String orderId) {
@@ -105,17 +123,11 @@ public class ManagerDataStoreController {
 	}
 	
 	public Order getOrder(String orderId, boolean lookingForLocalOrder) {
-		try {
-			Order order = this.managerDatabase.getOrder(orderId);
-			if (order != null && 
-					(lookingForLocalOrder && order.isLocal() || !lookingForLocalOrder && !order.isLocal())) {
-				LOGGER.debug("Getting order id " + order);
-				return order;						
-			}
-		} catch (Exception e) {
-			String errorMsg = "Error while try to get order.";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
+		Order order = getOrderRepository().get(orderId);
+		if (order != null && 
+				(lookingForLocalOrder && order.isLocal() || !lookingForLocalOrder && !order.isLocal())) {
+			LOGGER.debug("Getting order id " + order);
+			return order;						
 		}
 		LOGGER.debug("Order id " + orderId + " was not found.");
 		return null;
@@ -126,18 +138,13 @@ public class ManagerDataStoreController {
 	}
 	
 	public Order getOrder(String userId, String orderId, boolean lookingForLocalOrder) {
-		List<Order> userOrders = getOrdersByUser(userId);
-		if (userOrders == null) {
-			LOGGER.debug("User id " + userId + " does not have orders.");
-			return null;
-		}
-		for (Order order : userOrders) {
-			if (order.getId().equals(orderId)) {
-				if (lookingForLocalOrder && order.isLocal() 
-						|| !lookingForLocalOrder && !order.isLocal()) {
-					LOGGER.debug("Getting order " + order + " owner by user id " + userId);
-					return order;					
-				}
+		if (userId != null && orderId != null) {
+			List<Order> userOrders = getOrders(new OrderQuery().withOrderId(orderId)
+					.withUserId(userId).withLocal(lookingForLocalOrder));
+			if (!userOrders.isEmpty()) {
+				Order order = userOrders.get(0);
+				LOGGER.debug("Getting order " + order + " owner by user id " + userId);
+				return order;
 			}
 		}
 		LOGGER.debug("Order " + orderId + " owner by user id " + userId + " was not found.");
@@ -150,49 +157,44 @@ public class ManagerDataStoreController {
 	
 	public List<Order> getOrdersByUserId(String userId, boolean lookingForLocalOrder) {
 		LOGGER.debug("Getting local orders by user id " + userId);
-		List<Order> userOrders = getOrdersByUser(userId);
-		if (userOrders == null) {
+		if (userId == null) {
 			return new LinkedList<Order>();
-		}		
-		LinkedList<Order> userLocalOrders = new LinkedList<Order>();
-		for (Order order : userOrders) {
-			if (lookingForLocalOrder && order.isLocal() 
-					|| !lookingForLocalOrder && !order.isLocal()) {
-				userLocalOrders.add(order);
-			}
 		}
-		return userLocalOrders;
+		return getOrders(new OrderQuery().withUserId(userId).withLocal(lookingForLocalOrder));
 	}
 
 	public void removeOrderByUserId(String userId) {
-		List<Order> ordersByUser = getOrdersByUser(userId);
-		for (Order order : ordersByUser != null ? ordersByUser: new ArrayList<Order>()) {
-			boolean onlyLocal = order.isLocal();
-			if (onlyLocal) {
-				removeOrder(order.getId());
-			}
+		for (Order order : getOrdersByUserId(userId, true)) {
+			removeOrder(order);
 		}
 	}
 
 	public void removeOrder(String orderId) {
 		LOGGER.debug("Removing orderId " + orderId);
+		Order order = getOrder(orderId, true);
+		if (order != null) {
+			removeOrder(order);
+		}
+	}
+	
+	private void removeOrder(Order order) {
+		OrderRepository orderRepository = getOrderRepository();
 		try {
-			List<Order> orders  = this.managerDatabase.getOrders();
-			for (Order order : orders) {					
-				if (order.getId().equals(orderId) && order.isLocal()) {
-					if (order.getState().equals(OrderState.CLOSED)) {
-						
-						LOGGER.debug("Order " + orderId + " does not have an instance. Excluding order.");
-						this.managerDatabase.removeOrder(order);
-					} else {
-						order.setState(OrderState.DELETED);
-						this.managerDatabase.updateOrder(order);
+			synchronized (orderWriteLock) {
+				if (order.getState().equals(OrderState.CLOSED)) {
+					LOGGER.debug("Order " + order.getId() + " does not have an instance. Excluding order.");
+					if (this.managerDatabase.removeOrder(order)) {
+						orderRepository.remove(order.getId());
+					}
+				} else {
+					order.setState(OrderState.DELETED);
+					if (this.managerDatabase.updateOrder(order)) {
+						orderRepository.update(order);
 					}
-					return;
 				}
 			}
 		} catch (Exception e) {
-			String errorMsg = "Error while try to remove order (" + orderId + ").";
+			String errorMsg = "Error while try to remove order (" + order.getId() + ").";
 			LOGGER.error(errorMsg, e);
 			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
 		}
@@ -200,12 +202,11 @@ public class ManagerDataStoreController {
 
 	public void excludeOrder(String orderId) {
 		LOGGER.debug("Excluding orderId " + orderId);
+		OrderRepository orderRepository = getOrderRepository();
 		try {
-			List<Order> ordersDB = this.managerDatabase.getOrders();
-			for (Order order : ordersDB) {			
-				if (order.getId().equals(orderId)) {
-					this.managerDatabase.removeOrder(order);
-					return;
+			synchronized (orderWriteLock) {
+				if (this.managerDatabase.removeOrder(orderId)) {
+					orderRepository.remove(orderId);
 				}
 			}
 		} catch (Exception e) {
@@ -216,46 +217,39 @@ public class ManagerDataStoreController {
 	}
 
 	public List<Order> getAllOrders() {
-		try {
-			return this.managerDatabase.getOrders();			
-		} catch (Exception e) {
-			String errorMsg = "Error while try to get all order.";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);
-		}
+		return getOrders(new OrderQuery());
 	}
 	
 	public List<Order> getAllLocalOrders() {
-		List<Order> localOrdersFound = new LinkedList<Order>();
-		List<Order> orders = getAllOrders();
-		for (Order order : orders) {
-			if (order.isLocal()){
-				localOrdersFound.add(order);
-			}
-		}
-		return localOrdersFound;
+		return getOrders(new OrderQuery().withLocal(true));
 	}
 	
 	public List<Order> getAllServedOrders() {
-		List<Order> remoteOrdersFound = new LinkedList<Order>();
-		List<Order> orders = getAllOrders();
-		for (Order order : orders) {
-			if (!order.isLocal()){
-				remoteOrdersFound.add(order);
-			}
-		}
-		return remoteOrdersFound;
+		return getOrders(new OrderQuery().withLocal(false));
+	}
+
+	public int countServedComputeOrders(String requestingMemberId, OrderState state) {
+		return getOrderRepository().countServedComputeOrders(requestingMemberId, state);
 	}
 	
 	public Order getOrderByInstance(String instanceId) {
-		List<Order> orders = getAllOrders();
-		for (Order order : orders) {
-			if (order.getState().in(OrderState.FULFILLED, OrderState.SPAWNING, OrderState.DELETED)
-					&& instanceId.equals(order.getInstanceId())) {
-				return order;
-			}
+		if (instanceId == null) {
+			return null;
 		}
-		return null;
+		List<Order> orders = getOrders(new OrderQuery().withInstanceId(instanceId)
+				.withStates(OrderState.FULFILLED, OrderState.SPAWNING, OrderState.DELETED));
+		return orders.isEmpty() ? null : orders.get(0);
+	}
+	
+	public List<Order> getOrdersByBatchId(String batchId) {
+		if (batchId == null) {
+			return new LinkedList<Order>();
+		}
+		return getOrders(new OrderQuery().withBatchId(batchId));
+	}
+	
+	private List<Order> getOrders(OrderQuery orderQuery) {
+		return new LinkedList<Order>(getOrderRepository().getOrders(orderQuery));
 	}
 	
 	public List<StorageLink> getStorageLinksByUser(String userId) {
@@ -377,13 +371,11 @@ public class ManagerDataStoreController {
 	}
 
 	public List<Order> getOrdersByState(OrderState orderState) {
-		try {
-			return this.managerDatabase.getOrders(OrderState.PENDING);
-		} catch (Exception e) {
-			String errorMsg = "Error while try to get orders by status(" + orderState + ").";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);			
+		OrderQuery orderQuery = new OrderQuery();
+		if (orderState != null) {
+			orderQuery.withStates(orderState);
 		}
+		return getOrders(orderQuery);
 	}
 
 	public List<String> getFederationMembersServeredBy(String orderId) {
@@ -398,7 +390,7 @@ public class ManagerDataStoreController {
 
 	public void addOrderSyncronous(String orderId, long syncronousTime, String federationMemberServered) {
 		try {
-			this.managerDatabase.updateOrderAsyncronous(orderId, syncronousTime, true);
+			updateOrderSyncronous(orderId, syncronousTime, true);
 			this.managerDatabase.addFederationMemberServered(orderId, federationMemberServered);
 		} catch (Exception e) {
 			String errorMsg = "Error while try to update order syncronous(" + orderId + ").";
@@ -419,8 +411,13 @@ public class ManagerDataStoreController {
 	}
 	
 	public void updateOrderSyncronous(String orderId, long currentTimeMillis, boolean syncronousStatus) {
+		OrderRepository orderRepository = getOrderRepository();
 		try {
-			this.managerDatabase.updateOrderAsyncronous(orderId, currentTimeMillis, syncronousStatus);
+			synchronized (orderWriteLock) {
+				if (this.managerDatabase.updateOrderAsyncronous(orderId, currentTimeMillis, syncronousStatus)) {
+					orderRepository.updateSyncronous(orderId, currentTimeMillis, syncronousStatus);
+				}
+			}
 		} catch (Exception e) {
 			String errorMsg = "Error while try to remove/update order syncronous(" + orderId + ").";
 			LOGGER.error(errorMsg, e);
@@ -429,17 +426,7 @@ public class ManagerDataStoreController {
 	}
 
 	public boolean isOrderSyncronous(String orderId) {
-		try {
-			boolean isOrderSyncronous = true;
-			Order order = this.managerDatabase.getOrder(orderId, isOrderSyncronous);
-			if (order != null) {
-				return true;
-			}
-			return false;
-		} catch (Exception e) {
-			String errorMsg = "Error while try to check order syncronous(" + orderId + ").";
-			LOGGER.error(errorMsg, e);
-			throw new OCCIException(ErrorType.BAD_REQUEST, errorMsg);	
-		} 	
+		Order order = getOrderRepository().get(orderId);
+		return order != null && order.isSyncronousStatus();
 	}		
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package org.fogbowcloud.manager.occi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fogbowcloud.manager.occi.order.Order;
+import org.fogbowcloud.manager.occi.order.OrderAttribute;
+import org.fogbowcloud.manager.occi.order.OrderState;
+
+/**
+ * Criteria used to select orders in the {@link ManagerDataStore} and in the
+ * {@link OrderRepository}. Every criterion left null is ignored, so an empty
+ * query matches all orders. All criteria but the batch id are translated
+ * into indexed columns of the order table.
+ */
+public class OrderQuery {
+
+	private String orderId;
+	private String userId;
+	private String resourceKind;
+	private String instanceId;
+	private String providingMemberId;
+	private String batchId;
+	private Boolean isLocal;
+	private List<OrderState> states;
+
+	public OrderQuery withOrderId(String orderId) {
+		this.orderId = orderId;
+		return this;
+	}
+
+	public OrderQuery withUserId(String userId) {
+		this.userId = userId;
+		return this;
+	}
+
+	public OrderQuery withResourceKind(String resourceKind) {
+		this.resourceKind = resourceKind;
+		return this;
+	}
+
+	public OrderQuery withInstanceId(String instanceId) {
+		this.instanceId = instanceId;
+		return this;
+	}
+
+	public OrderQuery withProvidingMemberId(String providingMemberId) {
+		this.providingMemberId = providingMemberId;
+		return this;
+	}
+
+	public OrderQuery withBatchId(String batchId) {
+		this.batchId = batchId;
+		return this;
+	}
+
+	public OrderQuery withLocal(Boolean isLocal) {
+		this.isLocal = isLocal;
+		return this;
+	}
+
+	public OrderQuery withStates(OrderState... states) {
+		this.states = states == null ? null : new ArrayList<OrderState>(Arrays.asList(states));
+		return this;
+	}
+
+	public String getOrderId() {
+		return orderId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public String getResourceKind() {
+		return resourceKind;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public String getProvidingMemberId() {
+		return providingMemberId;
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public Boolean isLocal() {
+		return isLocal;
+	}
+
+	public List<OrderState> getStates() {
+		return states;
+	}
+
+	public boolean matches(Order order) {
+		return matches(orderId, order.getId())
+				&& matches(userId, ManagerDataStore.getUserId(order.getFederationToken()))
+				&& matches(resourceKind, order.getResourceKing())
+				&& matches(instanceId, order.getInstanceId())
+				&& matches(providingMemberId, order.getProvidingMemberId())
+				&& matches(batchId, order.getAttValue(OrderAttribute.BATCH_ID.getValue()))
+				&& (isLocal == null || isLocal.booleanValue() == order.isLocal())
+				&& (states == null || states.contains(order.getState()));
+	}
+
+	private static boolean matches(String criterion, String value) {
+		return criterion == null || criterion.equals(value);
+	}
+
+	@Override
+	public String toString() {
+		return "OrderQuery [orderId=" + orderId + ", userId=" + userId + ", resourceKind="
+				+ resourceKind + ", instanceId=" + instanceId + ", providingMemberId="
+				+ providingMemberId + ", batchId=" + batchId + ", isLocal=" + isLocal
+				+ ", states=" + states + "]";
+	}
+
+}
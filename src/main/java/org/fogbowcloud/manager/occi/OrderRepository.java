@@ -0,0 +1,335 @@
+package org.fogbowcloud.manager.occi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.fogbowcloud.manager.occi.model.Token;
+import org.fogbowcloud.manager.occi.order.Order;
+import org.fogbowcloud.manager.occi.order.OrderAttribute;
+import org.fogbowcloud.manager.occi.order.OrderConstants;
+import org.fogbowcloud.manager.occi.order.OrderState;
+
+/**
+ * In-memory copy of the order table, indexed by state, user, instance id
+ * and batch id. It also counts the served compute orders of each requesting
+ * member by state, which quota checks read on every remote order. Orders
+ * are copied when stored and when retrieved, so callers get detached orders
+ * as they would from the {@link ManagerDataStore} and must update them
+ * explicitly. Orders are returned in insertion order.
+ */
+public class OrderRepository {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<String, Entry> ordersById = new HashMap<String, Entry>();
+	private final Index<OrderState> stateIndex = new Index<OrderState>();
+	private final Index<String> userIndex = new Index<String>();
+	private final Index<String> instanceIndex = new Index<String>();
+	private final Index<String> batchIndex = new Index<String>();
+	private final Map<String, Map<OrderState, Integer>> servedComputeOrderCounts = 
+			new HashMap<String, Map<OrderState, Integer>>();
+	private long nextSequence = 0;
+
+	/**
+	 * Replaces every order in the repository by the given ones.
+	 */
+	public void load(List<Order> orders) {
+		lock.writeLock().lock();
+		try {
+			ordersById.clear();
+			stateIndex.clear();
+			userIndex.clear();
+			instanceIndex.clear();
+			batchIndex.clear();
+			servedComputeOrderCounts.clear();
+			for (Order order : orders) {
+				putOrder(copy(order));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean add(Order order) {
+		lock.writeLock().lock();
+		try {
+			if (ordersById.containsKey(order.getId())) {
+				return false;
+			}
+			putOrder(copy(order));
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates a stored order, keeping its synchronous status as
+	 * {@link ManagerDataStore#updateOrder(Order)} does.
+	 */
+	public boolean update(Order order) {
+		lock.writeLock().lock();
+		try {
+			Entry entry = ordersById.get(order.getId());
+			if (entry == null) {
+				return false;
+			}
+			Order updatedOrder = copy(order);
+			updatedOrder.setSyncronousTime(entry.order.getSyncronousTime());
+			updatedOrder.setSyncronousStatus(entry.order.isSyncronousStatus());
+			unindex(entry);
+			entry.order = updatedOrder;
+			index(entry);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean updateSyncronous(String orderId, long syncronousTime, boolean syncronousStatus) {
+		lock.writeLock().lock();
+		try {
+			Entry entry = ordersById.get(orderId);
+			if (entry == null) {
+				return false;
+			}
+			entry.order.setSyncronousTime(syncronousTime);
+			entry.order.setSyncronousStatus(syncronousStatus);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean remove(String orderId) {
+		lock.writeLock().lock();
+		try {
+			Entry entry = ordersById.remove(orderId);
+			if (entry == null) {
+				return false;
+			}
+			unindex(entry);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public Order get(String orderId) {
+		lock.readLock().lock();
+		try {
+			Entry entry = ordersById.get(orderId);
+			return entry == null ? null : copy(entry.order);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return ordersById.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of compute orders in the given state served to the
+	 *         requesting member
+	 */
+	public int countServedComputeOrders(String requestingMemberId, OrderState state) {
+		lock.readLock().lock();
+		try {
+			Map<OrderState, Integer> counts = servedComputeOrderCounts.get(requestingMemberId);
+			if (counts == null) {
+				return 0;
+			}
+			Integer count = counts.get(state);
+			return count == null ? 0 : count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the orders that match the query, starting from the most
+	 * selective index available for its criteria.
+	 */
+	public List<Order> getOrders(OrderQuery orderQuery) {
+		lock.readLock().lock();
+		try {
+			List<Order> orders = new ArrayList<Order>();
+			for (Entry entry : getCandidates(orderQuery)) {
+				if (orderQuery.matches(entry.order)) {
+					orders.add(copy(entry.order));
+				}
+			}
+			return orders;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Collection<Entry> getCandidates(OrderQuery orderQuery) {
+		if (orderQuery.getOrderId() != null) {
+			Entry entry = ordersById.get(orderQuery.getOrderId());
+			return entry == null ? Collections.<Entry> emptyList() : Collections.singletonList(entry);
+		}
+		if (orderQuery.getInstanceId() != null) {
+			return instanceIndex.get(orderQuery.getInstanceId());
+		}
+		if (orderQuery.getBatchId() != null) {
+			return batchIndex.get(orderQuery.getBatchId());
+		}
+		if (orderQuery.getUserId() != null) {
+			return userIndex.get(orderQuery.getUserId());
+		}
+		if (orderQuery.getStates() != null) {
+			return stateIndex.get(orderQuery.getStates());
+		}
+		List<Entry> entries = new ArrayList<Entry>(ordersById.values());
+		Collections.sort(entries, SEQUENCE_COMPARATOR);
+		return entries;
+	}
+
+	private void putOrder(Order order) {
+		Entry entry = new Entry(nextSequence++, order);
+		ordersById.put(order.getId(), entry);
+		index(entry);
+	}
+
+	private void index(Entry entry) {
+		stateIndex.add(entry.order.getState(), entry);
+		userIndex.add(ManagerDataStore.getUserId(entry.order.getFederationToken()), entry);
+		instanceIndex.add(entry.order.getInstanceId(), entry);
+		batchIndex.add(entry.order.getAttValue(OrderAttribute.BATCH_ID.getValue()), entry);
+		countServedComputeOrder(entry.order, 1);
+	}
+
+	private void unindex(Entry entry) {
+		stateIndex.remove(entry.order.getState(), entry);
+		userIndex.remove(ManagerDataStore.getUserId(entry.order.getFederationToken()), entry);
+		instanceIndex.remove(entry.order.getInstanceId(), entry);
+		batchIndex.remove(entry.order.getAttValue(OrderAttribute.BATCH_ID.getValue()), entry);
+		countServedComputeOrder(entry.order, -1);
+	}
+
+	private void countServedComputeOrder(Order order, int delta) {
+		if (order.isLocal() || order.getRequestingMemberId() == null || order.getState() == null
+				|| !OrderConstants.COMPUTE_TERM.equals(order.getResourceKing())) {
+			return;
+		}
+		Map<OrderState, Integer> counts = servedComputeOrderCounts.get(order.getRequestingMemberId());
+		if (counts == null) {
+			counts = new EnumMap<OrderState, Integer>(OrderState.class);
+			servedComputeOrderCounts.put(order.getRequestingMemberId(), counts);
+		}
+		Integer count = counts.get(order.getState());
+		int newCount = (count == null ? 0 : count) + delta;
+		if (newCount > 0) {
+			counts.put(order.getState(), newCount);
+		} else {
+			counts.remove(order.getState());
+			if (counts.isEmpty()) {
+				servedComputeOrderCounts.remove(order.getRequestingMemberId());
+			}
+		}
+	}
+
+	protected static Order copy(Order order) {
+		Token token = order.getFederationToken();
+		Token tokenCopy = null;
+		if (token != null) {
+			tokenCopy = new Token(token.getAccessId(), token.getUser(), null,
+					token.getAttributes() == null ? null : new HashMap<String, String>(token.getAttributes()));
+		}
+		Order orderCopy = new Order(order.getId(), tokenCopy, order.getInstanceId(),
+				order.getProvidingMemberId(), order.getRequestingMemberId(), order.getFulfilledTime(),
+				order.isLocal(), order.getState(), order.getCategories(), order.getxOCCIAtt());
+		orderCopy.setResourceKing(order.getResourceKing());
+		orderCopy.setSyncronousTime(order.getSyncronousTime());
+		orderCopy.setSyncronousStatus(order.isSyncronousStatus());
+		return orderCopy;
+	}
+
+	private static final Comparator<Entry> SEQUENCE_COMPARATOR = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry entry, Entry otherEntry) {
+			return Long.compare(entry.sequence, otherEntry.sequence);
+		}
+	};
+
+	private static class Entry {
+
+		private final long sequence;
+		private Order order;
+
+		public Entry(long sequence, Order order) {
+			this.sequence = sequence;
+			this.order = order;
+		}
+	}
+
+	private static class Index<K> {
+
+		private final Map<K, TreeMap<Long, Entry>> entriesByKey = new HashMap<K, TreeMap<Long, Entry>>();
+
+		public void add(K key, Entry entry) {
+			if (key == null) {
+				return;
+			}
+			TreeMap<Long, Entry> entries = entriesByKey.get(key);
+			if (entries == null) {
+				entries = new TreeMap<Long, Entry>();
+				entriesByKey.put(key, entries);
+			}
+			entries.put(entry.sequence, entry);
+		}
+
+		public void remove(K key, Entry entry) {
+			if (key == null) {
+				return;
+			}
+			TreeMap<Long, Entry> entries = entriesByKey.get(key);
+			if (entries != null) {
+				entries.remove(entry.sequence);
+				if (entries.isEmpty()) {
+					entriesByKey.remove(key);
+				}
+			}
+		}
+
+		public Collection<Entry> get(K key) {
+			TreeMap<Long, Entry> entries = entriesByKey.get(key);
+			return entries == null ? Collections.<Entry> emptyList() : entries.values();
+		}
+
+		public Collection<Entry> get(List<K> keys) {
+			if (keys.size() == 1) {
+				return get(keys.get(0));
+			}
+			TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+			for (K key : keys) {
+				TreeMap<Long, Entry> keyEntries = entriesByKey.get(key);
+				if (keyEntries != null) {
+					entries.putAll(keyEntries);
+				}
+			}
+			return entries.values();
+		}
+
+		public void clear() {
+			entriesByKey.clear();
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package org.fogbowcloud.manager.occi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.SynchronousMode;
+
+/**
+ * Pool of long-lived SQLite connections shared by every data store that
+ * points to the same data store URL.
+ *
+ * Connections are opened in WAL mode, so readers never wait for writers.
+ * Statements that change the data store take a writer lock that is held
+ * until the transaction ends, serializing writers inside this process
+ * instead of relying on the SQLite busy timeout. Calling close() on a
+ * connection returns it to the pool, and prepared statements are cached
+ * per connection.
+ */
+public class SQLiteConnectionPool {
+
+	private static final Logger LOGGER = Logger.getLogger(SQLiteConnectionPool.class);
+
+	protected static final int DEFAULT_MAX_IDLE_CONNECTIONS = 10;
+	protected static final int DEFAULT_MAX_CACHED_STATEMENTS = 50;
+	protected static final String DEFAULT_BUSY_TIMEOUT = "30000"; // 30 seconds
+
+	private static final Map<String, SQLiteConnectionPool> POOLS = new HashMap<String, SQLiteConnectionPool>();
+
+	private final String dataStoreURL;
+	private final Properties connectionProperties;
+	private final int maxIdleConnections;
+	private final LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+	private final ReentrantLock writerLock = new ReentrantLock(true);
+
+	private final AtomicLong connectionsCreated = new AtomicLong();
+	private final AtomicLong connectionsLeased = new AtomicLong();
+
+	protected SQLiteConnectionPool(String dataStoreURL, int maxIdleConnections) {
+		this.dataStoreURL = dataStoreURL;
+		this.maxIdleConnections = maxIdleConnections;
+
+		SQLiteConfig config = new SQLiteConfig();
+		config.enforceForeignKeys(true);
+		config.setBusyTimeout(DEFAULT_BUSY_TIMEOUT);
+		config.setJournalMode(JournalMode.WAL);
+		config.setSynchronous(SynchronousMode.NORMAL);
+		this.connectionProperties = config.toProperties();
+	}
+
+	public static SQLiteConnectionPool getInstance(String dataStoreURL) {
+		synchronized (POOLS) {
+			SQLiteConnectionPool pool = POOLS.get(dataStoreURL);
+			if (pool == null) {
+				pool = new SQLiteConnectionPool(dataStoreURL, DEFAULT_MAX_IDLE_CONNECTIONS);
+				POOLS.put(dataStoreURL, pool);
+			}
+			return pool;
+		}
+	}
+
+	public Connection getConnection() throws SQLException {
+		PooledConnection pooledConnection = null;
+		synchronized (idleConnections) {
+			pooledConnection = idleConnections.pollFirst();
+		}
+		if (pooledConnection == null || pooledConnection.connection.isClosed()) {
+			pooledConnection = new PooledConnection(DriverManager.getConnection(
+					dataStoreURL, connectionProperties));
+			connectionsCreated.incrementAndGet();
+		}
+		connectionsLeased.incrementAndGet();
+		return pooledConnection.lease();
+	}
+
+	/**
+	 * Closes every idle connection. Leased connections are closed when they
+	 * are given back.
+	 */
+	public void clear() {
+		synchronized (idleConnections) {
+			discardIdleConnections();
+		}
+	}
+
+	/**
+	 * Closes the idle connections of every pool, e.g. before the data store
+	 * files are removed.
+	 */
+	public static void clearAll() {
+		synchronized (POOLS) {
+			for (SQLiteConnectionPool pool : POOLS.values()) {
+				pool.clear();
+			}
+		}
+	}
+
+	public int getIdleConnections() {
+		synchronized (idleConnections) {
+			return idleConnections.size();
+		}
+	}
+
+	public long getConnectionsCreated() {
+		return connectionsCreated.get();
+	}
+
+	public long getConnectionsLeased() {
+		return connectionsLeased.get();
+	}
+
+	private void giveBack(PooledConnection pooledConnection, boolean reusable) {
+		synchronized (idleConnections) {
+			if (reusable && idleConnections.size() < maxIdleConnections) {
+				idleConnections.addFirst(pooledConnection);
+				return;
+			}
+		}
+		pooledConnection.closePhysically();
+	}
+
+	private void discardIdleConnections() {
+		while (!idleConnections.isEmpty()) {
+			idleConnections.pollFirst().closePhysically();
+		}
+	}
+
+	protected static boolean isWriteStatement(String sql) {
+		return sql == null || !sql.trim().toUpperCase().startsWith("SELECT");
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private class PooledConnection {
+
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statementCache;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() > DEFAULT_MAX_CACHED_STATEMENTS) {
+						closeQuietly(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		private Connection lease() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new LeasedConnectionHandler(this));
+		}
+
+		private void closePhysically() {
+			for (PreparedStatement statement : statementCache.values()) {
+				closeQuietly(statement);
+			}
+			statementCache.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				LOGGER.warn("Couldn't close connection.", e);
+			}
+		}
+
+		private void closeQuietly(Statement statement) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOGGER.debug("Couldn't close statement.", e);
+			}
+		}
+	}
+
+	private class LeasedConnectionHandler implements InvocationHandler {
+
+		private final PooledConnection pooledConnection;
+		private final List<LeasedStatementHandler> statements = new ArrayList<LeasedStatementHandler>();
+		private boolean released = false;
+		private boolean holdingWriterLock = false;
+		private Connection proxy;
+
+		private LeasedConnectionHandler(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			this.proxy = (Connection) proxy;
+			String methodName = method.getName();
+			if (methodName.equals("close")) {
+				release();
+				return null;
+			} else if (methodName.equals("isClosed")) {
+				return released || pooledConnection.connection.isClosed();
+			} else if (methodName.equals("equals")) {
+				return proxy == args[0];
+			} else if (methodName.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (methodName.equals("toString")) {
+				return "Pooled " + pooledConnection.connection;
+			}
+			if (released) {
+				throw new SQLException("Connection was already given back to the pool.");
+			}
+
+			if (methodName.equals("prepareStatement") && args.length == 1) {
+				return prepareCachedStatement((String) args[0]);
+			} else if (methodName.equals("prepareStatement")) {
+				PreparedStatement statement = (PreparedStatement) SQLiteConnectionPool.invoke(
+						pooledConnection.connection, method, args);
+				return wrap(statement, PreparedStatement.class, (String) args[0], false);
+			} else if (methodName.equals("createStatement")) {
+				Statement statement = (Statement) SQLiteConnectionPool.invoke(
+						pooledConnection.connection, method, args);
+				return wrap(statement, Statement.class, null, false);
+			}
+
+			try {
+				return SQLiteConnectionPool.invoke(pooledConnection.connection, method, args);
+			} finally {
+				boolean transactionFinished = methodName.equals("commit") || methodName.equals("rollback")
+						|| (methodName.equals("setAutoCommit") && Boolean.TRUE.equals(args[0]));
+				if (transactionFinished) {
+					releaseWriterLock();
+				}
+			}
+		}
+
+		private Object prepareCachedStatement(String sql) throws SQLException {
+			PreparedStatement statement = pooledConnection.statementCache.get(sql);
+			if (statement == null || statement.isClosed()) {
+				statement = pooledConnection.connection.prepareStatement(sql);
+				pooledConnection.statementCache.put(sql, statement);
+			} else {
+				for (LeasedStatementHandler leasedStatement : statements) {
+					if (leasedStatement.statement == statement && !leasedStatement.closed) {
+						// the cached one is in use by this lease, so a new one is needed
+						return wrap(pooledConnection.connection.prepareStatement(sql),
+								PreparedStatement.class, sql, false);
+					}
+				}
+			}
+			return wrap(statement, PreparedStatement.class, sql, true);
+		}
+
+		private Object wrap(Statement statement, Class<?> statementInterface, String sql, boolean cached) {
+			LeasedStatementHandler handler = new LeasedStatementHandler(this, statement, sql, cached);
+			statements.add(handler);
+			return Proxy.newProxyInstance(statementInterface.getClassLoader(),
+					new Class<?>[] { statementInterface }, handler);
+		}
+
+		private void acquireWriterLock() {
+			if (!holdingWriterLock) {
+				writerLock.lock();
+				holdingWriterLock = true;
+			}
+		}
+
+		private void releaseWriterLock() {
+			if (holdingWriterLock) {
+				holdingWriterLock = false;
+				writerLock.unlock();
+			}
+		}
+
+		private void releaseWriterLockIfAutoCommit() throws SQLException {
+			if (pooledConnection.connection.getAutoCommit()) {
+				releaseWriterLock();
+			}
+		}
+
+		private void release() {
+			if (released) {
+				return;
+			}
+			released = true;
+			for (LeasedStatementHandler statement : statements) {
+				statement.close();
+			}
+			statements.clear();
+
+			boolean reusable = true;
+			try {
+				if (!pooledConnection.connection.isClosed() && !pooledConnection.connection.getAutoCommit()) {
+					pooledConnection.connection.rollback();
+					pooledConnection.connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				LOGGER.warn("Couldn't reset connection, it will be discarded.", e);
+				reusable = false;
+			} finally {
+				releaseWriterLock();
+			}
+			try {
+				reusable &= !pooledConnection.connection.isClosed();
+			} catch (SQLException e) {
+				reusable = false;
+			}
+			giveBack(pooledConnection, reusable);
+		}
+	}
+
+	private class LeasedStatementHandler implements InvocationHandler {
+
+		private final LeasedConnectionHandler connectionHandler;
+		private final Statement statement;
+		private final String sql;
+		private final boolean cached;
+		private boolean closed = false;
+		private boolean batchWithWrite = false;
+		private ResultSet resultSet;
+
+		private LeasedStatementHandler(LeasedConnectionHandler connectionHandler, Statement statement,
+				String sql, boolean cached) {
+			this.connectionHandler = connectionHandler;
+			this.statement = statement;
+			this.sql = sql;
+			this.cached = cached;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			if (methodName.equals("close")) {
+				close();
+				return null;
+			} else if (methodName.equals("isClosed")) {
+				return closed;
+			} else if (methodName.equals("equals")) {
+				return proxy == args[0];
+			} else if (methodName.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (methodName.equals("toString")) {
+				return statement.toString();
+			} else if (methodName.equals("getConnection")) {
+				return connectionHandler.proxy;
+			}
+			if (closed) {
+				throw new SQLException("Statement is closed.");
+			}
+
+			if (methodName.equals("addBatch") && args != null && args.length == 1) {
+				batchWithWrite |= isWriteStatement((String) args[0]);
+			} else if (methodName.equals("clearBatch")) {
+				batchWithWrite = false;
+			}
+
+			boolean isExecution = methodName.startsWith("execute");
+			if (isExecution && isWrite(methodName, args)) {
+				connectionHandler.acquireWriterLock();
+			}
+			try {
+				Object result = SQLiteConnectionPool.invoke(statement, method, args);
+				if (result instanceof ResultSet) {
+					resultSet = (ResultSet) result;
+				}
+				return result;
+			} finally {
+				if (isExecution) {
+					connectionHandler.releaseWriterLockIfAutoCommit();
+				}
+			}
+		}
+
+		private boolean isWrite(String methodName, Object[] args) {
+			if (methodName.equals("executeBatch")) {
+				return sql != null ? isWriteStatement(sql) : batchWithWrite;
+			}
+			if (args != null && args.length > 0 && args[0] instanceof String) {
+				return isWriteStatement((String) args[0]);
+			}
+			return isWriteStatement(sql);
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (resultSet != null) {
+					resultSet.close();
+				}
+				if (cached) {
+					PreparedStatement preparedStatement = (PreparedStatement) statement;
+					preparedStatement.clearParameters();
+					preparedStatement.clearBatch();
+				} else {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				LOGGER.debug("Couldn't reset statement.", e);
+				if (cached) {
+					connectionHandler.pooledConnection.statementCache.remove(sql);
+					connectionHandler.pooledConnection.closeQuietly(statement);
+				}
+			}
+			resultSet = null;
+		}
+	}
+}
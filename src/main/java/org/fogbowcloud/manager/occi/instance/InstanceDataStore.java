@@ -1,7 +1,6 @@
 package org.fogbowcloud.manager.occi.instance;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -12,6 +11,7 @@ import java.util.List;
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.occi.DataStoreHelper;
 import org.fogbowcloud.manager.occi.JSONHelper;
+import org.fogbowcloud.manager.occi.SQLiteConnectionPool;
 import org.json.JSONArray;
 import org.json.JSONException;
 
@@ -438,7 +438,7 @@ public class InstanceDataStore {
 	 */
 	public Connection getConnection() throws SQLException {
 		try {
-			return DriverManager.getConnection(instanceDataStoreURL);
+			return SQLiteConnectionPool.getInstance(instanceDataStoreURL).getConnection();
 		} catch (SQLException e) {
 			LOGGER.error("Error while getting a new connection from the connection pool.", e);
 			throw e;
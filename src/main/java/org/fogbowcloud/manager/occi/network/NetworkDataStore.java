@@ -1,7 +1,6 @@
 package org.fogbowcloud.manager.occi.network;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -11,6 +10,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.fogbowcloud.manager.occi.DataStoreHelper;
+import org.fogbowcloud.manager.occi.SQLiteConnectionPool;
 
 public class NetworkDataStore {
 
@@ -407,7 +407,7 @@ public class NetworkDataStore {
 	 */
 	public Connection getConnection() throws SQLException {
 		try {
-			return DriverManager.getConnection(networkDataStoreURL);
+			return SQLiteConnectionPool.getInstance(networkDataStoreURL).getConnection();
 		} catch (SQLException e) {
 			LOGGER.error("Error while getting a new connection from the connection pool.", e);
 			throw e;
@@ -8,4 +8,6 @@ public interface AsyncPacketSender extends PacketSender {
 	
 	public void addPacketCallback(Packet packet, PacketCallback packetCallback);
 
+	public void removePacketCallback(Packet packet);
+
 }
@@ -46,6 +46,11 @@ public class GetInstanceHandler extends AbstractQueryHandler {
 		
 		Element queryEl = response.getElement().addElement("query", 
 				ManagerXmppComponent.GETINSTANCE_NAMESPACE);
+		addInstanceElement(queryEl, instanceId, instance);
+		return response;
+	}
+	
+	protected static void addInstanceElement(Element queryEl, String instanceId, Instance instance) {
 		Element instanceEl = queryEl.addElement("instance");
 		instanceEl.addElement("state").setText(instance.getState() != null ? instance.getState().toString() : "null");
 		instanceEl.addElement("id").setText(instanceId);
@@ -87,8 +92,6 @@ public class GetInstanceHandler extends AbstractQueryHandler {
 			attributeEl.addAttribute("val", instanceAtt.getKey());
 			attributeEl.setText(instanceAtt.getValue());
 		}
-	
-		return response;
 	}
 
 }
@@ -0,0 +1,123 @@
+package org.fogbowcloud.manager.xmpp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dom4j.Element;
+import org.fogbowcloud.manager.core.ManagerController;
+import org.fogbowcloud.manager.occi.instance.Instance;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.jamppa.component.handler.AbstractQueryHandler;
+import org.xmpp.packet.IQ;
+
+/**
+ * Batched version of {@link GetInstanceHandler}. The instances are retrieved
+ * concurrently, by a bounded pool of daemon threads, and the response is sent
+ * once all of them are retrieved or a deadline of two thirds of the XMPP
+ * timeout is reached, so that the requesting member gets an answer before
+ * giving up on the query. Instances that could not be retrieved in time are
+ * left out of the response, so the requesting member can check them one by
+ * one.
+ */
+public class GetInstancesHandler extends AbstractQueryHandler {
+
+	private static final Logger LOGGER = Logger.getLogger(GetInstancesHandler.class);
+
+	protected static final int MAX_CONCURRENT_LOOKUPS = 10;
+	private static final long IDLE_LOOKUP_THREAD_TIMEOUT = 60; // seconds
+
+	private ManagerController facade;
+	private final long lookupDeadline;
+	private final ExecutorService lookupExecutor;
+
+	/**
+	 * @param xmppTimeout time in milliseconds the requesting members wait for
+	 *        a response
+	 */
+	public GetInstancesHandler(ManagerController facade, long xmppTimeout) {
+		super(ManagerXmppComponent.GETINSTANCES_NAMESPACE);
+		this.facade = facade;
+		this.lookupDeadline = xmppTimeout * 2 / 3;
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_LOOKUPS, MAX_CONCURRENT_LOOKUPS,
+				IDLE_LOOKUP_THREAD_TIMEOUT, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "get-instances-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		this.lookupExecutor = executor;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public IQ handle(IQ query) {
+		long deadline = System.currentTimeMillis() + lookupDeadline;
+		Map<String, Future<Instance>> lookups = new LinkedHashMap<String, Future<Instance>>();
+		Iterator<Element> instanceIterator = query.getElement().element("query").elementIterator("instance");
+		while (instanceIterator.hasNext()) {
+			final String instanceId = instanceIterator.next().elementText(ManagerPacketHelper.ID_EL);
+			lookups.put(instanceId, lookupExecutor.submit(new Callable<Instance>() {
+				@Override
+				public Instance call() throws Exception {
+					return facade.getInstanceForRemoteMember(instanceId);
+				}
+			}));
+		}
+
+		IQ response = IQ.createResultIQ(query);
+		Element responseQueryEl = response.getElement().addElement("query",
+				ManagerXmppComponent.GETINSTANCES_NAMESPACE);
+		try {
+			for (Entry<String, Future<Instance>> lookup : lookups.entrySet()) {
+				Instance instance = getLookupResult(lookup.getKey(), lookup.getValue(), deadline);
+				if (instance != null) {
+					GetInstanceHandler.addInstanceElement(responseQueryEl, lookup.getKey(), instance);
+				}
+			}
+		} finally {
+			for (Future<Instance> lookup : lookups.values()) {
+				lookup.cancel(true);
+			}
+		}
+		return response;
+	}
+
+	private Instance getLookupResult(String instanceId, Future<Instance> lookup, long deadline) {
+		try {
+			return lookup.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			LOGGER.debug("Instance " + instanceId + " was not retrieved in time for remote member.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.debug("Interrupted while getting instance " + instanceId + " for remote member.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OCCIException) {
+				LOGGER.debug("Could not get instance " + instanceId + " for remote member.", e.getCause());
+			} else {
+				LOGGER.warn("Could not get instance " + instanceId + " for remote member.", e.getCause());
+			}
+		}
+		return null;
+	}
+
+}
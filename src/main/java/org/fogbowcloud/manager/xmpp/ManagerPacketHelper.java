@@ -2,11 +2,13 @@ package org.fogbowcloud.manager.xmpp;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
@@ -57,6 +59,8 @@ public class ManagerPacketHelper {
 	public static final String USER_EL = "user";
 	public static final String ID_EL = "id";
 	
+	public static final int MAX_INSTANCES_PER_BATCHED_QUERY = 100;
+	
 	public static final String I_AM_ALIVE_PERIOD = "iamalive-period";
 	private final static Logger LOGGER = Logger.getLogger(ManagerPacketHelper.class.getName());
 
@@ -207,6 +211,12 @@ public class ManagerPacketHelper {
 			throw new IllegalArgumentException("Packet sender not set.");
 		}
 
+		IQ iq = createStorageLinkIQ(storageLink, memberAddress, userFederationToken);
+		return parseStorageLinkResponse((IQ) packetSender.syncSendPacket(iq));
+	}
+
+	private static IQ createStorageLinkIQ(StorageLink storageLink, String memberAddress,
+			Token userFederationToken) {
 		IQ iq = new IQ();
 		iq.setTo(memberAddress);
 		iq.setType(Type.set);
@@ -226,9 +236,10 @@ public class ManagerPacketHelper {
 			userEl.addElement(NAME_EL).setText(
 					userFederationToken.getUser().getName());		
 		}
+		return iq;
+	}
 
-		IQ response = (IQ) packetSender.syncSendPacket(iq);
-		 
+	private static String parseStorageLinkResponse(IQ response) {
 		if (response == null) {
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
 		}
@@ -251,6 +262,28 @@ public class ManagerPacketHelper {
 			throw new IllegalArgumentException("Packet sender not set.");
 		}
 
+		IQ iq = createGetInstanceIQ(memberId, instanceId);
+		return parseGetInstanceResponse((IQ) packetSender.syncSendPacket(iq));
+	}
+
+	public static RemoteOperationFuture<Instance> getRemoteInstanceAsync(String memberId, String instanceId,
+			AsyncPacketSender packetSender, long timeout) {
+
+		if (packetSender == null) {
+			LOGGER.warn("Packet sender not set.");
+			throw new IllegalArgumentException("Packet sender not set.");
+		}
+
+		IQ iq = createGetInstanceIQ(memberId, instanceId);
+		return sendAsync(iq, packetSender, timeout, new ResponseParser<Instance>() {
+			@Override
+			public Instance parse(IQ response) {
+				return parseGetInstanceResponse(response);
+			}
+		});
+	}
+
+	private static IQ createGetInstanceIQ(String memberId, String instanceId) {
 		IQ iq = new IQ();
 		iq.setTo(memberId);
 		iq.setType(Type.get);
@@ -261,8 +294,10 @@ public class ManagerPacketHelper {
 		} catch (Exception e) {
 			// TODO: handle exception
 		}
+		return iq;
+	}
 
-		IQ response = (IQ) packetSender.syncSendPacket(iq);
+	private static Instance parseGetInstanceResponse(IQ response) {
 		if (response == null) {
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
 		}
@@ -273,6 +308,52 @@ public class ManagerPacketHelper {
 		return parseInstance(response.getElement().element("query").element("instance"));
 	}
 
+	/**
+	 * Gets several instances of a member, sending at most
+	 * MAX_INSTANCES_PER_BATCHED_QUERY instance ids per query. Instances that
+	 * could not be retrieved are left out of the result.
+	 * 
+	 * @return null if the member does not support batched queries
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Instance> getRemoteInstances(String memberId, List<String> instanceIds,
+			PacketSender packetSender) {
+
+		if (packetSender == null) {
+			LOGGER.warn("Packet sender not set.");
+			throw new IllegalArgumentException("Packet sender not set.");
+		}
+
+		Map<String, Instance> instances = new HashMap<String, Instance>();
+		for (int from = 0; from < instanceIds.size(); from += MAX_INSTANCES_PER_BATCHED_QUERY) {
+			IQ iq = new IQ();
+			iq.setTo(memberId);
+			iq.setType(Type.get);
+			Element queryEl = iq.getElement().addElement("query", ManagerXmppComponent.GETINSTANCES_NAMESPACE);
+			int to = Math.min(from + MAX_INSTANCES_PER_BATCHED_QUERY, instanceIds.size());
+			for (String instanceId : instanceIds.subList(from, to)) {
+				queryEl.addElement("instance").addElement(ID_EL).setText(instanceId);
+			}
+
+			IQ response = (IQ) packetSender.syncSendPacket(iq);
+			if (response == null) {
+				throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
+			}
+			if (response.getError() != null) {
+				LOGGER.debug("Member " + memberId + " does not support batched instance queries: "
+						+ response.getError());
+				return null;
+			}
+
+			Iterator<Element> instanceIterator = response.getElement().element("query").elementIterator("instance");
+			while (instanceIterator.hasNext()) {
+				Instance instance = parseInstance(instanceIterator.next());
+				instances.put(instance.getId(), instance);
+			}
+		}
+		return instances;
+	}
+
 	public static void deleteRemoteInstace(Order order, PacketSender packetSender) {
 
 		if (packetSender == null) {
@@ -280,20 +361,29 @@ public class ManagerPacketHelper {
 			throw new IllegalArgumentException("Packet sender not set.");
 		}
 
+		IQ iq = createDeleteInstanceIQ(order);
+		checkResponse((IQ) packetSender.syncSendPacket(iq));
+	}
+
+	public static RemoteOperationFuture<Void> deleteRemoteInstanceAsync(Order order,
+			AsyncPacketSender packetSender, long timeout) {
+
+		if (packetSender == null) {
+			LOGGER.warn("Packet sender not set.");
+			throw new IllegalArgumentException("Packet sender not set.");
+		}
+
+		return sendAsync(createDeleteInstanceIQ(order), packetSender, timeout, EMPTY_RESPONSE_PARSER);
+	}
+
+	private static IQ createDeleteInstanceIQ(Order order) {
 		IQ iq = new IQ();
 		iq.setTo(order.getProvidingMemberId());
 		iq.setType(Type.set);
 		Element queryEl = iq.getElement().addElement("query", ManagerXmppComponent.REMOVEINSTANCE_NAMESPACE);
 		Element instanceEl = queryEl.addElement("instance");
 		instanceEl.addElement(ID_EL).setText(order.getInstanceId());
-
-		IQ response = (IQ) packetSender.syncSendPacket(iq);
-		if (response == null) {
-			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
-		}
-		if (response.getError() != null) {
-			raiseException(response.getError());
-		}
+		return iq;
 	}
 	
 	public static void deleteRemoteStorageLink(StorageLink storageLink, PacketSender packetSender) {
@@ -303,6 +393,11 @@ public class ManagerPacketHelper {
 			throw new IllegalArgumentException("Packet sender not set.");
 		}
 
+		IQ iq = createDeleteStorageLinkIQ(storageLink);
+		checkResponse((IQ) packetSender.syncSendPacket(iq));
+	}
+
+	private static IQ createDeleteStorageLinkIQ(StorageLink storageLink) {
 		IQ iq = new IQ();
 		iq.setTo(storageLink.getProvidingMemberId());
 		iq.setType(Type.set);
@@ -322,15 +417,59 @@ public class ManagerPacketHelper {
 			userEl.addElement(NAME_EL).setText(
 					userFederationToken.getUser().getName());		
 		}
-		
-		IQ response = (IQ) packetSender.syncSendPacket(iq);
+		return iq;
+	}
+
+	private static void checkResponse(IQ response) {
 		if (response == null) {
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
 		}
 		if (response.getError() != null) {
 			raiseException(response.getError());
 		}
-	}	
+	}
+
+	private interface ResponseParser<T> {
+
+		T parse(IQ response);
+
+	}
+
+	private static final ResponseParser<Void> EMPTY_RESPONSE_PARSER = new ResponseParser<Void>() {
+		@Override
+		public Void parse(IQ response) {
+			checkResponse(response);
+			return null;
+		}
+	};
+
+	/**
+	 * Sends the IQ without waiting for its response. The returned future is
+	 * completed with the parsed response, or with the exception raised while
+	 * parsing it, as soon as the response arrives. The packet callback is
+	 * removed if the future times out or is cancelled before that.
+	 */
+	private static <T> RemoteOperationFuture<T> sendAsync(final IQ iq,
+			final AsyncPacketSender packetSender, long timeout, final ResponseParser<T> parser) {
+		final RemoteOperationFuture<T> future = new RemoteOperationFuture<T>(timeout, new Runnable() {
+			@Override
+			public void run() {
+				packetSender.removePacketCallback(iq);
+			}
+		});
+		packetSender.addPacketCallback(iq, new PacketCallback() {
+			@Override
+			public void handle(Packet response) {
+				try {
+					future.complete(parser.parse((IQ) response));
+				} catch (Throwable e) {
+					future.fail(e);
+				}
+			}
+		});
+		packetSender.sendPacket(iq);
+		return future;
+	}
 
 	private static void raiseException(PacketError error) {
 		throw createException(error);
@@ -461,6 +600,61 @@ public class ManagerPacketHelper {
 		}
 	}
 
+	/**
+	 * Batched version of checkIfInstanceIsBeingUsedByRemoteMember for served
+	 * orders of the same requesting member, sending at most
+	 * MAX_INSTANCES_PER_BATCHED_QUERY orders per query.
+	 * 
+	 * @param instanceIdPerOrderId
+	 *            the global instance id of each served order
+	 * @return the ids of the orders whose instances are being used, or null if
+	 *         the member does not support batched queries
+	 */
+	@SuppressWarnings("unchecked")
+	public static Set<String> getOrdersWithInstancesBeingUsed(String requestingMemberId,
+			Map<String, String> instanceIdPerOrderId, PacketSender packetSender) {
+
+		if (packetSender == null) {
+			LOGGER.warn("Packet sender not set.");
+			throw new IllegalArgumentException("Packet sender not set.");
+		}
+
+		List<String> orderIds = new ArrayList<String>(instanceIdPerOrderId.keySet());
+		Set<String> ordersBeingUsed = new HashSet<String>();
+		for (int from = 0; from < orderIds.size(); from += MAX_INSTANCES_PER_BATCHED_QUERY) {
+			IQ iq = new IQ();
+			iq.setTo(requestingMemberId);
+			iq.setType(Type.get);
+			Element queryEl = iq.getElement().addElement("query", 
+					ManagerXmppComponent.INSTANCESBEINGUSED_NAMESPACE);
+			int to = Math.min(from + MAX_INSTANCES_PER_BATCHED_QUERY, orderIds.size());
+			for (String orderId : orderIds.subList(from, to)) {
+				Element orderEl = queryEl.addElement(ORDER_EL);
+				orderEl.addElement(ID_EL).setText(orderId);
+				String instanceId = instanceIdPerOrderId.get(orderId);
+				if (instanceId != null) {
+					orderEl.addElement("instance").addElement(ID_EL).setText(instanceId);
+				}
+			}
+
+			IQ response = (IQ) packetSender.syncSendPacket(iq);
+			if (response == null) {
+				throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
+			}
+			if (response.getError() != null) {
+				LOGGER.debug("Member " + requestingMemberId + " does not support batched instance queries: "
+						+ response.getError());
+				return null;
+			}
+
+			Iterator<Element> orderIterator = response.getElement().element("query").elementIterator(ORDER_EL);
+			while (orderIterator.hasNext()) {
+				ordersBeingUsed.add(orderIterator.next().elementText(ID_EL));
+			}
+		}
+		return ordersBeingUsed;
+	}
+
 	public static void replyToServedOrder(Order order, PacketSender packetSender) {
 
 		if (packetSender == null) {
@@ -490,6 +684,11 @@ public class ManagerPacketHelper {
 			throw new IllegalArgumentException("Packet sender not set.");
 		}
 
+		IQ iq = createGetRemoteUserQuotaIQ(token, memberId);
+		return parseRemoteUserQuotaResponse((IQ) packetSender.syncSendPacket(iq));
+	}
+
+	private static IQ createGetRemoteUserQuotaIQ(Token token, String memberId) {
 		IQ iq = new IQ();
 		iq.setTo(memberId);
 		iq.setType(Type.get);
@@ -499,8 +698,10 @@ public class ManagerPacketHelper {
 		Element userEl = tokenEl.addElement(USER_EL);
 		userEl.addElement(ID_EL).setText(token.getUser().getId());
 		userEl.addElement(NAME_EL).setText(token.getUser().getName());		
+		return iq;
+	}
 
-		IQ response = (IQ) packetSender.syncSendPacket(iq);
+	private static ResourcesInfo parseRemoteUserQuotaResponse(IQ response) {
 		if (response == null) {
 			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
 		}		
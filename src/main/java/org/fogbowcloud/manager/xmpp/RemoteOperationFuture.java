@@ -0,0 +1,141 @@
+package org.fogbowcloud.manager.xmpp;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.fogbowcloud.manager.occi.model.ResponseConstants;
+
+/**
+ * Result of a request sent to a remote member without blocking the sender.
+ * It is completed by the callback of the response packet. Each request has
+ * its own timeout, counted from the moment it was sent, after which
+ * {@link #get()} stops waiting for the response. Once the timeout is
+ * reached, or the future is cancelled, the given deregistration is run so the
+ * callback of the response packet is not kept around.
+ */
+public class RemoteOperationFuture<T> implements Future<T> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final long deadline;
+	private volatile T result;
+	private volatile Throwable error;
+	private volatile boolean cancelled;
+	private Runnable deregistration;
+
+	public RemoteOperationFuture(long timeout) {
+		this(timeout, null);
+	}
+
+	public RemoteOperationFuture(long timeout, Runnable deregistration) {
+		this.deadline = System.currentTimeMillis() + timeout;
+		this.deregistration = deregistration;
+	}
+
+	protected synchronized boolean complete(T result) {
+		if (done.getCount() == 0) {
+			return false;
+		}
+		this.result = result;
+		done.countDown();
+		return true;
+	}
+
+	protected synchronized boolean fail(Throwable error) {
+		if (done.getCount() == 0) {
+			return false;
+		}
+		this.error = error;
+		done.countDown();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		if (done.getCount() == 0) {
+			return false;
+		}
+		cancelled = true;
+		done.countDown();
+		deregister();
+		return true;
+	}
+
+	private synchronized void expire() {
+		if (done.getCount() != 0) {
+			deregister();
+		}
+	}
+
+	private void deregister() {
+		if (deregistration != null) {
+			deregistration.run();
+			deregistration = null;
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the response until the timeout of the request is reached.
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		try {
+			return get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		if (!done.await(timeout, unit)) {
+			if (System.currentTimeMillis() >= deadline) {
+				expire();
+			}
+			throw new TimeoutException("No response from remote member in time.");
+		}
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (error != null) {
+			throw new ExecutionException(error);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for the response the same way {@link #get()} does, but reports
+	 * errors as the synchronous operations of {@link ManagerPacketHelper} do.
+	 * A request without response in time is treated as a null response.
+	 */
+	public T getResult() {
+		try {
+			return get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new OCCIException(ErrorType.BAD_REQUEST, ResponseConstants.XMPP_RESPONSE_NULL);
+		}
+	}
+}
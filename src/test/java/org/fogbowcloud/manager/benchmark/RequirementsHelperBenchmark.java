@@ -0,0 +1,84 @@
+package org.fogbowcloud.manager.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.model.Flavor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures finding the smallest flavor that matches some requirements in a
+ * large flavor list. The first benchmark always reuses the same
+ * requirements, which are parsed once and served from the cache afterwards.
+ * The second one uses requirements never seen before on each call, so they
+ * are parsed on every call as they were before the cache.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.fogbowcloud.manager.benchmark.RequirementsHelperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RequirementsHelperBenchmark {
+
+	private static final String REQUIREMENTS = RequirementsHelper.GLUE_VCPU_TERM + " >= 2 && "
+			+ RequirementsHelper.GLUE_MEM_RAM_TERM + " >= 2048 && "
+			+ RequirementsHelper.GLUE_DISK_TERM + " >= 20";
+
+	@Param({ "100", "1000" })
+	private int flavorCount;
+
+	private final List<Flavor> flavors = new ArrayList<Flavor>();
+	private final AtomicLong sequence = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		flavors.clear();
+		for (int i = 0; i < flavorCount; i++) {
+			flavors.add(new Flavor("flavor" + i, String.valueOf(1 + i % 16),
+					String.valueOf(512 * (1 + i % 32)), String.valueOf(10 * (1 + i % 20))));
+		}
+	}
+
+	@Benchmark
+	public Flavor findSmallestFlavor() {
+		return RequirementsHelper.findSmallestFlavor(flavors, REQUIREMENTS);
+	}
+
+	@Benchmark
+	public Flavor findSmallestFlavorWithNewRequirements() {
+		// a location never used before gives requirements that are not cached
+		String requirements = REQUIREMENTS + " && " + RequirementsHelper.GLUE_LOCATION_TERM
+				+ " != \"member" + sequence.incrementAndGet() + "\"";
+		return RequirementsHelper.findSmallestFlavor(flavors, requirements);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(RequirementsHelperBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
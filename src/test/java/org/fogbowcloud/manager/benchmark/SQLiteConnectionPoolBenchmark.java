@@ -0,0 +1,128 @@
+package org.fogbowcloud.manager.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fogbowcloud.manager.occi.SQLiteConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Compares the operations per second of the data stores opening a new
+ * SQLite connection per operation (as they used to) against borrowing a
+ * connection from the {@link SQLiteConnectionPool}. Each operation writes
+ * an order row and reads it back.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.fogbowcloud.manager.benchmark.SQLiteConnectionPoolBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SQLiteConnectionPoolBenchmark {
+
+	private static final String DATASTORE_PATH = "target/benchmarkConnectionPool.sqlite";
+	private static final String DATASTORE_URL = "jdbc:sqlite:" + DATASTORE_PATH;
+
+	private static final String INSERT_ORDER_SQL = "INSERT OR REPLACE INTO t_order VALUES(?, ?, ?)";
+	private static final String SELECT_ORDER_SQL = "SELECT * FROM t_order WHERE order_id = ?";
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		removeDataStoreFiles();
+		Connection connection = SQLiteConnectionPool.getInstance(DATASTORE_URL).getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE IF NOT EXISTS t_order(order_id VARCHAR(255) PRIMARY KEY, "
+				+ "state VARCHAR(255), user_id VARCHAR(255))");
+		connection.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SQLiteConnectionPool.getInstance(DATASTORE_URL).clear();
+		removeDataStoreFiles();
+	}
+
+	@Benchmark
+	public boolean connectionPerOperation() throws SQLException {
+		SQLiteConfig config = new SQLiteConfig();
+		config.enforceForeignKeys(true);
+		config.setBusyTimeout("30000");
+		Connection connection = DriverManager.getConnection(DATASTORE_URL, config.toProperties());
+		try {
+			return writeAndRead(connection);
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public boolean pooledConnection() throws SQLException {
+		Connection connection = SQLiteConnectionPool.getInstance(DATASTORE_URL).getConnection();
+		try {
+			return writeAndRead(connection);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private boolean writeAndRead(Connection connection) throws SQLException {
+		String orderId = "order" + (sequence.incrementAndGet() % 1000);
+
+		PreparedStatement insertStatement = connection.prepareStatement(INSERT_ORDER_SQL);
+		insertStatement.setString(1, orderId);
+		insertStatement.setString(2, "OPEN");
+		insertStatement.setString(3, "user");
+		insertStatement.executeUpdate();
+		insertStatement.close();
+
+		PreparedStatement selectStatement = connection.prepareStatement(SELECT_ORDER_SQL);
+		selectStatement.setString(1, orderId);
+		ResultSet rs = selectStatement.executeQuery();
+		boolean found = rs.next();
+		rs.close();
+		selectStatement.close();
+		return found;
+	}
+
+	private static void removeDataStoreFiles() {
+		new File(DATASTORE_PATH).delete();
+		new File(DATASTORE_PATH + "-wal").delete();
+		new File(DATASTORE_PATH + "-shm").delete();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(SQLiteConnectionPoolBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -130,6 +131,7 @@ public class ManagerTestHelper extends DefaultDataTestHelper {
 
 	public AsyncPacketSender createPacketSender() throws XMPPException {
 		final XMPPClient xmppClient = createXMPPClient();
+		final Map<String, PacketListener> packetListeners = new ConcurrentHashMap<String, PacketListener>();
 		AsyncPacketSender sender = new AsyncPacketSender() {
 			@Override
 			public Packet syncSendPacket(Packet packet) {
@@ -150,13 +152,15 @@ public class ManagerTestHelper extends DefaultDataTestHelper {
 			@Override
 			public void addPacketCallback(final Packet request,
 					final PacketCallback packetCallback) {
-				xmppClient.getConnection().addPacketListener(new PacketListener() {
+				PacketListener packetListener = new PacketListener() {
 					
 					@Override
 					public void processPacket(Packet packet) {
 						packetCallback.handle(packet);
 					}
-				}, new PacketFilter() {
+				};
+				packetListeners.put(request.getID(), packetListener);
+				xmppClient.getConnection().addPacketListener(packetListener, new PacketFilter() {
 					
 					@Override
 					public boolean accept(Packet reply) {
@@ -164,6 +168,14 @@ public class ManagerTestHelper extends DefaultDataTestHelper {
 					}
 				});
 			}
+
+			@Override
+			public void removePacketCallback(Packet request) {
+				PacketListener packetListener = packetListeners.remove(request.getID());
+				if (packetListener != null) {
+					xmppClient.getConnection().removePacketListener(packetListener);
+				}
+			}
 		};
 		return sender;
 	}
@@ -0,0 +1,87 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fogbowcloud.manager.core.model.FederationMember;
+import org.fogbowcloud.manager.core.model.ResourcesInfo;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFederationMemberRegistry {
+
+	private FederationMemberRegistry memberRegistry;
+
+	@Before
+	public void setUp() {
+		memberRegistry = new FederationMemberRegistry();
+	}
+
+	@Test
+	public void testEmptyRegistry() {
+		Assert.assertTrue(memberRegistry.getMembers().isEmpty());
+		Assert.assertNull(memberRegistry.get("id1"));
+		Assert.assertNull(memberRegistry.get(null));
+	}
+
+	@Test
+	public void testUpdate() {
+		List<FederationMember> members = createMembers("id1", "id2");
+		memberRegistry.update(members);
+
+		Assert.assertEquals(members, memberRegistry.getMembers());
+		Assert.assertEquals(members.get(1), memberRegistry.get("id2"));
+
+		memberRegistry.update(createMembers("id3"));
+		Assert.assertEquals(1, memberRegistry.size());
+		Assert.assertNull(memberRegistry.get("id1"));
+		Assert.assertNotNull(memberRegistry.get("id3"));
+	}
+
+	@Test
+	public void testSnapshotIsNotChangedByUpdates() {
+		List<FederationMember> members = createMembers("id1", "id2");
+		memberRegistry.update(members);
+		FederationMemberRegistry.Snapshot snapshot = memberRegistry.getSnapshot();
+
+		members.clear();
+		memberRegistry.update(createMembers("id3"));
+
+		Assert.assertEquals(2, snapshot.getMembers().size());
+		Assert.assertNotNull(snapshot.get("id1"));
+		try {
+			snapshot.getMembers().clear();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// snapshots are immutable
+		}
+	}
+
+	@Test
+	public void testAllowedMembersAreDroppedWithSnapshot() {
+		memberRegistry.update(createMembers("id1", "id2"));
+		memberRegistry.getSnapshot().putAllowedMembers(null, createMembers("id1"));
+		memberRegistry.getSnapshot().putAllowedMembers("requirements", createMembers("id2"));
+
+		Assert.assertEquals(createMembers("id1"), memberRegistry.getSnapshot().getAllowedMembers(null));
+		Assert.assertEquals(createMembers("id2"),
+				memberRegistry.getSnapshot().getAllowedMembers("requirements"));
+
+		memberRegistry.invalidate();
+		Assert.assertNull(memberRegistry.getSnapshot().getAllowedMembers(null));
+		Assert.assertEquals(2, memberRegistry.size());
+
+		memberRegistry.getSnapshot().putAllowedMembers(null, createMembers("id1"));
+		memberRegistry.update(createMembers("id1", "id2"));
+		Assert.assertNull(memberRegistry.getSnapshot().getAllowedMembers(null));
+	}
+
+	private List<FederationMember> createMembers(String... ids) {
+		List<FederationMember> members = new ArrayList<FederationMember>();
+		for (String id : ids) {
+			members.add(new FederationMember(new ResourcesInfo(id, "", "", "", "", "", "")));
+		}
+		return members;
+	}
+}
@@ -0,0 +1,131 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fogbowcloud.manager.core.RequirementsHelper.LowerBound;
+import org.fogbowcloud.manager.core.model.Flavor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFlavorIndex {
+
+	private static final String[] REQUIREMENTS = new String[] {
+			null,
+			"",
+			"Glue2vCPU >= 2",
+			"Glue2vCPU > 2",
+			"Glue2RAM >= 2048",
+			"Glue2vCPU >= 2 && Glue2RAM >= 2048",
+			"Glue2vCPU >= 1 && Glue2RAM > 1024 && Glue2Disk >= 40",
+			"Glue2vCPU >= 3 && Glue2RAM >= 512",
+			"Glue2vCPU >= 16",
+			"Glue2vCPU >= 2 && Glue2CloudComputeManagerID == \"manager\"",
+			"Glue2vCPU <= 2 && Glue2RAM >= 2048",
+			"Glue2vCPU == 4",
+			"Glue2vCPU >= 8 || Glue2RAM <= 1024",
+			"Glue2CloudComputeManagerID == \"manager\"" };
+
+	private List<Flavor> flavors;
+
+	@Before
+	public void setUp() {
+		RequirementsHelper.clearCache();
+		flavors = new ArrayList<Flavor>();
+		flavors.add(new Flavor("large", "4", "8192", "80"));
+		flavors.add(new Flavor("small", "1", "2048", "20"));
+		flavors.add(new Flavor("tiny", "1", "512", "1"));
+		flavors.add(new Flavor("medium", "2", "4096", "40"));
+		flavors.add(new Flavor("small-disk", "1", "2048", "40"));
+		flavors.add(new Flavor("wide", "2", "1024", "20"));
+		flavors.add(new Flavor("xlarge", "8", "16384", "160"));
+	}
+
+	@Test
+	public void testFindSmallestFlavorAsRequirementsHelper() {
+		FlavorIndex flavorIndex = new FlavorIndex(flavors);
+		for (String requirements : REQUIREMENTS) {
+			Assert.assertEquals(requirements,
+					RequirementsHelper.findSmallestFlavor(flavors, requirements),
+					flavorIndex.findSmallestFlavor(requirements));
+		}
+	}
+
+	@Test
+	public void testFindSmallestFlavorWithIgnoredValues() {
+		flavors.add(new Flavor("no-disk", "2", "2048", RequirementsHelper.VALUE_IGNORED));
+		FlavorIndex flavorIndex = new FlavorIndex(flavors);
+
+		Flavor flavor = flavorIndex.findSmallestFlavor("Glue2vCPU >= 2 && Glue2Disk >= 100");
+		Assert.assertEquals("no-disk", flavor.getName());
+		Assert.assertEquals(RequirementsHelper.findSmallestFlavor(flavors,
+				"Glue2vCPU >= 2 && Glue2Disk >= 100"), flavor);
+	}
+
+	@Test
+	public void testFindSmallestFlavorBreaksTiesAsRequirementsHelper() {
+		flavors.add(new Flavor("small-again", "2", "1024", "20"));
+		FlavorIndex flavorIndex = new FlavorIndex(flavors);
+
+		Assert.assertEquals("wide", flavorIndex.findSmallestFlavor("Glue2vCPU >= 2").getName());
+		Assert.assertEquals("small", flavorIndex.findSmallestFlavor("Glue2RAM >= 1024").getName());
+		for (String requirements : REQUIREMENTS) {
+			Assert.assertEquals(requirements,
+					RequirementsHelper.findSmallestFlavor(flavors, requirements),
+					flavorIndex.findSmallestFlavor(requirements));
+		}
+	}
+
+	@Test
+	public void testNoFlavorMatches() {
+		FlavorIndex flavorIndex = new FlavorIndex(flavors);
+		Assert.assertNull(flavorIndex.findSmallestFlavor("Glue2vCPU > 8"));
+		Assert.assertNull(flavorIndex.findSmallestFlavor("Glue2vCPU > 8 || Glue2RAM > 16384"));
+		Assert.assertNull(new FlavorIndex(new ArrayList<Flavor>()).findSmallestFlavor(null));
+	}
+
+	@Test
+	public void testFlavorsThatCanNotBeSorted() {
+		flavors.add(new Flavor("unknown", "", "", "10"));
+		FlavorIndex flavorIndex = new FlavorIndex(flavors);
+		for (String requirements : REQUIREMENTS) {
+			Assert.assertEquals(requirements,
+					RequirementsHelper.findSmallestFlavor(flavors, requirements),
+					flavorIndex.findSmallestFlavor(requirements));
+		}
+	}
+
+	@Test
+	public void testRefresh() {
+		FlavorIndex flavorIndex = FlavorIndex.refresh(null, flavors);
+		Assert.assertTrue(flavorIndex.isBuiltFrom(flavors));
+		Assert.assertSame(flavorIndex, FlavorIndex.refresh(flavorIndex, flavors));
+		Assert.assertSame(flavorIndex, FlavorIndex.refresh(flavorIndex, new ArrayList<Flavor>(flavors)));
+		Assert.assertNull(flavorIndex.findSmallestFlavor("Glue2vCPU >= 16"));
+
+		flavors.add(new Flavor("xxlarge", "16", "32768", "320"));
+		Assert.assertFalse(flavorIndex.isBuiltFrom(flavors));
+		FlavorIndex newFlavorIndex = FlavorIndex.refresh(flavorIndex, flavors);
+		Assert.assertNotSame(flavorIndex, newFlavorIndex);
+		Assert.assertEquals("xxlarge", newFlavorIndex.findSmallestFlavor("Glue2vCPU >= 16").getName());
+
+		flavors.set(0, new Flavor("large", "4", "8192", "80"));
+		Assert.assertFalse(newFlavorIndex.isBuiltFrom(flavors));
+	}
+
+	@Test
+	public void testGetLowerBounds() {
+		List<LowerBound> lowerBounds = RequirementsHelper.compile(
+				"Glue2vCPU >= 2 && Glue2RAM > 1024 && Glue2CloudComputeManagerID == \"manager\"")
+				.getLowerBounds();
+		Assert.assertEquals(2, lowerBounds.size());
+		Assert.assertEquals(RequirementsHelper.GLUE_VCPU_TERM, lowerBounds.get(0).getAttrName());
+		Assert.assertTrue(lowerBounds.get(0).isSatisfiedBy(2));
+		Assert.assertEquals(RequirementsHelper.GLUE_MEM_RAM_TERM, lowerBounds.get(1).getAttrName());
+		Assert.assertFalse(lowerBounds.get(1).isSatisfiedBy(1024));
+
+		Assert.assertNull(RequirementsHelper.compile("Glue2vCPU >= 2 || Glue2RAM > 1024").getLowerBounds());
+		Assert.assertNull(RequirementsHelper.compile("Glue2vCPU <= 2").getLowerBounds());
+	}
+}
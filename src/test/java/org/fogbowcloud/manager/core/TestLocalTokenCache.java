@@ -0,0 +1,106 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
+import org.fogbowcloud.manager.occi.model.Token;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLocalTokenCache {
+
+	private static final long NOW = 10000000;
+
+	private IdentityPlugin identityPlugin;
+	private DateUtils dateUtils;
+	private LocalTokenCache localTokenCache;
+	private Map<String, String> credentials;
+
+	@Before
+	public void setUp() {
+		identityPlugin = Mockito.mock(IdentityPlugin.class);
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW);
+		localTokenCache = new LocalTokenCache(identityPlugin);
+		localTokenCache.setDateUtils(dateUtils);
+		credentials = new HashMap<String, String>();
+		credentials.put("username", "fogbow");
+		credentials.put("password", "fogbow");
+	}
+
+	@Test
+	public void testSameCredentialsShareToken() {
+		Token token = createToken("accessId", new Date(NOW + LocalTokenCache.MAX_AGE));
+		Mockito.when(identityPlugin.createToken(credentials)).thenReturn(token);
+
+		Assert.assertEquals(token, localTokenCache.getToken(credentials));
+		Assert.assertEquals(token, localTokenCache.getToken(new HashMap<String, String>(credentials)));
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).createToken(credentials);
+		Assert.assertEquals(1, localTokenCache.size());
+	}
+
+	@Test
+	public void testTokenIsReissuedBeforeExpiring() {
+		Token token = createToken("accessId", new Date(NOW + LocalTokenCache.REFRESH_MARGIN + 1));
+		Token reIssuedToken = createToken("reIssuedAccessId", new Date(NOW + LocalTokenCache.MAX_AGE));
+		Mockito.when(identityPlugin.createToken(credentials)).thenReturn(token);
+		Mockito.when(identityPlugin.reIssueToken(token)).thenReturn(reIssuedToken);
+
+		Assert.assertEquals(token, localTokenCache.getToken(credentials));
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW + 1);
+		Assert.assertEquals(reIssuedToken, localTokenCache.getToken(credentials));
+		Assert.assertEquals(reIssuedToken, localTokenCache.getToken(credentials));
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).createToken(credentials);
+		Mockito.verify(identityPlugin, Mockito.times(1)).reIssueToken(token);
+	}
+
+	@Test
+	public void testTokenIsCreatedWhenReissueFails() {
+		Token token = createToken("accessId", new Date(NOW));
+		Token newToken = createToken("newAccessId", new Date(NOW + LocalTokenCache.MAX_AGE));
+		Mockito.when(identityPlugin.createToken(credentials)).thenReturn(token, newToken);
+		Mockito.when(identityPlugin.reIssueToken(token)).thenThrow(new RuntimeException());
+
+		localTokenCache.getToken(credentials);
+		Assert.assertEquals(newToken, localTokenCache.getToken(credentials));
+	}
+
+	@Test
+	public void testTokenWithoutExpirationIsRecreatedAfterMaxAge() {
+		Token token = createToken("accessId", null);
+		Token newToken = createToken("newAccessId", null);
+		Mockito.when(identityPlugin.createToken(credentials)).thenReturn(token, newToken);
+
+		Assert.assertEquals(token, localTokenCache.getToken(credentials));
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW + LocalTokenCache.MAX_AGE - 1);
+		Assert.assertEquals(token, localTokenCache.getToken(credentials));
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW + LocalTokenCache.MAX_AGE);
+		Assert.assertEquals(newToken, localTokenCache.getToken(credentials));
+	}
+
+	@Test
+	public void testInvalidate() {
+		Token token = createToken("accessId", null);
+		Token newToken = createToken("newAccessId", null);
+		Mockito.when(identityPlugin.createToken(credentials)).thenReturn(token, newToken);
+		localTokenCache.getToken(credentials);
+
+		localTokenCache.invalidate(createToken("otherAccessId", null));
+		Assert.assertEquals(token, localTokenCache.getToken(credentials));
+
+		localTokenCache.invalidate(token);
+		Assert.assertEquals(newToken, localTokenCache.getToken(credentials));
+	}
+
+	private Token createToken(String accessId, Date expirationDate) {
+		return new Token(accessId, new Token.User("user", "user"), expirationDate,
+				new HashMap<String, String>());
+	}
+}
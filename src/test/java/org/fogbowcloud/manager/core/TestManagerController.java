@@ -1,5 +1,6 @@
 package org.fogbowcloud.manager.core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -8,18 +9,27 @@ import java.security.cert.CertificateException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.mail.MessagingException;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.dom4j.Element;
+import org.fogbowcloud.manager.core.ManagerController.BenchmarkTask;
 import org.fogbowcloud.manager.core.ManagerController.FailedBatchType;
 import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.FederationMember;
@@ -32,6 +42,7 @@ import org.fogbowcloud.manager.core.plugins.ComputePlugin;
 import org.fogbowcloud.manager.core.plugins.FederationMemberAuthorizationPlugin;
 import org.fogbowcloud.manager.core.plugins.FederationMemberPickerPlugin;
 import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
+import org.fogbowcloud.manager.core.plugins.InstanceStateListing;
 import org.fogbowcloud.manager.core.plugins.MapperPlugin;
 import org.fogbowcloud.manager.core.plugins.NetworkPlugin;
 import org.fogbowcloud.manager.core.plugins.accounting.AccountingInfo;
@@ -104,13 +115,13 @@ public class TestManagerController {
 		this.xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
 		
 		TestDataStorageHelper.clearManagerDataStore(this.managerController
-				.getManagerDataStoreController().getManagerDatabase());
+				.getManagerDataStoreController());
 	}
 	
 	@After
 	public void tearDown() {
 		TestDataStorageHelper.clearManagerDataStore(this.managerController
-				.getManagerDataStoreController().getManagerDatabase());
+				.getManagerDataStoreController());
 	}
 
 	@Test
@@ -1027,6 +1038,402 @@ public class TestManagerController {
 		Assert.assertEquals(0, ordersFromUser.size());
 	}
 	
+	@Test
+	public void testMonitorInstancesRemovesFailedLocalInstances() {
+		ComputePlugin computePlugin = managerTestHelper.getComputePlugin();
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		addLocalOrders(3);
+		
+		Mockito.when(computePlugin.getInstance(Mockito.any(Token.class), Mockito.eq("instance1")))
+				.thenReturn(new Instance("instance1", null, new HashMap<String, String>(), null,
+						InstanceState.RUNNING));
+		Mockito.when(computePlugin.getInstance(Mockito.any(Token.class), Mockito.eq("instance2")))
+				.thenReturn(new Instance("instance2", null, new HashMap<String, String>(), null,
+						InstanceState.FAILED));
+		Mockito.when(computePlugin.getInstance(Mockito.any(Token.class), Mockito.eq("instance3")))
+				.thenThrow(new OCCIException(ErrorType.NOT_FOUND, ""));
+		
+		managerController.monitorInstancesForLocalOrders();
+		
+		Mockito.verify(computePlugin, Mockito.never()).getInstances(Mockito.any(Token.class));
+		Mockito.verify(computePlugin, Mockito.never()).removeInstance(Mockito.any(Token.class),
+				Mockito.eq("instance1"));
+		Mockito.verify(computePlugin).removeInstance(Mockito.any(Token.class), Mockito.eq("instance2"));
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		Assert.assertEquals(OrderState.FULFILLED, managerDataStoreController.getOrder("id1").getState());
+		Assert.assertEquals(OrderState.CLOSED, managerDataStoreController.getOrder("id3").getState());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testOrdersWithSameLocalCredentialsShareLocalToken() {
+		IdentityPlugin identityPlugin = Mockito.mock(IdentityPlugin.class);
+		Token localToken = new Token("localAccessId", new Token.User("user", "user"),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000), new HashMap<String, String>());
+		Mockito.when(identityPlugin.createToken(Mockito.anyMap())).thenReturn(localToken);
+		managerController.setLocalIdentityPlugin(identityPlugin);
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		addLocalOrders(2);
+
+		Mockito.when(managerTestHelper.getComputePlugin().getInstance(Mockito.eq(localToken),
+				Mockito.anyString())).thenReturn(new Instance("instance"));
+
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).createToken(Mockito.anyMap());
+		Mockito.verify(managerTestHelper.getComputePlugin(), Mockito.times(4)).getInstance(
+				Mockito.eq(localToken), Mockito.anyString());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLocalTokenIsDroppedWhenNotAuthorized() {
+		IdentityPlugin identityPlugin = Mockito.mock(IdentityPlugin.class);
+		Token expiredToken = new Token("expiredAccessId", new Token.User("user", "user"),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000), new HashMap<String, String>());
+		Token newToken = new Token("newAccessId", new Token.User("user", "user"),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000), new HashMap<String, String>());
+		Mockito.when(identityPlugin.createToken(Mockito.anyMap())).thenReturn(expiredToken, newToken);
+		managerController.setLocalIdentityPlugin(identityPlugin);
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		addLocalOrders(2);
+
+		ComputePlugin computePlugin = managerTestHelper.getComputePlugin();
+		Mockito.when(computePlugin.getInstance(Mockito.eq(expiredToken), Mockito.anyString())).thenThrow(
+				new OCCIException(ErrorType.UNAUTHORIZED, ResponseConstants.UNAUTHORIZED));
+		Mockito.when(computePlugin.getInstance(Mockito.eq(newToken), Mockito.anyString())).thenReturn(
+				new Instance("instance"));
+
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+
+		Mockito.verify(identityPlugin, Mockito.times(2)).createToken(Mockito.anyMap());
+		Mockito.verify(computePlugin, Mockito.times(1)).getInstance(Mockito.eq(expiredToken), Mockito.anyString());
+		Mockito.verify(computePlugin, Mockito.times(3)).getInstance(Mockito.eq(newToken), Mockito.anyString());
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		Assert.assertEquals(OrderState.FULFILLED, managerDataStoreController.getOrder("id1").getState());
+		Assert.assertEquals(OrderState.FULFILLED, managerDataStoreController.getOrder("id2").getState());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLocalTokenIsDroppedWhenCreatingInstanceIsNotAuthorized() {
+		IdentityPlugin identityPlugin = Mockito.mock(IdentityPlugin.class);
+		Token expiredToken = new Token("expiredAccessId", new Token.User("user", "user"),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000), new HashMap<String, String>());
+		Token newToken = new Token("newAccessId", new Token.User("user", "user"),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000), new HashMap<String, String>());
+		Mockito.when(identityPlugin.createToken(Mockito.anyMap())).thenReturn(expiredToken, newToken);
+		managerController.setLocalIdentityPlugin(identityPlugin);
+
+		ComputePlugin computePlugin = managerTestHelper.getComputePlugin();
+		Mockito.when(computePlugin.requestInstance(Mockito.eq(expiredToken), Mockito.anyList(), 
+				Mockito.anyMap(), Mockito.anyString())).thenThrow(
+						new OCCIException(ErrorType.UNAUTHORIZED, ResponseConstants.UNAUTHORIZED));
+		Mockito.when(computePlugin.requestInstance(Mockito.eq(newToken), Mockito.anyList(), 
+				Mockito.anyMap(), Mockito.anyString())).thenReturn("newInstanceId");
+
+		HashMap<String, String> xOCCIAtt = new HashMap<String, String>();
+		xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+		Order order = new Order("id1", managerTestHelper.getDefaultFederationToken(), 
+				new ArrayList<Category>(), xOCCIAtt, true, "");
+		order.setState(OrderState.OPEN);
+		managerController.getManagerDataStoreController().addOrder(order);
+
+		Assert.assertFalse(managerController.createInstance(order));
+		Assert.assertTrue(managerController.createInstance(order));
+
+		Mockito.verify(identityPlugin, Mockito.times(2)).createToken(Mockito.anyMap());
+		Assert.assertEquals("newInstanceId", order.getInstanceId());
+	}
+
+	@Test
+	public void testMonitorInstancesListsLocalInstanceStatesInBulk() {
+		ComputePlugin computePlugin = Mockito.mock(ComputePlugin.class,
+				Mockito.withSettings().extraInterfaces(InstanceStateListing.class));
+		managerController.setComputePlugin(computePlugin);
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		addLocalOrders(3);
+		
+		// instance3 is not listed and does not exist anymore
+		List<Instance> instances = new ArrayList<Instance>();
+		instances.add(new Instance("instance1", null, new HashMap<String, String>(), null,
+				InstanceState.RUNNING));
+		instances.add(new Instance("instance2", null, new HashMap<String, String>(), null,
+				InstanceState.FAILED));
+		Mockito.when(((InstanceStateListing) computePlugin).getInstanceStates(Mockito.any(Token.class)))
+				.thenReturn(instances);
+		Mockito.when(computePlugin.getInstance(Mockito.any(Token.class), Mockito.eq("instance3")))
+				.thenThrow(new OCCIException(ErrorType.NOT_FOUND, ""));
+		
+		managerController.monitorInstancesForLocalOrders();
+		
+		Mockito.verify((InstanceStateListing) computePlugin, Mockito.times(1)).getInstanceStates(
+				Mockito.any(Token.class));
+		Mockito.verify(computePlugin, Mockito.times(1)).getInstance(Mockito.any(Token.class),
+				Mockito.anyString());
+		Mockito.verify(computePlugin).removeInstance(Mockito.any(Token.class), Mockito.eq("instance2"));
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		Assert.assertEquals(OrderState.FULFILLED, managerDataStoreController.getOrder("id1").getState());
+		Assert.assertEquals(OrderState.CLOSED, managerDataStoreController.getOrder("id3").getState());
+	}
+
+	@Test
+	public void testMonitorInstancesGetsLocalInstancesOneByOneWhenListingFails() {
+		ComputePlugin computePlugin = Mockito.mock(ComputePlugin.class,
+				Mockito.withSettings().extraInterfaces(InstanceStateListing.class));
+		managerController.setComputePlugin(computePlugin);
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		addLocalOrders(2);
+		
+		Mockito.when(((InstanceStateListing) computePlugin).getInstanceStates(Mockito.any(Token.class)))
+				.thenThrow(new OCCIException(ErrorType.BAD_REQUEST, ""));
+		Mockito.when(computePlugin.getInstance(Mockito.any(Token.class), Mockito.anyString()))
+				.thenReturn(new Instance("instance"));
+		
+		managerController.monitorInstancesForLocalOrders();
+		
+		Mockito.verify(computePlugin, Mockito.times(2)).getInstance(Mockito.any(Token.class),
+				Mockito.anyString());
+		Assert.assertEquals(2, managerController.getManagerDataStoreController()
+				.getOrdersIn(OrderState.FULFILLED).size());
+	}
+
+	private void addLocalOrders(int count) {
+		for (int i = 1; i <= count; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+	}
+
+	@Test
+	public void testMonitorRemoteInstancesConcurrently() throws InterruptedException {
+		managerController.getProperties().put(ConfigurationConstants.INSTANCE_MONITORING_MAX_CONCURRENCY_KEY, "2");
+		final CountDownLatch bothLookupsStarted = new CountDownLatch(2);
+		final AtomicBoolean concurrentLookups = new AtomicBoolean(false);
+		for (int i = 1; i <= 2; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			// a single order per member is looked up with the single-id protocol
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + i);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+		
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				bothLookupsStarted.countDown();
+				concurrentLookups.compareAndSet(false, bothLookupsStarted.await(5, TimeUnit.SECONDS));
+				IQ response = IQ.createResultIQ((IQ) invocation.getArguments()[0]);
+				response.setType(IQ.Type.error);
+				response.setError(Condition.item_not_found);
+				return response;
+			}
+		});
+		managerController.setPacketSender(packetSender);
+		
+		managerController.monitorInstancesForLocalOrders();
+		
+		Assert.assertTrue(concurrentLookups.get());
+		Assert.assertEquals(OrderState.CLOSED, 
+				managerController.getManagerDataStoreController().getOrder("id1").getState());
+		Assert.assertEquals(OrderState.CLOSED, 
+				managerController.getManagerDataStoreController().getOrder("id2").getState());
+	}
+	
+	@Test
+	public void testMonitorRemoteInstancesInBatchedQuery() {
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		for (int i = 1; i <= 2; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+		
+		// instance2 is left out of the batched response and does not exist anymore
+		final List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				String namespace = query.getElement().element("query").getNamespaceURI();
+				namespaces.add(namespace);
+				IQ response = IQ.createResultIQ(query);
+				if (namespace.equals(ManagerXmppComponent.GETINSTANCES_NAMESPACE)) {
+					Element instanceEl = response.getElement().addElement("query", namespace)
+							.addElement("instance");
+					instanceEl.addElement("id").setText("instance1");
+					instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+				} else {
+					response.setError(Condition.item_not_found);
+				}
+				return response;
+			}
+		});
+		managerController.setPacketSender(packetSender);
+		
+		managerController.monitorInstancesForLocalOrders();
+		
+		Assert.assertEquals(Arrays.asList(ManagerXmppComponent.GETINSTANCES_NAMESPACE, 
+				ManagerXmppComponent.GETINSTANCE_NAMESPACE), namespaces);
+		Assert.assertEquals(OrderState.FULFILLED, 
+				managerController.getManagerDataStoreController().getOrder("id1").getState());
+		Assert.assertEquals(OrderState.CLOSED, 
+				managerController.getManagerDataStoreController().getOrder("id2").getState());
+	}
+	
+	@Test
+	public void testMonitorRemoteInstancesFallsBackWhenBatchedQueryIsNotSupported() {
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		for (int i = 1; i <= 2; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+		
+		final List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				String namespace = query.getElement().element("query").getNamespaceURI();
+				namespaces.add(namespace);
+				IQ response = IQ.createResultIQ(query);
+				if (namespace.equals(ManagerXmppComponent.GETINSTANCES_NAMESPACE)) {
+					response.setError(Condition.feature_not_implemented);
+				} else {
+					Element queryEl = query.getElement().element("query");
+					Element instanceEl = response.getElement().addElement("query", namespace)
+							.addElement("instance");
+					instanceEl.addElement("id").setText(queryEl.element("instance").elementText("id"));
+					instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+				}
+				return response;
+			}
+		});
+		managerController.setPacketSender(packetSender);
+		
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+		
+		// the batched query is not tried again in the second pass
+		Assert.assertEquals(1, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCES_NAMESPACE));
+		Assert.assertEquals(4, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCE_NAMESPACE));
+		Assert.assertEquals(2, managerController.getManagerDataStoreController()
+				.getOrdersIn(OrderState.FULFILLED).size());
+	}
+	
+	@Test
+	public void testMonitorRemoteInstancesBacksOffWhenBatchedQueryTimesOut() {
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		for (int i = 1; i <= 2; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+		
+		// the batched query gets no response in time
+		final List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				String namespace = query.getElement().element("query").getNamespaceURI();
+				namespaces.add(namespace);
+				if (namespace.equals(ManagerXmppComponent.GETINSTANCES_NAMESPACE)) {
+					return null;
+				}
+				IQ response = IQ.createResultIQ(query);
+				Element queryEl = query.getElement().element("query");
+				Element instanceEl = response.getElement().addElement("query", namespace)
+						.addElement("instance");
+				instanceEl.addElement("id").setText(queryEl.element("instance").elementText("id"));
+				instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+				return response;
+			}
+		});
+		managerController.setPacketSender(packetSender);
+		
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+		
+		Assert.assertEquals(1, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCES_NAMESPACE));
+		Assert.assertEquals(4, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCE_NAMESPACE));
+		Assert.assertEquals(2, managerController.getManagerDataStoreController()
+				.getOrdersIn(OrderState.FULFILLED).size());
+	}
+	
+	@Test
+	public void testMonitorRemoteInstancesRetriesBatchedQueryAfterBackoff() {
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		managerController.setDateUtils(dateUtils);
+		managerController.setInstanceMonitoringExecutor(new CurrentThreadExecutorService());
+		for (int i = 1; i <= 2; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+		
+		// the first batched query fails with a transient error, the next ones succeed
+		final List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				String namespace = query.getElement().element("query").getNamespaceURI();
+				namespaces.add(namespace);
+				IQ response = IQ.createResultIQ(query);
+				if (namespace.equals(ManagerXmppComponent.GETINSTANCES_NAMESPACE)
+						&& Collections.frequency(namespaces, namespace) == 1) {
+					response.setError(Condition.internal_server_error);
+					return response;
+				}
+				Element queryEl = response.getElement().addElement("query", namespace);
+				Iterator<Element> instanceIdIterator = query.getElement().element("query").elementIterator("instance");
+				while (instanceIdIterator.hasNext()) {
+					Element instanceEl = queryEl.addElement("instance");
+					instanceEl.addElement("id").setText(instanceIdIterator.next().elementText("id"));
+					instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+				}
+				return response;
+			}
+		});
+		managerController.setPacketSender(packetSender);
+		
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+		Assert.assertEquals(1, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCES_NAMESPACE));
+		
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(ManagerController.BATCHED_QUERIES_MIN_RETRY_INTERVAL);
+		managerController.monitorInstancesForLocalOrders();
+		managerController.monitorInstancesForLocalOrders();
+		
+		// batched queries are back on after the first successful retry
+		Assert.assertEquals(3, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCES_NAMESPACE));
+		Assert.assertEquals(4, Collections.frequency(namespaces, ManagerXmppComponent.GETINSTANCE_NAMESPACE));
+		Assert.assertEquals(2, managerController.getManagerDataStoreController()
+				.getOrdersIn(OrderState.FULFILLED).size());
+	}
+	
 	@Test
 	public void testMonitorOrderWithMaximumAttemps() throws InterruptedException {
 		ComputePlugin computePlugin = managerTestHelper.getComputePlugin();
@@ -2280,6 +2687,32 @@ public class TestManagerController {
 		Assert.assertEquals(2, allowedFederationMembers.size());	
 	}	
 	
+	@Test
+	public void testGetAllowedFederationMembersIsCachedUntilMembersChange() {
+		List<FederationMember> listMembers = new ArrayList<FederationMember>();
+		listMembers.add(new FederationMember(new ResourcesInfo("id1","", "", "", "", "", "")));
+		listMembers.add(new FederationMember(new ResourcesInfo("id2","", "", "", "", "", "")));
+		managerController.updateMembers(listMembers);
+
+		FederationMemberAuthorizationPlugin validatorMock = Mockito.mock(FederationMemberAuthorizationPlugin.class);
+		Mockito.doReturn(true).when(validatorMock).canReceiveFrom(Mockito.any(FederationMember.class));
+		managerController.setValidator(validatorMock);
+
+		Assert.assertEquals(2, managerController.getAllowedFederationMembers(null).size());
+		// changing the returned list must not change the cached one
+		managerController.getAllowedFederationMembers(null).clear();
+		Assert.assertEquals(2, managerController.getAllowedFederationMembers(null).size());
+		Mockito.verify(validatorMock, Mockito.times(2)).canReceiveFrom(Mockito.any(FederationMember.class));
+
+		listMembers.add(new FederationMember(new ResourcesInfo("id3","", "", "", "", "", "")));
+		managerController.updateMembers(listMembers);
+		Assert.assertEquals(3, managerController.getAllowedFederationMembers(null).size());
+
+		Mockito.doReturn(false).when(validatorMock).canReceiveFrom(Mockito.any(FederationMember.class));
+		managerController.setValidator(validatorMock);
+		Assert.assertTrue(managerController.getAllowedFederationMembers(null).isEmpty());
+	}
+
 	public void testInstanceIsBeingUsedByFulfilledOrder(){
 		// setting order repository
 		Order order1 = new Order("id1", managerTestHelper.getDefaultFederationToken(), null, null, true, "");
@@ -2436,6 +2869,44 @@ public class TestManagerController {
 		Assert.assertEquals(0, managerControllerSpy.getServedOrders().size());		
 	}
 	
+	@Test
+	public void testMonitorServedOrdersInBatchedQuery() throws InterruptedException {
+		ManagerController managerControllerSpy = this.managerController;
+		mockOrderInstance();
+		
+		// only the instance of id1 is being used
+		final List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenAnswer(new Answer<IQ>() {
+			@Override
+			public IQ answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				String namespace = query.getElement().element("query").getNamespaceURI();
+				namespaces.add(namespace);
+				IQ response = IQ.createResultIQ(query);
+				response.getElement().addElement("query", namespace).addElement(ManagerPacketHelper.ORDER_EL)
+						.addElement(ManagerPacketHelper.ID_EL).setText("id1");
+				return response;
+			}
+		});
+		managerControllerSpy.setPacketSender(packetSender);
+		
+		Mockito.doReturn(true).when(managerControllerSpy).isThereEnoughQuota("manager1-test.com");
+		managerControllerSpy.queueServedOrder("manager1-test.com", new ArrayList<Category>(),
+				new HashMap<String, String>(xOCCIAtt), "id1", managerTestHelper.getDefaultFederationToken());
+		managerControllerSpy.queueServedOrder("manager1-test.com", new ArrayList<Category>(),
+				new HashMap<String, String>(xOCCIAtt), "id2", managerTestHelper.getDefaultFederationToken());
+		managerControllerSpy.checkAndSubmitOpenOrders();
+		Assert.assertEquals(2, managerControllerSpy.getServedOrders().size());
+		namespaces.clear();
+		
+		managerControllerSpy.monitorServedOrders();
+		
+		Assert.assertEquals(Arrays.asList(ManagerXmppComponent.INSTANCESBEINGUSED_NAMESPACE), namespaces);
+		Assert.assertEquals(1, managerControllerSpy.getServedOrders().size());
+		Assert.assertEquals("id1", managerControllerSpy.getServedOrders().get(0).getId());
+	}
+	
 	@Test
 	public void testMonitorServedBadRequestInComunication() throws InterruptedException{
 		
@@ -2735,8 +3206,8 @@ public class TestManagerController {
 		instance.addAttribute(Instance.SSH_PUBLIC_ADDRESS_ATT, "127.0.0.1:5555");
 		instance.addAttribute(Instance.SSH_USERNAME_ATT, "fogbow");
 		
-		Mockito.when(spiedManageController.waitForSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
-		Mockito.doNothing().when(spiedManageController).waitForSSHConnectivity(instance);
+		Mockito.when(spiedManageController.findSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
+		Mockito.doReturn(true).when(spiedManageController).checkSSHConnectivity(instance);
 		
 		spiedManageController.createLocalInstanceWithFederationUser(servedOrder);
 		
@@ -2798,8 +3269,8 @@ public class TestManagerController {
 		instance.addAttribute(Instance.SSH_PUBLIC_ADDRESS_ATT, "127.0.0.1:5555");
 		instance.addAttribute(Instance.SSH_USERNAME_ATT, "fogbow");
 		
-		Mockito.when(spiedManageController.waitForSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
-		Mockito.doNothing().when(spiedManageController).waitForSSHConnectivity(instance);
+		Mockito.when(spiedManageController.findSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
+		Mockito.doReturn(true).when(spiedManageController).checkSSHConnectivity(instance);
 		
 		spiedManageController.createLocalInstanceWithFederationUser(servedOrder);
 		
@@ -2857,7 +3328,7 @@ public class TestManagerController {
 		
 		spiedManagerController.createLocalInstanceWithFederationUser(servedOrder);
 		
-		Mockito.verify(spiedManagerController, Mockito.never()).waitForSSHPublicAddress(Mockito.eq(servedOrder));
+		Mockito.verify(spiedManagerController, Mockito.never()).findSSHPublicAddress(Mockito.eq(servedOrder));
 		
 		final String localManagerPublicKeyData = IOUtils.toString(new FileInputStream(
 				new File(DefaultDataTestHelper.LOCAL_MANAGER_SSH_PUBLIC_KEY_PATH)));
@@ -2905,8 +3376,8 @@ public class TestManagerController {
 		instance.addAttribute(Instance.SSH_PUBLIC_ADDRESS_ATT, "127.0.0.1:5555");
 		instance.addAttribute(Instance.SSH_USERNAME_ATT, "fogbow");
 		
-		Mockito.when(spiedManageController.waitForSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
-		Mockito.doNothing().when(spiedManageController).waitForSSHConnectivity(instance);
+		Mockito.when(spiedManageController.findSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
+		Mockito.doReturn(true).when(spiedManageController).checkSSHConnectivity(instance);
 		
 		spiedManageController.createLocalInstanceWithFederationUser(localOrder);
 		
@@ -2968,8 +3439,8 @@ public class TestManagerController {
 		instance.addAttribute(Instance.SSH_PUBLIC_ADDRESS_ATT, "127.0.0.1:5555");
 		instance.addAttribute(Instance.SSH_USERNAME_ATT, "fogbow");
 		
-		Mockito.when(spiedManageController.waitForSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
-		Mockito.doNothing().when(spiedManageController).waitForSSHConnectivity(instance);
+		Mockito.when(spiedManageController.findSSHPublicAddress(Mockito.any(Order.class))).thenReturn(instance);
+		Mockito.doReturn(true).when(spiedManageController).checkSSHConnectivity(instance);
 		
 		spiedManageController.createLocalInstanceWithFederationUser(localOrder);
 		
@@ -3026,7 +3497,7 @@ public class TestManagerController {
 		
 		managerControllerSpy.createLocalInstanceWithFederationUser(localOrder);
 		
-		Mockito.verify(managerControllerSpy, Mockito.never()).waitForSSHPublicAddress(Mockito.eq(localOrder));
+		Mockito.verify(managerControllerSpy, Mockito.never()).findSSHPublicAddress(Mockito.eq(localOrder));
 		
 		final String localManagerPublicKeyData = IOUtils.toString(new FileInputStream(
 				new File(DefaultDataTestHelper.LOCAL_MANAGER_SSH_PUBLIC_KEY_PATH)));
@@ -3264,6 +3735,184 @@ public class TestManagerController {
 				.getFailedBatchIdsPerType(FailedBatchType.FEDERATION_USER).get(0));			
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSubmitOpenOrdersConcurrently() {
+		managerController.getProperties().put(ConfigurationConstants.SCHEDULER_WORKER_POOL_SIZE_KEY, "4");
+		ResourcesInfo resourcesInfo = new ResourcesInfo("", "", "", "", "", "");
+		resourcesInfo.setId(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
+		
+		ComputePlugin computePlugin = Mockito.mock(ComputePlugin.class);
+		Mockito.when(
+				computePlugin.requestInstance(Mockito.any(Token.class),
+						Mockito.anyList(), Mockito.anyMap(), Mockito.anyString()))
+				.thenReturn("newinstanceid");
+		Mockito.when(computePlugin.getResourcesInfo(Mockito.any(Token.class)))
+				.thenReturn(resourcesInfo);
+		managerController.setComputePlugin(computePlugin);
+
+		Token token = managerTestHelper.getDefaultFederationToken();
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		int numberOfOrders = 2 * managerController.MAX_ORDERS_PER_THREAD + 5;
+		for (int i = 0; i < numberOfOrders; i++) {
+			HashMap<String, String> xOCCIAtt = new HashMap<String, String>();
+			xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+			xOCCIAtt.put(OrderAttribute.BATCH_ID.getValue(), "batchId" + (i % 3));
+			Order order = new Order("id" + i, token, new ArrayList<Category>(), xOCCIAtt, true, "");
+			order.setState(OrderState.OPEN);
+			managerDataStoreController.addOrder(order);
+		}
+
+		managerController.checkAndSubmitOpenOrders();
+
+		Mockito.verify(computePlugin, Mockito.times(numberOfOrders)).requestInstance(
+				Mockito.any(Token.class), Mockito.anyList(), Mockito.anyMap(), Mockito.anyString());
+		Assert.assertTrue(managerDataStoreController.getOrdersIn(OrderState.OPEN).isEmpty());
+		Assert.assertTrue(managerController.getFailedBatches()
+				.getFailedBatchIdsPerType(FailedBatchType.FEDERATION_USER).isEmpty());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSubmitOpenOrdersConcurrentlyFailingBatch() {
+		managerController.getProperties().put(ConfigurationConstants.SCHEDULER_WORKER_POOL_SIZE_KEY, "4");
+		ResourcesInfo resourcesInfo = new ResourcesInfo("", "", "", "", "", "");
+		resourcesInfo.setId(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
+		
+		ComputePlugin computePlugin = Mockito.mock(ComputePlugin.class);
+		Mockito.when(
+				computePlugin.requestInstance(Mockito.any(Token.class),
+						Mockito.anyList(), Mockito.anyMap(), Mockito.anyString()))
+				.thenThrow(new OCCIException(ErrorType.UNAUTHORIZED, ""));
+		Mockito.when(computePlugin.getResourcesInfo(Mockito.any(Token.class)))
+				.thenReturn(resourcesInfo);
+		managerController.setComputePlugin(computePlugin);
+
+		String batchId = "batchIdOne";
+		Token token = managerTestHelper.getDefaultFederationToken();
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		int numberOfOrders = 10;
+		for (int i = 0; i < numberOfOrders; i++) {
+			HashMap<String, String> xOCCIAtt = new HashMap<String, String>();
+			xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+			xOCCIAtt.put(OrderAttribute.BATCH_ID.getValue(), batchId);
+			Order order = new Order("id" + i, token, new ArrayList<Category>(), xOCCIAtt, true, "");
+			order.setState(OrderState.OPEN);
+			managerDataStoreController.addOrder(order);
+		}
+
+		managerController.checkAndSubmitOpenOrders();
+
+		// orders of the same batch are scheduled by the same worker
+		Mockito.verify(computePlugin, Mockito.times(1)).requestInstance(
+				Mockito.any(Token.class), Mockito.anyList(), Mockito.anyMap(), Mockito.anyString());
+		Assert.assertEquals(numberOfOrders, managerDataStoreController.getOrdersIn(OrderState.OPEN).size());
+		Assert.assertEquals(batchId, managerController.getFailedBatches()
+				.getFailedBatchIdsPerType(FailedBatchType.FEDERATION_USER).get(0));
+	}
+	
+	@Test
+	public void testOrderBeingScheduledIsNotSubmittedAgain() {
+		Token token = managerTestHelper.getDefaultFederationToken();
+		HashMap<String, String> xOCCIAtt = new HashMap<String, String>();
+		xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+		final Order order = new Order("id1", token, new ArrayList<Category>(), xOCCIAtt, true, "");
+		order.setState(OrderState.OPEN);
+		managerController.getManagerDataStoreController().addOrder(order);
+
+		final List<Boolean> nestedSubmissions = new ArrayList<Boolean>();
+		Mockito.doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				// submitting the same order while it is claimed
+				nestedSubmissions.add(managerController.submitOpenOrder(order));
+				return false;
+			}
+		}).when(managerController).createLocalInstanceWithFederationUser(Mockito.any(Order.class));
+
+		managerController.submitOpenOrder(order);
+
+		Assert.assertEquals(1, nestedSubmissions.size());
+		Assert.assertFalse(nestedSubmissions.get(0));
+		Mockito.verify(managerController, Mockito.times(1)).createLocalInstanceWithFederationUser(
+				Mockito.any(Order.class));
+	}
+	
+	@Test
+	public void testCreateOrdersDispatchesOrderEvents() {
+		OrderEventDispatcher orderEventDispatcher = Mockito.mock(OrderEventDispatcher.class);
+		managerController.setOrderEventDispatcher(orderEventDispatcher);
+		xOCCIAtt.put(OrderAttribute.INSTANCE_COUNT.getValue(), "2");
+
+		List<Order> orders = managerController.createOrders(DefaultDataTestHelper.FED_ACCESS_TOKEN_ID,
+				new ArrayList<Category>(), xOCCIAtt);
+
+		Assert.assertEquals(2, orders.size());
+		for (Order order : orders) {
+			Mockito.verify(orderEventDispatcher).dispatch(order.getId());
+		}
+	}
+	
+	@Test
+	public void testOrderEventsAreNotDispatchedWhenEventDrivenSchedulingIsDisabled() {
+		managerController.getProperties().put(ConfigurationConstants.SCHEDULER_EVENT_DRIVEN_KEY, "false");
+		OrderEventDispatcher orderEventDispatcher = Mockito.mock(OrderEventDispatcher.class);
+		managerController.setOrderEventDispatcher(orderEventDispatcher);
+
+		managerController.createOrders(DefaultDataTestHelper.FED_ACCESS_TOKEN_ID,
+				new ArrayList<Category>(), xOCCIAtt);
+
+		Mockito.verify(orderEventDispatcher, Mockito.never()).dispatch(Mockito.anyString());
+	}
+	
+	@Test
+	public void testSubmitDispatchedOrders() {
+		mockOrderInstance();
+		List<Order> createdOrders = managerController.createOrders(DefaultDataTestHelper.FED_ACCESS_TOKEN_ID,
+				new ArrayList<Category>(), xOCCIAtt);
+		
+		managerController.submitDispatchedOrders(Arrays.asList(createdOrders.get(0).getId(), "unknownId"));
+		
+		List<Order> orders = managerController.getOrdersFromUser(DefaultDataTestHelper.FED_ACCESS_TOKEN_ID);
+		Assert.assertEquals(1, orders.size());
+		Assert.assertEquals(OrderState.FULFILLED, orders.get(0).getState());
+		Assert.assertEquals(DefaultDataTestHelper.INSTANCE_ID, orders.get(0).getInstanceId());
+		Assert.assertEquals(1, managerController.getTimeToSpawnRecorder().getSamplesRecorded());
+	}
+	
+	@Test
+	public void testSubmitDispatchedOrdersReopensPendingOrderReachingTimeout() {
+		long now = System.currentTimeMillis();
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now);
+		managerController.setDateUtils(dateUtils);
+		Mockito.doReturn(true).when(managerController).createLocalInstanceWithFederationUser(
+				Mockito.any(Order.class));
+		
+		Order order = new Order("orderId", managerTestHelper.getDefaultFederationToken(),
+				new ArrayList<Category>(), new HashMap<String, String>(), false,
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+		order.setState(OrderState.PENDING);
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		managerDataStoreController.addOrder(order);
+		managerDataStoreController.addOrderSyncronous(order.getId(), now, 
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL);
+		
+		// timeout not reached yet
+		managerController.submitDispatchedOrders(Arrays.asList(order.getId()));
+		Assert.assertEquals(OrderState.PENDING, managerDataStoreController.getOrder(order.getId(), false).getState());
+		Mockito.verify(managerController, Mockito.never()).createLocalInstanceWithFederationUser(
+				Mockito.any(Order.class));
+		
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(
+				now + ManagerController.DEFAULT_ASYNC_ORDER_WAITING_INTERVAL + 100);
+		managerController.submitDispatchedOrders(Arrays.asList(order.getId()));
+		
+		Assert.assertEquals(OrderState.OPEN, managerDataStoreController.getOrder(order.getId(), false).getState());
+		Mockito.verify(managerController, Mockito.times(1)).createLocalInstanceWithFederationUser(
+				Mockito.any(Order.class));
+	}
+	
 	@Test
 	public void testNormalizeBatchId() {
 		Map<String, String> xOCCIAtt = new HashMap<String, String>();
@@ -4490,6 +5139,10 @@ public class TestManagerController {
 		
 		// Two instance
 		Assert.assertFalse(this.managerController.isThereEnoughQuota(requestingMemberId));
+		Assert.assertEquals(2, this.managerController.getServedInstancesCount(requestingMemberId,
+				OrderState.FULFILLED));
+		Assert.assertEquals(1, this.managerController.getServedInstancesCount(requestingMemberId,
+				OrderState.OPEN));
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -4523,5 +5176,174 @@ public class TestManagerController {
 		
 		Assert.assertEquals(CapacityControllerPlugin.MAXIMUM_CAPACITY_VALUE_ERROR, maxCapacityDefaultUser);
 	}
-	
+
+	@Test
+	public void testGetInstancesFullInfoQueriesRemoteMembersConcurrently() {
+		managerController.getProperties().put(ConfigurationConstants.XMPP_TIMEOUT, "1000");
+		addRemoteOrders(2);
+		List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = createPacketSenderAnsweringAfter(2, namespaces);
+		managerController.setPacketSender(packetSender);
+
+		List<Instance> instances = managerController.getInstancesFullInfo(
+				managerTestHelper.getDefaultFederationToken().getAccessId());
+
+		Assert.assertEquals(2, instances.size());
+		Assert.assertEquals("instance1", instances.get(0).getId());
+		Assert.assertEquals("instance2", instances.get(1).getId());
+		Assert.assertEquals(Arrays.asList(ManagerXmppComponent.GETINSTANCE_NAMESPACE,
+				ManagerXmppComponent.GETINSTANCE_NAMESPACE), namespaces);
+		Mockito.verify(packetSender, Mockito.never()).syncSendPacket(Mockito.any(IQ.class));
+	}
+
+	@Test
+	public void testRemoveInstancesRemovesRemoteInstancesConcurrently() {
+		managerController.getProperties().put(ConfigurationConstants.XMPP_TIMEOUT, "1000");
+		addRemoteOrders(2);
+		List<String> namespaces = new ArrayList<String>();
+		AsyncPacketSender packetSender = createPacketSenderAnsweringAfter(2, namespaces);
+		managerController.setPacketSender(packetSender);
+
+		managerController.removeInstances(managerTestHelper.getDefaultFederationToken().getAccessId());
+
+		Assert.assertEquals(Arrays.asList(ManagerXmppComponent.REMOVEINSTANCE_NAMESPACE,
+				ManagerXmppComponent.REMOVEINSTANCE_NAMESPACE), namespaces);
+		Mockito.verify(packetSender, Mockito.never()).syncSendPacket(Mockito.any(IQ.class));
+	}
+
+	@Test
+	public void testShutdownStopsWorkerPools() {
+		ExecutorService orderSchedulerExecutor = Mockito.mock(ExecutorService.class);
+		ExecutorService instanceMonitoringExecutor = Mockito.mock(ExecutorService.class);
+		managerController.setOrderSchedulerExecutor(orderSchedulerExecutor);
+		managerController.setInstanceMonitoringExecutor(instanceMonitoringExecutor);
+
+		managerController.shutdown();
+
+		Mockito.verify(orderSchedulerExecutor).shutdown();
+		Mockito.verify(instanceMonitoringExecutor).shutdown();
+	}
+
+	@Test
+	public void testShutdownStopsOrderEventDispatcher() {
+		OrderEventDispatcher orderEventDispatcher = Mockito.mock(OrderEventDispatcher.class);
+		managerController.setOrderEventDispatcher(orderEventDispatcher);
+
+		managerController.shutdown();
+
+		Mockito.verify(orderEventDispatcher).stop();
+	}
+
+	@Test
+	public void testShutdownClosesPlugins() throws Exception {
+		ComputePlugin computePlugin = Mockito.mock(ComputePlugin.class,
+				Mockito.withSettings().extraInterfaces(Closeable.class));
+		managerController.setComputePlugin(computePlugin);
+
+		managerController.shutdown();
+
+		Mockito.verify((Closeable) computePlugin).close();
+	}
+
+	@Test
+	public void testSetBenchmarkExecutorReplacesBenchmarkStages() {
+		List<PipelineStage<BenchmarkTask>> oldStages = managerController.getBenchmarkStages();
+		ExecutorService benchmarkExecutor = Mockito.mock(ExecutorService.class);
+
+		managerController.setBenchmarkExecutor(benchmarkExecutor);
+		List<PipelineStage<BenchmarkTask>> newStages = managerController.getBenchmarkStages();
+
+		Assert.assertEquals(oldStages.size(), newStages.size());
+		for (int i = 0; i < oldStages.size(); i++) {
+			Assert.assertNotSame(oldStages.get(i), newStages.get(i));
+			oldStages.get(i).submit(null, 0);
+			Assert.assertEquals(0, oldStages.get(i).getQueueDepth());
+		}
+
+		managerController.shutdown();
+		Mockito.verify(benchmarkExecutor, Mockito.never()).shutdownNow();
+	}
+
+	@Test
+	public void testRemoveInstancesRemovesRemoteInstancesWhenLocalRemovalFails() {
+		managerController.getProperties().put(ConfigurationConstants.XMPP_TIMEOUT, "1000");
+		Order localOrder = new Order("localId", managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, 
+				true, "");
+		localOrder.setInstanceId("localInstance");
+		localOrder.setState(OrderState.FULFILLED);
+		localOrder.setProvidingMemberId(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
+		managerController.getManagerDataStoreController().addOrder(localOrder);
+		addRemoteOrders(2);
+		Mockito.doThrow(new OCCIException(ErrorType.BAD_REQUEST, "")).when(managerTestHelper.getComputePlugin())
+				.removeInstance(Mockito.any(Token.class), Mockito.eq("localInstance"));
+		List<String> namespaces = new ArrayList<String>();
+		managerController.setPacketSender(createPacketSenderAnsweringAfter(2, namespaces));
+
+		try {
+			managerController.removeInstances(managerTestHelper.getDefaultFederationToken().getAccessId());
+			Assert.fail();
+		} catch (OCCIException e) {
+			Assert.assertEquals(ErrorType.BAD_REQUEST, e.getType());
+		}
+
+		Assert.assertEquals(Arrays.asList(ManagerXmppComponent.REMOVEINSTANCE_NAMESPACE,
+				ManagerXmppComponent.REMOVEINSTANCE_NAMESPACE), namespaces);
+		ManagerDataStoreController managerDataStoreController = managerController.getManagerDataStoreController();
+		Assert.assertNull(managerDataStoreController.getOrder("id1").getInstanceId());
+		Assert.assertNull(managerDataStoreController.getOrder("id2").getInstanceId());
+		Assert.assertEquals("localInstance", managerDataStoreController.getOrder("localId").getInstanceId());
+	}
+
+	private void addRemoteOrders(int count) {
+		for (int i = 1; i <= count; i++) {
+			Order order = new Order("id" + i, managerTestHelper.getDefaultFederationToken(), null, xOCCIAtt, true, "");
+			order.setInstanceId("instance" + i);
+			order.setState(OrderState.FULFILLED);
+			order.setProvidingMemberId(DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + i);
+			managerController.getManagerDataStoreController().addOrder(order);
+		}
+	}
+
+	/**
+	 * Creates a packet sender that only answers once the expected number of
+	 * packets was sent, so that waiting for a response before sending the
+	 * next request makes the request time out.
+	 */
+	private AsyncPacketSender createPacketSenderAnsweringAfter(final int expectedPackets,
+			final List<String> namespaces) {
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		final Map<Packet, PacketCallback> callbacks = new LinkedHashMap<Packet, PacketCallback>();
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				callbacks.put((Packet) invocation.getArguments()[0],
+						(PacketCallback) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(packetSender).addPacketCallback(Mockito.any(Packet.class), Mockito.any(PacketCallback.class));
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				IQ query = (IQ) invocation.getArguments()[0];
+				namespaces.add(query.getElement().element("query").getNamespaceURI());
+				if (namespaces.size() < expectedPackets) {
+					return null;
+				}
+				for (Entry<Packet, PacketCallback> callback : callbacks.entrySet()) {
+					IQ request = (IQ) callback.getKey();
+					IQ response = IQ.createResultIQ(request);
+					Element requestEl = request.getElement().element("query");
+					Element queryEl = response.getElement().addElement("query", requestEl.getNamespaceURI());
+					if (requestEl.getNamespaceURI().equals(ManagerXmppComponent.GETINSTANCE_NAMESPACE)) {
+						Element instanceEl = queryEl.addElement("instance");
+						instanceEl.addElement("id").setText(requestEl.element("instance").elementText("id"));
+						instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+					}
+					callback.getValue().handle(response);
+				}
+				return null;
+			}
+		}).when(packetSender).sendPacket(Mockito.any(Packet.class));
+		return packetSender;
+	}
 }
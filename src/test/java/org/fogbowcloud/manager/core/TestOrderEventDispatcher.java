@@ -0,0 +1,132 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOrderEventDispatcher {
+
+	private static final long TIMEOUT = 5000;
+
+	private BlockingQueue<List<String>> handledEvents;
+	private OrderEventDispatcher orderEventDispatcher;
+
+	@Before
+	public void setUp() {
+		handledEvents = new LinkedBlockingQueue<List<String>>();
+		orderEventDispatcher = new OrderEventDispatcher(new OrderEventDispatcher.OrderEventHandler() {
+			@Override
+			public void handle(List<String> orderIds) {
+				handledEvents.add(new ArrayList<String>(orderIds));
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		orderEventDispatcher.stop();
+	}
+
+	@Test
+	public void testEventsAreIgnoredBeforeStart() {
+		Assert.assertFalse(orderEventDispatcher.isStarted());
+		Assert.assertFalse(orderEventDispatcher.dispatch("orderOne"));
+		Assert.assertFalse(orderEventDispatcher.dispatchLater("orderOne", 10));
+		Assert.assertEquals(0, orderEventDispatcher.getQueueSize());
+	}
+
+	@Test
+	public void testDispatch() throws InterruptedException {
+		orderEventDispatcher.start();
+		Assert.assertTrue(orderEventDispatcher.dispatch("orderOne"));
+
+		List<String> orderIds = handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(orderIds);
+		Assert.assertEquals(1, orderIds.size());
+		Assert.assertEquals("orderOne", orderIds.get(0));
+	}
+
+	@Test
+	public void testQueuedEventsAreDrainedTogetherAndOnlyOnce() throws InterruptedException {
+		final CountDownLatch handlerBlocked = new CountDownLatch(1);
+		final CountDownLatch releaseHandler = new CountDownLatch(1);
+		orderEventDispatcher = new OrderEventDispatcher(new OrderEventDispatcher.OrderEventHandler() {
+			@Override
+			public void handle(List<String> orderIds) {
+				if (orderIds.contains("blocking")) {
+					handlerBlocked.countDown();
+					try {
+						releaseHandler.await(TIMEOUT, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				handledEvents.add(new ArrayList<String>(orderIds));
+			}
+		});
+		orderEventDispatcher.start();
+		orderEventDispatcher.dispatch("blocking");
+		Assert.assertTrue(handlerBlocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		Assert.assertTrue(orderEventDispatcher.dispatch("orderOne"));
+		Assert.assertTrue(orderEventDispatcher.dispatch("orderTwo"));
+		Assert.assertFalse(orderEventDispatcher.dispatch("orderOne"));
+		releaseHandler.countDown();
+
+		Assert.assertEquals("blocking", handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS).get(0));
+		List<String> orderIds = handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(2, orderIds.size());
+		Assert.assertEquals("orderOne", orderIds.get(0));
+		Assert.assertEquals("orderTwo", orderIds.get(1));
+
+		// the order can be queued again once it was dispatched
+		Assert.assertTrue(orderEventDispatcher.dispatch("orderOne"));
+		Assert.assertEquals("orderOne", handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS).get(0));
+	}
+
+	@Test
+	public void testDispatchLater() throws InterruptedException {
+		orderEventDispatcher.start();
+		long before = System.currentTimeMillis();
+		Assert.assertTrue(orderEventDispatcher.dispatchLater("orderOne", 100));
+
+		List<String> orderIds = handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(orderIds);
+		Assert.assertEquals("orderOne", orderIds.get(0));
+		Assert.assertTrue(System.currentTimeMillis() - before >= 100);
+	}
+
+	@Test
+	public void testHandlerErrorDoesNotStopDispatcher() throws InterruptedException {
+		orderEventDispatcher = new OrderEventDispatcher(new OrderEventDispatcher.OrderEventHandler() {
+			@Override
+			public void handle(List<String> orderIds) {
+				handledEvents.add(new ArrayList<String>(orderIds));
+				throw new RuntimeException();
+			}
+		});
+		orderEventDispatcher.start();
+
+		orderEventDispatcher.dispatch("orderOne");
+		Assert.assertNotNull(handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+		orderEventDispatcher.dispatch("orderTwo");
+		Assert.assertNotNull(handledEvents.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testStop() {
+		orderEventDispatcher.start();
+		Assert.assertTrue(orderEventDispatcher.isStarted());
+		orderEventDispatcher.stop();
+		Assert.assertFalse(orderEventDispatcher.isStarted());
+		Assert.assertFalse(orderEventDispatcher.dispatch("orderOne"));
+	}
+}
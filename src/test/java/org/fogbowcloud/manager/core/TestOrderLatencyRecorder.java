@@ -0,0 +1,53 @@
+package org.fogbowcloud.manager.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestOrderLatencyRecorder {
+
+	@Test
+	public void testPercentiles() {
+		OrderLatencyRecorder recorder = new OrderLatencyRecorder();
+		Assert.assertEquals(-1, recorder.getPercentile(50));
+
+		for (int i = 1; i <= 100; i++) {
+			recorder.orderQueued("order" + i, 1000);
+			recorder.orderSpawned("order" + i, 1000 + i);
+		}
+
+		Assert.assertEquals(100, recorder.getSamplesRecorded());
+		Assert.assertEquals(50, recorder.getPercentile(50));
+		Assert.assertEquals(90, recorder.getPercentile(90));
+		Assert.assertEquals(99, recorder.getPercentile(99));
+		Assert.assertEquals(1, recorder.getPercentile(0));
+		Assert.assertEquals(100, recorder.getPercentile(100));
+	}
+
+	@Test
+	public void testOnlyQueuedOrdersAreRecordedOnce() {
+		OrderLatencyRecorder recorder = new OrderLatencyRecorder();
+		recorder.orderSpawned("unknown", 1000);
+		recorder.orderQueued("orderOne", 1000);
+		recorder.orderSpawned("orderOne", 1500);
+		recorder.orderSpawned("orderOne", 2000);
+		recorder.orderQueued("orderTwo", 1000);
+		recorder.orderRemoved("orderTwo");
+		recorder.orderSpawned("orderTwo", 2000);
+
+		Assert.assertEquals(1, recorder.getSamplesRecorded());
+		Assert.assertEquals(500, recorder.getPercentile(50));
+	}
+
+	@Test
+	public void testOnlyLatestSamplesAreKept() {
+		OrderLatencyRecorder recorder = new OrderLatencyRecorder(2);
+		for (int i = 1; i <= 3; i++) {
+			recorder.orderQueued("order" + i, 0);
+			recorder.orderSpawned("order" + i, i * 100);
+		}
+
+		Assert.assertEquals(3, recorder.getSamplesRecorded());
+		Assert.assertEquals(200, recorder.getPercentile(0));
+		Assert.assertEquals(300, recorder.getPercentile(100));
+	}
+}
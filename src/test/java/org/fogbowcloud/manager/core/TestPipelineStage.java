@@ -0,0 +1,179 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class TestPipelineStage {
+
+	private static final long RETRY_PERIOD = 1000;
+
+	private ScheduledExecutorService retryScheduler;
+	private List<String> attempted;
+	private List<String> left;
+
+	@Before
+	public void setUp() {
+		retryScheduler = Mockito.mock(ScheduledExecutorService.class);
+		attempted = Collections.synchronizedList(new ArrayList<String>());
+		left = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@Test
+	public void testItemLeavesWhenDone() {
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new RecordingStep(0),
+				new CurrentThreadExecutorService(), retryScheduler, RETRY_PERIOD, 3);
+
+		stage.submit("item", 0);
+
+		Assert.assertEquals(1, attempted.size());
+		Assert.assertEquals(Collections.singletonList("item:true"), left);
+		Assert.assertEquals(0, stage.getQueueDepth());
+		Assert.assertEquals(0, stage.getWaitingForRetry());
+		Assert.assertEquals(1, stage.getLatencyRecorder().getSamplesRecorded());
+		Mockito.verifyZeroInteractions(retryScheduler);
+	}
+
+	@Test
+	public void testAttemptIsRetriedLater() {
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new RecordingStep(1),
+				new CurrentThreadExecutorService(), retryScheduler, RETRY_PERIOD, 3);
+
+		stage.submit("item", 0);
+
+		Assert.assertEquals(1, attempted.size());
+		Assert.assertTrue(left.isEmpty());
+		Assert.assertEquals(1, stage.getWaitingForRetry());
+
+		ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.verify(retryScheduler).schedule(retry.capture(), Mockito.eq(RETRY_PERIOD),
+				Mockito.eq(TimeUnit.MILLISECONDS));
+		retry.getValue().run();
+
+		Assert.assertEquals(2, attempted.size());
+		Assert.assertEquals(Collections.singletonList("item:true"), left);
+		Assert.assertEquals(0, stage.getWaitingForRetry());
+	}
+
+	@Test
+	public void testItemLeavesAfterMaxAttempts() {
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new RecordingStep(Integer.MAX_VALUE),
+				new CurrentThreadExecutorService(), retryScheduler, RETRY_PERIOD, 2);
+
+		stage.submit("item", 0);
+		ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.verify(retryScheduler).schedule(retry.capture(), Mockito.eq(RETRY_PERIOD),
+				Mockito.eq(TimeUnit.MILLISECONDS));
+		retry.getValue().run();
+
+		Assert.assertEquals(2, attempted.size());
+		Assert.assertEquals(Collections.singletonList("item:false"), left);
+		Mockito.verify(retryScheduler, Mockito.times(1)).schedule(Mockito.any(Runnable.class),
+				Mockito.anyLong(), Mockito.any(TimeUnit.class));
+	}
+
+	@Test
+	public void testFailedAttemptIsRetried() {
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new PipelineStage.Step<String>() {
+			@Override
+			public boolean attempt(String item) throws Exception {
+				attempted.add(item);
+				throw new Exception();
+			}
+
+			@Override
+			public void leave(String item, boolean done) {
+				left.add(item + ":" + done);
+			}
+		}, new CurrentThreadExecutorService(), retryScheduler, RETRY_PERIOD, 2);
+
+		stage.submit("item", 0);
+
+		Assert.assertEquals(1, stage.getWaitingForRetry());
+		Assert.assertTrue(left.isEmpty());
+	}
+
+	@Test
+	public void testShutdownDropsItemsAndKeepsSharedExecutor() {
+		ExecutorService executor = Mockito.mock(ExecutorService.class);
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new RecordingStep(0),
+				executor, retryScheduler, RETRY_PERIOD, 3);
+
+		stage.shutdown();
+		stage.submit("item", 0);
+
+		Assert.assertEquals(0, stage.getQueueDepth());
+		Mockito.verify(executor, Mockito.never()).execute(Mockito.any(Runnable.class));
+		Mockito.verify(executor, Mockito.never()).shutdownNow();
+	}
+
+	@Test
+	public void testOldestItemsAreAttemptedFirst() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(4);
+		PipelineStage<String> stage = new PipelineStage<String>("stage", new PipelineStage.Step<String>() {
+			@Override
+			public boolean attempt(String item) throws Exception {
+				if (item.equals("blocker")) {
+					blocked.countDown();
+					release.await(5, TimeUnit.SECONDS);
+				}
+				attempted.add(item);
+				return true;
+			}
+
+			@Override
+			public void leave(String item, boolean done) {
+				finished.countDown();
+			}
+		}, 1, retryScheduler, RETRY_PERIOD, 1);
+		try {
+			stage.submit("blocker", 0);
+			Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			stage.submit("newest", 30);
+			stage.submit("oldest", 10);
+			stage.submit("middle", 20);
+			Assert.assertEquals(3, stage.getQueueDepth());
+
+			release.countDown();
+			Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(4, attempted.size());
+			Assert.assertEquals("oldest", attempted.get(1));
+			Assert.assertEquals("middle", attempted.get(2));
+			Assert.assertEquals("newest", attempted.get(3));
+		} finally {
+			stage.shutdown();
+		}
+	}
+
+	private class RecordingStep implements PipelineStage.Step<String> {
+
+		private int failuresLeft;
+
+		public RecordingStep(int failures) {
+			this.failuresLeft = failures;
+		}
+
+		@Override
+		public boolean attempt(String item) {
+			attempted.add(item);
+			return failuresLeft-- <= 0;
+		}
+
+		@Override
+		public void leave(String item, boolean done) {
+			left.add(item + ":" + done);
+		}
+	}
+}
@@ -440,6 +440,46 @@ public class TestRequirementsHelper {
 		Assert.assertEquals(RequirementsHelper.ZERO, RequirementsHelper.getSmallestValueForAttribute(requirementsStr, RequirementsHelper.GLUE_VCPU_TERM));
 	}	
 	
+	@Test
+	public void testCompiledRequirementsAreCached() {
+		RequirementsHelper.clearCache();
+		String requirementsStr = RequirementsHelper.GLUE_VCPU_TERM + " >= 2 && "
+				+ RequirementsHelper.GLUE_LOCATION_TERM + " == \"member1\"";
+
+		RequirementsHelper.CompiledRequirements compiledRequirements = RequirementsHelper
+				.compile(requirementsStr);
+		Assert.assertSame(compiledRequirements, RequirementsHelper.compile(requirementsStr));
+		Assert.assertEquals(1, compiledRequirements.getLocations().size());
+
+		// cached requirements give the same results as freshly parsed ones
+		for (int i = 0; i < 2; i++) {
+			Assert.assertTrue(RequirementsHelper.matches(new Flavor("small", "2", "1024", "20"),
+					requirementsStr));
+			Assert.assertFalse(RequirementsHelper.matches(new Flavor("tiny", "1", "512", "10"),
+					requirementsStr));
+			Assert.assertTrue(RequirementsHelper.matchLocation(requirementsStr, "member1"));
+			Assert.assertFalse(RequirementsHelper.matchLocation(requirementsStr, "member2"));
+			Assert.assertEquals("2", RequirementsHelper.getSmallestValueForAttribute(requirementsStr,
+					RequirementsHelper.GLUE_VCPU_TERM));
+		}
+
+		// locations returned must not change the cached ones
+		RequirementsHelper.getLocations(requirementsStr).clear();
+		Assert.assertTrue(RequirementsHelper.hasLocation(requirementsStr));
+	}
+
+	@Test
+	public void testCompiledRequirementsCacheIsBounded() {
+		RequirementsHelper.clearCache();
+		String firstRequirements = RequirementsHelper.GLUE_VCPU_TERM + " >= 0";
+		RequirementsHelper.CompiledRequirements compiledRequirements = RequirementsHelper
+				.compile(firstRequirements);
+		for (int i = 1; i <= RequirementsHelper.MAX_CACHED_REQUIREMENTS; i++) {
+			RequirementsHelper.compile(RequirementsHelper.GLUE_VCPU_TERM + " >= " + i);
+		}
+		Assert.assertNotSame(compiledRequirements, RequirementsHelper.compile(firstRequirements));
+	}
+
 	private Op toOp(String requirementsStr) {
 		ClassAdParser classAdParser = new ClassAdParser(requirementsStr);
 		return (Op) classAdParser.parse();
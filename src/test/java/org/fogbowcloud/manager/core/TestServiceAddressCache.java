@@ -0,0 +1,200 @@
+package org.fogbowcloud.manager.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestServiceAddressCache {
+
+	private static final String TOKEN_HOST_URL = "http://10.0.0.1:2223";
+	private static final long TTL = 30000;
+
+	private HttpClient httpClient;
+	private DateUtils dateUtils;
+	private ServiceAddressCache serviceAddressCache;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties properties = new Properties();
+		properties.put(ConfigurationConstants.TOKEN_HOST_PRIVATE_ADDRESS_KEY, "10.0.0.1");
+		properties.put(ConfigurationConstants.TOKEN_HOST_PUBLIC_ADDRESS_KEY, "150.0.0.1");
+		properties.put(ConfigurationConstants.TOKEN_HOST_HTTP_PORT_KEY, "2223");
+		httpClient = Mockito.mock(HttpClient.class);
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		serviceAddressCache = new ServiceAddressCache(properties, httpClient, TTL);
+		serviceAddressCache.setDateUtils(dateUtils);
+	}
+
+	@After
+	public void tearDown() {
+		serviceAddressCache.shutdown();
+	}
+
+	@Test
+	public void testGetIsCached() throws Exception {
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\", \"http\": \"20002\"}");
+
+		Map<String, String> serviceAddresses = serviceAddressCache.get("order1");
+		Assert.assertEquals("150.0.0.1:20001", serviceAddresses.get("ssh"));
+		Assert.assertEquals("150.0.0.1:20002", serviceAddresses.get("http"));
+		serviceAddresses.remove("ssh");
+
+		Assert.assertEquals("150.0.0.1:20001", serviceAddressCache.get("order1").get("ssh"));
+		ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+		Mockito.verify(httpClient).execute(request.capture());
+		Assert.assertEquals(TOKEN_HOST_URL + "/token/order1/all", request.getValue().getURI().toString());
+	}
+
+	@Test
+	public void testGetAfterTtl() throws Exception {
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\"}");
+		serviceAddressCache.get("order1");
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(TTL);
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20005\"}");
+		Assert.assertEquals("150.0.0.1:20005", serviceAddressCache.get("order1").get("ssh"));
+		Mockito.verify(httpClient, Mockito.times(2)).execute(Mockito.any(HttpGet.class));
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\"}");
+		serviceAddressCache.get("order1");
+		Assert.assertEquals(1, serviceAddressCache.size());
+
+		serviceAddressCache.invalidate("order1");
+		Assert.assertEquals(0, serviceAddressCache.size());
+		serviceAddressCache.get("order1");
+		Mockito.verify(httpClient, Mockito.times(2)).execute(Mockito.any(HttpGet.class));
+	}
+
+	@Test
+	public void testGetWithoutSSH() throws Exception {
+		respond(HttpStatus.SC_OK, "{\"http\": \"20002\"}");
+		Assert.assertNull(serviceAddressCache.get("order1"));
+
+		respond(HttpStatus.SC_NOT_FOUND, "");
+		Assert.assertNull(serviceAddressCache.get("order2"));
+		Assert.assertNull(serviceAddressCache.get(null));
+	}
+
+	@Test
+	public void testUnreachableInstanceIsNotCached() throws Exception {
+		respond(HttpStatus.SC_NOT_FOUND, "");
+		Assert.assertNull(serviceAddressCache.get("order1"));
+		Assert.assertEquals(0, serviceAddressCache.size());
+
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\"}");
+		Assert.assertEquals("150.0.0.1:20001", serviceAddressCache.get("order1").get("ssh"));
+		Assert.assertEquals(1, serviceAddressCache.size());
+		Mockito.verify(httpClient, Mockito.times(2)).execute(Mockito.any(HttpGet.class));
+	}
+
+	@Test
+	public void testAddressesAreKeptAcrossMonitoringPasses() throws Exception {
+		Properties properties = new Properties();
+		properties.put(ConfigurationConstants.TOKEN_HOST_PRIVATE_ADDRESS_KEY, "10.0.0.1");
+		properties.put(ConfigurationConstants.TOKEN_HOST_PUBLIC_ADDRESS_KEY, "150.0.0.1");
+		properties.put(ConfigurationConstants.TOKEN_HOST_HTTP_PORT_KEY, "2223");
+		properties.put(ConfigurationConstants.INSTANCE_MONITORING_PERIOD_KEY, "120000");
+		serviceAddressCache.shutdown();
+		serviceAddressCache = new ServiceAddressCache(properties, httpClient);
+		serviceAddressCache.setDateUtils(dateUtils);
+		Assert.assertEquals(240000, serviceAddressCache.getTtl());
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\"}");
+
+		// first monitoring pass
+		Assert.assertEquals(3, serviceAddressCache.getAll(Arrays.asList("order1", "order2", "order3")).size());
+		Mockito.verify(httpClient, Mockito.times(3)).execute(Mockito.any(HttpGet.class));
+
+		// second monitoring pass
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(120000L);
+		Assert.assertEquals(3, serviceAddressCache.getAll(Arrays.asList("order1", "order2", "order3")).size());
+		Assert.assertEquals("150.0.0.1:20001", serviceAddressCache.get("order2").get("ssh"));
+		Mockito.verify(httpClient, Mockito.times(3)).execute(Mockito.any(HttpGet.class));
+	}
+
+	@Test
+	public void testGetAllLooksUpConcurrently() throws Exception {
+		final CountDownLatch allStarted = new CountDownLatch(3);
+		Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class))).thenAnswer(
+				new Answer<BasicHttpResponse>() {
+					@Override
+					public BasicHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+						allStarted.countDown();
+						int statusCode = allStarted.await(5, TimeUnit.SECONDS)
+								? HttpStatus.SC_OK : HttpStatus.SC_INTERNAL_SERVER_ERROR;
+						BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+								new ProtocolVersion("HTTP", 1, 1), statusCode, ""));
+						response.setEntity(new StringEntity("{\"ssh\": \"20001\"}"));
+						return response;
+					}
+				});
+
+		Map<String, Map<String, String>> serviceAddresses = serviceAddressCache.getAll(
+				Arrays.asList("order1", "order2", "order3", "order1"));
+
+		Assert.assertEquals(Arrays.asList("order1", "order2", "order3"),
+				Arrays.asList(serviceAddresses.keySet().toArray()));
+		Assert.assertEquals("150.0.0.1:20001", serviceAddresses.get("order3").get("ssh"));
+		Assert.assertEquals(3, serviceAddressCache.size());
+	}
+
+	@Test
+	public void testGetAllLeavesUnreachableInstancesOut() throws Exception {
+		respond(HttpStatus.SC_NOT_FOUND, "");
+		Assert.assertTrue(serviceAddressCache.getAll(Arrays.asList("order1", "order2")).isEmpty());
+		Assert.assertEquals(0, serviceAddressCache.size());
+	}
+
+	@Test
+	public void testCacheDisabled() throws Exception {
+		Properties properties = new Properties();
+		properties.put(ConfigurationConstants.TOKEN_HOST_PRIVATE_ADDRESS_KEY, "10.0.0.1");
+		properties.put(ConfigurationConstants.TOKEN_HOST_HTTP_PORT_KEY, "2223");
+		properties.put(ConfigurationConstants.SERVICE_ADDRESSES_CACHE_TTL_KEY, "0");
+		serviceAddressCache.shutdown();
+		serviceAddressCache = new ServiceAddressCache(properties, httpClient);
+		respond(HttpStatus.SC_OK, "{\"ssh\": \"20001\"}");
+
+		serviceAddressCache.get("order1");
+		serviceAddressCache.get("order1");
+
+		Mockito.verify(httpClient, Mockito.times(2)).execute(Mockito.any(HttpGet.class));
+		Assert.assertEquals(0, serviceAddressCache.size());
+	}
+
+	private void respond(final int statusCode, final String content) throws Exception {
+		Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class))).thenAnswer(
+				new Answer<BasicHttpResponse>() {
+					@Override
+					public BasicHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+						BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+								new ProtocolVersion("HTTP", 1, 1), statusCode, ""));
+						response.setEntity(new StringEntity(content));
+						return response;
+					}
+				});
+	}
+}
@@ -1,6 +1,5 @@
 package org.fogbowcloud.manager.core.plugins.accounting;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -38,10 +37,7 @@ public class TestAccountingDataStore {
 
 	@After
 	public void tearDown() throws IOException {
-		File dbFile = new File(DATASTORE_PATH);
-		if (dbFile.exists()) {
-			dbFile.delete();
-		}
+		TestDataStorageHelper.removeDataStoreFile(DATASTORE_PATH);
 	}
 	
 	@Test
@@ -469,6 +465,98 @@ public class TestAccountingDataStore {
 		}
 	}
 	
+	@Test
+	public void testGetAccountingInfoAfterUpdates() {
+		List<AccountingInfo> usage = new ArrayList<AccountingInfo>();
+		AccountingInfo accountingInfo = new AccountingInfo("user1", "requestingMember1",
+				"providingMember1");
+		accountingInfo.addConsumption(10);
+		usage.add(accountingInfo);
+
+		Assert.assertTrue(db.update(usage));
+		Assert.assertTrue(db.update(usage));
+
+		AccountingInfo returnedAccountingInfo = db.getAccountingInfo("user1",
+				"requestingMember1", "providingMember1");
+		Assert.assertEquals(20, returnedAccountingInfo.getUsage(), ACCEPTABLE_ERROR);
+		Assert.assertNull(db.getAccountingInfo("user2", "requestingMember1", "providingMember1"));
+
+		// returned accounting must not change the accounted usage
+		returnedAccountingInfo.addConsumption(100);
+		db.getAccountingInfo().get(0).addConsumption(100);
+		Assert.assertEquals(20, db.getAccountingInfo("user1", "requestingMember1", "providingMember1")
+				.getUsage(), ACCEPTABLE_ERROR);
+	}
+
+	@Test
+	public void testAccountingIsLoadedFromExistingDataStore() {
+		List<AccountingInfo> usage = new ArrayList<AccountingInfo>();
+		AccountingInfo accountingInfo = new AccountingInfo("user1", "requestingMember1",
+				"providingMember1");
+		accountingInfo.addConsumption(10);
+		usage.add(accountingInfo);
+		Assert.assertTrue(db.update(usage));
+
+		AccountingDataStore reopenedDb = new AccountingDataStore(properties, "test");
+		Assert.assertEquals(1, reopenedDb.getAccountingInfo().size());
+		Assert.assertEquals(10, reopenedDb.getAccountingInfo("user1", "requestingMember1",
+				"providingMember1").getUsage(), ACCEPTABLE_ERROR);
+
+		// existing entry must be updated, not inserted again
+		Assert.assertTrue(reopenedDb.update(usage));
+		Assert.assertEquals(20, reopenedDb.getAccountingInfo("user1", "requestingMember1",
+				"providingMember1").getUsage(), ACCEPTABLE_ERROR);
+	}
+
+	@Test
+	public void testFailedUpdateDoesNotChangeAccounting() throws SQLException {
+		List<AccountingInfo> usage = new ArrayList<AccountingInfo>();
+		AccountingInfo accountingInfo = new AccountingInfo("user1", "requestingMember1",
+				"providingMember1");
+		accountingInfo.addConsumption(10);
+		usage.add(accountingInfo);
+		Assert.assertTrue(db.update(usage));
+
+		usage.add(new AccountingInfo(null, "requestingMember1", "providingMember1"));
+		Assert.assertFalse(db.update(usage));
+
+		Assert.assertEquals(1, db.getAccountingInfo().size());
+		Assert.assertEquals(10, db.getAccountingInfo("user1", "requestingMember1",
+				"providingMember1").getUsage(), ACCEPTABLE_ERROR);
+
+		String sql = "select * from " + AccountingDataStore.USAGE_TABLE_NAME;
+		ResultSet rs = db.getConnection().createStatement().executeQuery(sql);
+		List<AccountingInfo> accounting = db.createAccounting(rs);
+		Assert.assertEquals(1, accounting.size());
+		Assert.assertEquals(10, accounting.get(0).getUsage(), ACCEPTABLE_ERROR);
+	}
+
+	@Test
+	public void testMembersUsageFollowsUpdates() {
+		List<AccountingInfo> usage = new ArrayList<AccountingInfo>();
+		AccountingInfo accountingInfo = new AccountingInfo("user1", "localMember", "remoteMember");
+		accountingInfo.addConsumption(10);
+		usage.add(accountingInfo);
+		accountingInfo = new AccountingInfo("user2", "remoteMember", "localMember");
+		accountingInfo.addConsumption(4);
+		usage.add(accountingInfo);
+		Assert.assertTrue(db.update(usage));
+
+		// a failed update must not be accounted
+		usage.add(new AccountingInfo(null, "localMember", "remoteMember"));
+		Assert.assertFalse(db.update(usage));
+
+		ResourceUsage remoteUsage = db.getMembersUsage().getResourceUsage("localMember",
+				"remoteMember");
+		Assert.assertEquals(10, remoteUsage.getConsumed(), ACCEPTABLE_ERROR);
+		Assert.assertEquals(4, remoteUsage.getDonated(), ACCEPTABLE_ERROR);
+
+		remoteUsage = new AccountingDataStore(properties, "test").getMembersUsage().getResourceUsage(
+				"localMember", "remoteMember");
+		Assert.assertEquals(10, remoteUsage.getConsumed(), ACCEPTABLE_ERROR);
+		Assert.assertEquals(4, remoteUsage.getDonated(), ACCEPTABLE_ERROR);
+	}
+
 	@Test
 	public void testDefaultDataStoreUrl() {
 		Properties emptyProperties = new Properties();
@@ -0,0 +1,47 @@
+package org.fogbowcloud.manager.core.plugins.accounting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMembersUsageIndex {
+
+	private static final double ACCEPTABLE_ERROR = 0.000001;
+
+	@Test
+	public void testEmptyIndex() {
+		ResourceUsage resourceUsage = new MembersUsageIndex().getResourceUsage("local", "remote");
+		Assert.assertEquals("remote", resourceUsage.getMemberId());
+		Assert.assertEquals(0, resourceUsage.getConsumed(), ACCEPTABLE_ERROR);
+		Assert.assertEquals(0, resourceUsage.getDonated(), ACCEPTABLE_ERROR);
+	}
+
+	@Test
+	public void testUsageIsSummedAcrossUsers() {
+		List<AccountingInfo> accounting = new ArrayList<AccountingInfo>();
+		accounting.add(createAccountingInfo("user1", "local", "remote", 10));
+		accounting.add(createAccountingInfo("user2", "local", "remote", 5));
+		accounting.add(createAccountingInfo("user1", "remote", "local", 7));
+		accounting.add(createAccountingInfo("user1", "local", "other", 3));
+
+		MembersUsageIndex membersUsage = new MembersUsageIndex(accounting);
+		membersUsage.add("remote", "local", 1);
+
+		ResourceUsage remoteUsage = membersUsage.getResourceUsage("local", "remote");
+		Assert.assertEquals(15, remoteUsage.getConsumed(), ACCEPTABLE_ERROR);
+		Assert.assertEquals(8, remoteUsage.getDonated(), ACCEPTABLE_ERROR);
+
+		ResourceUsage otherUsage = membersUsage.getResourceUsage("local", "other");
+		Assert.assertEquals(3, otherUsage.getConsumed(), ACCEPTABLE_ERROR);
+		Assert.assertEquals(0, otherUsage.getDonated(), ACCEPTABLE_ERROR);
+	}
+
+	private AccountingInfo createAccountingInfo(String user, String requestingMember,
+			String providingMember, double usage) {
+		AccountingInfo accountingInfo = new AccountingInfo(user, requestingMember, providingMember);
+		accountingInfo.addConsumption(usage);
+		return accountingInfo;
+	}
+}
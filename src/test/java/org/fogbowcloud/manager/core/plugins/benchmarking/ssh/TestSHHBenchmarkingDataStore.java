@@ -1,10 +1,10 @@
 package org.fogbowcloud.manager.core.plugins.benchmarking.ssh;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import org.fogbowcloud.manager.occi.TestDataStorageHelper;
 import org.fogbowcloud.manager.occi.model.OCCIException;
 import org.json.JSONException;
 import org.junit.After;
@@ -78,10 +78,7 @@ public class TestSHHBenchmarkingDataStore {
 	}
 	
 	protected static void removeBD() {
-		File dbFile = new File(DATASTORE_PATH);
-		if (dbFile.exists()) {
-			dbFile.delete();
-		}
+		TestDataStorageHelper.removeDataStoreFile(DATASTORE_PATH);
 	}
 	
 }
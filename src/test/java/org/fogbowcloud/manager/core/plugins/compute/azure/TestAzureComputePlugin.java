@@ -219,6 +219,27 @@ public class TestAzureComputePlugin {
 		Assert.assertEquals(2, instance.size());
 	}
 
+	@Test
+	public void testGetInstancesReusesDeployments() throws Exception {
+		AzureComputePlugin plugin = createAzureComputePlugin();
+		ComputeManagementClient computeManagementClient = createComputeManagementClient(plugin);
+		recordFlavors(plugin);
+
+		recordInstances(computeManagementClient,
+				createDefaultInstances(VM_DEFAULT_ID_1, VM_DEFAULT_ID_2));
+		Assert.assertEquals(2, plugin.getInstances(createToken(null)).size());
+		Assert.assertEquals("2", plugin.getResourcesInfo(createToken(null)).getInstancesInUse());
+
+		DeploymentOperations deploymentsOperations = computeManagementClient.getDeploymentsOperations();
+		Mockito.verify(deploymentsOperations, Mockito.times(1)).getByName(VM_DEFAULT_ID_1, VM_DEFAULT_ID_1);
+		Mockito.verify(deploymentsOperations, Mockito.times(1)).getByName(VM_DEFAULT_ID_2, VM_DEFAULT_ID_2);
+
+		plugin.removeInstance(createToken(null), VM_DEFAULT_ID_1);
+		plugin.getInstances(createToken(null));
+		Mockito.verify(deploymentsOperations, Mockito.times(2)).getByName(VM_DEFAULT_ID_1, VM_DEFAULT_ID_1);
+		Mockito.verify(deploymentsOperations, Mockito.times(1)).getByName(VM_DEFAULT_ID_2, VM_DEFAULT_ID_2);
+	}
+
 	@Test(expected = OCCIException.class)
 	public void testGetInstanceNullSubscriptionID() throws Exception {
 		AzureComputePlugin plugin = createAzureComputePlugin();
@@ -0,0 +1,178 @@
+package org.fogbowcloud.manager.core.plugins.compute.azure;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.microsoft.windowsazure.management.compute.models.DeploymentGetResponse;
+
+public class TestAzureDeploymentInventory {
+
+	private static final long TTL = 10000;
+	private static final String SUBSCRIPTION_ID = "subscription";
+
+	private AzureDeploymentInventory deploymentInventory;
+	private DateUtils dateUtils;
+	private FakeLoader loader;
+
+	@Before
+	public void setUp() {
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		deploymentInventory = new AzureDeploymentInventory(3, TTL);
+		deploymentInventory.setDateUtils(dateUtils);
+		loader = new FakeLoader();
+	}
+
+	@After
+	public void tearDown() {
+		deploymentInventory.shutdown();
+	}
+
+	@Test
+	public void testGetDeployments() {
+		loader.deployments.put("service1", createDeployment("service1"));
+		loader.deployments.put("service3", createDeployment("service3"));
+
+		Map<String, DeploymentGetResponse> deployments = deploymentInventory.getDeployments(
+				SUBSCRIPTION_ID, Arrays.asList("service3", "service2", "service1"), loader);
+
+		Assert.assertEquals(Arrays.asList("service3", "service1"),
+				Arrays.asList(deployments.keySet().toArray()));
+		Assert.assertEquals("service1", deployments.get("service1").getName());
+		Assert.assertEquals(3, loader.loads.get());
+	}
+
+	@Test
+	public void testDeploymentsAreKeptUntilTheyExpire() {
+		loader.deployments.put("service1", createDeployment("service1"));
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1", "service2"), loader);
+		deploymentInventory.getRecentDeployments(SUBSCRIPTION_ID, Arrays.asList("service1", "service2"), loader);
+		Assert.assertEquals(2, loader.loads.get());
+		Assert.assertEquals(2, deploymentInventory.size());
+
+		// other subscriptions have their own deployments
+		deploymentInventory.getRecentDeployments("otherSubscription", Arrays.asList("service1"), loader);
+		Assert.assertEquals(3, loader.loads.get());
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(TTL + 1);
+		deploymentInventory.getRecentDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		Assert.assertEquals(4, loader.loads.get());
+		Assert.assertEquals(1, deploymentInventory.size());
+	}
+
+	@Test
+	public void testCurrentDeploymentsAreAlwaysLookedUp() {
+		loader.deployments.put("service1", createDeployment("service1"));
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		Assert.assertEquals(2, loader.loads.get());
+
+		// the recent lookups reuse the last current one
+		deploymentInventory.getRecentDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		Assert.assertEquals(2, loader.loads.get());
+	}
+
+	@Test
+	public void testLookupThreadsAreDaemon() {
+		final AtomicBoolean daemonThread = new AtomicBoolean(false);
+		AzureDeploymentInventory.DeploymentLoader daemonLoader = new AzureDeploymentInventory.DeploymentLoader() {
+			@Override
+			public DeploymentGetResponse load(String serviceName) {
+				daemonThread.set(Thread.currentThread().isDaemon());
+				return createDeployment(serviceName);
+			}
+		};
+
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), daemonLoader);
+		Assert.assertTrue(daemonThread.get());
+	}
+
+	@Test
+	public void testInvalidate() {
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		loader.deployments.put("service1", createDeployment("service1"));
+		deploymentInventory.invalidate(SUBSCRIPTION_ID, "service1");
+
+		Map<String, DeploymentGetResponse> deployments = deploymentInventory.getRecentDeployments(
+				SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		Assert.assertTrue(deployments.containsKey("service1"));
+		Assert.assertEquals(2, loader.loads.get());
+	}
+
+	@Test
+	public void testLookupsAreConcurrent() {
+		final CountDownLatch allStarted = new CountDownLatch(3);
+		AzureDeploymentInventory.DeploymentLoader blockingLoader = new AzureDeploymentInventory.DeploymentLoader() {
+			@Override
+			public DeploymentGetResponse load(String serviceName) throws Exception {
+				allStarted.countDown();
+				if (!allStarted.await(5, TimeUnit.SECONDS)) {
+					throw new OCCIException(ErrorType.BAD_REQUEST, "Lookups were not concurrent");
+				}
+				return createDeployment(serviceName);
+			}
+		};
+
+		Map<String, DeploymentGetResponse> deployments = deploymentInventory.getDeployments(
+				SUBSCRIPTION_ID, Arrays.asList("service1", "service2", "service3"), blockingLoader);
+		Assert.assertEquals(3, deployments.size());
+	}
+
+	@Test
+	public void testLookupFails() {
+		loader.failing = "service2";
+		try {
+			deploymentInventory.getDeployments(SUBSCRIPTION_ID,
+					Arrays.asList("service1", "service2"), loader);
+			Assert.fail();
+		} catch (OCCIException e) {
+			Assert.assertEquals(ErrorType.BAD_REQUEST, e.getType());
+		}
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		deploymentInventory.shutdown();
+		deploymentInventory = new AzureDeploymentInventory(3, 0);
+		deploymentInventory.getDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		deploymentInventory.getRecentDeployments(SUBSCRIPTION_ID, Arrays.asList("service1"), loader);
+		Assert.assertEquals(2, loader.loads.get());
+		Assert.assertEquals(0, deploymentInventory.size());
+	}
+
+	private static DeploymentGetResponse createDeployment(String name) {
+		DeploymentGetResponse deployment = new DeploymentGetResponse();
+		deployment.setName(name);
+		return deployment;
+	}
+
+	private static class FakeLoader implements AzureDeploymentInventory.DeploymentLoader {
+
+		private final Map<String, DeploymentGetResponse> deployments = new ConcurrentHashMap<String, DeploymentGetResponse>();
+		private final AtomicInteger loads = new AtomicInteger();
+		private volatile String failing;
+
+		@Override
+		public DeploymentGetResponse load(String serviceName) throws Exception {
+			loads.incrementAndGet();
+			if (serviceName.equals(failing)) {
+				throw new Exception("Service unavailable");
+			}
+			return deployments.get(serviceName);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.fogbowcloud.manager.core.plugins.compute.opennebula;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +14,7 @@ import org.apache.commons.codec.Charsets;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpStatus;
 import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
@@ -33,6 +35,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.opennebula.client.Client;
 import org.opennebula.client.ClientConfigurationException;
 import org.opennebula.client.OneResponse;
@@ -1749,7 +1753,6 @@ public class TestComputeOpenNebula {
 		Assert.assertEquals(id, imageId);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Test
 	public void testGetImageState() {
 		OpenNebulaClientFactory clientFactory = Mockito.mock(OpenNebulaClientFactory.class);
@@ -1772,14 +1775,14 @@ public class TestComputeOpenNebula {
 		Mockito.when(imageANYTHING.getName()).thenReturn(imageNameANYTHING);
 		Mockito.when(imageANYTHING.stateString()).thenReturn("ANYTHING");
 
+		final List<Image> images = Arrays.asList(imageLOCKED, imageREADY, imageANYTHING);
 		ImagePool imagePool = Mockito.mock(ImagePool.class);
-		Iterator<Image> imageMockIterator = Mockito.mock(Iterator.class);
-		Mockito.when(imageMockIterator.hasNext()).thenReturn(true, true, true, false);
-		Mockito.when(imageMockIterator.next()).thenReturn(imageLOCKED, imageREADY, imageANYTHING);
-		OneResponse oneResponse = Mockito.mock(OneResponse.class);
-		Mockito.when(oneResponse.isError()).thenReturn(false);
-		Mockito.when(imagePool.info()).thenReturn(oneResponse);
-		Mockito.when(imagePool.iterator()).thenReturn(imageMockIterator);
+		Mockito.when(imagePool.iterator()).thenAnswer(new Answer<Iterator<Image>>() {
+			@Override
+			public Iterator<Image> answer(InvocationOnMock invocation) throws Throwable {
+				return images.iterator();
+			}
+		});
 
 		Mockito.when(clientFactory.createImagePool(oneClient)).thenReturn(imagePool);
 
@@ -1797,4 +1800,80 @@ public class TestComputeOpenNebula {
 				new HashMap<String, String>()), imageNameANYTHING);
 		Assert.assertEquals(ImageState.FAILED.getValue(), imageState.getValue());
 	}
+
+	@Test
+	public void testImageLookupsListThePoolOnce() {
+		OpenNebulaClientFactory clientFactory = Mockito.mock(OpenNebulaClientFactory.class);
+		Client oneClient = Mockito.mock(Client.class);
+		Mockito.when(clientFactory.createClient(Mockito.anyString(), Mockito.anyString()))
+				.thenReturn(oneClient);
+
+		Image image = Mockito.mock(Image.class);
+		Mockito.when(image.getId()).thenReturn(IMAGE1_ID);
+		Mockito.when(image.getName()).thenReturn(IMAGE1_NAME);
+		Mockito.when(image.stateString()).thenReturn("READY");
+		final List<Image> images = Arrays.asList(image);
+		ImagePool imagePool = Mockito.mock(ImagePool.class);
+		Mockito.when(imagePool.iterator()).thenAnswer(new Answer<Iterator<Image>>() {
+			@Override
+			public Iterator<Image> answer(InvocationOnMock invocation) throws Throwable {
+				return images.iterator();
+			}
+		});
+		Mockito.when(clientFactory.createImagePool(oneClient)).thenReturn(imagePool);
+
+		computeOpenNebula = new OpenNebulaComputePlugin(properties, clientFactory);
+		Assert.assertEquals(IMAGE1_ID, computeOpenNebula.getImageId(defaultToken, IMAGE1_NAME));
+		Assert.assertEquals(ImageState.ACTIVE, computeOpenNebula.getImageState(defaultToken, IMAGE1_NAME));
+		Assert.assertNull(computeOpenNebula.getImageId(defaultToken, "unknown"));
+
+		Mockito.verify(clientFactory, Mockito.times(1)).createImagePool(oneClient);
+		Mockito.verify(clientFactory, Mockito.times(1)).createClient(Mockito.anyString(),
+				Mockito.anyString());
+	}
+
+	@Test
+	public void testGetResourcesInfoReusesQuota() {
+		Client oneClient = Mockito.mock(Client.class);
+		User user = Mockito.mock(User.class);
+		Group group = Mockito.mock(Group.class);
+		Mockito.when(user.xpath("GROUPS/ID")).thenReturn("5");
+		Mockito.when(user.xpath("VM_QUOTA/VM/CPU")).thenReturn("10");
+		Mockito.when(user.xpath("VM_QUOTA/VM/CPU_USED")).thenReturn("2");
+		Mockito.when(user.xpath("VM_QUOTA/VM/MEMORY")).thenReturn("5120");
+		Mockito.when(user.xpath("VM_QUOTA/VM/MEMORY_USED")).thenReturn("1024");
+		Mockito.when(user.xpath("VM_QUOTA/VM/VMS")).thenReturn("10");
+		Mockito.when(user.xpath("VM_QUOTA/VM/VMS_USED")).thenReturn("1");
+
+		OpenNebulaClientFactory clientFactory = Mockito.mock(OpenNebulaClientFactory.class);
+		Mockito.when(clientFactory.createClient(defaultToken.getAccessId(), OPEN_NEBULA_URL))
+				.thenReturn(oneClient);
+		Mockito.when(clientFactory.createUser(oneClient, PluginHelper.USERNAME)).thenReturn(user);
+		Mockito.when(clientFactory.createGroup(oneClient, 5)).thenReturn(group);
+		VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+		Mockito.when(vm.delete()).thenReturn(new OneResponse(true, ""));
+		Mockito.when(clientFactory.createVirtualMachine(oneClient, INSTANCE_ID)).thenReturn(vm);
+
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		computeOpenNebula = new OpenNebulaComputePlugin(properties, clientFactory);
+		computeOpenNebula.setDateUtils(dateUtils);
+
+		Assert.assertEquals("8.0", computeOpenNebula.getResourcesInfo(defaultToken).getCpuIdle());
+		Mockito.when(user.xpath("VM_QUOTA/VM/CPU_USED")).thenReturn("4");
+		Assert.assertEquals("8.0", computeOpenNebula.getResourcesInfo(defaultToken).getCpuIdle());
+		Mockito.verify(clientFactory, Mockito.times(1)).createUser(oneClient, PluginHelper.USERNAME);
+		Mockito.verify(clientFactory, Mockito.times(1)).createGroup(oneClient, 5);
+
+		// removing an instance drops the quota
+		computeOpenNebula.removeInstance(defaultToken, INSTANCE_ID);
+		Assert.assertEquals("6.0", computeOpenNebula.getResourcesInfo(defaultToken).getCpuIdle());
+
+		// and so does its time to live
+		Mockito.when(user.xpath("VM_QUOTA/VM/CPU_USED")).thenReturn("6");
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(
+				OpenNebulaComputePlugin.DEFAULT_QUOTA_CACHE_TTL + 1);
+		Assert.assertEquals("4.0", computeOpenNebula.getResourcesInfo(defaultToken).getCpuIdle());
+		Mockito.verify(clientFactory, Mockito.times(3)).createUser(oneClient, PluginHelper.USERNAME);
+	}
 }
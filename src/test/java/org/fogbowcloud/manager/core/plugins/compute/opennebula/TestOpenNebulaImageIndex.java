@@ -0,0 +1,182 @@
+package org.fogbowcloud.manager.core.plugins.compute.opennebula;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.plugins.compute.opennebula.OpenNebulaImageIndex.IndexedImage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennebula.client.image.Image;
+
+public class TestOpenNebulaImageIndex {
+
+	private static final long REFRESH_PERIOD = 30000;
+	private static final String KEY = "key";
+
+	private OpenNebulaImageIndex imageIndex;
+	private DateUtils dateUtils;
+	private FakeLoader loader;
+
+	@Before
+	public void setUp() {
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		imageIndex = new OpenNebulaImageIndex(REFRESH_PERIOD);
+		imageIndex.setDateUtils(dateUtils);
+		loader = new FakeLoader();
+		loader.images.add(createImage("1", "image1", "READY", "100"));
+		loader.images.add(createImage("2", "image2", "USED", "200"));
+	}
+
+	@Test
+	public void testGet() {
+		IndexedImage image = imageIndex.get(KEY, "image2", loader);
+		Assert.assertEquals("2", image.getId());
+		Assert.assertEquals("USED", image.getState());
+		Assert.assertEquals("200", image.getSize());
+		Assert.assertEquals("1", imageIndex.get(KEY, "image1", loader).getId());
+		Assert.assertEquals(2, imageIndex.getAll(KEY, loader).size());
+		Assert.assertEquals(1, loader.loads);
+	}
+
+	@Test
+	public void testFirstImageWithANameIsKept() {
+		loader.images.add(createImage("3", "image1", "READY", "300"));
+		Assert.assertEquals("1", imageIndex.get(KEY, "image1", loader).getId());
+	}
+
+	@Test
+	public void testIndexIsPerKey() {
+		imageIndex.get(KEY, "image1", loader);
+		imageIndex.get("otherKey", "image1", loader);
+		Assert.assertEquals(2, loader.loads);
+		Assert.assertEquals(2, imageIndex.size());
+	}
+
+	@Test
+	public void testIndexIsRefreshed() {
+		imageIndex.get(KEY, "image1", loader);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(REFRESH_PERIOD + 1);
+		imageIndex.get(KEY, "image1", loader);
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testMissingImageRebuildsIndexAtMostEveryInterval() {
+		Assert.assertNull(imageIndex.get(KEY, "image3", loader));
+		Assert.assertNull(imageIndex.get(KEY, "image3", loader));
+		Assert.assertEquals(1, loader.loads);
+
+		loader.images.add(createImage("3", "image3", "READY", "300"));
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(
+				OpenNebulaImageIndex.MIN_REBUILD_INTERVAL + 1);
+		Assert.assertEquals("3", imageIndex.get(KEY, "image3", loader).getId());
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testLockedImageRebuildsIndex() {
+		loader.images.clear();
+		loader.images.add(createImage("1", "image1", "LOCKED", "100"));
+		Assert.assertTrue(imageIndex.get(KEY, "image1", loader).isLocked());
+
+		loader.images.clear();
+		loader.images.add(createImage("1", "image1", "READY", "100"));
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(
+				OpenNebulaImageIndex.MIN_REBUILD_INTERVAL + 1);
+		Assert.assertEquals("READY", imageIndex.get(KEY, "image1", loader).getState());
+	}
+
+	@Test
+	public void testInvalidate() {
+		imageIndex.get(KEY, "image1", loader);
+		imageIndex.invalidate(KEY);
+		Assert.assertEquals(0, imageIndex.size());
+		imageIndex.get(KEY, "image1", loader);
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testIndexDisabled() {
+		imageIndex = new OpenNebulaImageIndex(0);
+		imageIndex.get(KEY, "image1", loader);
+		imageIndex.get(KEY, "image1", loader);
+		Assert.assertEquals(2, loader.loads);
+		Assert.assertEquals(0, imageIndex.size());
+	}
+
+	@Test
+	public void testConcurrentLookupsListThePoolOnce() throws Exception {
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch releaseLoad = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final OpenNebulaImageIndex.ImageLoader blockingLoader = new OpenNebulaImageIndex.ImageLoader() {
+			@Override
+			public Iterable<Image> load() {
+				loads.incrementAndGet();
+				loadStarted.countDown();
+				try {
+					releaseLoad.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new ArrayList<Image>(loader.images);
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<IndexedImage>> results = new ArrayList<Future<IndexedImage>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<IndexedImage>() {
+					@Override
+					public IndexedImage call() throws Exception {
+						return imageIndex.get(KEY, "image1", blockingLoader);
+					}
+				}));
+			}
+			Assert.assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+			// gives the other lookups time to reach the listing in progress
+			Thread.sleep(100);
+			releaseLoad.countDown();
+
+			for (Future<IndexedImage> result : results) {
+				Assert.assertEquals("1", result.get(5, TimeUnit.SECONDS).getId());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(1, loads.get());
+	}
+
+	private static Image createImage(String id, String name, String state, String size) {
+		Image image = Mockito.mock(Image.class);
+		Mockito.when(image.getId()).thenReturn(id);
+		Mockito.when(image.getName()).thenReturn(name);
+		Mockito.when(image.stateString()).thenReturn(state);
+		Mockito.when(image.xpath("SIZE")).thenReturn(size);
+		return image;
+	}
+
+	private static class FakeLoader implements OpenNebulaImageIndex.ImageLoader {
+
+		private final List<Image> images = new ArrayList<Image>();
+		private int loads = 0;
+
+		@Override
+		public Iterable<Image> load() {
+			loads++;
+			return new ArrayList<Image>(images);
+		}
+	}
+}
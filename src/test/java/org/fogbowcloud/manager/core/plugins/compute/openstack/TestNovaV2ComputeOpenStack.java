@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -24,6 +25,7 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.message.BasicStatusLine;
 import org.fogbowcloud.manager.core.RequirementsHelper;
+import org.fogbowcloud.manager.core.model.DateUtils;
 import org.fogbowcloud.manager.core.model.Flavor;
 import org.fogbowcloud.manager.core.model.ImageState;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
@@ -46,6 +48,7 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 import org.restlet.Response;
@@ -95,6 +98,7 @@ public class TestNovaV2ComputeOpenStack {
 	
 	@After
 	public void tearDown() throws Exception {
+		novaV2ComputeOpenStack.getFlavorsUpdaterTimer().cancel();
 		pluginHelper.disconnectComponent();
 	}
 	
@@ -249,6 +253,27 @@ public class TestNovaV2ComputeOpenStack {
 		}
 	}
 	
+	@Test
+	public void testGetInstanceStates() throws Exception {
+		HttpResponse httpResponse = createHttpResponseMock("{\"servers\": ["
+				+ "{\"id\": \"" + FIRST_INSTANCE_ID + "\", \"status\": \"ACTIVE\"}, "
+				+ "{\"id\": \"" + SECOND_INSTANCE_ID + "\", \"status\": \"ERROR\"}]}", HttpStatus.SC_OK);
+		HttpClient httpClient = Mockito.mock(HttpClient.class);
+		Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class))).thenReturn(httpResponse);
+		novaV2ComputeOpenStack.setClient(httpClient);
+
+		List<Instance> instances = novaV2ComputeOpenStack.getInstanceStates(defaultToken);
+
+		Assert.assertEquals(2, instances.size());
+		Assert.assertEquals(FIRST_INSTANCE_ID, instances.get(0).getId());
+		Assert.assertEquals(InstanceState.RUNNING, instances.get(0).getState());
+		Assert.assertEquals(SECOND_INSTANCE_ID, instances.get(1).getId());
+		Assert.assertEquals(InstanceState.FAILED, instances.get(1).getState());
+		ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+		Mockito.verify(httpClient).execute(request.capture());
+		Assert.assertTrue(request.getValue().getURI().toString().endsWith("/tenantid/servers/detail"));
+	}
+
 	@Test
 	public void testRemoveInstance(){
 		Assert.assertEquals(0, novaV2ComputeOpenStack.getInstances(defaultToken).size());
@@ -294,22 +319,17 @@ public class TestNovaV2ComputeOpenStack {
 		String nameTwo = "nameTwo";
 		String idTwo = "idTwo";
 		String jsonAllFlavors = "{\"flavors\": [{\"id\": \"1\", \"name\": \"" + nameOne
-				+ "\"} , {\"id\": \"" + idTwo + "\", \"name\": \"" + nameTwo + "\"}]}";
+				+ "\", \"ram\": 256, \"vcpus\": 1, \"disk\": 1} , {\"id\": \"" + idTwo
+				+ "\", \"name\": \"" + nameTwo + "\", \"ram\": 512, \"vcpus\": 1, \"disk\": 1}]}";
 		ByteArrayEntity entityAllFlavors = new ByteArrayEntity(jsonAllFlavors.getBytes());
-		String jsonFlavorTwo = "{\"flavor\": {\"name\": \"" + nameTwo  + "\", \"ram\": 512, \"vcpus\": 1, \"disk\": 1, \"id\": \"1\"}}";
 		ProtocolVersion protocolVersion = new ProtocolVersion("", 0, 1);
 		StatusLine statusLine = new BasicStatusLine(protocolVersion, 200, "");
 		HttpResponse responseAllFlavors = Mockito.mock(HttpResponse.class);
 		Mockito.when(responseAllFlavors.getEntity()).thenReturn(entityAllFlavors);
 		Mockito.when(responseAllFlavors.getStatusLine()).thenReturn(statusLine);
 
-		ByteArrayEntity entityFlavorTwo = new ByteArrayEntity(jsonFlavorTwo.getBytes());
-		HttpResponse responseFlavorTwo = Mockito.mock(HttpResponse.class);
-		Mockito.when(responseFlavorTwo.getEntity()).thenReturn(entityFlavorTwo);
-		Mockito.when(responseFlavorTwo.getStatusLine()).thenReturn(statusLine);
-
 		Mockito.when(client.execute(Mockito.any(HttpUriRequest.class))).thenReturn(
-				responseAllFlavors, responseFlavorTwo, responseAllFlavors);
+				responseAllFlavors);
 
 		List<Flavor> flavors = new ArrayList<Flavor>();
 		flavors.add(new Flavor(nameOne, "1", "1", "1"));
@@ -322,10 +342,14 @@ public class TestNovaV2ComputeOpenStack {
 		novaV2ComputeOpenStack.updateFlavors(defaultToken);
 
 		Assert.assertEquals(2, novaV2ComputeOpenStack.getFlavors().size());
+		Assert.assertEquals(idTwo, novaV2ComputeOpenStack.getFlavors().get(1).getId());
+		Assert.assertEquals("512", novaV2ComputeOpenStack.getFlavors().get(1).getMem());
 		
 		// Adding Flavors that does not exists in the cloud
-		novaV2ComputeOpenStack.getFlavors().add(new Flavor("C", "", "", "", 0));
-		novaV2ComputeOpenStack.getFlavors().add(new Flavor("D", "", "", "", 0));
+		flavors = new ArrayList<Flavor>(novaV2ComputeOpenStack.getFlavors());
+		flavors.add(new Flavor("C", "", "", "", 0));
+		flavors.add(new Flavor("D", "", "", "", 0));
+		novaV2ComputeOpenStack.setFlavors(flavors);
 		
 		Assert.assertEquals(4, novaV2ComputeOpenStack.getFlavors().size());
 		
@@ -333,6 +357,100 @@ public class TestNovaV2ComputeOpenStack {
 		novaV2ComputeOpenStack.updateFlavors(defaultToken);
 		
 		Assert.assertEquals(2, novaV2ComputeOpenStack.getFlavors().size());
+		
+		// The whole catalog is read with one request per update
+		Mockito.verify(client, Mockito.times(2)).execute(Mockito.argThat(
+				new ArgumentMatcher<HttpUriRequest>() {
+					@Override
+					public boolean matches(Object argument) {
+						return ((HttpUriRequest) argument).getURI().getPath()
+								.endsWith("/tenantid/flavors/detail");
+					}
+				}));
+	}
+	
+	@Test
+	public void testUpdateFlavorKeepsFlavorsOnError() throws HttpException, IOException {
+		HttpClient client = Mockito.mock(HttpClient.class);
+		HttpResponse response = createHttpResponseMock("", HttpStatus.SC_UNAUTHORIZED);
+		Mockito.when(client.execute(Mockito.any(HttpUriRequest.class))).thenReturn(response);
+		novaV2ComputeOpenStack.setClient(client);
+		novaV2ComputeOpenStack.getFlavor(defaultToken, null);
+		
+		novaV2ComputeOpenStack.updateFlavors(defaultToken);
+		
+		Assert.assertEquals(3, novaV2ComputeOpenStack.getFlavors().size());
+		// the refused token is not used by the next refresh
+		Assert.assertNull(novaV2ComputeOpenStack.getFlavorsToken());
+	}
+	
+	@Test
+	public void testFlavorsAreRefreshedWithTheTokenThatExpiresLast() {
+		long now = System.currentTimeMillis();
+		Token laterToken = createToken("laterAccessId", new Date(now + 60000));
+		Token soonerToken = createToken("soonerAccessId", new Date(now + 1000));
+		
+		novaV2ComputeOpenStack.getFlavor(laterToken, null);
+		novaV2ComputeOpenStack.getFlavor(soonerToken, null);
+		Assert.assertEquals(laterToken, novaV2ComputeOpenStack.getFlavorsToken());
+		
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + 60000);
+		novaV2ComputeOpenStack.setDateUtils(dateUtils);
+		HttpClient client = Mockito.mock(HttpClient.class);
+		novaV2ComputeOpenStack.setClient(client);
+		
+		// the expired token is dropped instead of being sent to the cloud
+		novaV2ComputeOpenStack.refreshFlavors();
+		Assert.assertNull(novaV2ComputeOpenStack.getFlavorsToken());
+		Mockito.verifyZeroInteractions(client);
+		
+		novaV2ComputeOpenStack.getFlavor(soonerToken, null);
+		Assert.assertNull(novaV2ComputeOpenStack.getFlavorsToken());
+		Token newToken = createToken("newAccessId", new Date(now + 120000));
+		novaV2ComputeOpenStack.getFlavor(newToken, null);
+		Assert.assertEquals(newToken, novaV2ComputeOpenStack.getFlavorsToken());
+	}
+	
+	private Token createToken(String accessId, Date expirationDate) {
+		HashMap<String, String> tokenAtt = new HashMap<String, String>();
+		tokenAtt.put(KeystoneIdentityPlugin.TENANT_ID, "tenantid");
+		return new Token(accessId, new Token.User(PluginHelper.USERNAME, PluginHelper.USERNAME), 
+				expirationDate, tokenAtt);
+	}
+	
+	@Test
+	public void testGetFlavorOnlyLoadsFlavorsWhenThereAreNone() throws HttpException, IOException {
+		HttpClient client = Mockito.mock(HttpClient.class);
+		novaV2ComputeOpenStack.setClient(client);
+		
+		Flavor flavor = novaV2ComputeOpenStack.getFlavor(defaultToken, null);
+		Assert.assertEquals(OrderConstants.SMALL_TERM, flavor.getName());
+		Mockito.verify(client, Mockito.never()).execute(Mockito.any(HttpUriRequest.class));
+		Assert.assertTrue(novaV2ComputeOpenStack.getFlavorsUpdaterTimer().isScheduled());
+		
+		String jsonAllFlavors = "{\"flavors\": [{\"id\": \"1\", \"name\": \"new\", "
+				+ "\"ram\": 512, \"vcpus\": 1, \"disk\": 1}]}";
+		HttpResponse response = createHttpResponseMock(jsonAllFlavors, HttpStatus.SC_OK);
+		Mockito.when(client.execute(Mockito.any(HttpUriRequest.class))).thenReturn(response);
+		novaV2ComputeOpenStack.setFlavors(new ArrayList<Flavor>());
+		
+		flavor = novaV2ComputeOpenStack.getFlavor(defaultToken, null);
+		Assert.assertEquals("new", flavor.getName());
+		novaV2ComputeOpenStack.getFlavor(defaultToken, null);
+		Mockito.verify(client, Mockito.times(1)).execute(Mockito.any(HttpUriRequest.class));
+	}
+	
+	@Test
+	public void testFlavorsUpdaterDisabled() {
+		Properties properties = new Properties();
+		properties.put(OpenStackConfigurationConstants.COMPUTE_NOVAV2_FLAVORS_UPDATE_PERIOD_KEY, "0");
+		novaV2ComputeOpenStack = new OpenStackNovaV2ComputePlugin(properties);
+		novaV2ComputeOpenStack.setFlavors(Arrays.asList(new Flavor("small", "1", "1000", "10")));
+		
+		novaV2ComputeOpenStack.getFlavor(defaultToken, null);
+		
+		Assert.assertFalse(novaV2ComputeOpenStack.getFlavorsUpdaterTimer().isScheduled());
 	}
 	
 	public void tesGettInstanceState() {
@@ -0,0 +1,213 @@
+package org.fogbowcloud.manager.core.plugins.identity;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.plugins.IdentityPlugin;
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.fogbowcloud.manager.occi.model.ResponseConstants;
+import org.fogbowcloud.manager.occi.model.Token;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestCachedIdentityPlugin {
+
+	private static final long TTL = 60000;
+	private static final long NOW = 1000000;
+
+	private IdentityPlugin identityPlugin;
+	private DateUtils dateUtils;
+	private ManagerTimer statsTimer;
+	private CachedIdentityPlugin cachedIdentityPlugin;
+
+	@Before
+	public void setUp() {
+		identityPlugin = Mockito.mock(IdentityPlugin.class);
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW);
+		statsTimer = Mockito.mock(ManagerTimer.class);
+		cachedIdentityPlugin = new CachedIdentityPlugin(identityPlugin, 2, TTL, statsTimer);
+		cachedIdentityPlugin.setDateUtils(dateUtils);
+	}
+
+	@Test
+	public void testGetTokenIsCached() {
+		Token token = createToken("accessId", null);
+		Mockito.when(identityPlugin.getToken("accessId")).thenReturn(token);
+
+		Assert.assertEquals(token, cachedIdentityPlugin.getToken("accessId"));
+		Assert.assertEquals(token, cachedIdentityPlugin.getToken("accessId"));
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).getToken("accessId");
+		Assert.assertEquals(1, cachedIdentityPlugin.getHits());
+		Assert.assertEquals(1, cachedIdentityPlugin.getMisses());
+		Assert.assertEquals("Federation identity cache: hits=1, misses=1, joined=0, hitRate=0.5",
+				cachedIdentityPlugin.toString());
+		Mockito.verify(statsTimer, Mockito.atLeastOnce()).scheduleAtFixedRate(
+				Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.anyLong());
+	}
+
+	@Test
+	public void testCallersGetCopiesOfTheToken() {
+		Token token = createToken("accessId", new Date(NOW + TTL));
+		Mockito.when(identityPlugin.getToken("accessId")).thenReturn(token);
+
+		Token cachedToken = cachedIdentityPlugin.getToken("accessId");
+		Assert.assertNotSame(token, cachedToken);
+		cachedToken.getAttributes().put("attribute", "value");
+		cachedToken.setExpirationDate(new Date(NOW));
+
+		Token otherCachedToken = cachedIdentityPlugin.getToken("accessId");
+		Assert.assertNotSame(cachedToken, otherCachedToken);
+		Assert.assertNull(otherCachedToken.get("attribute"));
+		Assert.assertEquals(NOW + TTL, otherCachedToken.getExpirationDate().getTime());
+		Assert.assertNull(token.get("attribute"));
+		Mockito.verify(identityPlugin, Mockito.times(1)).getToken("accessId");
+	}
+
+	@Test
+	public void testGetTokenExpiresAfterTtl() {
+		Mockito.when(identityPlugin.getToken("accessId")).thenReturn(createToken("accessId", null));
+		cachedIdentityPlugin.getToken("accessId");
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW + TTL);
+		cachedIdentityPlugin.getToken("accessId");
+
+		Mockito.verify(identityPlugin, Mockito.times(2)).getToken("accessId");
+	}
+
+	@Test
+	public void testGetTokenExpiresWithToken() {
+		Mockito.when(identityPlugin.getToken("accessId")).thenReturn(
+				createToken("accessId", new Date(NOW + 10)));
+		cachedIdentityPlugin.getToken("accessId");
+		cachedIdentityPlugin.getToken("accessId");
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(NOW + 10);
+		cachedIdentityPlugin.getToken("accessId");
+
+		Mockito.verify(identityPlugin, Mockito.times(2)).getToken("accessId");
+	}
+
+	@Test
+	public void testLeastRecentlyUsedTokenIsEvicted() {
+		for (String accessId : new String[] { "one", "two", "three" }) {
+			Mockito.when(identityPlugin.getToken(accessId)).thenReturn(createToken(accessId, null));
+		}
+		cachedIdentityPlugin.getToken("one");
+		cachedIdentityPlugin.getToken("two");
+		cachedIdentityPlugin.getToken("one");
+		cachedIdentityPlugin.getToken("three");
+
+		cachedIdentityPlugin.getToken("one");
+		cachedIdentityPlugin.getToken("two");
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).getToken("one");
+		Mockito.verify(identityPlugin, Mockito.times(2)).getToken("two");
+	}
+
+	@Test
+	public void testErrorsAreNotCached() {
+		Mockito.when(identityPlugin.getToken("accessId")).thenThrow(
+				new OCCIException(ErrorType.UNAUTHORIZED, ResponseConstants.UNAUTHORIZED));
+		for (int i = 0; i < 2; i++) {
+			try {
+				cachedIdentityPlugin.getToken("accessId");
+				Assert.fail();
+			} catch (OCCIException e) {
+				Assert.assertEquals(ErrorType.UNAUTHORIZED, e.getType());
+			}
+		}
+		Mockito.verify(identityPlugin, Mockito.times(2)).getToken("accessId");
+	}
+
+	@Test
+	public void testOnlyValidAccessIdsAreCached() {
+		Mockito.when(identityPlugin.isValid("valid")).thenReturn(true);
+		Mockito.when(identityPlugin.isValid("invalid")).thenReturn(false);
+
+		for (int i = 0; i < 2; i++) {
+			Assert.assertTrue(cachedIdentityPlugin.isValid("valid"));
+			Assert.assertFalse(cachedIdentityPlugin.isValid("invalid"));
+		}
+
+		Mockito.verify(identityPlugin, Mockito.times(1)).isValid("valid");
+		Mockito.verify(identityPlugin, Mockito.times(2)).isValid("invalid");
+	}
+
+	@Test
+	public void testConcurrentMissesCallIdentityServiceOnce() throws Exception {
+		final CountDownLatch lookupStarted = new CountDownLatch(1);
+		final CountDownLatch releaseLookup = new CountDownLatch(1);
+		final Token token = createToken("accessId", null);
+		Mockito.when(identityPlugin.getToken("accessId")).thenAnswer(new Answer<Token>() {
+			@Override
+			public Token answer(InvocationOnMock invocation) throws Throwable {
+				lookupStarted.countDown();
+				releaseLookup.await(5, TimeUnit.SECONDS);
+				return token;
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Token>> results = new ArrayList<Future<Token>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<Token>() {
+					@Override
+					public Token call() throws Exception {
+						return cachedIdentityPlugin.getToken("accessId");
+					}
+				}));
+			}
+			Assert.assertTrue(lookupStarted.await(5, TimeUnit.SECONDS));
+			// gives the other lookups time to reach the one in progress
+			Thread.sleep(100);
+			releaseLookup.countDown();
+
+			for (Future<Token> result : results) {
+				Assert.assertEquals(token, result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Mockito.verify(identityPlugin, Mockito.times(1)).getToken("accessId");
+		Assert.assertEquals(1, cachedIdentityPlugin.getMisses());
+		Assert.assertEquals(3, cachedIdentityPlugin.getHits() + cachedIdentityPlugin.getJoined());
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		Properties properties = new Properties();
+		properties.put(ConfigurationConstants.FEDERATION_IDENTITY_CACHE_SIZE_KEY, "0");
+		cachedIdentityPlugin = new CachedIdentityPlugin(identityPlugin, properties);
+		Mockito.when(identityPlugin.getToken("accessId")).thenReturn(createToken("accessId", null));
+
+		cachedIdentityPlugin.getToken("accessId");
+		cachedIdentityPlugin.getToken("accessId");
+
+		Mockito.verify(identityPlugin, Mockito.times(2)).getToken("accessId");
+	}
+
+	private Token createToken(String accessId, Date expirationDate) {
+		return new Token(accessId, new Token.User("user", "user"), expirationDate,
+				new HashMap<String, String>());
+	}
+}
@@ -10,6 +10,8 @@ import org.fogbowcloud.manager.core.model.FederationMember;
 import org.fogbowcloud.manager.core.model.ResourcesInfo;
 import org.fogbowcloud.manager.core.plugins.AccountingPlugin;
 import org.fogbowcloud.manager.core.plugins.accounting.AccountingInfo;
+import org.fogbowcloud.manager.core.plugins.accounting.IndexedAccountingPlugin;
+import org.fogbowcloud.manager.core.plugins.accounting.MembersUsageIndex;
 import org.fogbowcloud.manager.core.util.DefaultDataTestHelper;
 import org.junit.Assert;
 import org.junit.Before;
@@ -145,4 +147,33 @@ public class TestNoFMemberPicker {
 		Assert.assertEquals(remoteMember1, nofPicker.pick(facade.getRendezvousMembers()));
 		Assert.assertFalse(nofPicker.getTrustworthy());
 	}
+
+	@Test
+	public void testPickUsesMembersUsageIndex() {
+		FederationMember remoteMember1 = new FederationMember(new ResourcesInfo(
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + "1", "", "", "", "", "", ""));
+		FederationMember remoteMember2 = new FederationMember(new ResourcesInfo(
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + "2", "", "", "", "", "", ""));
+		ArrayList<FederationMember> members = new ArrayList<FederationMember>();
+		members.add(remoteMember1);
+		members.add(remoteMember2);
+
+		MembersUsageIndex membersUsage = new MembersUsageIndex();
+		membersUsage.add(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL,
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + "1", 20);
+		membersUsage.add(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL,
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + "2", 10);
+		IndexedAccountingPlugin indexedAccountingPlugin = Mockito.mock(IndexedAccountingPlugin.class);
+		Mockito.when(indexedAccountingPlugin.getMembersUsage()).thenReturn(membersUsage);
+
+		NoFMemberPickerPlugin nofPicker = new NoFMemberPickerPlugin(properties, indexedAccountingPlugin);
+		Assert.assertEquals(remoteMember2, nofPicker.pick(members));
+
+		// usage accounted later is taken into account on the next pick
+		membersUsage.add(DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL,
+				DefaultDataTestHelper.REMOTE_MANAGER_COMPONENT_URL + "2", 30);
+		Assert.assertEquals(remoteMember1, nofPicker.pick(members));
+
+		Mockito.verify(indexedAccountingPlugin, Mockito.never()).getAccountingInfo();
+	}
 }
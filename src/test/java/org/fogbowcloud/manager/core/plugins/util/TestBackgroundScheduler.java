@@ -0,0 +1,33 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBackgroundScheduler {
+
+	@Test
+	public void testTimersShareDaemonThreads() throws InterruptedException {
+		Assert.assertSame(BackgroundScheduler.getExecutor(), BackgroundScheduler.getExecutor());
+
+		final CountDownLatch taskRan = new CountDownLatch(1);
+		final AtomicBoolean daemonThread = new AtomicBoolean(false);
+		ManagerTimer timer = BackgroundScheduler.newTimer();
+		timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				daemonThread.set(Thread.currentThread().isDaemon());
+				taskRan.countDown();
+			}
+		}, 0, 1000);
+
+		Assert.assertTrue(taskRan.await(5, TimeUnit.SECONDS));
+		timer.cancel();
+		Assert.assertTrue(daemonThread.get());
+		Assert.assertFalse(BackgroundScheduler.getExecutor().isShutdown());
+	}
+}
@@ -0,0 +1,234 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.core.model.Flavor;
+import org.fogbowcloud.manager.core.model.ResourcesInfo;
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.fogbowcloud.manager.occi.model.Token;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestResourcesInfoCache {
+
+	private static final long REFRESH_PERIOD = 30000;
+
+	private ManagerTimer refreshTimer;
+	private DateUtils dateUtils;
+	private ResourcesInfoCache resourcesInfoCache;
+	private Token token;
+	private FakeLoader loader;
+
+	@Before
+	public void setUp() {
+		refreshTimer = Mockito.mock(ManagerTimer.class);
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		resourcesInfoCache = new ResourcesInfoCache(REFRESH_PERIOD, refreshTimer);
+		resourcesInfoCache.setDateUtils(dateUtils);
+		token = new Token("accessId", null, null, null);
+		loader = new FakeLoader();
+		loader.resourcesInfos.add(new ResourcesInfo("6", "2", "3072", "1024", "3", "1"));
+	}
+
+	@Test
+	public void testGetLoadsOnce() {
+		ResourcesInfo resourcesInfo = resourcesInfoCache.get(token, loader);
+		Assert.assertEquals("6", resourcesInfo.getCpuIdle());
+		resourcesInfo.setCpuIdle("0");
+
+		Assert.assertEquals("6", resourcesInfoCache.get(token, loader).getCpuIdle());
+		Assert.assertEquals(1, loader.loads);
+		Mockito.verify(refreshTimer, Mockito.atLeastOnce()).scheduleAtFixedRate(Mockito.any(Runnable.class),
+				Mockito.eq(REFRESH_PERIOD), Mockito.eq(REFRESH_PERIOD));
+	}
+
+	@Test
+	public void testGetPerCredentials() {
+		resourcesInfoCache.get(token, loader);
+		loader.resourcesInfos.add(new ResourcesInfo("1", "0", "512", "0", "1", "0"));
+
+		ResourcesInfo resourcesInfo = resourcesInfoCache.get(new Token("otherAccessId", null, null, null), loader);
+		Assert.assertEquals("1", resourcesInfo.getCpuIdle());
+		Assert.assertEquals(2, resourcesInfoCache.size());
+	}
+
+	@Test
+	public void testRefresh() {
+		resourcesInfoCache.get(token, loader);
+		loader.resourcesInfos.add(new ResourcesInfo("4", "4", "2048", "2048", "2", "2"));
+
+		resourcesInfoCache.refreshSnapshots();
+
+		Assert.assertEquals("4", resourcesInfoCache.get(token, loader).getCpuIdle());
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testRefreshFails() {
+		resourcesInfoCache.get(token, loader);
+		loader.fail = true;
+
+		resourcesInfoCache.refreshSnapshots();
+
+		Assert.assertEquals("6", resourcesInfoCache.get(token, loader).getCpuIdle());
+	}
+
+	@Test
+	public void testInstanceCreatedAndRemoved() {
+		resourcesInfoCache.get(token, loader);
+
+		resourcesInfoCache.instanceCreated(token, "instance1", new Flavor("small", "2", "1024", "20"));
+		ResourcesInfo resourcesInfo = resourcesInfoCache.get(token, loader);
+		Assert.assertEquals("4", resourcesInfo.getCpuIdle());
+		Assert.assertEquals("4", resourcesInfo.getCpuInUse());
+		Assert.assertEquals("2048", resourcesInfo.getMemIdle());
+		Assert.assertEquals("2048", resourcesInfo.getMemInUse());
+		Assert.assertEquals("2", resourcesInfo.getInstancesIdle());
+		Assert.assertEquals("2", resourcesInfo.getInstancesInUse());
+
+		resourcesInfoCache.instanceRemoved(token, "instance1");
+		resourcesInfo = resourcesInfoCache.get(token, loader);
+		Assert.assertEquals("6", resourcesInfo.getCpuIdle());
+		Assert.assertEquals("2", resourcesInfo.getCpuInUse());
+		Assert.assertEquals("3072", resourcesInfo.getMemIdle());
+		Assert.assertEquals("3", resourcesInfo.getInstancesIdle());
+		Assert.assertEquals("1", resourcesInfo.getInstancesInUse());
+		Assert.assertEquals(1, loader.loads);
+	}
+
+	@Test
+	public void testUnknownInstanceRemovedDropsSnapshot() {
+		resourcesInfoCache.get(token, loader);
+
+		resourcesInfoCache.instanceRemoved(token, "unknownInstance");
+
+		Assert.assertEquals(0, resourcesInfoCache.size());
+		resourcesInfoCache.get(token, loader);
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testRefreshUsesTokenThatExpiresLast() {
+		Token longToken = new Token("accessId", null, new Date(2 * REFRESH_PERIOD), null);
+		Token shortToken = new Token("accessId", null, new Date(REFRESH_PERIOD), null);
+		resourcesInfoCache = new ResourcesInfoCache(REFRESH_PERIOD, refreshTimer);
+		resourcesInfoCache.setDateUtils(dateUtils);
+		resourcesInfoCache.get(longToken, loader);
+		resourcesInfoCache.get(shortToken, loader);
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(REFRESH_PERIOD);
+		resourcesInfoCache.refreshSnapshots();
+		Assert.assertSame(longToken, loader.lastToken);
+		Assert.assertEquals(1, resourcesInfoCache.size());
+
+		// once the token expires the snapshot is dropped
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(2 * REFRESH_PERIOD);
+		resourcesInfoCache.refreshSnapshots();
+		Assert.assertEquals(0, resourcesInfoCache.size());
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testShutdown() {
+		resourcesInfoCache.get(token, loader);
+		resourcesInfoCache.shutdown();
+
+		Assert.assertEquals(0, resourcesInfoCache.size());
+		Mockito.verify(refreshTimer).cancel();
+	}
+
+	@Test
+	public void testInstanceCreatedWithoutSnapshot() {
+		resourcesInfoCache.instanceCreated(token, "instance1", new Flavor("small", "2", "1024", "20"));
+		Assert.assertEquals("6", resourcesInfoCache.get(token, loader).getCpuIdle());
+	}
+
+	@Test
+	public void testRefreshDuringAdjustmentIsSkippedOnce() {
+		resourcesInfoCache.get(token, loader);
+		loader.resourcesInfos.add(new ResourcesInfo("6", "2", "3072", "1024", "3", "1"));
+		loader.onLoad = new Runnable() {
+			@Override
+			public void run() {
+				resourcesInfoCache.instanceCreated(token, "instance1", new Flavor("small", "2", "1024", "20"));
+			}
+		};
+
+		resourcesInfoCache.refreshSnapshots();
+		Assert.assertEquals("4", resourcesInfoCache.get(token, loader).getCpuIdle());
+
+		resourcesInfoCache.refreshSnapshots();
+		Assert.assertEquals("6", resourcesInfoCache.get(token, loader).getCpuIdle());
+	}
+
+	@Test
+	public void testInvalidate() {
+		resourcesInfoCache.get(token, loader);
+		resourcesInfoCache.invalidate(token);
+		Assert.assertEquals(0, resourcesInfoCache.size());
+
+		resourcesInfoCache.get(token, loader);
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testIdleSnapshotsAreDropped() {
+		resourcesInfoCache.get(token, loader);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(
+				ResourcesInfoCache.MAX_IDLE_PERIODS * REFRESH_PERIOD + 1);
+
+		resourcesInfoCache.refreshSnapshots();
+
+		Assert.assertEquals(0, resourcesInfoCache.size());
+		Assert.assertEquals(1, loader.loads);
+	}
+
+	@Test(expected = OCCIException.class)
+	public void testFirstLoadFails() {
+		loader.fail = true;
+		resourcesInfoCache.get(token, loader);
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		resourcesInfoCache = new ResourcesInfoCache(0, refreshTimer);
+		resourcesInfoCache.get(token, loader);
+		resourcesInfoCache.get(token, loader);
+
+		Assert.assertEquals(2, loader.loads);
+		Assert.assertEquals(0, resourcesInfoCache.size());
+		Mockito.verifyZeroInteractions(refreshTimer);
+	}
+
+	private static class FakeLoader implements ResourcesInfoCache.Loader {
+
+		private final List<ResourcesInfo> resourcesInfos = new LinkedList<ResourcesInfo>();
+		private int loads = 0;
+		private Token lastToken;
+		private boolean fail = false;
+		private Runnable onLoad;
+
+		@Override
+		public ResourcesInfo load(Token token) {
+			if (fail) {
+				throw new OCCIException(ErrorType.BAD_REQUEST, "");
+			}
+			loads++;
+			lastToken = token;
+			if (onLoad != null) {
+				Runnable runnable = onLoad;
+				onLoad = null;
+				runnable.run();
+			}
+			return resourcesInfos.get(resourcesInfos.size() - 1);
+		}
+	}
+}
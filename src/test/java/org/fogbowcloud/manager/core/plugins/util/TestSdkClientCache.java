@@ -0,0 +1,159 @@
+package org.fogbowcloud.manager.core.plugins.util;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.fogbowcloud.manager.core.ManagerTimer;
+import org.fogbowcloud.manager.core.model.DateUtils;
+import org.fogbowcloud.manager.occi.model.Token;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestSdkClientCache {
+
+	private static final long IDLE_TIMEOUT = 60000;
+
+	private ManagerTimer evictionTimer;
+	private DateUtils dateUtils;
+	private FakeClientFactory clientFactory;
+	private SdkClientCache<FakeClient> clientCache;
+	private Token token;
+
+	@Before
+	public void setUp() {
+		evictionTimer = Mockito.mock(ManagerTimer.class);
+		dateUtils = Mockito.mock(DateUtils.class);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(0L);
+		clientFactory = new FakeClientFactory();
+		clientCache = new SdkClientCache<FakeClient>("fake", 2, IDLE_TIMEOUT, clientFactory, evictionTimer);
+		clientCache.setDateUtils(dateUtils);
+		token = new Token("accessId", null, null, null);
+	}
+
+	@Test
+	public void testClientIsReused() {
+		FakeClient client = clientCache.get("key", token);
+		Assert.assertSame(client, clientCache.get("key", token));
+		Assert.assertNotSame(client, clientCache.get("otherKey", token));
+
+		Assert.assertEquals(1, clientCache.getHits());
+		Assert.assertEquals(2, clientCache.getCreations());
+		Assert.assertEquals(1.0 / 3, clientCache.getHitRate(), 0.001);
+		Mockito.verify(evictionTimer, Mockito.atLeastOnce()).scheduleAtFixedRate(
+				Mockito.any(Runnable.class), Mockito.eq(IDLE_TIMEOUT), Mockito.eq(IDLE_TIMEOUT));
+	}
+
+	@Test
+	public void testStatsAreReported() {
+		clientCache.get("key", token);
+		clientCache.get("key", token);
+
+		Assert.assertEquals("fake SDK clients: size=1, hits=1, creations=1, evictions=0, hitRate=0.5",
+				clientCache.toString());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsDroppedWhenFull() {
+		FakeClient client1 = clientCache.get("key1", token);
+		FakeClient client2 = clientCache.get("key2", token);
+		clientCache.get("key1", token);
+		clientCache.get("key3", token);
+
+		Assert.assertEquals(2, clientCache.size());
+		Assert.assertEquals(1, clientCache.getEvictions());
+		Assert.assertSame(client1, clientCache.get("key1", token));
+		Assert.assertNotSame(client2, clientCache.get("key2", token));
+		// dropped clients are still usable until the idle timeout
+		Assert.assertFalse(client2.shutdown);
+	}
+
+	@Test
+	public void testIdleClientsAreShutDown() {
+		FakeClient client = clientCache.get("key", token);
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(IDLE_TIMEOUT + 1);
+
+		clientCache.evictIdleClients();
+		Assert.assertEquals(0, clientCache.size());
+		Assert.assertFalse(client.shutdown);
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(2 * IDLE_TIMEOUT + 2);
+		clientCache.evictIdleClients();
+		Assert.assertTrue(client.shutdown);
+		Assert.assertNotSame(client, clientCache.get("key", token));
+	}
+
+	@Test
+	public void testInvalidate() {
+		FakeClient client = clientCache.get("key", token);
+		clientCache.invalidate("key");
+
+		Assert.assertEquals(0, clientCache.size());
+		Assert.assertNotSame(client, clientCache.get("key", token));
+	}
+
+	@Test
+	public void testInvalidateAll() {
+		FakeClient client1 = clientCache.get("key1", token);
+		clientCache.get("key2", token);
+		clientCache.invalidateAll();
+
+		Assert.assertEquals(0, clientCache.size());
+		Assert.assertFalse(client1.shutdown);
+		Assert.assertNotSame(client1, clientCache.get("key1", token));
+	}
+
+	@Test
+	public void testShutdown() {
+		FakeClient client1 = clientCache.get("key1", token);
+		FakeClient client2 = clientCache.get("key2", token);
+		clientCache.invalidate("key2");
+
+		clientCache.shutdown();
+
+		Assert.assertTrue(client1.shutdown);
+		Assert.assertTrue(client2.shutdown);
+		Assert.assertEquals(0, clientCache.size());
+		Mockito.verify(evictionTimer).cancel();
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		clientCache = new SdkClientCache<FakeClient>("fake", 0, IDLE_TIMEOUT, clientFactory, evictionTimer);
+		Assert.assertNotSame(clientCache.get("key", token), clientCache.get("key", token));
+		Assert.assertEquals(2, clientCache.getCreations());
+		Mockito.verifyZeroInteractions(evictionTimer);
+	}
+
+	@Test
+	public void testCreateKeyDigestsSecret() {
+		String key = SdkClientCache.createKey("us-east-1", "accessKey", "secretKey");
+		Assert.assertTrue(key.startsWith("us-east-1:accessKey:"));
+		Assert.assertFalse(key.contains("secretKey"));
+		Assert.assertEquals(key, SdkClientCache.createKey("us-east-1", "accessKey", "secretKey"));
+		Assert.assertFalse(key.equals(SdkClientCache.createKey("us-east-1", "accessKey", "otherSecretKey")));
+	}
+
+	private static class FakeClient {
+
+		private boolean shutdown = false;
+	}
+
+	private static class FakeClientFactory implements SdkClientCache.ClientFactory<FakeClient> {
+
+		private final List<FakeClient> clients = new LinkedList<FakeClient>();
+
+		@Override
+		public FakeClient createClient(Token token) {
+			FakeClient client = new FakeClient();
+			clients.add(client);
+			return client;
+		}
+
+		@Override
+		public void shutdownClient(FakeClient client) {
+			client.shutdown = true;
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package org.fogbowcloud.manager.core.plugins.util;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
 
 import net.schmizz.sshj.SSHClient;
 
@@ -73,6 +75,7 @@ public class TestSshClientPool {
 		Assert.assertFalse(sshClientPool.getSshConnectionSchedulerTimer().isScheduled());
 		
 		sshClientPool.getClient(address, "sshUser", "sshPrivateKeyPath");
+		sshClientPool.releaseClient(address, "sshUser");
 		
 		Assert.assertEquals(1, sshClientPool.getPool().size());
 		Assert.assertTrue(sshClientPool.getSshConnectionSchedulerTimer().isScheduled());
@@ -104,6 +107,7 @@ public class TestSshClientPool {
 			Random gerador = new Random();			
 			String address = UUID.randomUUID() + ":" + gerador.nextInt(1000);
 			sshClientPool.getClient(address, "sshUser", "sshPrivateKeyPath");
+			sshClientPool.releaseClient(address, "sshUser");
 		}
 		
 		Assert.assertFalse(semaphore.tryAcquire());	
@@ -119,4 +123,189 @@ public class TestSshClientPool {
 		Assert.assertTrue(semaphore.tryAcquire(ManagerController.DEFAULT_MAX_POOL));
 		Assert.assertFalse(semaphore.tryAcquire(ManagerController.DEFAULT_MAX_POOL + 1));
 	}
+
+	@Test
+	public void testClientIsSharedByAddressAndUser() throws Exception {
+		SSHClient sshClientOne = createConnectedClient();
+		SSHClient sshClientTwo = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(sshClientOne, sshClientTwo);
+		sshClientPool.setClientFactory(clientFactory);
+
+		Assert.assertSame(sshClientOne, sshClientPool.getClient("localhost:1000", "userOne", "key"));
+		Assert.assertSame(sshClientOne, sshClientPool.getClient("localhost:1000", "userOne", "key"));
+		Assert.assertSame(sshClientTwo, sshClientPool.getClient("localhost:1000", "userTwo", "key"));
+
+		Assert.assertEquals(2, sshClientPool.getPool().size());
+		Mockito.verify(clientFactory, Mockito.times(2)).createSshClient();
+	}
+
+	@Test
+	public void testIdleConnectionIsDisconnected() throws Exception {
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		long now = System.currentTimeMillis();
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now);
+		sshClientPool.setDateUtils(dateUtils);
+		SSHClient sshClient = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(sshClient);
+		sshClientPool.setClientFactory(clientFactory);
+
+		sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath");
+		sshClientPool.releaseClient("localhost:1000", "sshUser");
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + sshClientPool.TIMEOUT);
+		sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath");
+		sshClientPool.releaseClient("localhost:1000", "sshUser");
+
+		// last use is recent, so the connection is kept
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + sshClientPool.TIMEOUT + 1);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(1, sshClientPool.getPool().size());
+		Mockito.verify(sshClient, Mockito.never()).disconnect();
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + 2 * sshClientPool.TIMEOUT + 1);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(0, sshClientPool.getPool().size());
+		Mockito.verify(sshClient).disconnect();
+	}
+
+	@Test
+	public void testDeadConnectionIsReplaced() throws Exception {
+		SSHClient deadSshClient = createConnectedClient();
+		SSHClient newSshClient = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(deadSshClient, newSshClient);
+		sshClientPool.setClientFactory(clientFactory);
+
+		sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath");
+		sshClientPool.releaseClient("localhost:1000", "sshUser");
+		Mockito.when(deadSshClient.isConnected()).thenReturn(false);
+
+		Assert.assertSame(newSshClient,
+				sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath"));
+		Mockito.verify(deadSshClient).disconnect();
+		sshClientPool.releaseClient("localhost:1000", "sshUser");
+
+		Mockito.when(newSshClient.isConnected()).thenReturn(false);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(0, sshClientPool.getPool().size());
+		Mockito.verify(newSshClient).disconnect();
+	}
+
+	@Test
+	public void testFailedConnectionIsRemoved() throws Exception {
+		semaphore = new Semaphore(1);
+		sshClientPool.setSemaphore(semaphore);
+		SSHClient sshClient = Mockito.mock(SSHClient.class);
+		Mockito.doThrow(new IOException()).when(sshClient).connect(Mockito.anyString(), Mockito.anyInt());
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(sshClient);
+		sshClientPool.setClientFactory(clientFactory);
+
+		try {
+			sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath");
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		Assert.assertEquals(0, sshClientPool.getPool().size());
+		Assert.assertTrue(semaphore.tryAcquire());
+	}
+
+	@Test
+	public void testMaxConnectionsPerHost() throws Exception {
+		sshClientPool = new SshClientPool(new DateUtils(), ManagerController.DEFAULT_MAX_POOL, 1);
+		sshClientPool.setAcquireTimeout(0);
+		SSHClient sshClient = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(sshClient, createConnectedClient(),
+				createConnectedClient());
+		sshClientPool.setClientFactory(clientFactory);
+
+		sshClientPool.getClient("host:22", "userOne", "sshPrivateKeyPath");
+		sshClientPool.releaseClient("host:22", "userOne");
+		try {
+			// another port of the same host
+			sshClientPool.getClient("host:2222", "userTwo", "sshPrivateKeyPath");
+			Assert.fail();
+		} catch (TimeoutException e) {
+			// expected
+		}
+		sshClientPool.getClient("otherhost:22", "userTwo", "sshPrivateKeyPath");
+		Assert.assertEquals(2, sshClientPool.getPool().size());
+
+		// the host can be reached again once its connection is removed
+		Mockito.when(sshClient.isConnected()).thenReturn(false);
+		sshClientPool.removeTimedoutSSHConnection();
+		sshClientPool.getClient("host:2222", "userTwo", "sshPrivateKeyPath");
+		Assert.assertEquals(2, sshClientPool.getPool().size());
+	}
+
+	@Test
+	public void testEvictedConnectionIsNotHandedOut() throws Exception {
+		SSHClient evictedSshClient = createConnectedClient();
+		SSHConnection evictedConnection = sshClientPool.new SSHConnection(evictedSshClient, 0);
+		Assert.assertTrue(evictedConnection.evictIfUnused(1));
+		Map<String, SSHConnection> pool = new HashMap<String, SSHConnection>();
+		pool.put("sshUser@localhost:1000", evictedConnection);
+		sshClientPool.setPool(pool);
+		SSHClient newSshClient = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(newSshClient);
+		sshClientPool.setClientFactory(clientFactory);
+
+		Assert.assertSame(newSshClient,
+				sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath"));
+		Mockito.verify(evictedSshClient).disconnect();
+		Assert.assertEquals(1, sshClientPool.getPool().size());
+	}
+
+	@Test
+	public void testRecentlyUsedConnectionIsNotEvicted() throws Exception {
+		SSHConnection sshConnection = sshClientPool.new SSHConnection(createConnectedClient(), 0);
+		Assert.assertFalse(sshConnection.evictIfUnused(0));
+		Assert.assertSame(sshConnection.getSshClient(),
+				sshConnection.connect("localhost:1000", "sshUser", "sshPrivateKeyPath"));
+		sshConnection.checkIn();
+		Assert.assertTrue(sshConnection.evictIfUnused(Long.MAX_VALUE));
+		Assert.assertNull(sshConnection.connect("localhost:1000", "sshUser", "sshPrivateKeyPath"));
+	}
+
+	@Test
+	public void testCheckedOutConnectionIsNotEvicted() throws Exception {
+		DateUtils dateUtils = Mockito.mock(DateUtils.class);
+		long now = System.currentTimeMillis();
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now);
+		sshClientPool.setDateUtils(dateUtils);
+		SSHClient sshClient = createConnectedClient();
+		SSHClientFactory clientFactory = Mockito.mock(SSHClientFactory.class);
+		Mockito.when(clientFactory.createSshClient()).thenReturn(sshClient);
+		sshClientPool.setClientFactory(clientFactory);
+
+		// a long command is still running on the connection
+		sshClientPool.getClient("localhost:1000", "sshUser", "sshPrivateKeyPath");
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + 2 * sshClientPool.TIMEOUT);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(1, sshClientPool.getPool().size());
+		Mockito.verify(sshClient, Mockito.never()).disconnect();
+
+		// idle time counts from the release
+		sshClientPool.releaseClient("localhost:1000", "sshUser");
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + 3 * sshClientPool.TIMEOUT);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(1, sshClientPool.getPool().size());
+
+		Mockito.when(dateUtils.currentTimeMillis()).thenReturn(now + 3 * sshClientPool.TIMEOUT + 1);
+		sshClientPool.removeTimedoutSSHConnection();
+		Assert.assertEquals(0, sshClientPool.getPool().size());
+		Mockito.verify(sshClient).disconnect();
+	}
+
+	private SSHClient createConnectedClient() {
+		SSHClient sshClient = Mockito.mock(SSHClient.class);
+		Mockito.when(sshClient.isConnected()).thenReturn(true);
+		Mockito.when(sshClient.isAuthenticated()).thenReturn(true);
+		return sshClient;
+	}
 }
@@ -0,0 +1,108 @@
+package org.fogbowcloud.manager.core.util;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.pool.PoolStats;
+import org.fogbowcloud.manager.core.ConfigurationConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestHttpClientRegistry {
+
+	private HttpClientRegistry clientRegistry;
+
+	@Before
+	public void setUp() {
+		clientRegistry = new HttpClientRegistry(50, 5, 1000, 2000, 10000);
+	}
+
+	@After
+	public void tearDown() {
+		clientRegistry.shutdown();
+	}
+
+	@Test
+	public void testClientIsShared() {
+		HttpClient client = clientRegistry.getClient(null);
+		Assert.assertSame(client, clientRegistry.getClient(null));
+		Assert.assertSame(client, clientRegistry.getClient(2000));
+		Assert.assertEquals(1, clientRegistry.size());
+		Assert.assertTrue(clientRegistry.getEvictionTimer().isScheduled());
+	}
+
+	@Test
+	public void testClientsPerSSLConfigurationAndTimeout() {
+		SSLConnectionSocketFactory sslsf = Mockito.mock(SSLConnectionSocketFactory.class);
+		SSLConnectionSocketFactory sameConfigurationSslsf = Mockito.mock(SSLConnectionSocketFactory.class);
+
+		HttpClient client = clientRegistry.getClient(null);
+		HttpClient sslClient = clientRegistry.getClient(null, "keystore:/one", sslsf);
+		Assert.assertNotSame(client, sslClient);
+		Assert.assertSame(sslClient, clientRegistry.getClient(null, "keystore:/one", sameConfigurationSslsf));
+		Assert.assertNotSame(sslClient, clientRegistry.getClient(null, "keystore:/two", sslsf));
+		Assert.assertNotSame(client, clientRegistry.getClient(5000));
+		Assert.assertEquals(4, clientRegistry.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSSLConfigurationIsRequired() {
+		clientRegistry.getClient(null, null, Mockito.mock(SSLConnectionSocketFactory.class));
+	}
+
+	@Test
+	public void testPoolStats() {
+		clientRegistry.getClient(null);
+
+		Map<String, PoolStats> poolStats = clientRegistry.getPoolStats();
+		Assert.assertEquals(1, poolStats.size());
+		PoolStats stats = poolStats.values().iterator().next();
+		Assert.assertEquals(50, stats.getMax());
+		Assert.assertEquals(0, stats.getLeased());
+		Assert.assertEquals(0, stats.getPending());
+
+		clientRegistry.evictConnections();
+	}
+
+	@Test
+	public void testShutdown() {
+		clientRegistry.getClient(null);
+		clientRegistry.shutdown();
+
+		Assert.assertEquals(0, clientRegistry.size());
+		Assert.assertFalse(clientRegistry.getEvictionTimer().isScheduled());
+	}
+
+	@Test
+	public void testPoolSizesFromProperties() {
+		Properties properties = new Properties();
+		properties.put(ConfigurationConstants.HTTP_CLIENT_MAX_TOTAL_CONNECTIONS_KEY, "30");
+		properties.put(ConfigurationConstants.HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE_KEY, "wrong");
+		HttpClientRegistry propertiesClientRegistry = new HttpClientRegistry(properties, 1000);
+		try {
+			propertiesClientRegistry.getClient(null);
+			Assert.assertEquals(30, propertiesClientRegistry.getPoolStats().values().iterator().next().getMax());
+		} finally {
+			propertiesClientRegistry.shutdown();
+		}
+	}
+
+	@Test
+	public void testSharedHttpClient() {
+		HttpRequestUtil.setClientRegistry(null);
+		HttpRequestUtil.init(null);
+		HttpClient client = HttpRequestUtil.getSharedHttpClient();
+		Assert.assertSame(client, HttpRequestUtil.getSharedHttpClient());
+		Assert.assertSame(client, HttpRequestUtil.getSharedHttpClient((Integer) null));
+
+		// clients already handed out are kept working
+		HttpRequestUtil.init(null);
+		Assert.assertSame(client, HttpRequestUtil.getSharedHttpClient());
+		HttpRequestUtil.setClientRegistry(null);
+	}
+}
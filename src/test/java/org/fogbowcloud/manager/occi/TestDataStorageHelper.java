@@ -27,7 +27,32 @@ public class TestDataStorageHelper {
 		managerDataStore.removeAllValuesInAllTable();
 	}
 	
+	public static void clearManagerDataStore(ManagerDataStoreController managerDataStoreController) {
+		if (managerDataStoreController == null) {
+			return;
+		}
+		clearManagerDataStore(managerDataStoreController.getManagerDatabase());
+		try {
+			managerDataStoreController.loadOrders();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Closes the pooled connections before removing the data store file, so
+	 * that the next test does not keep using the removed file.
+	 */
+	public static void removeDataStoreFile(String dataStorePath) {
+		SQLiteConnectionPool.clearAll();
+		File dbFile = new File(dataStorePath);
+		if (dbFile.exists()) {
+			dbFile.delete();
+		}
+	}
+	
 	public static void removeDefaultFolderDataStore() {
+		SQLiteConnectionPool.clearAll();
 		String pathFolderDataStores = DataStoreHelper.getPathFolderDataStoresFogbowManager();
 		File folder = new File(pathFolderDataStores);
 		File[] listFiles = folder.listFiles();
@@ -50,6 +50,7 @@ public class TestManagerDataStore {
 	
 	@After
 	public void tearDown() throws IOException{
+		SQLiteConnectionPool.getInstance(DATASTORE_URL).clear();
 		TestDataStorageHelper.removeDefaultFolderDataStore();
 		File dbFile = new File(DATASTORE_PATH);
 		if (dbFile.exists()) {
@@ -115,6 +116,51 @@ public class TestManagerDataStore {
 		Assert.assertEquals(1, database.getOrders(OrderState.FULFILLED).size());
 	}	
 	
+	@Test
+	public void testGetOrdersWithQuery() throws SQLException, JSONException {
+		List<Order> orders = new ArrayList<Order>();
+		orders.add(orderOne);
+		orders.add(orderTwo);
+		orders.add(orderThree);
+		orders.add(orderFour);
+		
+		for (Order order : orders) {
+			database.addOrder(order);
+		}
+		
+		Assert.assertEquals(4, database.getOrders(new OrderQuery()).size());
+		Assert.assertEquals(4, database.getOrders(new OrderQuery().withUserId("user")).size());
+		Assert.assertEquals(0, database.getOrders(new OrderQuery().withUserId("otherUser")).size());
+		Assert.assertEquals(3, database.getOrders(new OrderQuery().withStates(
+				OrderState.OPEN, OrderState.FULFILLED)).size());
+		Assert.assertEquals(0, database.getOrders(new OrderQuery().withStates()).size());
+		Assert.assertEquals(2, database.getOrders(new OrderQuery().withInstanceId("instanceIdThree")).size());
+		Assert.assertEquals(1, database.getOrders(new OrderQuery().withInstanceId("instanceIdThree")
+				.withStates(OrderState.DELETED)).size());
+		Assert.assertEquals(4, database.getOrders(new OrderQuery().withLocal(true)).size());
+		Assert.assertEquals(0, database.getOrders(new OrderQuery().withLocal(false)).size());
+		Assert.assertEquals(1, database.getOrders(new OrderQuery().withProvidingMemberId("providerTwo")).size());
+		
+		List<Order> ordersFound = database.getOrders(new OrderQuery().withOrderId(orderTwo.getId())
+				.withUserId("user").withLocal(true));
+		Assert.assertEquals(1, ordersFound.size());
+		Assert.assertEquals(orderTwo, ordersFound.get(0));
+	}
+	
+	@Test
+	public void testGetOrdersWithQueryAfterUpdate() throws SQLException, JSONException {
+		database.addOrder(orderOne);
+		Assert.assertEquals(1, database.getOrders(new OrderQuery().withStates(OrderState.OPEN)).size());
+		
+		orderOne.setState(OrderState.FULFILLED);
+		orderOne.setInstanceId("newInstanceId");
+		database.updateOrder(orderOne);
+		
+		Assert.assertEquals(0, database.getOrders(new OrderQuery().withStates(OrderState.OPEN)).size());
+		Assert.assertEquals(1, database.getOrders(new OrderQuery().withStates(OrderState.FULFILLED)
+				.withInstanceId("newInstanceId")).size());
+	}
+	
 	@Test
 	public void testGetOrder() throws SQLException, JSONException {
 		List<Order> orders = new ArrayList<Order>();
@@ -35,7 +35,7 @@ public class TestManagerDataStoreController {
 	public void setUp() {
 		// Create in default test path
 		managerDataStoreController = new ManagerDataStoreController(new Properties());
-		TestDataStorageHelper.clearManagerDataStore(managerDataStoreController.getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(managerDataStoreController);
 		managerDataStoreController.addOrder(createOrder(ID1, USER_ID, true));
 		managerDataStoreController.addOrder(createOrder(ID2, USER_ID, true));
 		managerDataStoreController.addOrder(createOrder(ID3, USER_ID, true));
@@ -46,7 +46,7 @@ public class TestManagerDataStoreController {
 
 	@After
 	public void tearDown() {
-		TestDataStorageHelper.clearManagerDataStore(managerDataStoreController.getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(managerDataStoreController);
 	}
  	
 	@Test
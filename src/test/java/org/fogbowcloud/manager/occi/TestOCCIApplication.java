@@ -74,7 +74,7 @@ public class TestOCCIApplication {
 		
 		managerFacade = new ManagerController(properties, executor);
 		TestDataStorageHelper.clearManagerDataStore(
-				managerFacade.getManagerDataStoreController().getManagerDatabase());
+				managerFacade.getManagerDataStoreController());
 		occiApplication = new OCCIApplication(managerFacade);
 
 		// default instance count value is 1
@@ -129,7 +129,7 @@ public class TestOCCIApplication {
 	@After
 	public void tearDown() {
 		TestDataStorageHelper.clearManagerDataStore(
-				managerFacade.getManagerDataStoreController().getManagerDatabase());
+				managerFacade.getManagerDataStoreController());
 	}
 
 	@Test
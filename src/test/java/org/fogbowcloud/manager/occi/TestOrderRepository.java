@@ -0,0 +1,200 @@
+package org.fogbowcloud.manager.occi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fogbowcloud.manager.occi.model.Token;
+import org.fogbowcloud.manager.occi.order.Order;
+import org.fogbowcloud.manager.occi.order.OrderAttribute;
+import org.fogbowcloud.manager.occi.order.OrderConstants;
+import org.fogbowcloud.manager.occi.order.OrderState;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOrderRepository {
+
+	private OrderRepository orderRepository;
+
+	@Before
+	public void setUp() {
+		this.orderRepository = new OrderRepository();
+	}
+
+	@Test
+	public void testAddAndGet() {
+		Order order = createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN);
+		Assert.assertTrue(orderRepository.add(order));
+		Assert.assertFalse(orderRepository.add(order));
+
+		Assert.assertEquals(order, orderRepository.get("orderOne"));
+		Assert.assertNull(orderRepository.get("unknown"));
+		Assert.assertEquals(1, orderRepository.size());
+	}
+
+	@Test
+	public void testRetrievedOrdersAreDetached() {
+		Order order = createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN);
+		orderRepository.add(order);
+
+		order.setState(OrderState.FULFILLED);
+		Order storedOrder = orderRepository.get("orderOne");
+		Assert.assertEquals(OrderState.OPEN, storedOrder.getState());
+
+		storedOrder.setState(OrderState.CLOSED);
+		Assert.assertEquals(OrderState.OPEN, orderRepository.get("orderOne").getState());
+	}
+
+	@Test
+	public void testGetOrdersByIndexes() {
+		orderRepository.add(createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN));
+		orderRepository.add(createOrder("orderTwo", "userOne", "batchTwo", OrderState.FULFILLED));
+		Order orderThree = createOrder("orderThree", "userTwo", "batchTwo", OrderState.FULFILLED);
+		orderThree.setInstanceId("instanceThree");
+		orderRepository.add(orderThree);
+
+		Assert.assertEquals(Arrays.asList("orderOne", "orderTwo"),
+				getIds(orderRepository.getOrders(new OrderQuery().withUserId("userOne"))));
+		Assert.assertEquals(Arrays.asList("orderTwo", "orderThree"),
+				getIds(orderRepository.getOrders(new OrderQuery().withBatchId("batchTwo"))));
+		Assert.assertEquals(Arrays.asList("orderThree"),
+				getIds(orderRepository.getOrders(new OrderQuery().withInstanceId("instanceThree"))));
+		Assert.assertEquals(Arrays.asList("orderTwo", "orderThree"),
+				getIds(orderRepository.getOrders(new OrderQuery().withStates(OrderState.FULFILLED))));
+		Assert.assertEquals(Arrays.asList("orderTwo"),
+				getIds(orderRepository.getOrders(new OrderQuery().withUserId("userOne")
+						.withStates(OrderState.FULFILLED))));
+		Assert.assertEquals(Arrays.asList("orderOne", "orderTwo", "orderThree"),
+				getIds(orderRepository.getOrders(new OrderQuery())));
+		Assert.assertTrue(orderRepository.getOrders(
+				new OrderQuery().withStates(new OrderState[] {})).isEmpty());
+	}
+
+	@Test
+	public void testGetOrdersInSeveralStatesKeepsInsertionOrder() {
+		orderRepository.add(createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN));
+		orderRepository.add(createOrder("orderTwo", "userOne", "batchOne", OrderState.FULFILLED));
+		orderRepository.add(createOrder("orderThree", "userOne", "batchOne", OrderState.OPEN));
+
+		Assert.assertEquals(Arrays.asList("orderOne", "orderTwo", "orderThree"),
+				getIds(orderRepository.getOrders(new OrderQuery().withStates(
+						OrderState.FULFILLED, OrderState.OPEN))));
+	}
+
+	@Test
+	public void testUpdateReindexesOrder() {
+		Order order = createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN);
+		orderRepository.add(order);
+
+		order.setState(OrderState.FULFILLED);
+		order.setInstanceId("instanceOne");
+		Assert.assertTrue(orderRepository.update(order));
+
+		Assert.assertTrue(orderRepository.getOrders(new OrderQuery().withStates(OrderState.OPEN)).isEmpty());
+		Assert.assertEquals(Arrays.asList("orderOne"), getIds(orderRepository.getOrders(
+				new OrderQuery().withStates(OrderState.FULFILLED).withInstanceId("instanceOne"))));
+		Assert.assertFalse(orderRepository.update(createOrder("unknown", "userOne", "batchOne",
+				OrderState.OPEN)));
+	}
+
+	@Test
+	public void testUpdateKeepsSyncronousStatus() {
+		Order order = createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN);
+		orderRepository.add(order);
+		Assert.assertTrue(orderRepository.updateSyncronous("orderOne", 10, true));
+
+		order.setState(OrderState.FULFILLED);
+		orderRepository.update(order);
+
+		Order storedOrder = orderRepository.get("orderOne");
+		Assert.assertTrue(storedOrder.isSyncronousStatus());
+		Assert.assertEquals(10, storedOrder.getSyncronousTime());
+		Assert.assertFalse(orderRepository.updateSyncronous("unknown", 10, true));
+	}
+
+	@Test
+	public void testRemove() {
+		orderRepository.add(createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN));
+
+		Assert.assertTrue(orderRepository.remove("orderOne"));
+		Assert.assertFalse(orderRepository.remove("orderOne"));
+		Assert.assertNull(orderRepository.get("orderOne"));
+		Assert.assertTrue(orderRepository.getOrders(new OrderQuery().withUserId("userOne")).isEmpty());
+		Assert.assertTrue(orderRepository.getOrders(new OrderQuery().withStates(OrderState.OPEN)).isEmpty());
+	}
+
+	@Test
+	public void testLoadReplacesOrders() {
+		orderRepository.add(createOrder("orderOne", "userOne", "batchOne", OrderState.OPEN));
+
+		List<Order> orders = new ArrayList<Order>();
+		orders.add(createOrder("orderTwo", "userTwo", "batchTwo", OrderState.OPEN));
+		orderRepository.load(orders);
+
+		Assert.assertNull(orderRepository.get("orderOne"));
+		Assert.assertEquals(Arrays.asList("orderTwo"),
+				getIds(orderRepository.getOrders(new OrderQuery().withStates(OrderState.OPEN))));
+	}
+
+	@Test
+	public void testCountServedComputeOrders() {
+		Order servedOrder = createServedOrder("orderOne", "memberOne", OrderState.OPEN);
+		orderRepository.add(servedOrder);
+		orderRepository.add(createServedOrder("orderTwo", "memberOne", OrderState.FULFILLED));
+		orderRepository.add(createServedOrder("orderThree", "memberTwo", OrderState.FULFILLED));
+		Order servedStorageOrder = createServedOrder("orderFour", "memberOne", OrderState.FULFILLED);
+		servedStorageOrder.setResourceKing(OrderConstants.STORAGE_TERM);
+		orderRepository.add(servedStorageOrder);
+		orderRepository.add(createOrder("orderFive", "userOne", "batchOne", OrderState.FULFILLED));
+
+		Assert.assertEquals(1, orderRepository.countServedComputeOrders("memberOne", OrderState.OPEN));
+		Assert.assertEquals(1, orderRepository.countServedComputeOrders("memberOne", OrderState.FULFILLED));
+		Assert.assertEquals(1, orderRepository.countServedComputeOrders("memberTwo", OrderState.FULFILLED));
+		Assert.assertEquals(0, orderRepository.countServedComputeOrders("requestingMember",
+				OrderState.FULFILLED));
+
+		servedOrder.setState(OrderState.FULFILLED);
+		orderRepository.update(servedOrder);
+		Assert.assertEquals(0, orderRepository.countServedComputeOrders("memberOne", OrderState.OPEN));
+		Assert.assertEquals(2, orderRepository.countServedComputeOrders("memberOne", OrderState.FULFILLED));
+
+		orderRepository.remove("orderTwo");
+		Assert.assertEquals(1, orderRepository.countServedComputeOrders("memberOne", OrderState.FULFILLED));
+
+		orderRepository.load(new ArrayList<Order>());
+		Assert.assertEquals(0, orderRepository.countServedComputeOrders("memberOne", OrderState.FULFILLED));
+		Assert.assertEquals(0, orderRepository.countServedComputeOrders("memberTwo", OrderState.FULFILLED));
+	}
+
+	private Order createServedOrder(String id, String requestingMemberId, OrderState state) {
+		Map<String, String> xOCCIAtt = new HashMap<String, String>();
+		xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+		Token token = new Token("accessId", new Token.User("userId", "userId"), null,
+				new HashMap<String, String>());
+		Order order = new Order(id, token, null, xOCCIAtt, false, requestingMemberId);
+		order.setState(state);
+		return order;
+	}
+
+	private Order createOrder(String id, String userId, String batchId, OrderState state) {
+		Map<String, String> xOCCIAtt = new HashMap<String, String>();
+		xOCCIAtt.put(OrderAttribute.BATCH_ID.getValue(), batchId);
+		xOCCIAtt.put(OrderAttribute.RESOURCE_KIND.getValue(), OrderConstants.COMPUTE_TERM);
+		Token token = new Token("accessId", new Token.User(userId, userId), null,
+				new HashMap<String, String>());
+		Order order = new Order(id, token, null, xOCCIAtt, true, "requestingMember");
+		order.setState(state);
+		return order;
+	}
+
+	private List<String> getIds(List<Order> orders) {
+		List<String> ids = new ArrayList<String>();
+		for (Order order : orders) {
+			ids.add(order.getId());
+		}
+		return ids;
+	}
+}
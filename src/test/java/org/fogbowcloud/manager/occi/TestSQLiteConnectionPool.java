@@ -0,0 +1,209 @@
+package org.fogbowcloud.manager.occi;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSQLiteConnectionPool {
+
+	private static final String DATASTORE_PATH = "src/test/resources/testSQLiteConnectionPool.sqlite";
+	private static final String DATASTORE_URL = "jdbc:sqlite:" + DATASTORE_PATH;
+
+	private SQLiteConnectionPool pool;
+
+	@Before
+	public void setUp() throws SQLException {
+		removeDataStoreFiles();
+		pool = new SQLiteConnectionPool(DATASTORE_URL, SQLiteConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS);
+		Connection connection = pool.getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE IF NOT EXISTS t_test(id VARCHAR(255) PRIMARY KEY, value INTEGER)");
+		connection.close();
+	}
+
+	@After
+	public void tearDown() {
+		pool.clear();
+		removeDataStoreFiles();
+	}
+
+	@Test
+	public void testGetInstanceReturnsSamePoolForSameURL() {
+		Assert.assertSame(SQLiteConnectionPool.getInstance(DATASTORE_URL),
+				SQLiteConnectionPool.getInstance(DATASTORE_URL));
+		Assert.assertNotSame(SQLiteConnectionPool.getInstance(DATASTORE_URL),
+				SQLiteConnectionPool.getInstance(DATASTORE_URL + "2"));
+	}
+
+	@Test
+	public void testConnectionIsReusedAfterClose() throws SQLException {
+		for (int i = 0; i < 10; i++) {
+			Connection connection = pool.getConnection();
+			insert(connection, "id" + i, i);
+			connection.close();
+		}
+
+		Assert.assertEquals(1, pool.getConnectionsCreated());
+		Assert.assertEquals(11, pool.getConnectionsLeased());
+		Assert.assertEquals(1, pool.getIdleConnections());
+		Assert.assertEquals(10, count());
+	}
+
+	@Test
+	public void testConcurrentLeasesUseDistinctConnections() throws SQLException {
+		Connection connectionOne = pool.getConnection();
+		Connection connectionTwo = pool.getConnection();
+		connectionOne.close();
+		connectionTwo.close();
+
+		Assert.assertEquals(2, pool.getConnectionsCreated());
+		Assert.assertEquals(2, pool.getIdleConnections());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testClosedConnectionCannotBeUsed() throws SQLException {
+		Connection connection = pool.getConnection();
+		connection.close();
+		Assert.assertTrue(connection.isClosed());
+		connection.prepareStatement("SELECT * FROM t_test");
+	}
+
+	@Test
+	public void testJournalModeIsWAL() throws SQLException {
+		Connection connection = pool.getConnection();
+		Statement statement = connection.createStatement();
+		ResultSet rs = statement.executeQuery("PRAGMA journal_mode");
+		Assert.assertTrue(rs.next());
+		Assert.assertEquals("wal", rs.getString(1).toLowerCase());
+		connection.close();
+	}
+
+	@Test
+	public void testCachedStatementIsResetWhenClosed() throws SQLException {
+		Connection connection = pool.getConnection();
+		insert(connection, "id1", 1);
+		insert(connection, "id2", 2);
+		connection.close();
+
+		for (int i = 1; i <= 2; i++) {
+			connection = pool.getConnection();
+			PreparedStatement statement = connection.prepareStatement("SELECT value FROM t_test WHERE id = ?");
+			statement.setString(1, "id" + i);
+			ResultSet rs = statement.executeQuery();
+			Assert.assertTrue(rs.next());
+			Assert.assertEquals(i, rs.getInt(1));
+			statement.close();
+			connection.close();
+		}
+		Assert.assertEquals(1, pool.getConnectionsCreated());
+	}
+
+	@Test
+	public void testSameStatementPreparedTwiceInOneLease() throws SQLException {
+		Connection connection = pool.getConnection();
+		PreparedStatement statementOne = connection.prepareStatement("INSERT INTO t_test VALUES(?, ?)");
+		PreparedStatement statementTwo = connection.prepareStatement("INSERT INTO t_test VALUES(?, ?)");
+		statementOne.setString(1, "id1");
+		statementTwo.setString(1, "id2");
+		statementOne.setInt(2, 1);
+		statementTwo.setInt(2, 2);
+		statementOne.executeUpdate();
+		statementTwo.executeUpdate();
+		connection.close();
+
+		Assert.assertEquals(2, count());
+	}
+
+	@Test
+	public void testUncommittedTransactionIsRolledBackOnClose() throws SQLException {
+		Connection connection = pool.getConnection();
+		connection.setAutoCommit(false);
+		insert(connection, "id1", 1);
+		connection.close();
+
+		Assert.assertEquals(0, count());
+		connection = pool.getConnection();
+		Assert.assertTrue(connection.getAutoCommit());
+		connection.close();
+	}
+
+	@Test
+	public void testWritersAreSerialized() throws Exception {
+		Connection connection = pool.getConnection();
+		connection.setAutoCommit(false);
+		insert(connection, "id1", 1);
+
+		final CountDownLatch secondWriterDone = new CountDownLatch(1);
+		Thread secondWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Connection otherConnection = pool.getConnection();
+					insert(otherConnection, "id2", 2);
+					otherConnection.close();
+					secondWriterDone.countDown();
+				} catch (SQLException e) {
+					// latch is not released
+				}
+			}
+		});
+		secondWriter.start();
+
+		Assert.assertFalse(secondWriterDone.await(200, TimeUnit.MILLISECONDS));
+		// readers are not blocked by the writer
+		Assert.assertEquals(0, count());
+
+		connection.commit();
+		connection.close();
+
+		Assert.assertTrue(secondWriterDone.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, count());
+	}
+
+	@Test
+	public void testClearClosesIdleConnections() throws SQLException {
+		Assert.assertEquals(1, pool.getIdleConnections());
+		pool.clear();
+		Assert.assertEquals(0, pool.getIdleConnections());
+
+		Connection connection = pool.getConnection();
+		Assert.assertEquals(2, pool.getConnectionsCreated());
+		connection.close();
+	}
+
+	private void insert(Connection connection, String id, int value) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement("INSERT INTO t_test VALUES(?, ?)");
+		statement.setString(1, id);
+		statement.setInt(2, value);
+		statement.executeUpdate();
+		statement.close();
+	}
+
+	private int count() throws SQLException {
+		Connection connection = pool.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM t_test");
+			ResultSet rs = statement.executeQuery();
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private void removeDataStoreFiles() {
+		new File(DATASTORE_PATH).delete();
+		new File(DATASTORE_PATH + "-wal").delete();
+		new File(DATASTORE_PATH + "-shm").delete();
+	}
+}
@@ -139,8 +139,7 @@ public class TestDeleteCompute {
 
 	@After
 	public void tearDown() throws Exception {
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController()
-				.getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		instanceDB.deleteAll();
 		File dbFile = new File(INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
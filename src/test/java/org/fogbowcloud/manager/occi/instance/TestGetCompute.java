@@ -171,7 +171,7 @@ public class TestGetCompute {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(this.managerController
-				.getManagerDataStoreController().getManagerDatabase());
+				.getManagerDataStoreController());
 		
 		instanceDB.deleteAll();
 		File dbFile = new File(INSTANCE_DB_FILE + ".mv.db");
@@ -340,7 +340,7 @@ public class TestGetCompute {
 	@Test
 	public void testEmptyGetComputeWithAcceptURIList() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(this.managerController
-				.getManagerDataStoreController().getManagerDatabase());
+				.getManagerDataStoreController());
 		
 		Mockito.doNothing().when(computePlugin).bypass(Mockito.any(org.restlet.Request.class),
 				Mockito.any(Response.class));
@@ -6,7 +6,6 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -40,10 +39,7 @@ public class TestInstanceDataStore {
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.removeDefaultFolderDataStore();
 		instanceDb.deleteAll();
-		File dbFile = new File(DATA_STORE_FILE);
-		if (dbFile.exists()) {
-			dbFile.delete();
-		}
+		TestDataStorageHelper.removeDataStoreFile(DATA_STORE_FILE);
 	}
 	
 	@Test
@@ -127,7 +127,7 @@ public class TestPostCompute {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(this.managerController
-				.getManagerDataStoreController().getManagerDatabase());
+				.getManagerDataStoreController());
 		File dbFile = new File(OCCITestHelper.INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
 			dbFile.delete();
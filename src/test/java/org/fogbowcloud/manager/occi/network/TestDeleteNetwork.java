@@ -93,7 +93,7 @@ public class TestDeleteNetwork {
 
 	@After
 	public void tearDown() throws Exception {
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		File dbFile = new File(INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
 			dbFile.delete();
@@ -99,7 +99,7 @@ public class TestGetNetwork {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				facade.getManagerDataStoreController().getManagerDatabase());
+				facade.getManagerDataStoreController());
 		File dbFile = new File(INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
 			dbFile.delete();
@@ -270,7 +270,7 @@ public class TestDeleteOrder {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				this.managerController.getManagerDataStoreController().getManagerDatabase());
+				this.managerController.getManagerDataStoreController());
 		this.orderHelper.stopComponent();
 	}
 }
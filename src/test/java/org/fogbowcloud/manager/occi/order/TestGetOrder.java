@@ -580,7 +580,7 @@ public class TestGetOrder {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				this.facade.getManagerDataStoreController().getManagerDatabase());
+				this.facade.getManagerDataStoreController());
 		this.orderHelper.stopComponent();
 	}
 
@@ -324,7 +324,7 @@ public class TestPostOrder {
 	
 	@After
 	public void tearDown() throws Exception {
-		TestDataStorageHelper.clearManagerDataStore(managerController.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(managerController.getManagerDataStoreController());
 		this.orderHelper.stopComponent();
 	}
 }
@@ -124,7 +124,7 @@ public class TestDeleteStorage {
 
 	@After
 	public void tearDown() throws Exception {
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		this.helper.stopComponent();
 	}
 
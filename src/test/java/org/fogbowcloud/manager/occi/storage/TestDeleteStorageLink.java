@@ -110,7 +110,7 @@ public class TestDeleteStorageLink {
 
 	@After
 	public void tearDown() throws Exception {
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		
 		File dbFile = new File(OCCITestHelper.INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
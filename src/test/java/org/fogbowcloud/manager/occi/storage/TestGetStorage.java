@@ -131,7 +131,7 @@ public class TestGetStorage {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				this.managerControler.getManagerDataStoreController().getManagerDatabase());
+				this.managerControler.getManagerDataStoreController());
 		this.helper.stopComponent();
 	}
 
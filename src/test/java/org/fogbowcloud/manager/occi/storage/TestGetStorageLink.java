@@ -109,7 +109,7 @@ public class TestGetStorageLink {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				this.managerController.getManagerDataStoreController().getManagerDatabase());
+				this.managerController.getManagerDataStoreController());
 		File dbFile = new File(OCCITestHelper.INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
 			dbFile.delete();
@@ -136,7 +136,7 @@ public class TestPostStorageLink {
 	@After
 	public void tearDown() throws Exception {
 		TestDataStorageHelper.clearManagerDataStore(
-				facade.getManagerDataStoreController().getManagerDatabase());
+				facade.getManagerDataStoreController());
 		File dbFile = new File(OCCITestHelper.INSTANCE_DB_FILE + ".mv.db");
 		if (dbFile.exists()) {
 			dbFile.delete();
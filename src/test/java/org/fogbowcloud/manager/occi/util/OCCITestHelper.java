@@ -108,7 +108,7 @@ public class OCCITestHelper {
 		ExecutorService benchmarkExecutor = new CurrentThreadExecutorService();
 
 		ManagerController facade = new ManagerController(properties, executor);
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		ResourceRepository.init(properties);
 		facade.setComputePlugin(computePlugin);
 		facade.setLocalCredentailsPlugin(mapperPlugin);
@@ -138,7 +138,7 @@ public class OCCITestHelper {
 		ResourceRepository.init(properties);
 
 		ManagerController facade = new ManagerController(properties, Mockito.mock(ScheduledExecutorService.class));
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		facade.setComputePlugin(computePlugin);
 		facade.setAuthorizationPlugin(authorizationPlugin);
 		facade.setLocalIdentityPlugin(identityPlugin);
@@ -207,7 +207,7 @@ public class OCCITestHelper {
 		}
 
 		ManagerController facade = new ManagerController(properties, null);
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		facade.setComputePlugin(computePlugin);
 		facade.setAuthorizationPlugin(authorizationPlugin);
 		facade.setLocalCredentailsPlugin(mapperPlugin);
@@ -261,7 +261,7 @@ public class OCCITestHelper {
 		}
 
 		ManagerController facade = new ManagerController(properties, null);
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		facade.setNetworkPlugin(networkPlugin);
 		facade.setAuthorizationPlugin(authorizationPlugin);
 		facade.setLocalCredentailsPlugin(mapperPlugin);
@@ -297,7 +297,7 @@ public class OCCITestHelper {
 		Properties properties = new Properties();
 		properties.put(ConfigurationConstants.XMPP_JID_KEY, DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
 		ManagerController facade = new ManagerController(properties, null);
-		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController().getManagerDatabase());
+		TestDataStorageHelper.clearManagerDataStore(facade.getManagerDataStoreController());
 		facade.setComputePlugin(computePlugin);
 		facade.setLocalIdentityPlugin(identityPlugin);
 		facade.setFederationIdentityPlugin(identityPlugin);
@@ -1,10 +1,16 @@
 package org.fogbowcloud.manager.xmpp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.dom4j.Element;
+import org.fogbowcloud.manager.core.ManagerController;
 import org.fogbowcloud.manager.core.ManagerTestHelper;
 import org.fogbowcloud.manager.core.util.DefaultDataTestHelper;
 import org.fogbowcloud.manager.occi.TestDataStorageHelper;
@@ -27,6 +33,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xmpp.packet.IQ;
 
 public class TestGetRemoteInstance {
 
@@ -103,6 +112,73 @@ public class TestGetRemoteInstance {
 		Assert.assertEquals(instance.getLinks().get(0).getName(), remoteInstance.getLinks().get(0).getName());
 	}
 	
+	@Test
+	public void testGetRemoteInstances() throws Exception {
+		managerTestHelper.initializeXMPPManagerComponent(false);
+		Instance instance = createInstance();
+		
+		Mockito.when(
+				managerTestHelper.getComputePlugin().getInstance(
+						Mockito.any(Token.class),
+						Mockito.eq(DefaultDataTestHelper.INSTANCE_ID))).thenReturn(instance);
+		Mockito.when(
+				managerTestHelper.getComputePlugin().getInstance(
+						Mockito.any(Token.class),
+						Mockito.eq("unknown"))).thenThrow(
+								new OCCIException(ErrorType.NOT_FOUND, ResponseConstants.NOT_FOUND));
+		
+		Map<String, Instance> remoteInstances = ManagerPacketHelper.getRemoteInstances(
+				DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL, 
+				Arrays.asList(DefaultDataTestHelper.INSTANCE_ID, "unknown"),
+				managerTestHelper.createPacketSender());
+		
+		Assert.assertEquals(1, remoteInstances.size());
+		Instance remoteInstance = remoteInstances.get(DefaultDataTestHelper.INSTANCE_ID);
+		Assert.assertEquals(InstanceState.RUNNING, remoteInstance.getState());
+		Assert.assertEquals(instance.getAttributes(), remoteInstance.getAttributes());
+		Assert.assertEquals(instance.getResources().get(0).toHeader(), remoteInstance
+				.getResources().get(0).toHeader());
+		Assert.assertEquals(instance.getLinks().get(0).getName(), remoteInstance.getLinks().get(0).getName());
+	}
+	
+	@Test
+	public void testGetInstancesHandlerLeavesSlowInstancesOut() throws Exception {
+		final CountDownLatch slowLookupReleased = new CountDownLatch(1);
+		ManagerController facade = Mockito.mock(ManagerController.class);
+		Mockito.when(facade.getInstanceForRemoteMember(Mockito.anyString())).thenAnswer(
+				new Answer<Instance>() {
+					@Override
+					public Instance answer(InvocationOnMock invocation) throws Throwable {
+						String instanceId = (String) invocation.getArguments()[0];
+						if (instanceId.equals("slow")) {
+							slowLookupReleased.await(10, TimeUnit.SECONDS);
+						}
+						if (instanceId.equals("unknown")) {
+							throw new OCCIException(ErrorType.NOT_FOUND, ResponseConstants.NOT_FOUND);
+						}
+						return new Instance(instanceId, new ArrayList<Resource>(), new HashMap<String, String>(),
+								new ArrayList<Link>(), InstanceState.RUNNING);
+					}
+				});
+		IQ query = new IQ();
+		Element queryEl = query.getElement().addElement("query", ManagerXmppComponent.GETINSTANCES_NAMESPACE);
+		for (String instanceId : Arrays.asList("slow", "instance1", "unknown", "instance2")) {
+			queryEl.addElement("instance").addElement(ManagerPacketHelper.ID_EL).setText(instanceId);
+		}
+
+		long start = System.currentTimeMillis();
+		IQ response = new GetInstancesHandler(facade, 600).handle(query);
+		slowLookupReleased.countDown();
+
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		List<String> instanceIds = new ArrayList<String>();
+		Iterator<?> instanceIterator = response.getElement().element("query").elementIterator("instance");
+		while (instanceIterator.hasNext()) {
+			instanceIds.add(((Element) instanceIterator.next()).elementText(ManagerPacketHelper.ID_EL));
+		}
+		Assert.assertEquals(Arrays.asList("instance1", "instance2"), instanceIds);
+	}
+	
 	@Test(expected=OCCIException.class)
 	public void testGetRemoteInstaceNotFound() throws Exception {
 		Order order = new Order("anyvalue", new Token(WRONG_TOKEN, new Token.User(OCCITestHelper.USER_MOCK, ""),
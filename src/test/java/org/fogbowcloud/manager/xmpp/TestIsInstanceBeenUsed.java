@@ -1,7 +1,9 @@
 package org.fogbowcloud.manager.xmpp;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.fogbowcloud.manager.core.ConfigurationConstants;
 import org.fogbowcloud.manager.core.ManagerController;
@@ -14,6 +16,7 @@ import org.fogbowcloud.manager.occi.order.Order;
 import org.fogbowcloud.manager.occi.order.OrderState;
 import org.jivesoftware.smack.XMPPException;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -126,6 +129,36 @@ public class TestIsInstanceBeenUsed {
 				managerTestHelper.createPacketSender());		
 	}
 	
+	@Test
+	public void testOrdersWithInstancesBeingUsed() throws Exception {
+		ManagerController managerController = createManagerController();
+	
+		managerTestHelper.initializeXMPPManagerComponent(false, managerController);
+		
+		// setting order repository
+		Order order1 = new Order("id1", managerTestHelper.getDefaultFederationToken(), null, null, true, "");
+		order1.setState(OrderState.FULFILLED);
+		order1.setInstanceId(INSTANCE_DEFAULT);
+		Order order2 = new Order("id2", managerTestHelper.getDefaultFederationToken(), null, null, true, "");
+		order2.setState(OrderState.OPEN);
+		managerController.getManagerDataStoreController().addOrder(order1);
+		managerController.getManagerDataStoreController().addOrder(order2);
+		
+		Map<String, String> instanceIdPerOrderId = new HashMap<String, String>();
+		instanceIdPerOrderId.put(order1.getId(), INSTANCE_DEFAULT + Order.SEPARATOR_GLOBAL_ID 
+				+ DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL);
+		instanceIdPerOrderId.put(order2.getId(), INSTANCE_DEFAULT);
+		instanceIdPerOrderId.put("id3", "anyvalue");
+		
+		// checking which instances are been used
+		Set<String> ordersBeingUsed = ManagerPacketHelper.getOrdersWithInstancesBeingUsed(
+				DefaultDataTestHelper.LOCAL_MANAGER_COMPONENT_URL, instanceIdPerOrderId, 
+				managerTestHelper.createPacketSender());
+		
+		Assert.assertEquals(1, ordersBeingUsed.size());
+		Assert.assertTrue(ordersBeingUsed.contains(order1.getId()));
+	}
+	
 	private ManagerController createManagerController() {
 		Properties properties = new Properties();
 		properties.put("local_proxy_account_user_name", "fogbow");
@@ -1,13 +1,26 @@
 package org.fogbowcloud.manager.xmpp;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
+import org.dom4j.Element;
+import org.fogbowcloud.manager.occi.instance.Instance;
+import org.fogbowcloud.manager.occi.instance.InstanceState;
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.fogbowcloud.manager.occi.order.Order;
+import org.jamppa.component.PacketCallback;
 import org.jamppa.component.PacketSender;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.IQ.Type;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.PacketError;
 
 public class TestManagerPacketHelter {
 
@@ -49,6 +62,84 @@ public class TestManagerPacketHelter {
 		
 		Mockito.when(packetSender.syncSendPacket(Mockito.any(IQ.class))).thenReturn(createResultIQ);
 		Assert.assertEquals(value, ManagerPacketHelper.iAmAlive("abc", new Properties(), packetSender));
-	}	
+	}
+
+	@Test
+	public void testGetRemoteInstanceAsync() {
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		List<PacketCallback> callbacks = capturePacketCallbacks(packetSender);
+
+		RemoteOperationFuture<Instance> future = ManagerPacketHelper.getRemoteInstanceAsync(
+				"member", "instanceId", packetSender, 1000);
+		Mockito.verify(packetSender).sendPacket(Mockito.any(IQ.class));
+		Mockito.verify(packetSender, Mockito.never()).syncSendPacket(Mockito.any(IQ.class));
+		Assert.assertFalse(future.isDone());
+
+		IQ response = new IQ(Type.result);
+		Element instanceEl = response.getElement().addElement("query",
+				ManagerXmppComponent.GETINSTANCE_NAMESPACE).addElement("instance");
+		instanceEl.addElement("id").setText("instanceId");
+		instanceEl.addElement("state").setText(InstanceState.RUNNING.toString());
+		callbacks.get(0).handle(response);
+
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("instanceId", future.getResult().getId());
+		Assert.assertEquals(InstanceState.RUNNING, future.getResult().getState());
+	}
+
+	@Test
+	public void testDeleteRemoteInstanceAsyncWithError() {
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		List<PacketCallback> callbacks = capturePacketCallbacks(packetSender);
+		Order order = Mockito.mock(Order.class);
+		Mockito.when(order.getProvidingMemberId()).thenReturn("member");
+		Mockito.when(order.getInstanceId()).thenReturn("instanceId");
 
+		RemoteOperationFuture<Void> future = ManagerPacketHelper.deleteRemoteInstanceAsync(order,
+				packetSender, 1000);
+		IQ response = new IQ(Type.error);
+		response.setError(PacketError.Condition.item_not_found);
+		callbacks.get(0).handle(response);
+
+		try {
+			future.getResult();
+			Assert.fail();
+		} catch (OCCIException e) {
+			Assert.assertEquals(ErrorType.NOT_FOUND, e.getType());
+		}
+	}
+
+	@Test(expected = OCCIException.class)
+	public void testRemoteOperationWithoutResponseTimesOut() {
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Order order = Mockito.mock(Order.class);
+		ManagerPacketHelper.deleteRemoteInstanceAsync(order, packetSender, 10).getResult();
+	}
+
+	@Test
+	public void testRemoteOperationWithoutResponseRemovesPacketCallback() {
+		AsyncPacketSender packetSender = Mockito.mock(AsyncPacketSender.class);
+		Order order = Mockito.mock(Order.class);
+		RemoteOperationFuture<Void> future = ManagerPacketHelper.deleteRemoteInstanceAsync(order,
+				packetSender, 10);
+		try {
+			future.getResult();
+			Assert.fail();
+		} catch (OCCIException e) {
+			// no response in time
+		}
+		Mockito.verify(packetSender).removePacketCallback(Mockito.any(Packet.class));
+	}
+
+	private List<PacketCallback> capturePacketCallbacks(AsyncPacketSender packetSender) {
+		final List<PacketCallback> callbacks = new ArrayList<PacketCallback>();
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				callbacks.add((PacketCallback) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(packetSender).addPacketCallback(Mockito.any(Packet.class), Mockito.any(PacketCallback.class));
+		return callbacks;
+	}
 }
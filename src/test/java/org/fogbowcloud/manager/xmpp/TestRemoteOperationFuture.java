@@ -0,0 +1,120 @@
+package org.fogbowcloud.manager.xmpp;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fogbowcloud.manager.occi.model.ErrorType;
+import org.fogbowcloud.manager.occi.model.OCCIException;
+import org.fogbowcloud.manager.occi.model.ResponseConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRemoteOperationFuture {
+
+	@Test
+	public void testComplete() throws Exception {
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(1000);
+		Assert.assertFalse(future.isDone());
+
+		Assert.assertTrue(future.complete("result"));
+		Assert.assertFalse(future.complete("other"));
+		Assert.assertFalse(future.fail(new RuntimeException()));
+
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("result", future.get());
+		Assert.assertEquals("result", future.getResult());
+	}
+
+	@Test
+	public void testFail() throws InterruptedException {
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(1000);
+		OCCIException error = new OCCIException(ErrorType.NOT_FOUND, ResponseConstants.NOT_FOUND);
+		Assert.assertTrue(future.fail(error));
+
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals(error, e.getCause());
+		}
+		try {
+			future.getResult();
+			Assert.fail();
+		} catch (OCCIException e) {
+			Assert.assertEquals(error, e);
+		}
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void testGetWithTimeout() throws Exception {
+		new RemoteOperationFuture<String>(1000).get(10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testGetResultWithoutResponseInTime() {
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(10);
+		long before = System.currentTimeMillis();
+		try {
+			future.getResult();
+			Assert.fail();
+		} catch (OCCIException e) {
+			Assert.assertEquals(ErrorType.BAD_REQUEST, e.getType());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - before < 1000);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(1000);
+		Assert.assertTrue(future.cancel(true));
+		Assert.assertTrue(future.isCancelled());
+		Assert.assertTrue(future.isDone());
+		Assert.assertFalse(future.complete("result"));
+	}
+
+	@Test
+	public void testDeregisterWhenRequestTimesOut() throws Exception {
+		final AtomicInteger deregistrations = new AtomicInteger();
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(10, new Runnable() {
+			@Override
+			public void run() {
+				deregistrations.incrementAndGet();
+			}
+		});
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Assert.assertEquals(1, deregistrations.get());
+	}
+
+	@Test
+	public void testNoDeregistrationBeforeRequestTimesOut() throws Exception {
+		final AtomicInteger deregistrations = new AtomicInteger();
+		RemoteOperationFuture<String> future = new RemoteOperationFuture<String>(1000, new Runnable() {
+			@Override
+			public void run() {
+				deregistrations.incrementAndGet();
+			}
+		});
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+			// the request itself has not timed out yet
+		}
+		Assert.assertEquals(0, deregistrations.get());
+		Assert.assertTrue(future.complete("result"));
+		Assert.assertEquals("result", future.get());
+	}
+}